@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package net.ijt.mmorph.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import net.ijt.mmorph.strel.BitPackedBinaryEngine;
+import net.ijt.mmorph.strel.DistanceTransformBinaryEngine;
+import net.ijt.mmorph.strel.SlidingDiskStrel;
+
+/**
+ * Benchmarks dilation and erosion of planar binary images by large disks,
+ * with the bit-packed engine and with the distance transform engine. The
+ * radii surround the radius from which sliding disks switch to the distance
+ * transform, such that the crossover can be measured on the current
+ * hardware, for example:
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar BinaryEngine2DBenchmark -p size=2048
+ * }</pre>
+ *
+ * The "SlidingDisk" engine uses the engine selected by the sliding disk.
+ *
+ * @author dlegland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryEngine2DBenchmark
+{
+    /**
+     * The engine used for processing the binary image.
+     */
+    @Param({"BitPacked", "DistanceTransform", "SlidingDisk"})
+    public String engine;
+
+    /**
+     * The morphological operation, either DILATION or EROSION.
+     */
+    @Param({"DILATION"})
+    public String operation;
+
+    /**
+     * The radius of the disk, in pixels.
+     */
+    @Param({"100", "150", "200", "220", "240", "260", "300"})
+    public int radius;
+
+    /**
+     * The width and height of the image.
+     */
+    @Param({"1024"})
+    public int size;
+
+    ByteProcessor image;
+
+    BitPackedBinaryEngine bitPacked;
+
+    DistanceTransformBinaryEngine distanceTransform;
+
+    SlidingDiskStrel strel;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        this.image = (ByteProcessor) SyntheticImages.create2d(SyntheticImages.Pattern.BINARY, this.size, this.size, 8);
+        this.strel = new SlidingDiskStrel(this.radius);
+
+        // chords of the disk, computed from its mask
+        int[][] mask = this.strel.getMask();
+        int center = mask.length / 2;
+        ArrayList<int[]> chords = new ArrayList<>();
+        for (int y = 0; y < mask.length; y++)
+        {
+            int count = 0;
+            for (int value : mask[y])
+            {
+                count += value > 0 ? 1 : 0;
+            }
+            if (count > 0)
+            {
+                chords.add(new int[] {count / 2, y - center});
+            }
+        }
+        int[] xOffsets = new int[chords.size()];
+        int[] yOffsets = new int[chords.size()];
+        for (int i = 0; i < chords.size(); i++)
+        {
+            xOffsets[i] = chords.get(i)[0];
+            yOffsets[i] = chords.get(i)[1];
+        }
+
+        this.bitPacked = new BitPackedBinaryEngine(xOffsets, yOffsets);
+        this.distanceTransform = new DistanceTransformBinaryEngine(
+                DistanceTransformBinaryEngine.squaredRadius(xOffsets, yOffsets, new int[xOffsets.length]));
+    }
+
+    @Benchmark
+    public ImageProcessor process()
+    {
+        boolean erosion = "EROSION".equals(this.operation);
+        switch (this.engine)
+        {
+        case "BitPacked": return erosion ? this.bitPacked.erosion(this.image) : this.bitPacked.dilation(this.image);
+        case "DistanceTransform": return erosion ? this.distanceTransform.erosion(this.image) : this.distanceTransform.dilation(this.image);
+        case "SlidingDisk": return erosion ? this.strel.erosion(this.image) : this.strel.dilation(this.image);
+        default:
+            throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+    }
+}
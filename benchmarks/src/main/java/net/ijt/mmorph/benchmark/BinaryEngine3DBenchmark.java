@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package net.ijt.mmorph.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImageStack;
+import net.ijt.mmorph.strel.BitPackedBinaryEngine;
+import net.ijt.mmorph.strel.DistanceTransformBinaryEngine;
+import net.ijt.mmorph.strel.SlidingBallStrel3D;
+
+/**
+ * Benchmarks dilation and erosion of 3D binary images by large balls, with
+ * the bit-packed engine and with the distance transform engine. The radii
+ * surround the radius from which sliding balls switch to the distance
+ * transform, such that the crossover can be measured on the current
+ * hardware, for example:
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar BinaryEngine3DBenchmark -p size=128
+ * }</pre>
+ *
+ * The "SlidingBall" engine uses the engine selected by the sliding ball.
+ *
+ * @author dlegland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BinaryEngine3DBenchmark
+{
+    /**
+     * The engine used for processing the binary image.
+     */
+    @Param({"BitPacked", "DistanceTransform", "SlidingBall"})
+    public String engine;
+
+    /**
+     * The morphological operation, either DILATION or EROSION.
+     */
+    @Param({"DILATION"})
+    public String operation;
+
+    /**
+     * The radius of the ball, in voxels.
+     */
+    @Param({"8", "12", "14", "15", "16", "20"})
+    public int radius;
+
+    /**
+     * The size of the image along each dimension.
+     */
+    @Param({"128"})
+    public int size;
+
+    ImageStack image;
+
+    BitPackedBinaryEngine bitPacked;
+
+    DistanceTransformBinaryEngine distanceTransform;
+
+    SlidingBallStrel3D strel;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        this.image = SyntheticImages.create3d(SyntheticImages.Pattern.BINARY, this.size, this.size, this.size, 8);
+        this.strel = new SlidingBallStrel3D(this.radius);
+
+        // chords of the ball, computed from its mask
+        int[][][] mask = this.strel.getMask3D();
+        int center = mask.length / 2;
+        ArrayList<int[]> chords = new ArrayList<>();
+        for (int z = 0; z < mask.length; z++)
+        {
+            for (int y = 0; y < mask[z].length; y++)
+            {
+                int count = 0;
+                for (int value : mask[z][y])
+                {
+                    count += value > 0 ? 1 : 0;
+                }
+                if (count > 0)
+                {
+                    chords.add(new int[] {count / 2, y - center, z - center});
+                }
+            }
+        }
+        int[] xOffsets = new int[chords.size()];
+        int[] yOffsets = new int[chords.size()];
+        int[] zOffsets = new int[chords.size()];
+        for (int i = 0; i < chords.size(); i++)
+        {
+            xOffsets[i] = chords.get(i)[0];
+            yOffsets[i] = chords.get(i)[1];
+            zOffsets[i] = chords.get(i)[2];
+        }
+
+        this.bitPacked = new BitPackedBinaryEngine(xOffsets, yOffsets, zOffsets);
+        this.distanceTransform = new DistanceTransformBinaryEngine(
+                DistanceTransformBinaryEngine.squaredRadius(xOffsets, yOffsets, zOffsets));
+    }
+
+    @Benchmark
+    public ImageStack process()
+    {
+        boolean erosion = "EROSION".equals(this.operation);
+        switch (this.engine)
+        {
+        case "BitPacked": return erosion ? this.bitPacked.erosion(this.image) : this.bitPacked.dilation(this.image);
+        case "DistanceTransform": return erosion ? this.distanceTransform.erosion(this.image) : this.distanceTransform.dilation(this.image);
+        case "SlidingBall": return erosion ? this.strel.erosion(this.image) : this.strel.dilation(this.image);
+        default:
+            throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+    }
+}
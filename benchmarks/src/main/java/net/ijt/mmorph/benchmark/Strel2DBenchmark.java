@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package net.ijt.mmorph.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.Prefs;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import net.ijt.mmorph.strel.NaiveDiskStrel;
+import net.ijt.mmorph.strel.SlidingDiskStrel;
+import net.ijt.mmorph.strel.SlidingDiskTMStrel;
+
+/**
+ * Benchmarks dilation and erosion of planar images by disk structuring
+ * elements.
+ *
+ * The default parameters cover a large number of combinations. A subset can
+ * be selected from the command line, for example:
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar Strel2DBenchmark -p engine=SlidingDisk,MorphoLibJ -p radius=2,10 -p size=1024
+ * }</pre>
+ *
+ * The number of threads is used by the implementations that rely on ImageJ
+ * multi-threading (through <code>Prefs.setThreads()</code>).
+ *
+ * @author dlegland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Strel2DBenchmark
+{
+    /**
+     * The implementation of the disk structuring element.
+     */
+    @Param({"SlidingDisk", "SlidingDiskTM", "NaiveDisk", "MorphoLibJ"})
+    public String engine;
+
+    /**
+     * The morphological operation, either DILATION or EROSION.
+     */
+    @Param({"DILATION"})
+    public String operation;
+
+    /**
+     * The radius of the disk, in pixels.
+     */
+    @Param({"1", "3", "5", "10", "20", "40", "80"})
+    public int radius;
+
+    /**
+     * The bit depth of the image. 16-bits images are not supported by the
+     * SlidingDiskTM strel, nor by the SlidingDisk strel for radius larger
+     * than 5. 24-bits (RGB) images are processed channel by channel by the
+     * SlidingDisk strel and by MorphoLibJ only.
+     */
+    @Param({"8", "24", "32"})
+    public int bitDepth;
+
+    /**
+     * The width and height of the image.
+     */
+    @Param({"256", "1024"})
+    public int size;
+
+    /**
+     * The content of the image.
+     */
+    @Param({"NOISE", "SMOOTH", "BINARY", "QUANTIZED"})
+    public SyntheticImages.Pattern pattern;
+
+    /**
+     * The number of threads allowed to ImageJ.
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    ImageProcessor image;
+
+    Strel strel;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Prefs.setThreads(this.threads);
+        this.image = SyntheticImages.create2d(this.pattern, this.size, this.size, this.bitDepth);
+        this.strel = createStrel(this.engine, this.radius);
+    }
+
+    static final Strel createStrel(String engine, int radius)
+    {
+        switch (engine)
+        {
+        case "SlidingDisk": return new SlidingDiskStrel(radius);
+        case "SlidingDiskTM": return new SlidingDiskTMStrel(radius);
+        case "NaiveDisk": return new NaiveDiskStrel(radius);
+        case "MorphoLibJ": return Strel.Shape.DISK.fromRadius(radius);
+        default:
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    @Benchmark
+    public ImageProcessor process()
+    {
+        if ("EROSION".equals(this.operation))
+        {
+            return this.strel.erosion(this.image);
+        }
+        return this.strel.dilation(this.image);
+    }
+}
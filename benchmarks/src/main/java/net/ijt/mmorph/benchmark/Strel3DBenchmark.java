@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package net.ijt.mmorph.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImageStack;
+import ij.Prefs;
+import inra.ijpb.morphology.Strel3D;
+import net.ijt.mmorph.strel.NaiveBallStrel3D;
+import net.ijt.mmorph.strel.SlidingBallStrel3D;
+
+/**
+ * Benchmarks dilation and erosion of 3D images by ball structuring elements.
+ *
+ * The default parameters cover a large number of combinations. A subset can
+ * be selected from the command line, for example:
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar Strel3DBenchmark -p engine=SlidingBall -p radius=2,8 -p pattern=NOISE
+ * }</pre>
+ *
+ * @author dlegland
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class Strel3DBenchmark
+{
+    /**
+     * The implementation of the ball structuring element.
+     */
+    @Param({"SlidingBall", "NaiveBall", "MorphoLibJ"})
+    public String engine;
+
+    /**
+     * The morphological operation, either DILATION or EROSION.
+     */
+    @Param({"DILATION"})
+    public String operation;
+
+    /**
+     * The radius of the ball, in voxels.
+     */
+    @Param({"1", "2", "4", "8"})
+    public int radius;
+
+    /**
+     * The bit depth of the image.
+     */
+    @Param({"8", "16", "32"})
+    public int bitDepth;
+
+    /**
+     * The size of the image along each dimension.
+     */
+    @Param({"64", "128"})
+    public int size;
+
+    /**
+     * The content of the image.
+     */
+    @Param({"NOISE", "SMOOTH", "BINARY", "QUANTIZED"})
+    public SyntheticImages.Pattern pattern;
+
+    /**
+     * The number of threads allowed to ImageJ.
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    ImageStack image;
+
+    Strel3D strel;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Prefs.setThreads(this.threads);
+        this.image = SyntheticImages.create3d(this.pattern, this.size, this.size, this.size, this.bitDepth);
+        this.strel = createStrel(this.engine, this.radius);
+    }
+
+    static final Strel3D createStrel(String engine, int radius)
+    {
+        switch (engine)
+        {
+        case "SlidingBall": return new SlidingBallStrel3D(radius);
+        case "NaiveBall": return new NaiveBallStrel3D(radius);
+        case "MorphoLibJ": return Strel3D.Shape.BALL.fromRadius(radius);
+        default:
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    @Benchmark
+    public ImageStack process()
+    {
+        if ("EROSION".equals(this.operation))
+        {
+            return this.strel.erosion(this.image);
+        }
+        return this.strel.dilation(this.image);
+    }
+}
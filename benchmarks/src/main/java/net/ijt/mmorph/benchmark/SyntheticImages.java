@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package net.ijt.mmorph.benchmark;
+
+import java.util.Random;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Deterministic synthetic images used as input of benchmarks.
+ *
+ * All images are computed from a normalized field with values between 0 and
+ * 1, generated by a pseudo-random generator initialized with a fixed seed, and
+ * converted to the requested bit depth (by scaling to the range 0-255 for
+ * 8-bits images, 0-65535 for 16-bits images, and keeping the values for
+ * 32-bits images). The channels of planar 24-bits images are computed from
+ * the field shifted by a few pixels along each axis.
+ *
+ * @author dlegland
+ *
+ */
+public class SyntheticImages
+{
+    /**
+     * The type of content of a synthetic image.
+     */
+    public enum Pattern
+    {
+        /** Uniform white noise, the worst case for local histograms. */
+        NOISE,
+        /** A smooth field obtained as the sum of plane waves. */
+        SMOOTH,
+        /** Threshold of the smooth field, containing only two values. */
+        BINARY,
+        /** The smooth field quantized to a small number of levels. */
+        QUANTIZED;
+    }
+
+    /**
+     * The number of plane waves summed for generating smooth fields.
+     */
+    private static final int WAVE_COUNT = 6;
+
+    /**
+     * The number of gray levels of quantized images.
+     */
+    private static final int LEVEL_COUNT = 8;
+
+    /**
+     * The shift between the fields of two successive channels of color
+     * images, in pixels.
+     */
+    private static final int CHANNEL_SHIFT = 5;
+
+    /**
+     * The seed used for initializing random generators.
+     */
+    public static final long DEFAULT_SEED = 42;
+
+
+    // ==================================================
+    // Static methods
+
+    /**
+     * Creates a new planar synthetic image.
+     *
+     * @param pattern
+     *            the type of image content
+     * @param sizeX
+     *            the image width
+     * @param sizeY
+     *            the image height
+     * @param bitDepth
+     *            the bit depth of the image (8, 16, 24 or 32)
+     * @return a new synthetic image
+     */
+    public static final ImageProcessor create2d(Pattern pattern, int sizeX, int sizeY, int bitDepth)
+    {
+        ImageProcessor image = createProcessor(sizeX, sizeY, bitDepth);
+
+        double[][] waves = createWaves(new Random(DEFAULT_SEED), 2);
+        Random random = new Random(DEFAULT_SEED);
+        for (int y = 0; y < sizeY; y++)
+        {
+            for (int x = 0; x < sizeX; x++)
+            {
+                if (bitDepth == 24)
+                {
+                    int rgb = 0;
+                    for (int c = 0; c < 3; c++)
+                    {
+                        double value = value(pattern, waves, random, x + CHANNEL_SHIFT * c, y + CHANNEL_SHIFT * c, 0);
+                        rgb = (rgb << 8) | (int) convert(value, 8);
+                    }
+                    image.set(x, y, rgb);
+                }
+                else
+                {
+                    double value = value(pattern, waves, random, x, y, 0);
+                    image.setf(x, y, (float) convert(value, bitDepth));
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Creates a new 3D synthetic image.
+     *
+     * @param pattern
+     *            the type of image content
+     * @param sizeX
+     *            the image width
+     * @param sizeY
+     *            the image height
+     * @param sizeZ
+     *            the number of slices
+     * @param bitDepth
+     *            the bit depth of the image (8, 16 or 32)
+     * @return a new synthetic image
+     */
+    public static final ImageStack create3d(Pattern pattern, int sizeX, int sizeY, int sizeZ, int bitDepth)
+    {
+        ImageStack image = ImageStack.create(sizeX, sizeY, sizeZ, bitDepth);
+
+        double[][] waves = createWaves(new Random(DEFAULT_SEED), 3);
+        Random random = new Random(DEFAULT_SEED);
+        for (int z = 0; z < sizeZ; z++)
+        {
+            ImageProcessor slice = image.getProcessor(z + 1);
+            for (int y = 0; y < sizeY; y++)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    double value = value(pattern, waves, random, x, y, z);
+                    slice.setf(x, y, (float) convert(value, bitDepth));
+                }
+            }
+        }
+        return image;
+    }
+
+    private static final ImageProcessor createProcessor(int sizeX, int sizeY, int bitDepth)
+    {
+        switch (bitDepth)
+        {
+        case 8: return new ByteProcessor(sizeX, sizeY);
+        case 16: return new ShortProcessor(sizeX, sizeY);
+        case 24: return new ColorProcessor(sizeX, sizeY);
+        case 32: return new FloatProcessor(sizeX, sizeY);
+        default:
+            throw new IllegalArgumentException("Unsupported bit depth: " + bitDepth);
+        }
+    }
+
+    /**
+     * Creates the parameters of the plane waves: the frequency along each
+     * direction, followed by the phase.
+     */
+    private static final double[][] createWaves(Random random, int nDims)
+    {
+        double[][] waves = new double[WAVE_COUNT][nDims + 1];
+        for (int i = 0; i < WAVE_COUNT; i++)
+        {
+            // wave length between 16 and 64 pixels, with random orientation
+            double freq = 2 * Math.PI / (16 + 48 * random.nextDouble());
+            double norm = 0;
+            for (int d = 0; d < nDims; d++)
+            {
+                waves[i][d] = random.nextGaussian();
+                norm += waves[i][d] * waves[i][d];
+            }
+            norm = Math.sqrt(norm);
+            for (int d = 0; d < nDims; d++)
+            {
+                waves[i][d] *= freq / norm;
+            }
+            waves[i][nDims] = 2 * Math.PI * random.nextDouble();
+        }
+        return waves;
+    }
+
+    /**
+     * Computes the normalized value at the specified position, between 0 and 1.
+     */
+    private static final double value(Pattern pattern, double[][] waves, Random random, int x, int y, int z)
+    {
+        if (pattern == Pattern.NOISE)
+        {
+            return random.nextDouble();
+        }
+
+        // sum of plane waves, normalized between 0 and 1
+        double sum = 0;
+        for (double[] wave : waves)
+        {
+            double arg = wave[0] * x + wave[1] * y + wave[wave.length - 1];
+            if (wave.length > 3)
+            {
+                arg += wave[2] * z;
+            }
+            sum += Math.cos(arg);
+        }
+        double value = (sum / waves.length + 1) * 0.5;
+
+        switch (pattern)
+        {
+        case BINARY:
+            return value > 0.5 ? 1.0 : 0.0;
+        case QUANTIZED:
+            return Math.min(Math.floor(value * LEVEL_COUNT), LEVEL_COUNT - 1) / (LEVEL_COUNT - 1);
+        default:
+            return value;
+        }
+    }
+
+    /**
+     * Converts a normalized value into the range of the specified bit depth.
+     */
+    private static final double convert(double value, int bitDepth)
+    {
+        switch (bitDepth)
+        {
+        case 8: return Math.round(value * 255);
+        case 16: return Math.round(value * 65535);
+        default: return value;
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private SyntheticImages()
+    {
+    }
+}
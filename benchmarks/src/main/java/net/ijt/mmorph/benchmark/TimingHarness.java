@@ -0,0 +1,520 @@
+/**
+ *
+ */
+package net.ijt.mmorph.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+import net.ijt.mmorph.strel.AutoStrelFactory;
+
+/**
+ * <p>
+ * Command line tool that measures the running time of morphological
+ * operations for combinations of engines, radii, operations and thread
+ * counts, on an image file or on a synthetic image.
+ * </p>
+ *
+ * <p>
+ * Each configuration is run several times after warm-up runs. The median,
+ * the 95th percentile and the minimum of the running times are reported,
+ * together with the throughput and the peak heap usage. Results can be written
+ * as CSV or JSON files, and compared to a baseline CSV file written by a
+ * previous run. Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -cp target/benchmarks.jar net.ijt.mmorph.benchmark.TimingHarness \
+ *     --synthetic NOISE:1024x1024:8 --engines SlidingDisk,MorphoLibJ \
+ *     --radii 2,5,10,20 --ops dilation,closing --threads 1,4 \
+ *     --csv results.csv --baseline baseline.csv
+ * }</pre>
+ *
+ * <p>
+ * The process exits with status 1 if a configuration is slower than the
+ * baseline by more than the tolerance, and with status 2 if arguments are
+ * invalid.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+public class TimingHarness
+{
+    // ==================================================
+    // Inner classes
+
+    /**
+     * The statistics computed for one configuration.
+     */
+    static class Result
+    {
+        String image;
+        String engine;
+        String operation;
+        int radius;
+        int threads;
+        int bitDepth;
+        long pixelCount;
+
+        int runs;
+        double median;
+        double p95;
+        double min;
+        double peakHeap;
+
+        /**
+         * @return the key identifying the configuration within a baseline
+         */
+        String key()
+        {
+            return String.join("|", image, engine, operation, Integer.toString(radius),
+                    Integer.toString(threads), Integer.toString(bitDepth));
+        }
+
+        /**
+         * @return the number of pixels processed per second, in millions
+         */
+        double throughput()
+        {
+            return this.pixelCount / (this.median * 1e3);
+        }
+    }
+
+
+    // ==================================================
+    // Static variables
+
+    static final String CSV_HEADER = "image;engine;operation;radius;threads;bitDepth;runs;median_ms;p95_ms;min_ms;mpix_per_s;peak_heap_mb";
+
+
+    // ==================================================
+    // Class variables
+
+    String imagePath = null;
+    String syntheticSpec = "NOISE:1024x1024:8";
+    List<String> engines = null;
+    int[] radii = new int[] {2, 5, 10, 20};
+    List<String> operations = Arrays.asList("DILATION");
+    int[] threads = new int[] {1};
+    int warmup = 3;
+    int runs = 10;
+    String csvPath = null;
+    String jsonPath = null;
+    String baselinePath = null;
+    double tolerance = 0.10;
+
+
+    // ==================================================
+    // Main
+
+    /**
+     * Runs the harness.
+     *
+     * @param args
+     *            the command line arguments
+     * @throws IOException
+     *             if an output file could not be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        TimingHarness harness = new TimingHarness();
+        try
+        {
+            harness.parseArguments(args);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.err.println("Error: " + ex.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        List<Result> results = harness.run();
+
+        if (harness.csvPath != null)
+        {
+            writeCsv(results, new File(harness.csvPath));
+        }
+        if (harness.jsonPath != null)
+        {
+            writeJson(results, new File(harness.jsonPath));
+        }
+        if (harness.baselinePath != null)
+        {
+            Map<String, Double> baseline = readBaseline(new File(harness.baselinePath));
+            int nRegressions = compare(results, baseline, harness.tolerance);
+            if (nRegressions > 0)
+            {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: TimingHarness [options]");
+        System.err.println("  --image PATH          image file to process");
+        System.err.println("  --synthetic SPEC      synthetic image, as PATTERN:WxH[xD]:BITDEPTH (default NOISE:1024x1024:8)");
+        System.err.println("  --engines LIST        engines, among SlidingDisk, SlidingDiskTM, NaiveDisk, MorphoLibJ, Auto (2D)");
+        System.err.println("                        or SlidingBall, NaiveBall, MorphoLibJ, Auto (3D)");
+        System.err.println("  --radii LIST          radii of the structuring elements (default 2,5,10,20)");
+        System.err.println("  --ops LIST            operations, such as dilation, erosion, closing, opening (default dilation)");
+        System.err.println("  --threads LIST        numbers of threads (default 1)");
+        System.err.println("  --warmup N            number of warm-up runs (default 3)");
+        System.err.println("  --runs N              number of measured runs (default 10)");
+        System.err.println("  --csv PATH            writes results as CSV");
+        System.err.println("  --json PATH           writes results as JSON");
+        System.err.println("  --baseline PATH       compares median times with a CSV written by a previous run");
+        System.err.println("  --tolerance X         relative slow down considered as regression (default 0.10)");
+    }
+
+
+    // ==================================================
+    // Methods
+
+    void parseArguments(String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("Missing value for argument: " + arg);
+            }
+            String value = args[++i];
+
+            switch (arg)
+            {
+            case "--image": this.imagePath = value; break;
+            case "--synthetic": this.syntheticSpec = value; break;
+            case "--engines": this.engines = Arrays.asList(value.split(",")); break;
+            case "--radii": this.radii = parseInts(value); break;
+            case "--ops": this.operations = Arrays.asList(value.toUpperCase(Locale.ENGLISH).split(",")); break;
+            case "--threads": this.threads = parseInts(value); break;
+            case "--warmup": this.warmup = Integer.parseInt(value); break;
+            case "--runs": this.runs = Integer.parseInt(value); break;
+            case "--csv": this.csvPath = value; break;
+            case "--json": this.jsonPath = value; break;
+            case "--baseline": this.baselinePath = value; break;
+            case "--tolerance": this.tolerance = Double.parseDouble(value); break;
+            default:
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        if (this.runs < 1)
+        {
+            throw new IllegalArgumentException("Number of runs must be at least 1");
+        }
+        for (String op : this.operations)
+        {
+            Operation.valueOf(op);
+        }
+    }
+
+    private static int[] parseInts(String value)
+    {
+        String[] tokens = value.split(",");
+        int[] res = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+        {
+            res[i] = Integer.parseInt(tokens[i].trim());
+        }
+        return res;
+    }
+
+    /**
+     * Runs all the configurations, and prints the results on the standard
+     * output.
+     *
+     * @return the list of results
+     */
+    List<Result> run()
+    {
+        // load or create the image
+        String label;
+        ImageStack stack;
+        if (this.imagePath != null)
+        {
+            ImagePlus imagePlus = IJ.openImage(this.imagePath);
+            if (imagePlus == null)
+            {
+                throw new IllegalArgumentException("Could not read image: " + this.imagePath);
+            }
+            label = new File(this.imagePath).getName();
+            stack = imagePlus.getStack();
+        }
+        else
+        {
+            label = this.syntheticSpec;
+            stack = createSynthetic(this.syntheticSpec);
+        }
+
+        boolean planar = stack.getSize() == 1;
+        ImageProcessor image = planar ? stack.getProcessor(1) : null;
+        long pixelCount = (long) stack.getWidth() * stack.getHeight() * stack.getSize();
+        List<String> engineList = this.engines != null ? this.engines
+                : planar ? Arrays.asList("SlidingDisk", "NaiveDisk", "MorphoLibJ")
+                        : Arrays.asList("SlidingBall", "NaiveBall", "MorphoLibJ");
+
+        System.out.println(String.format(Locale.ENGLISH, "%-24s %-12s %-10s %6s %7s %10s %10s %10s %10s %10s",
+                "image", "engine", "operation", "radius", "threads", "median_ms", "p95_ms", "min_ms", "Mpix/s", "heap_MB"));
+
+        List<Result> results = new ArrayList<>();
+        for (int nThreads : this.threads)
+        {
+            Prefs.setThreads(nThreads);
+            for (String engine : engineList)
+            {
+                for (int radius : this.radii)
+                {
+                    for (String opName : this.operations)
+                    {
+                        Operation op = Operation.valueOf(opName);
+
+                        Result res = new Result();
+                        res.image = label;
+                        res.engine = engine;
+                        res.operation = opName;
+                        res.radius = radius;
+                        res.threads = nThreads;
+                        res.bitDepth = stack.getBitDepth();
+                        res.pixelCount = pixelCount;
+                        res.runs = this.runs;
+
+                        double[] times;
+                        if (planar)
+                        {
+                            Strel strel = "Auto".equals(engine) ? AutoStrelFactory.createDisk(image, radius)
+                                    : Strel2DBenchmark.createStrel(engine, radius);
+                            times = measure(() -> op.apply(image, strel), res);
+                        }
+                        else
+                        {
+                            Strel3D strel = "Auto".equals(engine) ? AutoStrelFactory.createBall(stack, radius)
+                                    : Strel3DBenchmark.createStrel(engine, radius);
+                            times = measure(() -> op.apply(stack, strel), res);
+                        }
+                        computeStatistics(times, res);
+
+                        System.out.println(String.format(Locale.ENGLISH, "%-24s %-12s %-10s %6d %7d %10.2f %10.2f %10.2f %10.2f %10.1f",
+                                res.image, res.engine, res.operation, res.radius, res.threads,
+                                res.median, res.p95, res.min, res.throughput(), res.peakHeap));
+                        results.add(res);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs the warm-up and the measured runs of a configuration, and stores
+     * the peak heap usage within the result.
+     *
+     * @return the running times of the measured runs, in milliseconds
+     */
+    private double[] measure(Runnable operation, Result res)
+    {
+        for (int i = 0; i < this.warmup; i++)
+        {
+            operation.run();
+        }
+
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+            {
+                pools.add(pool);
+            }
+        }
+        System.gc();
+        for (MemoryPoolMXBean pool : pools)
+        {
+            pool.resetPeakUsage();
+        }
+
+        double[] times = new double[this.runs];
+        for (int i = 0; i < this.runs; i++)
+        {
+            long t0 = System.nanoTime();
+            operation.run();
+            long t1 = System.nanoTime();
+            times[i] = (t1 - t0) / 1e6;
+        }
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools)
+        {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        res.peakHeap = peak / (1024.0 * 1024.0);
+        return times;
+    }
+
+    static void computeStatistics(double[] times, Result res)
+    {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        res.min = sorted[0];
+        res.median = n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) * 0.5;
+        // nearest-rank percentile
+        res.p95 = sorted[Math.min((int) Math.ceil(0.95 * n), n) - 1];
+    }
+
+    /**
+     * Creates a synthetic image from a specification such as
+     * "NOISE:1024x1024:8" or "SMOOTH:256x256x128:16".
+     */
+    static ImageStack createSynthetic(String spec)
+    {
+        String[] tokens = spec.split(":");
+        if (tokens.length != 3)
+        {
+            throw new IllegalArgumentException("Synthetic image must be specified as PATTERN:WxH[xD]:BITDEPTH, not " + spec);
+        }
+        SyntheticImages.Pattern pattern = SyntheticImages.Pattern.valueOf(tokens[0].toUpperCase(Locale.ENGLISH));
+        int[] dims = parseInts(tokens[1].replace('x', ','));
+        int bitDepth = Integer.parseInt(tokens[2]);
+
+        if (dims.length == 2)
+        {
+            ImageStack stack = new ImageStack(dims[0], dims[1]);
+            stack.addSlice(SyntheticImages.create2d(pattern, dims[0], dims[1], bitDepth));
+            return stack;
+        }
+        else if (dims.length == 3)
+        {
+            return SyntheticImages.create3d(pattern, dims[0], dims[1], dims[2], bitDepth);
+        }
+        throw new IllegalArgumentException("Synthetic image must have two or three dimensions: " + spec);
+    }
+
+
+    // ==================================================
+    // Input and output
+
+    static void writeCsv(List<Result> results, File file) throws IOException
+    {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8"))
+        {
+            writer.println(CSV_HEADER);
+            for (Result res : results)
+            {
+                writer.println(String.format(Locale.ENGLISH, "%s;%s;%s;%d;%d;%d;%d;%.4f;%.4f;%.4f;%.4f;%.2f",
+                        res.image, res.engine, res.operation, res.radius, res.threads, res.bitDepth, res.runs,
+                        res.median, res.p95, res.min, res.throughput(), res.peakHeap));
+            }
+        }
+    }
+
+    static void writeJson(List<Result> results, File file) throws IOException
+    {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8"))
+        {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++)
+            {
+                Result res = results.get(i);
+                writer.print(String.format(Locale.ENGLISH,
+                        "  {\"image\": \"%s\", \"engine\": \"%s\", \"operation\": \"%s\", \"radius\": %d, "
+                                + "\"threads\": %d, \"bitDepth\": %d, \"runs\": %d, \"medianMs\": %.4f, "
+                                + "\"p95Ms\": %.4f, \"minMs\": %.4f, \"mpixPerSecond\": %.4f, \"peakHeapMb\": %.2f}",
+                        escapeJson(res.image), escapeJson(res.engine), res.operation, res.radius, res.threads,
+                        res.bitDepth, res.runs, res.median, res.p95, res.min, res.throughput(), res.peakHeap));
+                writer.println(i < results.size() - 1 ? "," : "");
+            }
+            writer.println("]");
+        }
+    }
+
+    private static String escapeJson(String text)
+    {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Reads the median times of a CSV file written by a previous run.
+     *
+     * @return the median times, indexed by configuration key
+     */
+    static Map<String, Double> readBaseline(File file) throws IOException
+    {
+        Map<String, Double> medians = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+        {
+            String line = reader.readLine();
+            if (line == null || !line.trim().equals(CSV_HEADER))
+            {
+                throw new IOException("Not a timing harness result file: " + file);
+            }
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().isEmpty())
+                {
+                    continue;
+                }
+                String[] tokens = line.split(";");
+                String key = String.join("|", Arrays.copyOfRange(tokens, 0, 6));
+                medians.put(key, Double.parseDouble(tokens[7]));
+            }
+        }
+        return medians;
+    }
+
+    /**
+     * Compares the median times to the baseline, and prints the ratio for
+     * each configuration found in the baseline.
+     *
+     * @return the number of configurations slower than the baseline by more
+     *         than the tolerance
+     */
+    static int compare(List<Result> results, Map<String, Double> baseline, double tolerance)
+    {
+        System.out.println();
+        System.out.println("Comparison with baseline:");
+        int nRegressions = 0;
+        for (Result res : results)
+        {
+            Double reference = baseline.get(res.key());
+            if (reference == null)
+            {
+                continue;
+            }
+            double ratio = res.median / reference;
+            boolean regression = ratio > 1 + tolerance;
+            if (regression)
+            {
+                nRegressions++;
+            }
+            System.out.println(String.format(Locale.ENGLISH, "%-12s %-10s r=%-4d t=%-3d %10.2f ms -> %10.2f ms  (x%.2f)%s",
+                    res.engine, res.operation, res.radius, res.threads, reference, res.median, ratio,
+                    regression ? "  REGRESSION" : ""));
+        }
+        System.out.println(nRegressions + " regression(s) with tolerance " + tolerance);
+        return nRegressions;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Records morphological operations as Java Flight Recorder events.
+ *
+ * The number of allocated bytes is measured on the thread that calls the
+ * operation, and on the threads of the pool that process its bands of rows
+ * (see {@link RowBands#pooledAllocatedBytes()}), when the JVM supports it.
+ *
+ * This class is compiled only with JDK 11 or later (see the "jfr" build
+ * profile). It is instantiated by reflection, so that operations are simply
+ * not recorded when it is not available.
+ *
+ * @see MorphologicalOperationEvent
+ * @see OperationEvent
+ *
+ * @author dlegland
+ *
+ */
+final class JfrOperationRecorder implements OperationEvent.Recorder
+{
+    /**
+     * The bean used for measuring allocated bytes, or null if not supported.
+     */
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * Default constructor, used by reflection.
+     */
+    public JfrOperationRecorder()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+        {
+            this.threadBean = (com.sun.management.ThreadMXBean) bean;
+        }
+        else
+        {
+            this.threadBean = null;
+        }
+    }
+
+    @Override
+    public Object begin()
+    {
+        MorphologicalOperationEvent event = new MorphologicalOperationEvent();
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.bytesAllocated = allocatedBytes() + RowBands.pooledAllocatedBytes();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commit(Object state, OperationEvent operation)
+    {
+        if (state == null)
+        {
+            return;
+        }
+
+        MorphologicalOperationEvent event = (MorphologicalOperationEvent) state;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.operation = operation.operation;
+            event.engine = operation.engine;
+            event.histogram = operation.histogram;
+            event.bitDepth = operation.bitDepth;
+            event.sizeX = operation.sizeX;
+            event.sizeY = operation.sizeY;
+            event.sizeZ = operation.sizeZ;
+            event.radius = operation.radius;
+            event.threads = operation.threads;
+            event.bytesAllocated = allocatedBytes() + RowBands.pooledAllocatedBytes() - event.bytesAllocated;
+            event.commit();
+        }
+    }
+
+    @Override
+    public long allocatedBytes()
+    {
+        if (this.threadBean == null)
+        {
+            return 0;
+        }
+        return this.threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event emitted for each morphological operation
+ * computed by sliding or naive structuring elements. The duration of the
+ * operation is the duration of the event.
+ *
+ * @see JfrOperationRecorder
+ *
+ * @author dlegland
+ *
+ */
+@Name("net.ijt.mmorph.MorphologicalOperation")
+@Label("Morphological Operation")
+@Category({"ImageJ", "Morphology"})
+@Description("Dilation or erosion computed by a structuring element")
+public final class MorphologicalOperationEvent extends jdk.jfr.Event
+{
+    @Label("Operation")
+    String operation;
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Histogram Type")
+    String histogram;
+
+    @Label("Bit Depth")
+    int bitDepth;
+
+    @Label("Size X")
+    int sizeX;
+
+    @Label("Size Y")
+    int sizeY;
+
+    @Label("Size Z")
+    int sizeZ;
+
+    @Label("Radius")
+    double radius;
+
+    @Label("Threads")
+    int threads;
+
+    @Label("Bytes Allocated")
+    @Description("Bytes allocated by the calling thread and by the threads processing the bands of rows")
+    @DataAmount
+    long bytesAllocated;
+}
@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the row kernels of the shifted rows engine based on the
+ * (incubating) Java Vector API.
+ *
+ * Unsigned integer values are compared by flipping their sign bit, that maps
+ * the unsigned order onto the signed order.
+ *
+ * This class is compiled only with the "vector" build profile, and requires
+ * the <code>jdk.incubator.vector</code> module at runtime. It is instantiated
+ * by reflection, so that the engine falls back to plain loops when it is not
+ * available.
+ *
+ * @see ShiftedRowsEngine
+ *
+ * @author dlegland
+ *
+ */
+final class VectorRowKernels implements ShiftedRowsEngine.RowKernels
+{
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    private static final byte BYTE_SIGN = (byte) 0x80;
+    private static final short SHORT_SIGN = (short) 0x8000;
+
+    /**
+     * Default constructor, used by reflection.
+     */
+    VectorRowKernels()
+    {
+    }
+
+    @Override
+    public void maxUInt8(byte[] src, int srcPos, byte[] acc, int accPos, int length)
+    {
+        int i = 0;
+        for (int bound = BYTES.loopBound(length); i < bound; i += BYTES.length())
+        {
+            ByteVector a = ByteVector.fromArray(BYTES, acc, accPos + i).lanewise(VectorOperators.XOR, BYTE_SIGN);
+            ByteVector b = ByteVector.fromArray(BYTES, src, srcPos + i).lanewise(VectorOperators.XOR, BYTE_SIGN);
+            a.max(b).lanewise(VectorOperators.XOR, BYTE_SIGN).intoArray(acc, accPos + i);
+        }
+        for (; i < length; i++)
+        {
+            acc[accPos + i] = (byte) Math.max(acc[accPos + i] & 0x00FF, src[srcPos + i] & 0x00FF);
+        }
+    }
+
+    @Override
+    public void minUInt8(byte[] src, int srcPos, byte[] acc, int accPos, int length)
+    {
+        int i = 0;
+        for (int bound = BYTES.loopBound(length); i < bound; i += BYTES.length())
+        {
+            ByteVector a = ByteVector.fromArray(BYTES, acc, accPos + i).lanewise(VectorOperators.XOR, BYTE_SIGN);
+            ByteVector b = ByteVector.fromArray(BYTES, src, srcPos + i).lanewise(VectorOperators.XOR, BYTE_SIGN);
+            a.min(b).lanewise(VectorOperators.XOR, BYTE_SIGN).intoArray(acc, accPos + i);
+        }
+        for (; i < length; i++)
+        {
+            acc[accPos + i] = (byte) Math.min(acc[accPos + i] & 0x00FF, src[srcPos + i] & 0x00FF);
+        }
+    }
+
+    @Override
+    public void maxUInt16(short[] src, int srcPos, short[] acc, int accPos, int length)
+    {
+        int i = 0;
+        for (int bound = SHORTS.loopBound(length); i < bound; i += SHORTS.length())
+        {
+            ShortVector a = ShortVector.fromArray(SHORTS, acc, accPos + i).lanewise(VectorOperators.XOR, SHORT_SIGN);
+            ShortVector b = ShortVector.fromArray(SHORTS, src, srcPos + i).lanewise(VectorOperators.XOR, SHORT_SIGN);
+            a.max(b).lanewise(VectorOperators.XOR, SHORT_SIGN).intoArray(acc, accPos + i);
+        }
+        for (; i < length; i++)
+        {
+            acc[accPos + i] = (short) Math.max(acc[accPos + i] & 0x00FFFF, src[srcPos + i] & 0x00FFFF);
+        }
+    }
+
+    @Override
+    public void minUInt16(short[] src, int srcPos, short[] acc, int accPos, int length)
+    {
+        int i = 0;
+        for (int bound = SHORTS.loopBound(length); i < bound; i += SHORTS.length())
+        {
+            ShortVector a = ShortVector.fromArray(SHORTS, acc, accPos + i).lanewise(VectorOperators.XOR, SHORT_SIGN);
+            ShortVector b = ShortVector.fromArray(SHORTS, src, srcPos + i).lanewise(VectorOperators.XOR, SHORT_SIGN);
+            a.min(b).lanewise(VectorOperators.XOR, SHORT_SIGN).intoArray(acc, accPos + i);
+        }
+        for (; i < length; i++)
+        {
+            acc[accPos + i] = (short) Math.min(acc[accPos + i] & 0x00FFFF, src[srcPos + i] & 0x00FFFF);
+        }
+    }
+
+    @Override
+    public void maxFloat32(float[] src, int srcPos, float[] acc, int accPos, int length)
+    {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector a = FloatVector.fromArray(FLOATS, acc, accPos + i);
+            a.max(FloatVector.fromArray(FLOATS, src, srcPos + i)).intoArray(acc, accPos + i);
+        }
+        for (; i < length; i++)
+        {
+            acc[accPos + i] = Math.max(acc[accPos + i], src[srcPos + i]);
+        }
+    }
+
+    @Override
+    public void minFloat32(float[] src, int srcPos, float[] acc, int accPos, int length)
+    {
+        int i = 0;
+        for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length())
+        {
+            FloatVector a = FloatVector.fromArray(FLOATS, acc, accPos + i);
+            a.min(FloatVector.fromArray(FLOATS, src, srcPos + i)).intoArray(acc, accPos + i);
+        }
+        for (; i < length; i++)
+        {
+            acc[accPos + i] = Math.min(acc[accPos + i], src[srcPos + i]);
+        }
+    }
+}
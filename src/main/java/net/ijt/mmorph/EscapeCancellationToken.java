@@ -0,0 +1,31 @@
+/**
+ * 
+ */
+package net.ijt.mmorph;
+
+import ij.IJ;
+import net.ijt.mmorph.strel.CancellationToken;
+
+/**
+ * Cancellation token that is also cancelled when the user presses the Escape
+ * key within ImageJ.
+ * 
+ * @author dlegland
+ *
+ */
+class EscapeCancellationToken extends CancellationToken
+{
+    /**
+     * Creates a new token, and resets the state of the Escape key.
+     */
+    public EscapeCancellationToken()
+    {
+        IJ.resetEscape();
+    }
+    
+    @Override
+    public boolean isCancelled()
+    {
+        return super.isCancelled() || IJ.escapePressed();
+    }
+}
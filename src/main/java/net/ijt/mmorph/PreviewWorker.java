@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package net.ijt.mmorph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import ij.IJ;
+import inra.ijpb.morphology.Morphology.Operation;
+import net.ijt.mmorph.strel.CancellationToken;
+
+/**
+ * Computes the previews of plugins on a background thread. When a new preview
+ * is requested, the computation of the previous one is cancelled. The most
+ * recently computed previews are kept within a small cache, such that going
+ * back to previous settings displays the result immediately.
+ *
+ * @param <T>
+ *            the type of the preview results
+ *
+ * @author dlegland
+ *
+ */
+class PreviewWorker<T>
+{
+    // ==================================================
+    // Inner class
+
+    /**
+     * The key of a preview result: the image (compared by identity), the
+     * operation, the method and the radius, and the region of the image the
+     * preview was computed for.
+     */
+    static final class Key
+    {
+        final Object image;
+        final Operation op;
+        final String method;
+        final double radius;
+        final Object region;
+
+        Key(Object image, Operation op, String method, double radius, Object region)
+        {
+            this.image = image;
+            this.op = op;
+            this.method = method;
+            this.radius = radius;
+            this.region = region;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key that = (Key) obj;
+            return this.image == that.image && this.op == that.op && this.method.equals(that.method)
+                    && Double.compare(this.radius, that.radius) == 0 && Objects.equals(this.region, that.region);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(System.identityHashCode(image), op, method, radius, region);
+        }
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The single thread computing the previews.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The most recently used results, in access order.
+     */
+    private final Map<Key, T> cache;
+
+    /**
+     * The token of the current computation, or null if no computation is
+     * pending.
+     */
+    private CancellationToken currentToken = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new preview worker.
+     *
+     * @param cacheSize
+     *            the maximum number of results kept within the cache
+     */
+    PreviewWorker(int cacheSize)
+    {
+        this.cache = new LinkedHashMap<Key, T>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, T> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+
+    // ==================================================
+    // Methods
+
+    /**
+     * Requests the preview for the specified key, and cancels the computation
+     * of the previous request. If the result is within the cache, it is
+     * displayed immediately. Otherwise it is computed on the background
+     * thread, and displayed when the computation completes, unless another
+     * preview was requested in the meantime.
+     *
+     * @param key
+     *            the key identifying the result
+     * @param computation
+     *            the computation of the result, that should stop by throwing
+     *            a CancellationException when the token is cancelled
+     * @param display
+     *            the function that displays the result
+     */
+    synchronized void submit(Key key, Function<CancellationToken, T> computation, Consumer<T> display)
+    {
+        cancel();
+
+        T result = cache.get(key);
+        if (result != null)
+        {
+            display.accept(result);
+            return;
+        }
+
+        CancellationToken token = new EscapeCancellationToken();
+        this.currentToken = token;
+        executor.execute(() -> compute(key, token, computation, display));
+    }
+
+    private void compute(Key key, CancellationToken token, Function<CancellationToken, T> computation, Consumer<T> display)
+    {
+        // skip requests cancelled before being started
+        if (token.isCancelled())
+        {
+            return;
+        }
+
+        T result;
+        try
+        {
+            result = computation.apply(token);
+        }
+        catch (CancellationException ex)
+        {
+            return;
+        }
+        catch (RuntimeException ex)
+        {
+            IJ.handleException(ex);
+            return;
+        }
+
+        // the result is displayed only if no other request was made, and
+        // the display can not be interleaved with a call to cancel()
+        synchronized (this)
+        {
+            if (token != this.currentToken || token.isCancelled())
+            {
+                return;
+            }
+            this.currentToken = null;
+            cache.put(key, result);
+            display.accept(result);
+        }
+    }
+
+    /**
+     * Returns the result associated to the specified key, if it was already
+     * computed.
+     *
+     * @param key
+     *            the key identifying the result
+     * @return the result within the cache, or null if the result was not
+     *         computed
+     */
+    synchronized T getCached(Key key)
+    {
+        return cache.get(key);
+    }
+
+    /**
+     * Cancels the pending computation. Once this method returns, no result is
+     * displayed until the next request.
+     */
+    synchronized void cancel()
+    {
+        if (this.currentToken != null)
+        {
+            this.currentToken.cancel();
+            this.currentToken = null;
+        }
+    }
+
+    /**
+     * Cancels the pending computation, clears the cache and stops the
+     * background thread.
+     */
+    synchronized void shutdown()
+    {
+        cancel();
+        cache.clear();
+        executor.shutdown();
+    }
+}
@@ -21,19 +21,35 @@
  */
 package net.ijt.mmorph;
 
+import java.awt.AWTEvent;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
+import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
+import ij.measure.Calibration;
 import ij.plugin.PlugIn;
+import ij.process.ImageProcessor;
 import inra.ijpb.algo.DefaultAlgoListener;
 import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel3D;
 import inra.ijpb.util.IJUtils;
+import net.ijt.mmorph.strel.AbstractSlidingStrel3D;
+import net.ijt.mmorph.strel.AutoStrelFactory;
+import net.ijt.mmorph.strel.CancellationToken;
+import net.ijt.mmorph.strel.HyperstackFilter;
 import net.ijt.mmorph.strel.NaiveBallStrel3D;
 import net.ijt.mmorph.strel.SlidingBallStrel3D;
+import net.ijt.mmorph.strel.SlidingEllipsoidStrel3D;
+import net.ijt.mmorph.strel.SlidingOperations;
+import net.ijt.mmorph.strel.StrelCostModel.Engine;
+import net.ijt.mmorph.strel.StrelWorkspace;
 
 
 /**
@@ -48,20 +64,60 @@ import net.ijt.mmorph.strel.SlidingBallStrel3D;
  * the current voxel</li>
  * </ul>
  * 
+ * The "Auto" method chooses the implementation with the smallest running time
+ * estimated by the default cost model.
+ * 
+ * For the sliding implementation, the radius can be given in calibrated
+ * units. In that case, an ellipsoid structuring element with the same
+ * physical size in each direction is used, avoiding to resample images with
+ * anisotropic voxels.
+ * 
+ * For hyperstacks, the operation is applied on each channel of each frame.
+ * The volumes are processed concurrently, using the same structuring element.
+ * 
+ * The preview displays the result on the current slice. It is computed on a
+ * background thread from the slab of slices that contains the neighbors of
+ * the current slice, and is cancelled when the parameters change. The last
+ * computed previews are kept in a cache, so that going back to previous
+ * parameters is immediate.
+ * 
  * @author David Legland
  *
  */
 
-public class SlidingBallFilter3DPlugin implements PlugIn 
+public class SlidingBallFilter3DPlugin implements PlugIn, DialogListener
 {
     // the list of available algorithms for comparison
-    public final static String[] algoList = new String[] {"Sliding Ball", "Naive Ball", "ImageJ native"};
+    public final static String[] algoList = new String[] {"Sliding Ball", "Naive Ball", "ImageJ native", "Auto"};
 
     // Settings for initializing the plugin dialog
     Operation op = Operation.DILATION;
     int algoIndex = 0;
     double radius = 2;
+    boolean useCalibration = false;
     boolean showStrel;
+    boolean previewing = false;
+    
+    /** the image to process */
+    private ImagePlus imagePlus;
+    
+    /** the index of the slice that displays the preview, or 0 if none */
+    private int previewSlice = 0;
+    
+    /** the original content of the slice that displays the preview */
+    private ImageProcessor previewOriginal = null;
+    
+    /** computes the previews in the background, and keeps the last ones */
+    private PreviewWorker<ImageProcessor> previewWorker = new PreviewWorker<>(8);
+    
+    /** the structuring element of previews, kept while settings are unchanged */
+    private Strel3D previewStrel = null;
+    
+    /** the method and the radius of the structuring element of previews */
+    private String previewStrelKey = null;
+    
+    /** the buffers reused by successive previews */
+    private StrelWorkspace previewWorkspace = new StrelWorkspace();
     
     
     /* (non-Javadoc)
@@ -83,6 +139,7 @@ public class SlidingBallFilter3DPlugin implements PlugIn
 			IJ.error("No image", "Need at least one image to work");
 			return;
 		}
+		this.imagePlus = imagePlus;
 		
 		// create the dialog
 		GenericDialog gd = new GenericDialog("Morphological Filters (3D)");
@@ -90,39 +147,46 @@ public class SlidingBallFilter3DPlugin implements PlugIn
 		gd.addChoice("Operation", Operation.getAllLabels(), 
 				this.op.toString());
 		gd.addChoice("Method", algoList, algoList[algoIndex]);
-        gd.addNumericField("Radius (in voxels)", 2, 0);
+        // the radius is given in voxels, or in the unit of the calibration
+        Calibration calib = imagePlus.getCalibration();
+        String units = calib.scaled() ? "voxels or " + calib.getUnits() : "voxels";
+        gd.addNumericField("Radius", this.radius, 2, 6, units);
+        gd.addCheckbox("Radius in calibrated units", this.useCalibration);
 		gd.addCheckbox("Show Element", false);
+		gd.addCheckbox("Preview", false);
+		gd.addDialogListener(this);
 		
 		// Could also add an option for the type of operation
 		gd.showDialog();
 		
+		// replace the preview slice by the original one
+		resetPreview();
+		previewWorker.shutdown();
+		
 		if (gd.wasCanceled())
 			return;
 		
 		long t0 = System.currentTimeMillis();
 
 		// extract chosen parameters
-		op = Operation.fromLabel(gd.getNextChoice());
-		algoIndex = gd.getNextChoiceIndex();
-		radius = gd.getNextNumber();		
-		showStrel = gd.getNextBoolean();
+		parseDialogParameters(gd);
+		
+		// calibrated radius is only managed by sliding structuring elements
+		if (useCalibration && algoIndex != 0 && algoIndex != 3)
+		{
+			IJ.error("Morphological Filter 3D", "Calibrated radius requires the \"" + algoList[0] + "\" or \"" + algoList[3] + "\" method");
+			return;
+		}
 		
 		// Create structuring element of the given size
-        // Create structuring element with the chosen radius
-        Strel3D strel;
-        switch (algoIndex)
-        {
-            case 0: strel = new SlidingBallStrel3D(radius); break;
-            case 1: strel = new NaiveBallStrel3D(radius); break;
-            case 2: strel = Strel3D.Shape.BALL.fromRadius((int) radius); break;
-
-            default:
-                throw new RuntimeException("Unkown structuring element type");
-        }
+		Strel3D strel = createStrel();
 
 		strel.showProgress(true);
 		DefaultAlgoListener.monitor(strel);
 		
+		// allow to cancel the operation with the Escape key
+		setCancellationToken(strel, new EscapeCancellationToken());
+		
 		// Eventually display the structuring element used for processing 
 		if (showStrel)
 		{
@@ -130,7 +194,17 @@ public class SlidingBallFilter3DPlugin implements PlugIn
 		}
 		
 		// Execute core of the plugin
-		ImagePlus resPlus = process(imagePlus, op, strel);
+		ImagePlus resPlus;
+		try
+		{
+			resPlus = process(imagePlus, op, strel);
+		}
+		catch (CancellationException ex)
+		{
+			IJ.showProgress(1.0);
+			IJ.showStatus(op.toString() + " cancelled");
+			return;
+		}
 
 		if (resPlus == null)
 			return;
@@ -143,6 +217,179 @@ public class SlidingBallFilter3DPlugin implements PlugIn
 		long t1 = System.currentTimeMillis();
 		IJUtils.showElapsedTime(op.toString(), t1 - t0, imagePlus);
 	}
+	
+	@Override
+	public boolean dialogItemChanged(GenericDialog gd, AWTEvent evt)
+	{
+		parseDialogParameters(gd);
+		
+		// parameters are validated when the dialog is closed
+		boolean valid = !gd.invalidNumber() && radius > 0 
+				&& (!useCalibration || algoIndex == 0 || algoIndex == 3);
+		if (!previewing || !valid)
+		{
+			resetPreview();
+			return true;
+		}
+		
+		preview();
+		return true;
+	}
+	
+	private void parseDialogParameters(GenericDialog gd)
+	{
+		op = Operation.fromLabel(gd.getNextChoice());
+		algoIndex = gd.getNextChoiceIndex();
+		radius = gd.getNextNumber();		
+		useCalibration = gd.getNextBoolean();
+		showStrel = gd.getNextBoolean();
+		previewing = gd.getNextBoolean();
+	}
+	
+	/**
+	 * Computes the result on the current slice on the background thread, and
+	 * displays it once computed. Only the slab of slices within the halo of
+	 * the operation around the current slice, within the current channel and
+	 * frame, is processed.
+	 */
+	private void preview()
+	{
+		int slice = this.imagePlus.getCurrentSlice();
+		int channel = this.imagePlus.getChannel();
+		int frame = this.imagePlus.getFrame();
+		if (slice != this.previewSlice)
+		{
+			// restore the slice used by the previous preview
+			resetPreview();
+			this.previewSlice = slice;
+			this.previewOriginal = this.imagePlus.getStack().getProcessor(slice).duplicate();
+		}
+		ImageProcessor original = this.previewOriginal;
+		
+		Strel3D strel = previewStrel();
+		
+		// number of slices needed on each side of the current slice
+		int halo = strel.getSize()[2] / 2;
+		if (op == Operation.OPENING || op == Operation.CLOSING || op == Operation.TOPHAT || op == Operation.BOTTOMHAT)
+		{
+			halo *= 2;
+		}
+		
+		ImageStack stack = this.imagePlus.getStack();
+		int zSlice = this.imagePlus.getSlice();
+		int z0 = Math.max(zSlice - halo, 1);
+		int z1 = Math.min(zSlice + halo, this.imagePlus.getNSlices());
+		
+		Operation op = this.op;
+		Function<CancellationToken, ImageProcessor> computation = token -> {
+			setCancellationToken(strel, token);
+			
+			// the slab shares the pixels of the original slices
+			ImageStack slab = new ImageStack(stack.getWidth(), stack.getHeight());
+			for (int z = z0; z <= z1; z++)
+			{
+				int index = imagePlus.getStackIndex(channel, z, frame);
+				Object pixels = index == slice ? original.getPixels() : stack.getPixels(index);
+				slab.addSlice(stack.getSliceLabel(index), pixels);
+			}
+			return SlidingOperations.apply(op, slab, strel).getProcessor(zSlice - z0 + 1);
+		};
+		
+		Consumer<ImageProcessor> display = res -> {
+			System.arraycopy(res.getPixels(), 0, stack.getPixels(slice), 0, res.getPixelCount());
+			imagePlus.updateAndDraw();
+		};
+		
+		String method = algoList[algoIndex] + (useCalibration ? " (calibrated)" : "");
+		PreviewWorker.Key key = new PreviewWorker.Key(stack, op, method, radius, slice);
+		previewWorker.submit(key, computation, display);
+	}
+	
+	/**
+	 * Cancels the computation of the preview, and restores the original
+	 * content of the slice that displays the preview.
+	 */
+	private void resetPreview()
+	{
+		previewWorker.cancel();
+		if (this.previewSlice == 0)
+		{
+			return;
+		}
+		
+		ImageStack stack = this.imagePlus.getStack();
+		System.arraycopy(previewOriginal.getPixels(), 0, stack.getPixels(previewSlice), 0, previewOriginal.getPixelCount());
+		this.previewSlice = 0;
+		this.previewOriginal = null;
+		this.imagePlus.updateAndDraw();
+	}
+	
+	/**
+	 * Returns the structuring element used by the previews. It is created
+	 * again only when the method or the radius change, and sliding
+	 * structuring elements reuse the buffers of previous previews.
+	 */
+	private Strel3D previewStrel()
+	{
+		String key = algoList[algoIndex] + "/" + radius + "/" + useCalibration;
+		if (!key.equals(this.previewStrelKey))
+		{
+			Strel3D strel = createStrel();
+			DefaultAlgoListener.monitor(strel);
+			if (strel instanceof AbstractSlidingStrel3D)
+			{
+				((AbstractSlidingStrel3D) strel).setWorkspace(this.previewWorkspace);
+			}
+			this.previewStrel = strel;
+			this.previewStrelKey = key;
+		}
+		return this.previewStrel;
+	}
+	
+	/**
+	 * Creates the structuring element corresponding to current settings.
+	 */
+	private Strel3D createStrel()
+	{
+        Strel3D strel;
+        switch (algoIndex)
+        {
+            case 0: strel = useCalibration 
+                    ? SlidingEllipsoidStrel3D.fromCalibration(imagePlus.getCalibration(), radius)
+                    : new SlidingBallStrel3D(radius); 
+                break;
+            case 1: strel = new NaiveBallStrel3D(radius); break;
+            case 2: strel = Strel3D.Shape.BALL.fromRadius((int) radius); break;
+            case 3: 
+                // only sliding structuring elements manage calibrated radius
+                Engine engine = useCalibration ? Engine.SLIDING : AutoStrelFactory.selectEngine(imagePlus.getStack(), radius);
+                IJ.showStatus("Auto method: " + engine);
+                strel = useCalibration 
+                        ? SlidingEllipsoidStrel3D.fromCalibration(imagePlus.getCalibration(), radius)
+                        : AutoStrelFactory.createBall(engine, radius);
+                break;
+
+            default:
+                throw new RuntimeException("Unkown structuring element type");
+        }
+        return strel;
+	}
+	
+	/**
+	 * Allows to cancel the operations computed with the specified structuring
+	 * element.
+	 */
+	private static void setCancellationToken(Strel3D strel, CancellationToken token)
+	{
+		if (strel instanceof AbstractSlidingStrel3D)
+		{
+			((AbstractSlidingStrel3D) strel).setCancellationToken(token);
+		}
+		else if (strel instanceof NaiveBallStrel3D)
+		{
+			((NaiveBallStrel3D) strel).setCancellationToken(token);
+		}
+	}
 
 
 	/**
@@ -174,11 +421,19 @@ public class SlidingBallFilter3DPlugin implements PlugIn
 		if (image == null)
 			return null;
 		
+		// process each volume of hyperstacks
+		if (image.getNChannels() > 1 || image.getNFrames() > 1)
+		{
+			HyperstackFilter filter = new HyperstackFilter(strel);
+			DefaultAlgoListener.monitor(filter);
+			return filter.process(image, op);
+		}
+		
 		// extract the input stack
 		ImageStack inputStack = image.getStack();
 
 		// apply morphological operation
-		ImageStack resultStack = op.apply(inputStack, strel);
+		ImageStack resultStack = SlidingOperations.apply(op, inputStack, strel);
 
 		// create the new image plus from the processor
 		String newName = image.getShortTitle() + "-" + op.toString();
@@ -22,23 +22,38 @@
 package net.ijt.mmorph;
 
 
+import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
+import ij.gui.ImageCanvas;
+import ij.gui.Roi;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.PlugInFilterRunner;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import inra.ijpb.algo.DefaultAlgoListener;
 import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel;
+import net.ijt.mmorph.strel.AbstractSlidingStrel;
+import net.ijt.mmorph.strel.AutoStrelFactory;
+import net.ijt.mmorph.strel.CancellationToken;
 import net.ijt.mmorph.strel.NaiveDiskStrel;
+import net.ijt.mmorph.strel.SliceWiseFilter;
 import net.ijt.mmorph.strel.SlidingDiskStrel;
+import net.ijt.mmorph.strel.SlidingOperations;
+import net.ijt.mmorph.strel.StrelCostModel.Engine;
+import net.ijt.mmorph.strel.StrelWorkspace;
 
 import java.awt.AWTEvent;
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.concurrent.CancellationException;
 
 /**
  * Morphological filtering of grayscale images using several implementation
@@ -51,6 +66,21 @@ import java.awt.AWTEvent;
  * <li>ImageJ's native implementation, that also considers all the neighbors of
  * the current pixel</li>
  * </ul>
+ * 
+ * The "Auto" method chooses the implementation with the smallest running time
+ * estimated by the default cost model.
+ * 
+ * The preview only computes the visible part of the image (or the bounds of
+ * the current ROI), extended by the radius of the structuring element. The
+ * whole image is processed after the dialog is validated.
+ * 
+ * For stacks, the operation can be applied on each slice. Slices are
+ * processed concurrently, each thread using its own structuring element.
+ * 
+ * Previews are computed on a background thread: changing the parameters
+ * cancels the computation of the previous preview. The last computed previews
+ * are kept in a cache, so that going back to previous parameters is
+ * immediate.
  *
  * @author David Legland
  *
@@ -59,10 +89,10 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 		DialogListener 
 {
     // the list of available algorithms for comparison
-    public final static String[] algoList = new String[] {"Sliding Disk", "Naive Disk", "ImageJ native"};
+    public final static String[] algoList = new String[] {"Sliding Disk", "Naive Disk", "ImageJ native", "Auto"};
     
 	/** Apparently, it's better to store flags in plugin */
-	private int flags = DOES_ALL | KEEP_PREVIEW | FINAL_PROCESSING | NO_CHANGES;
+	private int flags = DOES_ALL | FINAL_PROCESSING | NO_CHANGES;
 	
 	PlugInFilterRunner pfr;
 	int nPasses;
@@ -76,16 +106,32 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 	
 	/** Keep instance of result image */
 	private ImageProcessor result;
+	
+	/** Keep instance of result stack, when all slices are processed */
+	private ImageStack resultStack;
 
 	/** an instance of ImagePlus to display the Strel */
 	private ImagePlus strelDisplay = null;
 	
+	/** computes the previews in the background, and keeps the last ones */
+	private PreviewWorker<ImageProcessor> previewWorker = new PreviewWorker<>(8);
+	
+	/** the structuring element of previews, kept while settings are unchanged */
+	private Strel previewStrel = null;
+	
+	/** the method and the radius of the structuring element of previews */
+	private String previewStrelKey = null;
+	
+	/** the buffers reused by successive previews */
+	private StrelWorkspace previewWorkspace = new StrelWorkspace();
+	
 
 	// Settings for initializing the plugin dialog
 	Operation op = Operation.DILATION;
 	int algoIndex = 0;
 	int radius = 2;
 	boolean showStrel;
+	boolean processStack = false;
 	
 	/**
 	 * Setup function is called in the beginning of the process, but also at the
@@ -97,8 +143,21 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 		if (arg.equals("final")) 
 		{
 			// replace the preview image by the original image 
+			previewWorker.shutdown();
 			resetPreview();
 			imagePlus.updateAndDraw();
+			
+			if (processStack)
+			{
+				showResultStack();
+				return DONE;
+			}
+			
+			// no result if the operation was cancelled
+			if (result == null)
+			{
+			    return DONE;
+			}
 	    	
 			// Create a new ImagePlus with the filter result
 			String newName = createResultImageName(imagePlus);
@@ -115,6 +174,7 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 	public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr)
 	{
 		// Normal setup
+    	this.pfr = pfr;
     	this.imagePlus = imp;
     	this.baseImage = imp.getProcessor().duplicate();
 
@@ -126,20 +186,30 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 		gd.addChoice("Method", algoList, algoList[algoIndex]);
 		gd.addNumericField("Radius (in pixels)", this.radius, 0);
 		gd.addCheckbox("Show Element", false);
+		if (imp.getStackSize() > 1)
+		{
+			gd.addCheckbox("Process all slices", this.processStack);
+		}
 		gd.addPreviewCheckbox(pfr);
 		gd.addDialogListener(this);
         previewing = true;
 		gd.addHelp("http://imagej.net/MorphoLibJ#Morphological_filters");
         gd.showDialog();
         previewing = false;
+        previewWorker.cancel();
         
         if (gd.wasCanceled()) 
         {
+        	previewWorker.shutdown();
         	resetPreview();
         	return DONE;
         }	
         
     	parseDialogParameters(gd);
+    	
+    	// the preview is restricted to the visible region, so the final run
+    	// processes the whole image
+    	this.previewing = false;
 			
 		// clean up an return 
 		gd.dispose();
@@ -154,6 +224,7 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
     	// if preview checkbox was unchecked, replace the preview image by the original image
     	if (wasPreview && !this.previewing)
     	{
+    		previewWorker.cancel();
     		resetPreview();
     	}
     	return true;
@@ -166,6 +237,10 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 		this.algoIndex  = gd.getNextChoiceIndex();
 		this.radius 	= (int) gd.getNextNumber();		
 		this.showStrel 	= gd.getNextBoolean();
+		if (this.imagePlus.getStackSize() > 1)
+		{
+			this.processStack = gd.getNextBoolean();
+		}
 		this.previewing = gd.getPreviewCheckbox().getState();
     }
     
@@ -177,18 +252,21 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 	@Override
 	public void run(ImageProcessor image)
 	{
-		// Create structuring element with the chosen radius
-		Strel strel;
-		switch (algoIndex)
+		if (previewing)
 		{
-            case 0: strel = new SlidingDiskStrel(radius); break;
-            case 1: strel = new NaiveDiskStrel(radius); break;
-            case 2: strel = Strel.Shape.DISK.fromRadius((int) radius); break;
-
-            default:
-                throw new RuntimeException("Unkown structuring element type");
+			Strel strel = previewStrel();
+			if (showStrel) 
+			{
+				showStrelImage(strel);
+			}
+			preview(strel);
+			return;
 		}
 		
+		// Create structuring element with the chosen radius
+		Supplier<Strel> strelFactory = createStrelFactory();
+		Strel strel = strelFactory.get();
+		
 		// add some listeners
 		DefaultAlgoListener.monitor(strel);
 		
@@ -198,35 +276,257 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 			showStrelImage(strel);
 		}
 		
+		if (processStack)
+		{
+			processStack(strelFactory);
+			return;
+		}
+		
+		// the whole image may have been computed by the preview
+		Rectangle bounds = new Rectangle(0, 0, baseImage.getWidth(), baseImage.getHeight());
+		result = previewWorker.getCached(previewKey(bounds));
+		if (result != null)
+		{
+			return;
+		}
+		
+		// allow to cancel the operation with the Escape key
+		setCancellationToken(strel, new EscapeCancellationToken());
+		
 		// Execute core of the plugin on the original image
-		result = op.apply(this.baseImage, strel);
+		try
+		{
+			result = SlidingOperations.apply(op, this.baseImage, strel);
+		}
+		catch (CancellationException ex)
+		{
+			result = null;
+			IJ.showProgress(1.0);
+			IJ.showStatus(op.toString() + " cancelled");
+			return;
+		}
 		if (!(result instanceof ColorProcessor))
 			result.setLut(this.baseImage.getLut());
+	}
+	
+	/**
+	 * Returns the function that creates the structuring element chosen within
+	 * the dialog. For the "Auto" method, the engine is selected only once.
+	 */
+	private Supplier<Strel> createStrelFactory()
+	{
+		int radius = this.radius;
+		switch (algoIndex)
+		{
+            case 0: return () -> new SlidingDiskStrel(radius);
+            case 1: return () -> new NaiveDiskStrel(radius);
+            case 2: return () -> Strel.Shape.DISK.fromRadius(radius);
+            case 3: 
+                Engine engine = AutoStrelFactory.selectEngine(this.baseImage, radius);
+                IJ.showStatus("Auto method: " + engine);
+                return () -> AutoStrelFactory.createDisk(engine, radius); 
 
-    	if (previewing) 
-    	{
-    		// Fill up the values of original image with values of the result
-    		for (int i = 0; i < image.getPixelCount(); i++)
-    		{
-    			image.setf(i, result.getf(i));
-    		}
-    		image.resetMinAndMax();
-        }
+            default:
+                throw new RuntimeException("Unkown structuring element type");
+		}
 	}
 	
-	private void resetPreview()
+	/**
+	 * Returns the structuring element used by the previews. It is created
+	 * again only when the method or the radius change, and sliding
+	 * structuring elements reuse the buffers of previous previews.
+	 */
+	private Strel previewStrel()
 	{
-		ImageProcessor image = this.imagePlus.getProcessor();
-		if (image instanceof FloatProcessor)
+		String key = algoList[algoIndex] + "/" + radius;
+		if (!key.equals(this.previewStrelKey))
+		{
+			Strel strel = createStrelFactory().get();
+			DefaultAlgoListener.monitor(strel);
+			if (strel instanceof AbstractSlidingStrel)
+			{
+				((AbstractSlidingStrel) strel).setWorkspace(this.previewWorkspace);
+			}
+			this.previewStrel = strel;
+			this.previewStrelKey = key;
+		}
+		return this.previewStrel;
+	}
+	
+	/**
+	 * Applies the operation on each slice of the stack, using one structuring
+	 * element for each thread.
+	 * 
+	 * @param strelFactory
+	 *            the function that creates the structuring elements
+	 */
+	private void processStack(Supplier<Strel> strelFactory)
+	{
+		// process the original content of the current slice
+		resetPreview();
+		
+		SliceWiseFilter filter = new SliceWiseFilter(strelFactory);
+		DefaultAlgoListener.monitor(filter);
+		filter.setCancellationToken(new EscapeCancellationToken());
+		try
+		{
+			resultStack = filter.process(this.imagePlus.getStack(), op);
+		}
+		catch (CancellationException ex)
 		{
-			for (int i = 0; i < image.getPixelCount(); i++)
-				image.setf(i, this.baseImage.getf(i));
+			resultStack = null;
+			IJ.showProgress(1.0);
+			IJ.showStatus(op.toString() + " cancelled");
 		}
-		else
+	}
+	
+	/**
+	 * Displays the result of the operation applied on each slice.
+	 */
+	private void showResultStack()
+	{
+		if (resultStack == null)
+		{
+			return;
+		}
+		
+		String newName = createResultImageName(imagePlus);
+		ImagePlus resPlus = new ImagePlus(newName, resultStack);
+		resPlus.copyScale(imagePlus);
+		resPlus.show();
+		resPlus.setSlice(imagePlus.getCurrentSlice());
+	}
+	
+	/**
+	 * Computes the preview of the operation within the visible region of the
+	 * image on the background thread, and copies it into the displayed image
+	 * once computed. The region is extended by the halo of the operation
+	 * before processing, such that the values within the visible region are
+	 * the same as for the whole image.
+	 * 
+	 * @param strel
+	 *            the structuring element to use for the operation
+	 */
+	private void preview(Strel strel)
+	{
+		Rectangle region = previewRegion();
+		if (region.isEmpty())
+		{
+			previewWorker.cancel();
+			return;
+		}
+		
+		// extend the region by the halo, and clip to image bounds
+		int halo = previewHalo();
+		Rectangle bounds = new Rectangle(0, 0, baseImage.getWidth(), baseImage.getHeight());
+		Rectangle extended = new Rectangle(region.x - halo, region.y - halo,
+				region.width + 2 * halo, region.height + 2 * halo).intersection(bounds);
+		
+		// process the extended region only, and keep the visible part 
+		Operation op = this.op;
+		Function<CancellationToken, ImageProcessor> computation = token -> {
+			setCancellationToken(strel, token);
+			ImageProcessor crop;
+			synchronized (baseImage)
+			{
+				baseImage.setRoi(extended);
+				crop = baseImage.crop();
+				baseImage.resetRoi();
+			}
+			ImageProcessor res = SlidingOperations.apply(op, crop, strel);
+			if (!(res instanceof ColorProcessor))
+				res.setLut(baseImage.getLut());
+			res.setRoi(region.x - extended.x, region.y - extended.y, region.width, region.height);
+			return res.crop();
+		};
+		
+		// restore the parts of image computed by previous previews, and copy
+		// the visible part of the result
+		Consumer<ImageProcessor> display = res -> {
+			ImageProcessor image = imagePlus.getProcessor();
+			System.arraycopy(baseImage.getPixels(), 0, image.getPixels(), 0, image.getPixelCount());
+			image.insert(res, region.x, region.y);
+			image.resetMinAndMax();
+			imagePlus.updateAndDraw();
+		};
+		
+		previewWorker.submit(previewKey(region), computation, display);
+	}
+	
+	/**
+	 * Returns the key identifying the result of current settings within the
+	 * specified region of the image.
+	 */
+	private PreviewWorker.Key previewKey(Rectangle region)
+	{
+		return new PreviewWorker.Key(baseImage, op, algoList[algoIndex], radius, region);
+	}
+	
+	/**
+	 * Allows to cancel the operations computed with the specified structuring
+	 * element.
+	 */
+	private static void setCancellationToken(Strel strel, CancellationToken token)
+	{
+		if (strel instanceof AbstractSlidingStrel)
+		{
+			((AbstractSlidingStrel) strel).setCancellationToken(token);
+		}
+		else if (strel instanceof NaiveDiskStrel)
+		{
+			((NaiveDiskStrel) strel).setCancellationToken(token);
+		}
+	}
+	
+	/**
+	 * Returns the region of the image computed by the preview: the bounds of
+	 * the current ROI if any, or the region displayed by the image canvas.
+	 * 
+	 * @return the region to preview, within the bounds of the image
+	 */
+	private Rectangle previewRegion()
+	{
+		Rectangle bounds = new Rectangle(0, 0, baseImage.getWidth(), baseImage.getHeight());
+		
+		Roi roi = this.imagePlus.getRoi();
+		if (roi != null)
+		{
+			return roi.getBounds().intersection(bounds);
+		}
+		
+		ImageCanvas canvas = this.imagePlus.getCanvas();
+		if (canvas != null)
 		{
-			for (int i = 0; i < image.getPixelCount(); i++)
-				image.set(i, this.baseImage.get(i));
+			return canvas.getSrcRect().intersection(bounds);
 		}
+		return bounds;
+	}
+	
+	/**
+	 * Returns the number of pixels around the preview region that are needed
+	 * for computing the operation within the region.
+	 * 
+	 * @return the size of the halo around the preview region
+	 */
+	private int previewHalo()
+	{
+		switch (op)
+		{
+		case OPENING:
+		case CLOSING:
+		case TOPHAT:
+		case BOTTOMHAT:
+			// two successive operations
+			return 2 * radius;
+		default:
+			return radius;
+		}
+	}
+	
+	private void resetPreview()
+	{
+		ImageProcessor image = this.imagePlus.getProcessor();
+		System.arraycopy(this.baseImage.getPixels(), 0, image.getPixels(), 0, image.getPixelCount());
 		imagePlus.updateAndDraw();
 	}
 	
@@ -284,7 +584,7 @@ public class SlidingDiskFilterPlugin implements ExtendedPlugInFilter,
 		ImageProcessor inputProcessor = image.getProcessor();
 		
 		// apply morphological operation
-		ImageProcessor resultProcessor = op.apply(inputProcessor, strel);
+		ImageProcessor resultProcessor = SlidingOperations.apply(op, inputProcessor, strel);
 		
 		// Keep same color model
 		resultProcessor.setColorModel(inputProcessor.getColorModel());
@@ -0,0 +1,559 @@
+/**
+ *
+ */
+package net.ijt.mmorph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.io.Opener;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+import net.ijt.mmorph.strel.AbstractSlidingStrel;
+import net.ijt.mmorph.strel.AbstractSlidingStrel3D;
+import net.ijt.mmorph.strel.AutoStrelFactory;
+import net.ijt.mmorph.strel.HyperstackFilter;
+import net.ijt.mmorph.strel.NaiveBallStrel3D;
+import net.ijt.mmorph.strel.NaiveDiskStrel;
+import net.ijt.mmorph.strel.SliceWiseFilter;
+import net.ijt.mmorph.strel.SlidingBallStrel3D;
+import net.ijt.mmorph.strel.SlidingDiskStrel;
+import net.ijt.mmorph.strel.SlidingOperations;
+
+/**
+ * <p>
+ * Headless command line tool that applies a morphological filter on all the
+ * images of a directory, or on all the files matching a glob pattern. Planar
+ * images, and each plane of time series or multi-channel images, are
+ * processed with disk structuring elements. Stacks, and each volume of
+ * hyperstacks, are processed with ball structuring elements. Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -cp Sliding_Strel.jar:ij.jar:MorphoLibJ.jar net.ijt.mmorph.SlidingStrelBatch \
+ *     --input "data/*.tif" --output results --op closing --engine sliding --radius 10 --jobs 4
+ * }</pre>
+ *
+ * <p>
+ * Images are read by a dedicated thread, that reads the next images while the
+ * previous ones are processed. The number of images processed concurrently is
+ * bounded, and the threads available for each image are shared between
+ * concurrent jobs. Results are saved as TIFF files within the output
+ * directory, named after the input files without their extension: input
+ * files that would result in the same output file are rejected before
+ * processing starts. The times for reading, processing and writing each
+ * file are appended to a CSV log as soon as the file is processed. The
+ * process exits with status 1 if at least one file could not be processed,
+ * and with status 2 if arguments are invalid.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+public class SlidingStrelBatch
+{
+    // ==================================================
+    // Inner class
+
+    /**
+     * A file read by the reader thread, waiting to be processed.
+     */
+    static class Item
+    {
+        File file;
+        ImagePlus image;
+        String error;
+        double readTime;
+    }
+
+    /**
+     * The item signaling the end of the input files to the workers.
+     */
+    static final Item END = new Item();
+
+    static final String LOG_HEADER = "file;sizeX;sizeY;sizeZ;bitDepth;strel;read_ms;process_ms;write_ms;status";
+
+
+    // ==================================================
+    // Class variables
+
+    String input = null;
+    File outputDir = null;
+    Operation operation = Operation.DILATION;
+    String engine = "sliding";
+    double radius = 2;
+    int jobs = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    File logFile = null;
+
+    PrintWriter log;
+    AtomicInteger failures = new AtomicInteger(0);
+
+
+    // ==================================================
+    // Main
+
+    /**
+     * Runs the batch processing.
+     *
+     * @param args
+     *            the command line arguments
+     * @throws Exception
+     *             if the log file can not be written
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        SlidingStrelBatch batch = new SlidingStrelBatch();
+        List<File> files;
+        try
+        {
+            batch.parseArguments(args);
+            files = listFiles(batch.input);
+            batch.checkOutputNames(files);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.err.println("Error: " + ex.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        int nFiles = files.size();
+        System.out.println(String.format("Processing %d file(s) with %d job(s)", nFiles, batch.jobs));
+        long t0 = System.nanoTime();
+        batch.run(files);
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+
+        int nFailures = batch.failures.get();
+        System.out.println(String.format(Locale.ENGLISH, "Processed %d file(s) in %.1f s, %d failure(s)",
+                nFiles, elapsed, nFailures));
+        System.exit(nFailures > 0 ? 1 : 0);
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: SlidingStrelBatch --input DIR|GLOB --output DIR [options]");
+        System.err.println("  --input DIR|GLOB   directory containing the images, or glob pattern such as \"data/*.tif\"");
+        System.err.println("  --output DIR       directory of the result images");
+        System.err.println("  --op NAME          operation, such as dilation, erosion, closing, opening (default dilation)");
+        System.err.println("  --engine NAME      sliding, naive, native or auto (default sliding)");
+        System.err.println("  --radius R         radius of the disk or ball structuring element (default 2)");
+        System.err.println("  --jobs N           number of images processed concurrently (default min(4, processors))");
+        System.err.println("  --log FILE         timing log (default batch-log.csv within the output directory)");
+    }
+
+
+    // ==================================================
+    // Methods
+
+    void parseArguments(String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("Missing value for argument: " + arg);
+            }
+            String value = args[++i];
+
+            switch (arg)
+            {
+            case "--input": this.input = value; break;
+            case "--output": this.outputDir = new File(value); break;
+            case "--op": this.operation = Operation.valueOf(value.toUpperCase(Locale.ENGLISH)); break;
+            case "--engine": this.engine = value.toLowerCase(Locale.ENGLISH); break;
+            case "--radius": this.radius = Double.parseDouble(value); break;
+            case "--jobs": this.jobs = Integer.parseInt(value); break;
+            case "--log": this.logFile = new File(value); break;
+            default:
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        if (this.input == null || this.outputDir == null)
+        {
+            throw new IllegalArgumentException("Input and output must be specified");
+        }
+        if (!Arrays.asList("sliding", "naive", "native", "auto").contains(this.engine))
+        {
+            throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+        if (this.jobs < 1)
+        {
+            throw new IllegalArgumentException("Number of jobs must be at least 1");
+        }
+        if (this.logFile == null)
+        {
+            this.logFile = new File(this.outputDir, "batch-log.csv");
+        }
+    }
+
+    /**
+     * Lists the files within a directory, or the files matching a glob
+     * pattern applied on file names.
+     *
+     * @param input
+     *            a directory, or a glob pattern such as "data/*.tif"
+     * @return the list of files, sorted by name
+     */
+    static List<File> listFiles(String input)
+    {
+        File dir = new File(input);
+        PathMatcher matcher = null;
+        if (!dir.isDirectory())
+        {
+            dir = new File(input).getAbsoluteFile().getParentFile();
+            String pattern = new File(input).getName();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            if (dir == null || !dir.isDirectory())
+            {
+                throw new IllegalArgumentException("Input directory does not exist: " + input);
+            }
+        }
+
+        File[] candidates = dir.listFiles();
+        List<File> files = new ArrayList<>();
+        for (File file : candidates != null ? candidates : new File[0])
+        {
+            if (!file.isFile() || file.isHidden())
+            {
+                continue;
+            }
+            Path name = Paths.get(file.getName());
+            if (matcher == null || matcher.matches(name))
+            {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Computes the name of the result file of an input file, made of the
+     * name of the input file without extension, and of the operation.
+     *
+     * @param file
+     *            the input file
+     * @return the name of the result file
+     */
+    String outputName(File file)
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+        {
+            name = name.substring(0, dot);
+        }
+        return name + "-" + this.operation.name().toLowerCase(Locale.ENGLISH) + ".tif";
+    }
+
+    /**
+     * Checks that the input files result in different output files, such
+     * that concurrent jobs never write the same file. Names are compared
+     * ignoring case, for file systems that are not case sensitive.
+     *
+     * @param files
+     *            the input files
+     * @throws IllegalArgumentException
+     *             if two files result in the same output file
+     */
+    void checkOutputNames(List<File> files)
+    {
+        Map<String, File> outputs = new HashMap<>();
+        for (File file : files)
+        {
+            String name = outputName(file).toLowerCase(Locale.ENGLISH);
+            File previous = outputs.put(name, file);
+            if (previous != null)
+            {
+                throw new IllegalArgumentException("Files " + previous.getName() + " and " + file.getName()
+                        + " would both be written to " + outputName(file));
+            }
+        }
+    }
+
+    /**
+     * Processes the files, using a reader thread and a bounded number of
+     * worker threads.
+     *
+     * @param files
+     *            the files to process
+     * @throws IOException
+     *             if the log file can not be written
+     * @throws InterruptedException
+     *             if the thread is interrupted
+     */
+    void run(List<File> files) throws IOException, InterruptedException
+    {
+        if (!this.outputDir.isDirectory() && !this.outputDir.mkdirs())
+        {
+            throw new IOException("Could not create output directory: " + this.outputDir);
+        }
+
+        // threads available for processing each image
+        int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / this.jobs);
+
+        try (PrintWriter writer = new PrintWriter(this.logFile, "UTF-8"))
+        {
+            this.log = writer;
+            writer.println(LOG_HEADER);
+            writer.flush();
+
+            // the reader stays at most one image ahead of each worker
+            BlockingQueue<Item> queue = new ArrayBlockingQueue<>(this.jobs);
+            Thread reader = new Thread(() -> readFiles(files, queue), "batch-reader");
+            reader.start();
+
+            Thread[] workers = new Thread[this.jobs];
+            for (int i = 0; i < this.jobs; i++)
+            {
+                workers[i] = new Thread(() -> processItems(queue, nThreads), "batch-worker-" + i);
+                workers[i].start();
+            }
+
+            reader.join();
+            for (Thread worker : workers)
+            {
+                worker.join();
+            }
+        }
+    }
+
+    private void readFiles(List<File> files, BlockingQueue<Item> queue)
+    {
+        try
+        {
+            for (File file : files)
+            {
+                Item item = new Item();
+                item.file = file;
+                long t0 = System.nanoTime();
+                try
+                {
+                    item.image = new Opener().openImage(file.getPath());
+                    if (item.image == null)
+                    {
+                        item.error = "could not read image";
+                    }
+                }
+                catch (Throwable ex)
+                {
+                    // including OutOfMemoryError for large stacks
+                    item.image = null;
+                    item.error = ex.toString();
+                }
+                item.readTime = (System.nanoTime() - t0) / 1e6;
+                queue.put(item);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            // one end marker for each worker, such that workers always stop
+            for (int i = 0; i < this.jobs; i++)
+            {
+                putUninterruptibly(queue, END);
+            }
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Item> queue, Item item)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                queue.put(item);
+                break;
+            }
+            catch (InterruptedException ex)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processItems(BlockingQueue<Item> queue, int nThreads)
+    {
+        try
+        {
+            Item item;
+            while ((item = queue.take()) != END)
+            {
+                processItem(item, nThreads);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void processItem(Item item, int nThreads)
+    {
+        ImagePlus image = item.image;
+        if (image == null)
+        {
+            logResult(item, null, "", 0, 0, item.error);
+            return;
+        }
+
+        String strelName = "";
+        double processTime = 0;
+        double writeTime = 0;
+        String status = "ok";
+        try
+        {
+            long t0 = System.nanoTime();
+            ImagePlus result;
+            ImageStack stack = image.getStack();
+            String title = image.getShortTitle();
+            if (stack.getSize() == 1)
+            {
+                ImageProcessor ip = image.getProcessor();
+                Strel strel = createDisk(ip, nThreads);
+                strelName = strel.getClass().getSimpleName();
+                result = new ImagePlus(title, SlidingOperations.apply(this.operation, ip, strel));
+            }
+            else if (image.getNSlices() == 1)
+            {
+                // time series or multi-channel image: each plane is filtered
+                strelName = createDisk(stack.getProcessor(1), 1).getClass().getSimpleName();
+                SliceWiseFilter filter = new SliceWiseFilter(() -> createDisk(stack.getProcessor(1), 1));
+                filter.setThreadCount(nThreads);
+                result = new ImagePlus(title, filter.process(stack, this.operation));
+                result.setDimensions(image.getNChannels(), 1, image.getNFrames());
+                result.setOpenAsHyperStack(image.isHyperStack());
+            }
+            else if (image.getNChannels() > 1 || image.getNFrames() > 1)
+            {
+                // hyperstack: each volume is filtered
+                Strel3D strel = createBall(stack, nThreads);
+                strelName = strel.getClass().getSimpleName();
+                HyperstackFilter filter = new HyperstackFilter(strel);
+                filter.setThreadCount(nThreads);
+                result = filter.process(image, this.operation);
+            }
+            else
+            {
+                Strel3D strel = createBall(stack, nThreads);
+                strelName = strel.getClass().getSimpleName();
+                result = new ImagePlus(title, SlidingOperations.apply(this.operation, stack, strel));
+            }
+            result.copyScale(image);
+            long t1 = System.nanoTime();
+            processTime = (t1 - t0) / 1e6;
+
+            File file = new File(this.outputDir, outputName(item.file));
+            FileSaver saver = new FileSaver(result);
+            boolean saved = result.getStackSize() > 1 ? saver.saveAsTiffStack(file.getPath()) : saver.saveAsTiff(file.getPath());
+            if (!saved)
+            {
+                status = "could not write " + file.getName();
+            }
+            writeTime = (System.nanoTime() - t1) / 1e6;
+        }
+        catch (Throwable ex)
+        {
+            status = ex.toString();
+        }
+
+        logResult(item, image, strelName, processTime, writeTime, status);
+
+        // release the input image before waiting for the next one
+        item.image = null;
+    }
+
+    private Strel createDisk(ImageProcessor image, int nThreads)
+    {
+        switch (this.engine)
+        {
+        case "sliding":
+            SlidingDiskStrel strel = new SlidingDiskStrel(this.radius);
+            strel.setThreadCount(nThreads);
+            return strel;
+        case "naive": return new NaiveDiskStrel(this.radius);
+        case "native": return Strel.Shape.DISK.fromRadius((int) this.radius);
+        default:
+            Strel auto = AutoStrelFactory.createDisk(image, this.radius);
+            if (auto instanceof AbstractSlidingStrel)
+            {
+                ((AbstractSlidingStrel) auto).setThreadCount(nThreads);
+            }
+            return auto;
+        }
+    }
+
+    private Strel3D createBall(ImageStack image, int nThreads)
+    {
+        switch (this.engine)
+        {
+        case "sliding":
+            SlidingBallStrel3D strel = new SlidingBallStrel3D(this.radius);
+            strel.setThreadCount(nThreads);
+            return strel;
+        case "naive": return new NaiveBallStrel3D(this.radius);
+        case "native": return Strel3D.Shape.BALL.fromRadius((int) this.radius);
+        default:
+            Strel3D auto = AutoStrelFactory.createBall(image, this.radius);
+            if (auto instanceof AbstractSlidingStrel3D)
+            {
+                ((AbstractSlidingStrel3D) auto).setThreadCount(nThreads);
+            }
+            return auto;
+        }
+    }
+
+    private void logResult(Item item, ImagePlus image, String strelName, double processTime, double writeTime, String status)
+    {
+        if (!status.equals("ok"))
+        {
+            this.failures.incrementAndGet();
+            System.err.println(item.file.getName() + ": " + status);
+        }
+
+        String line = String.format(Locale.ENGLISH, "%s;%d;%d;%d;%d;%s;%.1f;%.1f;%.1f;%s",
+                item.file.getName(),
+                image != null ? image.getWidth() : 0,
+                image != null ? image.getHeight() : 0,
+                image != null ? image.getStackSize() : 0,
+                image != null ? image.getBitDepth() : 0,
+                strelName, item.readTime, processTime, writeTime, status.replace(';', ','));
+        synchronized (this.log)
+        {
+            this.log.println(line);
+            this.log.flush();
+        }
+    }
+}
@@ -0,0 +1,1653 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.strel.AbstractStrel;
+
+/**
+ * <p>
+ * Base class for planar structuring elements that can be decomposed into a
+ * set of horizontal chords. Each chord is described by its vertical offset,
+ * the horizontal offset of its center, and its half-width.
+ * </p>
+ * 
+ * <p>
+ * Dilation and erosion are computed by sliding the structuring element along
+ * each row of the image. For each new position, only the values entering and
+ * leaving the chords are updated within a local histogram. Binary images are
+ * processed with dedicated engines. The channels of color images are
+ * processed concurrently as 8-bit images.
+ * </p>
+ * 
+ * <p>
+ * When the memory needed by an operation exceeds the available memory, the
+ * image is processed by bands of rows.
+ * </p>
+ * 
+ * <p>
+ * Sub-classes are responsible for initializing the chord arrays
+ * <code>xOffsets</code>, <code>yOffsets</code> and <code>xCenters</code>
+ * within their constructor.
+ * </p>
+ * 
+ * @see SlidingDiskStrel
+ * @see SlidingEllipseStrel
+ * @see SlidingMaskStrel
+ * @see AbstractSlidingStrel3D
+ * 
+ * @author dlegland
+ *
+ */
+public abstract class AbstractSlidingStrel extends AbstractStrel implements Strel, MemoryFootprint
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The minimal radius for processing binary images by thresholding a
+     * distance map instead of using bit-packed rows, measured with the
+     * BinaryEngine2DBenchmark on 2048x2048 images.
+     */
+    static final int DISTANCE_TRANSFORM_MIN_RADIUS = 240;
+    
+    /**
+     * The half-width of each horizontal chord.
+     */
+    int[] xOffsets;
+    
+    /**
+     * The vertical offset of each horizontal chord, relative to the center.
+     */
+    int[] yOffsets;
+    
+    /**
+     * The horizontal offset of the center of each chord, relative to the
+     * center. Equal to zero for structuring elements symmetric with respect to
+     * the vertical axis.
+     */
+    int[] xCenters;
+    
+    /**
+     * An array of shifts referring to strel elements, relative to center pixel.
+     * Used for lazy evaluation of getShifts() method. 
+     */
+    int[][] shiftArray;
+
+    /**
+     * The listeners notified with histogram counters at the end of each
+     * operation, when instrumentation is enabled.
+     */
+    List<HistogramCountersListener> countersListeners = new ArrayList<>();
+
+    /**
+     * The number of threads used for processing bands of rows, or 0 for
+     * using the number of threads specified within ImageJ preferences.
+     */
+    int threadCount = 0;
+    
+    /**
+     * The token checked between the processing of two rows, or null.
+     */
+    CancellationToken cancellationToken = null;
+    
+    /**
+     * The amount of memory operations can allocate, or 0 for using the memory
+     * available within the Java heap.
+     */
+    long memoryLimit = 0;
+    
+    /**
+     * The workspace that provides the buffers of operations, or null for
+     * allocating them for each operation.
+     */
+    StrelWorkspace workspace = null;
+    
+    /**
+     * The reversed structuring element, created when needed.
+     */
+    private AbstractSlidingStrel reversed = null;
+    
+    
+    // ==================================================
+    // Specific methods
+    
+    /**
+     * @return the number of non zero elements within this structuring element.
+     */
+    int elementCount()
+    {
+        int count = 0;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            count += 2 * this.xOffsets[i] + 1;
+        }
+        return count;
+    }
+    
+    /**
+     * @return the largest offset between the center and the pixels of this
+     *         structuring element, along the x and y directions.
+     */
+    int chordRadius()
+    {
+        int radius = 0;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            radius = Math.max(radius, Math.abs(this.xCenters[i]) + this.xOffsets[i]);
+            radius = Math.max(radius, Math.abs(this.yOffsets[i]));
+        }
+        return radius;
+    }
+    
+    /**
+     * Returns the squared radius to use for processing binary images with a
+     * distance map, or -1 if they should be processed with bit-packed rows.
+     * 
+     * @return the squared radius of the disk, or -1.
+     */
+    private int binarySquaredRadius()
+    {
+        if (chordRadius() < DISTANCE_TRANSFORM_MIN_RADIUS)
+        {
+            return -1;
+        }
+        for (int xCenter : this.xCenters)
+        {
+            if (xCenter != 0)
+            {
+                return -1;
+            }
+        }
+        return DistanceTransformBinaryEngine.squaredRadius(this.xOffsets, this.yOffsets, new int[this.xOffsets.length]);
+    }
+    
+    
+    private BitPackedBinaryEngine createBinaryEngine(StrelWorkspace workspace)
+    {
+        BitPackedBinaryEngine engine = new BitPackedBinaryEngine(this.xOffsets, this.yOffsets, new int[this.xOffsets.length], this.xCenters);
+        engine.setWorkspace(workspace);
+        engine.setCancellationToken(this.cancellationToken);
+        engine.setProgressListener((count, total) -> fireProgressChanged(this, count, total));
+        return engine;
+    }
+    
+    private DistanceTransformBinaryEngine createDistanceTransformEngine(int squaredRadius, StrelWorkspace workspace)
+    {
+        DistanceTransformBinaryEngine engine = new DistanceTransformBinaryEngine(squaredRadius);
+        engine.setWorkspace(workspace);
+        engine.setCancellationToken(this.cancellationToken);
+        engine.setProgressListener((count, total) -> fireProgressChanged(this, count, total));
+        return engine;
+    }
+    
+    private ShiftedRowsEngine createShiftedRowsEngine(int nThreads)
+    {
+        ShiftedRowsEngine engine = new ShiftedRowsEngine(this.xOffsets, this.yOffsets, this.xCenters);
+        engine.setThreadCount(nThreads);
+        engine.setCancellationToken(this.cancellationToken);
+        engine.setProgressListener((count, total) -> fireProgressChanged(this, count, total));
+        return engine;
+    }
+    
+    
+    // ==================================================
+    // Multi-threading and cancellation
+
+    /**
+     * Changes the number of threads used for processing bands of image rows
+     * with local histograms or shifted rows.
+     * 
+     * @param threadCount
+     *            the number of threads, or 0 for using the number of threads
+     *            specified within ImageJ preferences
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = threadCount;
+    }
+    
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two rows, and cancelled operations
+     * throw a CancellationException.
+     * 
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+    
+    /**
+     * Called before processing each row: checks if the operation was
+     * cancelled, and reports progress at a bounded rate.
+     */
+    private void nextRow(ProgressCounter progress)
+    {
+        if (this.cancellationToken != null)
+        {
+            this.cancellationToken.checkCancelled();
+        }
+        long count = progress.increment();
+        if (count >= 0)
+        {
+            fireProgressChanged(this, count, progress.total);
+        }
+    }
+    
+    /**
+     * @return the reversed structuring element, using the same number of
+     *         threads, cancellation token and memory limit as this one.
+     */
+    private AbstractSlidingStrel reverseWithSettings()
+    {
+        if (this.reversed == null)
+        {
+            this.reversed = (AbstractSlidingStrel) reverse();
+        }
+        AbstractSlidingStrel strel = this.reversed;
+        strel.threadCount = this.threadCount;
+        strel.cancellationToken = this.cancellationToken;
+        strel.memoryLimit = this.memoryLimit;
+        return strel;
+    }
+    
+    
+    // ==================================================
+    // Workspace management
+    
+    /**
+     * Specifies the workspace that provides the local histograms, the
+     * buffers of the binary engines and the intermediate images of closing
+     * and opening. Repeated operations on images with the same size then
+     * reuse the same buffers. The workspace can be shared with other
+     * structuring elements.
+     * 
+     * @param workspace
+     *            the workspace, or null for allocating buffers for each
+     *            operation
+     */
+    public void setWorkspace(StrelWorkspace workspace)
+    {
+        this.workspace = workspace;
+    }
+    
+    /**
+     * Returns the workspace used by an operation: the workspace of this
+     * structuring element if it is not used by another operation, or a new
+     * workspace otherwise.
+     */
+    private StrelWorkspace acquireWorkspace()
+    {
+        StrelWorkspace workspace = this.workspace;
+        if (workspace != null && workspace.acquire())
+        {
+            return workspace;
+        }
+        return new StrelWorkspace();
+    }
+    
+    
+    // ==================================================
+    // Memory management
+    
+    @Override
+    public long estimateMemory(Operation operation, int[] dims, int bitDepth)
+    {
+        // 8-bit images may be processed by the binary engines or by the
+        // histograms, depending on their content
+        long bytes = estimateMemory(operation, dims, bitDepth, false);
+        if (bitDepth == 8)
+        {
+            bytes = Math.max(bytes, estimateMemory(operation, dims, bitDepth, true));
+        }
+        return bytes;
+    }
+    
+    private long estimateMemory(Operation operation, int[] dims, int bitDepth, boolean binary)
+    {
+        long imageBytes = MemoryStreaming.imageBytes(dims, bitDepth);
+        long bytes = MemoryStreaming.imageCount(operation) * imageBytes + engineBytes(dims, binary);
+        if (bitDepth == 24)
+        {
+            // unpacked channels and their results
+            bytes += 6L * dims[0] * dims[1];
+        }
+        return bytes;
+    }
+    
+    /**
+     * Estimates the memory allocated by the engine, in addition to the
+     * result image.
+     */
+    private long engineBytes(int[] dims, boolean binary)
+    {
+        int sizeX = dims[0];
+        int sizeY = dims[1];
+        if (binary)
+        {
+            if (binarySquaredRadius() >= 0)
+            {
+                // squared distance map
+                return 4L * sizeX * sizeY;
+            }
+            // packed rows of the input, of the dilated rows, and of the result
+            long nWords = (sizeX + 2 * chordRadius() + 63) / 64;
+            return 3L * sizeY * (8 * nWords + 16);
+        }
+        if (chordRadius() <= ShiftedRowsEngine.MAX_RADIUS)
+        {
+            return 0;
+        }
+        // one local histogram and one cache of run ends per thread
+        long span = 2 * chordRadius() + 1;
+        return RowBands.threadCount(this.threadCount, sizeY) * (64L * elementCount() + 4 * span * sizeX);
+    }
+    
+    @Override
+    public void setMemoryLimit(long limit)
+    {
+        this.memoryLimit = limit;
+    }
+    
+    /**
+     * Computes the number of rows to process together for applying the
+     * specified operation, or 0 if the whole image can be processed at once.
+     */
+    private int bandSize(Operation operation, ImageProcessor image)
+    {
+        int[] dims = new int[] {image.getWidth(), image.getHeight()};
+        int bitDepth = image.getBitDepth();
+        boolean binary = image instanceof ByteProcessor && BitPackedBinaryEngine.isBinary((ByteProcessor) image);
+        if (estimateMemory(operation, dims, bitDepth, binary) <= MemoryStreaming.availableMemory(this.memoryLimit))
+        {
+            return 0;
+        }
+        
+        return MemoryStreaming.slabSize(
+                n -> estimateMemory(operation, new int[] {dims[0], n}, bitDepth, binary),
+                dims[1], MemoryStreaming.halo(operation, chordRadius()), 
+                MemoryStreaming.imageBytes(dims, bitDepth), 
+                MemoryStreaming.imageBytes(new int[] {dims[0], 1}, bitDepth), this.memoryLimit);
+    }
+    
+    
+    // ==================================================
+    // Management of histogram counters listeners
+
+    /**
+     * Adds a listener notified with histogram counters at the end of each
+     * operation. Listeners are notified only when instrumentation is enabled.
+     * 
+     * @see HistogramCounters#ENABLED
+     * 
+     * @param listener
+     *            the listener to add
+     */
+    public void addCountersListener(HistogramCountersListener listener)
+    {
+        this.countersListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener of histogram counters.
+     * 
+     * @param listener
+     *            the listener to remove
+     */
+    public void removeCountersListener(HistogramCountersListener listener)
+    {
+        this.countersListeners.remove(listener);
+    }
+
+    private void fireCountersReported(HistogramCounters counters)
+    {
+        counters.finish();
+        for (HistogramCountersListener listener : this.countersListeners)
+        {
+            listener.countersReported(this, counters);
+        }
+    }
+    
+    
+    // ==================================================
+    // Validation of result images
+    
+    static void checkTarget(ImageProcessor array, ImageProcessor target)
+    {
+        if (target.getWidth() != array.getWidth() || target.getHeight() != array.getHeight()
+                || target.getBitDepth() != array.getBitDepth())
+        {
+            throw new RuntimeException("The result image must have the same size and type as the input image");
+        }
+        if (target.getPixels() == array.getPixels())
+        {
+            throw new RuntimeException("The result image must not share the pixels of the input image");
+        }
+    }
+    
+    private static void checkLength(int length, int targetLength, int sizeX, int sizeY)
+    {
+        if (length != sizeX * sizeY || targetLength != sizeX * sizeY)
+        {
+            throw new RuntimeException("The length of pixel arrays must be " + sizeX + "x" + sizeY);
+        }
+    }
+    
+    
+    // ==================================================
+    // Implementation of the Strel interface
+
+    @Override
+    public ImageProcessor dilation(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.DILATION, array);
+        if (bandSize > 0)
+        {
+            return MemoryStreaming.processBands(array, chordRadius(), bandSize, this::dilationInMemory);
+        }
+        return dilationInMemory(array);
+    }
+    
+    /**
+     * Computes the dilation of an image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param array
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its pixels
+     * @return the target image
+     */
+    public ImageProcessor dilation(ImageProcessor array, ImageProcessor target)
+    {
+        checkTarget(array, target);
+        return dilationInMemory(array, target);
+    }
+    
+    /**
+     * Computes the dilation of an 8-bits image given as a pixel array, and
+     * stores the result within an existing array.
+     * 
+     * @param pixels
+     *            the pixels of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the array that receives the result
+     */
+    public void dilation(byte[] pixels, int sizeX, int sizeY, byte[] target)
+    {
+        checkLength(pixels.length, target.length, sizeX, sizeY);
+        dilation(new ByteProcessor(sizeX, sizeY, pixels), new ByteProcessor(sizeX, sizeY, target));
+    }
+    
+    /**
+     * Computes the dilation of a 32-bits image given as a pixel array, and
+     * stores the result within an existing array.
+     * 
+     * @param pixels
+     *            the pixels of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the array that receives the result
+     */
+    public void dilation(float[] pixels, int sizeX, int sizeY, float[] target)
+    {
+        checkLength(pixels.length, target.length, sizeX, sizeY);
+        dilation(new FloatProcessor(sizeX, sizeY, pixels), new FloatProcessor(sizeX, sizeY, target));
+    }
+    
+    private ImageProcessor dilationInMemory(ImageProcessor array)
+    {
+        return dilationInMemory(array, array.createProcessor(array.getWidth(), array.getHeight()));
+    }
+    
+    private ImageProcessor dilationInMemory(ImageProcessor array, ImageProcessor target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            return dilationInMemory(array, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Computes the dilation of the whole image using the specified workspace,
+     * already acquired by the caller.
+     */
+    ImageProcessor dilationInMemory(ImageProcessor array, ImageProcessor target, StrelWorkspace workspace)
+    {
+        OperationEvent event = OperationEvent.begin("Dilation");
+        ImageProcessor res = computeDilation(array, target, null, event, RowBands.threadCount(this.threadCount, array.getHeight()), workspace);
+        event.end(array, chordRadius());
+        return res;
+    }
+    
+    private ImageProcessor computeDilation(ImageProcessor array, ImageProcessor res, ImageProcessor original, OperationEvent event, int nThreads, StrelWorkspace workspace)
+    {
+        if (array instanceof ColorProcessor)
+        {
+            // channel events are not committed, the operation is recorded once
+            event.setEngine("Channels", "UInt8");
+            event.threads = nThreads;
+            return residue(original, ColorChannels.process((ColorProcessor) array, (ColorProcessor) res, nThreads, workspace, 
+                    (channel, channelRes, channelThreads, channelWorkspace) -> 
+                    computeDilation(channel, channelRes, null, OperationEvent.begin("Dilation"), channelThreads, channelWorkspace)), true);
+        }
+        
+        if (array instanceof ByteProcessor)
+        {
+            ByteProcessor image = (ByteProcessor) array;
+            if (BitPackedBinaryEngine.isBinary(image))
+            {
+                int squaredRadius = binarySquaredRadius();
+                if (squaredRadius >= 0)
+                {
+                    event.setEngine("DistanceTransform", "");
+                    return residue(original, createDistanceTransformEngine(squaredRadius, workspace).dilation(image, (ByteProcessor) res), true);
+                }
+                event.setEngine("BitPacked", "");
+                return residue(original, createBinaryEngine(workspace).dilation(image, (ByteProcessor) res), true);
+            }
+        }
+        
+        if (chordRadius() <= ShiftedRowsEngine.MAX_RADIUS && ShiftedRowsEngine.accepts(array))
+        {
+            event.setEngine(ShiftedRowsEngine.isVectorized() ? "ShiftedRowsVector" : "ShiftedRows", "");
+            event.threads = nThreads;
+            return residue(original, createShiftedRowsEngine(nThreads).dilation(array, res), true);
+        }
+        
+        if (array instanceof ByteProcessor)
+        {
+            event.setEngine("Histogram", "UInt8");
+            event.threads = nThreads;
+            return slidingDilationUInt8((ByteProcessor) array, (ByteProcessor) res, original, nThreads, workspace);
+        }
+        else if (array instanceof FloatProcessor)
+        {
+            event.setEngine("Histogram", "DoubleHashMap");
+            event.threads = nThreads;
+            return slidingDilationFloat32((FloatProcessor) array, (FloatProcessor) res, original, nThreads, workspace);
+        }
+        throw new RuntimeException("Can not process input with class: " + array.getClass().getName());
+    }
+    
+    private ByteProcessor slidingDilationUInt8(ByteProcessor array, ByteProcessor res, ImageProcessor original, int nThreads, StrelWorkspace workspace)
+    {
+        int sizeY = array.getHeight();
+        workspace.ensureBands(nThreads);
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        ProgressCounter progress = new ProgressCounter(sizeY);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Dilation UInt8") : null;
+        RowBands.process(sizeY, nThreads, 
+                (band, y0, y1) -> slidingDilationUInt8(array, res, original, y0, y1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeY, sizeY);
+        
+        return res;
+    }
+
+    private void slidingDilationUInt8(ByteProcessor array, ByteProcessor res, ImageProcessor original, int y0, int y1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getWidth();
+        int sizeY = array.getHeight();
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final int OUTSIDE = 0;
+        LocalHistogramUInt8 localHisto = workspace.histogramUInt8(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = new FlatZones(this.xOffsets, this.xCenters, this.yOffsets, null, 
+                new Object[] {array.getPixels()}, sizeX, sizeY, workspace, band);
+
+        // temp variables for updating local histogram
+        int vOld, vNew;
+        
+        // Iterate on image rows indexed by y
+        for (int y = y0; y < y1; y++)
+        {
+            nextRow(progress);
+            
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.get(x2, y2));
+                }
+            }
+
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            flatZones.setRow(y, 0);
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        int value = (int) flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.set(x2, y, original == null ? value : original.get(x2, y) - value);
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                // iterate over the list of offsets
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
+
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
+
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                int value = (int) localHisto.getMaxValue();
+                res.set(x, y, original == null ? value : original.get(x, y) - value);
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+
+    private FloatProcessor slidingDilationFloat32(FloatProcessor array, FloatProcessor res, ImageProcessor original, int nThreads, StrelWorkspace workspace)
+    {
+        int sizeY = array.getHeight();
+        workspace.ensureBands(nThreads);
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        ProgressCounter progress = new ProgressCounter(sizeY);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Dilation DoubleHashMap") : null;
+        RowBands.process(sizeY, nThreads, 
+                (band, y0, y1) -> slidingDilationFloat32(array, res, original, y0, y1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeY, sizeY);
+        
+        return res;
+    }
+
+    private void slidingDilationFloat32(FloatProcessor array, FloatProcessor res, ImageProcessor original, int y0, int y1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getWidth();
+        int sizeY = array.getHeight();
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final double OUTSIDE = Double.NEGATIVE_INFINITY;
+        LocalHistogramDoubleHashMap localHisto = workspace.histogramDouble(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = new FlatZones(this.xOffsets, this.xCenters, this.yOffsets, null, 
+                new Object[] {array.getPixels()}, sizeX, sizeY, workspace, band);
+
+        // temp variables for updating local histogram
+        double vOld, vNew;
+        
+        // Iterate on image rows
+        for (int y = y0; y < y1; y++)
+        {
+            nextRow(progress);
+
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.getf(x2, y2));
+                }
+            }
+
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            flatZones.setRow(y, 0);
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        double value = flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.setf(x2, y, (float) (original == null ? value : original.getf(x2, y) - value));
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+                    
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
+                        
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
+                        
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                double value = localHisto.getMaxValue();
+                res.setf(x, y, (float) (original == null ? value : original.getf(x, y) - value));
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+    
+    @Override
+    public ImageProcessor erosion(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.EROSION, array);
+        if (bandSize > 0)
+        {
+            return MemoryStreaming.processBands(array, chordRadius(), bandSize, this::erosionInMemory);
+        }
+        return erosionInMemory(array);
+    }
+    
+    /**
+     * Computes the erosion of an image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param array
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its pixels
+     * @return the target image
+     */
+    public ImageProcessor erosion(ImageProcessor array, ImageProcessor target)
+    {
+        checkTarget(array, target);
+        return erosionInMemory(array, target);
+    }
+    
+    /**
+     * Computes the erosion of an 8-bits image given as a pixel array, and
+     * stores the result within an existing array.
+     * 
+     * @param pixels
+     *            the pixels of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the array that receives the result
+     */
+    public void erosion(byte[] pixels, int sizeX, int sizeY, byte[] target)
+    {
+        checkLength(pixels.length, target.length, sizeX, sizeY);
+        erosion(new ByteProcessor(sizeX, sizeY, pixels), new ByteProcessor(sizeX, sizeY, target));
+    }
+    
+    /**
+     * Computes the erosion of a 32-bits image given as a pixel array, and
+     * stores the result within an existing array.
+     * 
+     * @param pixels
+     *            the pixels of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the array that receives the result
+     */
+    public void erosion(float[] pixels, int sizeX, int sizeY, float[] target)
+    {
+        checkLength(pixels.length, target.length, sizeX, sizeY);
+        erosion(new FloatProcessor(sizeX, sizeY, pixels), new FloatProcessor(sizeX, sizeY, target));
+    }
+    
+    private ImageProcessor erosionInMemory(ImageProcessor array)
+    {
+        return erosionInMemory(array, array.createProcessor(array.getWidth(), array.getHeight()));
+    }
+    
+    private ImageProcessor erosionInMemory(ImageProcessor array, ImageProcessor target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            return erosionInMemory(array, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Computes the erosion of the whole image using the specified workspace,
+     * already acquired by the caller.
+     */
+    ImageProcessor erosionInMemory(ImageProcessor array, ImageProcessor target, StrelWorkspace workspace)
+    {
+        OperationEvent event = OperationEvent.begin("Erosion");
+        ImageProcessor res = computeErosion(array, target, null, event, RowBands.threadCount(this.threadCount, array.getHeight()), workspace);
+        event.end(array, chordRadius());
+        return res;
+    }
+    
+    private ImageProcessor computeErosion(ImageProcessor array, ImageProcessor res, ImageProcessor original, OperationEvent event, int nThreads, StrelWorkspace workspace)
+    {
+        if (array instanceof ColorProcessor)
+        {
+            // channel events are not committed, the operation is recorded once
+            event.setEngine("Channels", "UInt8");
+            event.threads = nThreads;
+            return residue(original, ColorChannels.process((ColorProcessor) array, (ColorProcessor) res, nThreads, workspace, 
+                    (channel, channelRes, channelThreads, channelWorkspace) -> 
+                    computeErosion(channel, channelRes, null, OperationEvent.begin("Erosion"), channelThreads, channelWorkspace)), false);
+        }
+        
+        if (array instanceof ByteProcessor)
+        {
+            ByteProcessor image = (ByteProcessor) array;
+            if (BitPackedBinaryEngine.isBinary(image))
+            {
+                int squaredRadius = binarySquaredRadius();
+                if (squaredRadius >= 0)
+                {
+                    event.setEngine("DistanceTransform", "");
+                    return residue(original, createDistanceTransformEngine(squaredRadius, workspace).erosion(image, (ByteProcessor) res), false);
+                }
+                event.setEngine("BitPacked", "");
+                return residue(original, createBinaryEngine(workspace).erosion(image, (ByteProcessor) res), false);
+            }
+        }
+        
+        if (chordRadius() <= ShiftedRowsEngine.MAX_RADIUS && ShiftedRowsEngine.accepts(array))
+        {
+            event.setEngine(ShiftedRowsEngine.isVectorized() ? "ShiftedRowsVector" : "ShiftedRows", "");
+            event.threads = nThreads;
+            return residue(original, createShiftedRowsEngine(nThreads).erosion(array, res), false);
+        }
+        
+        if (array instanceof ByteProcessor)
+        {
+            event.setEngine("Histogram", "UInt8");
+            event.threads = nThreads;
+            return slidingErosionUInt8((ByteProcessor) array, (ByteProcessor) res, original, nThreads, workspace);
+        }
+        else if (array instanceof FloatProcessor)
+        {
+            event.setEngine("Histogram", "DoubleHashMap");
+            event.threads = nThreads;
+            return slidingErosionFloat32((FloatProcessor) array, (FloatProcessor) res, original, nThreads, workspace);
+        }
+        throw new RuntimeException("Can not process input with class: " + array.getClass().getName());
+    }
+
+    private ByteProcessor slidingErosionUInt8(ByteProcessor array, ByteProcessor res, ImageProcessor original, int nThreads, StrelWorkspace workspace)
+    {
+        int sizeY = array.getHeight();
+        workspace.ensureBands(nThreads);
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        ProgressCounter progress = new ProgressCounter(sizeY);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Erosion UInt8") : null;
+        RowBands.process(sizeY, nThreads, 
+                (band, y0, y1) -> slidingErosionUInt8(array, res, original, y0, y1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeY, sizeY);
+        
+        return res;
+    }
+
+    private void slidingErosionUInt8(ByteProcessor array, ByteProcessor res, ImageProcessor original, int y0, int y1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getWidth();
+        int sizeY = array.getHeight();
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final int OUTSIDE = 255;
+        LocalHistogramUInt8 localHisto = workspace.histogramUInt8(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = new FlatZones(this.xOffsets, this.xCenters, this.yOffsets, null, 
+                new Object[] {array.getPixels()}, sizeX, sizeY, workspace, band);
+
+        // temp variables for updating local histogram
+        int vOld, vNew;
+        
+        // Iterate on image rows indexed by y
+        for (int y = y0; y < y1; y++)
+        {
+            nextRow(progress);
+
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.get(x2, y2));
+                }
+            }
+
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            flatZones.setRow(y, 0);
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        int value = (int) flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.set(x2, y, original == null ? value : value - original.get(x2, y));
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                // iterate over the list of offsets
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
+
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
+
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                int value = (int) localHisto.getMinValue();
+                res.set(x, y, original == null ? value : value - original.get(x, y));
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+
+    private FloatProcessor slidingErosionFloat32(FloatProcessor array, FloatProcessor res, ImageProcessor original, int nThreads, StrelWorkspace workspace)
+    {
+        int sizeY = array.getHeight();
+        workspace.ensureBands(nThreads);
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        ProgressCounter progress = new ProgressCounter(sizeY);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Erosion DoubleHashMap") : null;
+        RowBands.process(sizeY, nThreads, 
+                (band, y0, y1) -> slidingErosionFloat32(array, res, original, y0, y1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeY, sizeY);
+        
+        return res;
+    }
+
+    private void slidingErosionFloat32(FloatProcessor array, FloatProcessor res, ImageProcessor original, int y0, int y1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getWidth();
+        int sizeY = array.getHeight();
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+
+        // create local histogram instance
+        final double OUTSIDE = Double.POSITIVE_INFINITY; 
+        LocalHistogramDoubleHashMap localHisto = workspace.histogramDouble(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = new FlatZones(this.xOffsets, this.xCenters, this.yOffsets, null, 
+                new Object[] {array.getPixels()}, sizeX, sizeY, workspace, band);
+
+        // temp variables for updating local histogram
+        double vOld, vNew;
+        
+        // Iterate on image rows
+        for (int y = y0; y < y1; y++)
+        {
+            nextRow(progress);
+
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.getf(x2, y2));
+                }
+            }
+
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            flatZones.setRow(y, 0);
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        double value = flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.setf(x2, y, (float) (original == null ? value : value - original.getf(x2, y)));
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+                    
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
+                        
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
+                        
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                double value = localHisto.getMinValue();
+                res.setf(x, y, (float) (original == null ? value : value - original.getf(x, y)));
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+    
+    @Override
+    public ImageProcessor closing(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.CLOSING, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.CLOSING, chordRadius());
+            return MemoryStreaming.processBands(array, halo, bandSize, this::closingInMemory);
+        }
+        return closingInMemory(array);
+    }
+    
+    /**
+     * Computes the closing of an image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param array
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its pixels
+     * @return the target image
+     */
+    public ImageProcessor closing(ImageProcessor array, ImageProcessor target)
+    {
+        checkTarget(array, target);
+        return closingInMemory(array, target);
+    }
+    
+    private ImageProcessor closingInMemory(ImageProcessor array)
+    {
+        return closingInMemory(array, array.createProcessor(array.getWidth(), array.getHeight()));
+    }
+    
+    private ImageProcessor closingInMemory(ImageProcessor array, ImageProcessor target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageProcessor dilated = workspace.image(0, array);
+            dilationInMemory(array, dilated, workspace);
+            return reverseWithSettings().erosionInMemory(dilated, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+
+    @Override
+    public ImageProcessor opening(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.OPENING, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.OPENING, chordRadius());
+            return MemoryStreaming.processBands(array, halo, bandSize, this::openingInMemory);
+        }
+        return openingInMemory(array);
+    }
+    
+    /**
+     * Computes the opening of an image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param array
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its pixels
+     * @return the target image
+     */
+    public ImageProcessor opening(ImageProcessor array, ImageProcessor target)
+    {
+        checkTarget(array, target);
+        return openingInMemory(array, target);
+    }
+    
+    private ImageProcessor openingInMemory(ImageProcessor array)
+    {
+        return openingInMemory(array, array.createProcessor(array.getWidth(), array.getHeight()));
+    }
+    
+    private ImageProcessor openingInMemory(ImageProcessor array, ImageProcessor target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageProcessor eroded = workspace.image(0, array);
+            erosionInMemory(array, eroded, workspace);
+            return reverseWithSettings().dilationInMemory(eroded, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+
+    /**
+     * Computes the white top-hat of an image, as the difference of the image
+     * with its opening. The second pass of the opening subtracts each value
+     * from the input image as soon as it is computed, such that the opening
+     * is not stored.
+     * 
+     * @param array
+     *            the input image
+     * @return the white top-hat of the image
+     */
+    public ImageProcessor whiteTopHat(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.TOPHAT, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.TOPHAT, chordRadius());
+            return MemoryStreaming.processBands(array, halo, bandSize, this::whiteTopHatInMemory);
+        }
+        return whiteTopHatInMemory(array);
+    }
+    
+    /**
+     * Computes the white top-hat of an image, and stores the result within
+     * an existing image. The whole image is processed at once.
+     * 
+     * @param array
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its pixels
+     * @return the target image
+     */
+    public ImageProcessor whiteTopHat(ImageProcessor array, ImageProcessor target)
+    {
+        checkTarget(array, target);
+        return whiteTopHatInMemory(array, target);
+    }
+    
+    private ImageProcessor whiteTopHatInMemory(ImageProcessor array)
+    {
+        return whiteTopHatInMemory(array, array.createProcessor(array.getWidth(), array.getHeight()));
+    }
+    
+    private ImageProcessor whiteTopHatInMemory(ImageProcessor array, ImageProcessor target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageProcessor eroded = workspace.image(0, array);
+            erosionInMemory(array, eroded, workspace);
+            
+            OperationEvent event = OperationEvent.begin("WhiteTopHat");
+            AbstractSlidingStrel reversed = reverseWithSettings();
+            ImageProcessor res = reversed.computeDilation(eroded, target, array, event, 
+                    RowBands.threadCount(this.threadCount, array.getHeight()), workspace);
+            event.end(array, chordRadius());
+            return res;
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Computes the black top-hat of an image, as the difference of the
+     * closing of the image with the image. The second pass of the closing
+     * subtracts the input image from each value as soon as it is computed,
+     * such that the closing is not stored.
+     * 
+     * @param array
+     *            the input image
+     * @return the black top-hat of the image
+     */
+    public ImageProcessor blackTopHat(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.BOTTOMHAT, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.BOTTOMHAT, chordRadius());
+            return MemoryStreaming.processBands(array, halo, bandSize, this::blackTopHatInMemory);
+        }
+        return blackTopHatInMemory(array);
+    }
+    
+    /**
+     * Computes the black top-hat of an image, and stores the result within
+     * an existing image. The whole image is processed at once.
+     * 
+     * @param array
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its pixels
+     * @return the target image
+     */
+    public ImageProcessor blackTopHat(ImageProcessor array, ImageProcessor target)
+    {
+        checkTarget(array, target);
+        return blackTopHatInMemory(array, target);
+    }
+    
+    private ImageProcessor blackTopHatInMemory(ImageProcessor array)
+    {
+        return blackTopHatInMemory(array, array.createProcessor(array.getWidth(), array.getHeight()));
+    }
+    
+    private ImageProcessor blackTopHatInMemory(ImageProcessor array, ImageProcessor target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageProcessor dilated = workspace.image(0, array);
+            dilationInMemory(array, dilated, workspace);
+            
+            OperationEvent event = OperationEvent.begin("BlackTopHat");
+            AbstractSlidingStrel reversed = reverseWithSettings();
+            ImageProcessor res = reversed.computeErosion(dilated, target, array, event, 
+                    RowBands.threadCount(this.threadCount, array.getHeight()), workspace);
+            event.end(array, chordRadius());
+            return res;
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Replaces the result of the second pass of a top-hat by its difference
+     * with the original image, for the engines that do not subtract the
+     * values while computing them.
+     * 
+     * @param original
+     *            the input image of the top-hat, or null for returning the
+     *            result unchanged
+     * @param res
+     *            the result of the second pass, modified by this method
+     * @param white
+     *            true for subtracting the result from the original image
+     *            (white top-hat), false for subtracting the original image
+     *            from the result (black top-hat)
+     * @return the modified result
+     */
+    static ImageProcessor residue(ImageProcessor original, ImageProcessor res, boolean white)
+    {
+        if (original == null)
+        {
+            return res;
+        }
+        
+        int pixelCount = res.getPixelCount();
+        if (res instanceof ColorProcessor)
+        {
+            // process each channel
+            for (int i = 0; i < pixelCount; i++)
+            {
+                int rgb1 = original.get(i);
+                int rgb2 = res.get(i);
+                int rgb = 0;
+                for (int shift = 0; shift < 24; shift += 8)
+                {
+                    int v1 = (rgb1 >> shift) & 0x00FF;
+                    int v2 = (rgb2 >> shift) & 0x00FF;
+                    rgb |= Math.max(white ? v1 - v2 : v2 - v1, 0) << shift;
+                }
+                res.set(i, rgb);
+            }
+        }
+        else if (res instanceof FloatProcessor)
+        {
+            for (int i = 0; i < pixelCount; i++)
+            {
+                res.setf(i, white ? original.getf(i) - res.getf(i) : res.getf(i) - original.getf(i));
+            }
+        }
+        else
+        {
+            for (int i = 0; i < pixelCount; i++)
+            {
+                res.set(i, white ? original.get(i) - res.get(i) : res.get(i) - original.get(i));
+            }
+        }
+        return res;
+    }
+
+    /* (non-Javadoc)
+     * @see net.sci.image.morphology.Strel2D#getMask()
+     */
+    @Override
+    public int[][] getMask()
+    {
+        int[] size = getSize();
+        int[] offset = getOffset();
+        
+        // fill the mask from the chords
+        int[][] mask = new int[size[1]][size[0]];
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            int y = this.yOffsets[i] + offset[1];
+            int x0 = this.xCenters[i] - this.xOffsets[i] + offset[0];
+            for (int x = x0; x <= x0 + 2 * this.xOffsets[i]; x++)
+            {
+                mask[y][x] = 255;
+            }
+        }
+        return mask;
+    }
+    
+    /* (non-Javadoc)
+     * @see net.sci.image.morphology.Strel2D#getOffset()
+     */
+    @Override
+    public int[] getOffset()
+    {
+        int offsetX = 0;
+        int offsetY = 0;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            offsetX = Math.max(offsetX, Math.abs(this.xCenters[i]) + this.xOffsets[i]);
+            offsetY = Math.max(offsetY, Math.abs(this.yOffsets[i]));
+        }
+        return new int[] {offsetX, offsetY};
+    }
+    
+    /* (non-Javadoc)
+     * @see net.sci.image.morphology.Strel2D#getShifts()
+     */
+    @Override
+    public int[][] getShifts()
+    {
+        if (this.shiftArray == null)
+        {
+            createShiftArray();
+        }
+        return this.shiftArray;
+    }
+
+    void createShiftArray()
+    {
+        int count = elementCount();
+        
+        // create the shift array
+        this.shiftArray = new int[count][];
+        count = 0;
+
+        int nOffsets = this.xOffsets.length;
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int dy = this.yOffsets[i];
+            int xc = this.xCenters[i];
+            int ri = this.xOffsets[i];
+            for (int dx = xc - ri; dx <= xc + ri; dx++)
+            {
+                this.shiftArray[count++] = new int[] {dx, dy};
+            }
+        }
+    }
+
+	@Override
+	public int[] getSize() 
+	{
+	    int[] offset = getOffset();
+        return new int[] {2 * offset[0] + 1, 2 * offset[1] + 1};
+	}
+}
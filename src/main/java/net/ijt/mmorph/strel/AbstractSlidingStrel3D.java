@@ -0,0 +1,1715 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.ImageStack;
+import inra.ijpb.data.image.ByteStackWrapper;
+import inra.ijpb.data.image.Image3D;
+import inra.ijpb.data.image.Images3D;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.strel.AbstractStrel3D;
+
+/**
+ * <p>
+ * Base class for 3D structuring elements that can be decomposed into a set of
+ * chords oriented along the x direction. Each chord is described by its y- and
+ * z-offsets, the x-offset of its center, and its half-width.
+ * </p>
+ * 
+ * <p>
+ * Dilation and erosion are computed by sliding the structuring element along
+ * each row of the image. For each new position, only the values entering and
+ * leaving the chords are updated within a local histogram. Binary images are
+ * processed with dedicated engines.
+ * </p>
+ * 
+ * <p>
+ * When the memory needed by an operation exceeds the available memory, the
+ * image is processed by slabs of slices.
+ * </p>
+ * 
+ * <p>
+ * Sub-classes are responsible for initializing the chord arrays
+ * <code>xOffsets</code>, <code>yOffsets</code>, <code>zOffsets</code> and
+ * <code>xCenters</code> within their constructor.
+ * </p>
+ * 
+ * @see SlidingBallStrel3D
+ * @see SlidingEllipsoidStrel3D
+ * @see SlidingMaskStrel3D
+ * @see AbstractSlidingStrel
+ * 
+ * @author dlegland
+ *
+ */
+public abstract class AbstractSlidingStrel3D extends AbstractStrel3D implements MemoryFootprint
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The minimal radius for processing binary images by thresholding a
+     * distance map instead of using bit-packed rows, measured with the
+     * BinaryEngine3DBenchmark on 128x128x128 and 160x160x160 images.
+     */
+    static final int DISTANCE_TRANSFORM_MIN_RADIUS = 15;
+
+    /**
+     * The half-width of each chord.
+     */
+    int[] xOffsets;
+    
+    /**
+     * The y-offset of each chord, relative to the center.
+     */
+    int[] yOffsets;
+    
+    /**
+     * The z-offset of each chord, relative to the center.
+     */
+    int[] zOffsets;
+    
+    /**
+     * The x-offset of the center of each chord, relative to the center. Equal
+     * to zero for structuring elements symmetric with respect to the plane
+     * orthogonal to the x-axis.
+     */
+    int[] xCenters;
+
+    /**
+     * An array of shifts referring to strel elements, relative to center pixel.
+     * Used for lazy evaluation of getShifts() method. 
+     */
+    int[][] shiftArray;
+
+    /**
+     * The listeners notified with histogram counters at the end of each
+     * operation, when instrumentation is enabled.
+     */
+    List<HistogramCountersListener> countersListeners = new ArrayList<>();
+
+    /**
+     * The number of threads used for processing bands of rows, or 0 for
+     * using the number of threads specified within ImageJ preferences.
+     */
+    int threadCount = 0;
+    
+    /**
+     * The token checked between the processing of two rows, or null.
+     */
+    CancellationToken cancellationToken = null;
+    
+    /**
+     * The amount of memory operations can allocate, or 0 for using the memory
+     * available within the Java heap.
+     */
+    long memoryLimit = 0;
+    
+    /**
+     * The workspace that provides the buffers of operations, or null for
+     * allocating them for each operation.
+     */
+    StrelWorkspace workspace = null;
+    
+    /**
+     * The reversed structuring element, created when needed.
+     */
+    private AbstractSlidingStrel3D reversed = null;
+    
+
+    // ==================================================
+    // Specific methods
+    
+    /**
+     * @return the number of non zero elements within this structuring element.
+     */
+    int elementCount()
+    {
+        int count = 0;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            count += 2 * this.xOffsets[i] + 1;
+        }
+        return count;
+    }
+    
+    /**
+     * @return the largest offset between the center and the voxels of this
+     *         structuring element, along the three main directions.
+     */
+    int chordRadius()
+    {
+        int radius = 0;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            radius = Math.max(radius, Math.abs(this.xCenters[i]) + this.xOffsets[i]);
+            radius = Math.max(radius, Math.abs(this.yOffsets[i]));
+            radius = Math.max(radius, Math.abs(this.zOffsets[i]));
+        }
+        return radius;
+    }
+
+    /**
+     * Returns the squared radius to use for processing binary images with a
+     * distance map, or -1 if they should be processed with bit-packed rows.
+     * 
+     * @return the squared radius of the ball, or -1.
+     */
+    private int binarySquaredRadius()
+    {
+        if (chordRadius() < DISTANCE_TRANSFORM_MIN_RADIUS)
+        {
+            return -1;
+        }
+        for (int xCenter : this.xCenters)
+        {
+            if (xCenter != 0)
+            {
+                return -1;
+            }
+        }
+        return DistanceTransformBinaryEngine.squaredRadius(this.xOffsets, this.yOffsets, this.zOffsets);
+    }
+
+
+    private BitPackedBinaryEngine createBinaryEngine(StrelWorkspace workspace)
+    {
+        BitPackedBinaryEngine engine = new BitPackedBinaryEngine(this.xOffsets, this.yOffsets, this.zOffsets, this.xCenters);
+        engine.setWorkspace(workspace);
+        engine.setCancellationToken(this.cancellationToken);
+        engine.setProgressListener((count, total) -> fireProgressChanged(this, count, total));
+        return engine;
+    }
+
+    private DistanceTransformBinaryEngine createDistanceTransformEngine(int squaredRadius, StrelWorkspace workspace)
+    {
+        DistanceTransformBinaryEngine engine = new DistanceTransformBinaryEngine(squaredRadius);
+        engine.setWorkspace(workspace);
+        engine.setCancellationToken(this.cancellationToken);
+        engine.setProgressListener((count, total) -> fireProgressChanged(this, count, total));
+        return engine;
+    }
+
+    private ShiftedRowsEngine createShiftedRowsEngine(int nThreads)
+    {
+        ShiftedRowsEngine engine = new ShiftedRowsEngine(this.xOffsets, this.yOffsets, this.zOffsets, this.xCenters);
+        engine.setThreadCount(nThreads);
+        engine.setCancellationToken(this.cancellationToken);
+        engine.setProgressListener((count, total) -> fireProgressChanged(this, count, total));
+        return engine;
+    }
+
+
+    // ==================================================
+    // Multi-threading and cancellation
+
+    /**
+     * Changes the number of threads used for processing bands of image rows
+     * with local histograms or shifted rows.
+     * 
+     * @param threadCount
+     *            the number of threads, or 0 for using the number of threads
+     *            specified within ImageJ preferences
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = threadCount;
+    }
+    
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two rows, and cancelled operations
+     * throw a CancellationException.
+     * 
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+    
+    /**
+     * Called before processing each row: checks if the operation was
+     * cancelled, and reports progress at a bounded rate.
+     */
+    private void nextRow(ProgressCounter progress)
+    {
+        if (this.cancellationToken != null)
+        {
+            this.cancellationToken.checkCancelled();
+        }
+        long count = progress.increment();
+        if (count >= 0)
+        {
+            fireProgressChanged(this, count, progress.total);
+        }
+    }
+    
+    /**
+     * @return the reversed structuring element, using the same number of
+     *         threads, cancellation token and memory limit as this one.
+     */
+    private AbstractSlidingStrel3D reverseWithSettings()
+    {
+        if (this.reversed == null)
+        {
+            this.reversed = (AbstractSlidingStrel3D) reverse();
+        }
+        AbstractSlidingStrel3D strel = this.reversed;
+        strel.threadCount = this.threadCount;
+        strel.cancellationToken = this.cancellationToken;
+        strel.memoryLimit = this.memoryLimit;
+        return strel;
+    }
+    
+    
+    // ==================================================
+    // Workspace management
+    
+    /**
+     * Specifies the workspace that provides the local histograms, the
+     * buffers of the binary engines and the intermediate images of closing
+     * and opening. Repeated operations on images with the same size then
+     * reuse the same buffers. The workspace can be shared with other
+     * structuring elements.
+     * 
+     * @param workspace
+     *            the workspace, or null for allocating buffers for each
+     *            operation
+     */
+    public void setWorkspace(StrelWorkspace workspace)
+    {
+        this.workspace = workspace;
+    }
+    
+    /**
+     * Returns the workspace used by an operation: the workspace of this
+     * structuring element if it is not used by another operation, or a new
+     * workspace otherwise.
+     */
+    private StrelWorkspace acquireWorkspace()
+    {
+        StrelWorkspace workspace = this.workspace;
+        if (workspace != null && workspace.acquire())
+        {
+            return workspace;
+        }
+        return new StrelWorkspace();
+    }
+    
+    
+    // ==================================================
+    // Memory management
+    
+    @Override
+    public long estimateMemory(Operation operation, int[] dims, int bitDepth)
+    {
+        // 8-bit images may be processed by the binary engines or by the
+        // histograms, depending on their content
+        long bytes = estimateMemory(operation, dims, bitDepth, false);
+        if (bitDepth == 8)
+        {
+            bytes = Math.max(bytes, estimateMemory(operation, dims, bitDepth, true));
+        }
+        return bytes;
+    }
+    
+    private long estimateMemory(Operation operation, int[] dims, int bitDepth, boolean binary)
+    {
+        long imageBytes = MemoryStreaming.imageBytes(dims, bitDepth);
+        return MemoryStreaming.imageCount(operation) * imageBytes + engineBytes(dims, binary);
+    }
+    
+    /**
+     * Estimates the memory allocated by the engine, in addition to the
+     * result image.
+     */
+    private long engineBytes(int[] dims, boolean binary)
+    {
+        int sizeX = dims[0];
+        long nRows = (long) dims[1] * (dims.length > 2 ? dims[2] : 1);
+        if (binary)
+        {
+            if (binarySquaredRadius() >= 0)
+            {
+                // squared distance map
+                return 4 * nRows * sizeX;
+            }
+            // packed rows of the input, of the dilated rows, and of the result
+            long nWords = (sizeX + 2 * chordRadius() + 63) / 64;
+            return 3 * nRows * (8 * nWords + 16);
+        }
+        if (chordRadius() <= ShiftedRowsEngine.MAX_RADIUS)
+        {
+            return 0;
+        }
+        // one local histogram and one cache of run ends per thread
+        int nThreads = RowBands.threadCount(this.threadCount, (int) Math.min(nRows, Integer.MAX_VALUE));
+        long span = 2 * chordRadius() + 1;
+        return nThreads * (64L * elementCount() + 4 * span * span * sizeX);
+    }
+    
+    @Override
+    public void setMemoryLimit(long limit)
+    {
+        this.memoryLimit = limit;
+    }
+    
+    /**
+     * Computes the number of slices to process together for applying the
+     * specified operation, or 0 if the whole image can be processed at once.
+     */
+    private int slabSize(Operation operation, ImageStack image)
+    {
+        int[] dims = new int[] {image.getWidth(), image.getHeight(), image.getSize()};
+        int bitDepth = image.getBitDepth();
+        boolean binary = bitDepth == 8 && BitPackedBinaryEngine.isBinary(image);
+        if (estimateMemory(operation, dims, bitDepth, binary) <= MemoryStreaming.availableMemory(this.memoryLimit))
+        {
+            return 0;
+        }
+        
+        return MemoryStreaming.slabSize(
+                n -> estimateMemory(operation, new int[] {dims[0], dims[1], n}, bitDepth, binary),
+                dims[2], MemoryStreaming.halo(operation, chordRadius()), 
+                MemoryStreaming.imageBytes(dims, bitDepth), 0, this.memoryLimit);
+    }
+    
+    
+    // ==================================================
+    // Management of histogram counters listeners
+
+    /**
+     * Adds a listener notified with histogram counters at the end of each
+     * operation. Listeners are notified only when instrumentation is enabled.
+     * 
+     * @see HistogramCounters#ENABLED
+     * 
+     * @param listener
+     *            the listener to add
+     */
+    public void addCountersListener(HistogramCountersListener listener)
+    {
+        this.countersListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener of histogram counters.
+     * 
+     * @param listener
+     *            the listener to remove
+     */
+    public void removeCountersListener(HistogramCountersListener listener)
+    {
+        this.countersListeners.remove(listener);
+    }
+
+    private void fireCountersReported(HistogramCounters counters)
+    {
+        counters.finish();
+        for (HistogramCountersListener listener : this.countersListeners)
+        {
+            listener.countersReported(this, counters);
+        }
+    }
+    
+    
+    // ==================================================
+    // Validation of result images
+    
+    static void checkTarget(ImageStack image, ImageStack target)
+    {
+        if (target.getWidth() != image.getWidth() || target.getHeight() != image.getHeight()
+                || target.getSize() != image.getSize() || target.getBitDepth() != image.getBitDepth())
+        {
+            throw new RuntimeException("The result image must have the same size and type as the input image");
+        }
+        for (int z = 1; z <= image.getSize(); z++)
+        {
+            if (target.getPixels(z) == image.getPixels(z))
+            {
+                throw new RuntimeException("The result image must not share the slices of the input image");
+            }
+        }
+    }
+    
+    private static Object[] slices(ImageStack stack)
+    {
+        Object[] slices = new Object[stack.getSize()];
+        for (int z = 0; z < slices.length; z++)
+        {
+            slices[z] = stack.getPixels(z + 1);
+        }
+        return slices;
+    }
+    
+    private static ImageStack createStack(Object[] slices, int sizeX, int sizeY)
+    {
+        ImageStack stack = new ImageStack(sizeX, sizeY);
+        for (Object slice : slices)
+        {
+            if (Array.getLength(slice) != sizeX * sizeY)
+            {
+                throw new RuntimeException("The length of pixel arrays must be " + sizeX + "x" + sizeY);
+            }
+            stack.addSlice("", slice);
+        }
+        return stack;
+    }
+    
+    
+    // ==================================================
+    // Processing methods
+    
+    @Override
+    public ImageStack dilation(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.DILATION, image);
+        if (slabSize > 0)
+        {
+            return MemoryStreaming.processSlabs(image, chordRadius(), slabSize, this::dilationInMemory);
+        }
+        return dilationInMemory(image);
+    }
+    
+    /**
+     * Computes the dilation of a 3D image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param image
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack dilation(ImageStack image, ImageStack target)
+    {
+        checkTarget(image, target);
+        return dilationInMemory(image, target);
+    }
+    
+    /**
+     * Computes the dilation of an 8-bits 3D image given as an array of slices,
+     * and stores the result within existing arrays.
+     * 
+     * @param slices
+     *            the pixels of each slice of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the arrays that receive the result, one array per slice
+     */
+    public void dilation(byte[][] slices, int sizeX, int sizeY, byte[][] target)
+    {
+        dilation(createStack(slices, sizeX, sizeY), createStack(target, sizeX, sizeY));
+    }
+    
+    /**
+     * Computes the dilation of a 32-bits 3D image given as an array of slices,
+     * and stores the result within existing arrays.
+     * 
+     * @param slices
+     *            the pixels of each slice of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the arrays that receive the result, one array per slice
+     */
+    public void dilation(float[][] slices, int sizeX, int sizeY, float[][] target)
+    {
+        dilation(createStack(slices, sizeX, sizeY), createStack(target, sizeX, sizeY));
+    }
+    
+    private ImageStack dilationInMemory(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return dilationInMemory(image, res);
+    }
+    
+    private ImageStack dilationInMemory(ImageStack image, ImageStack target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            return dilationInMemory(image, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Computes the dilation of the whole image using the specified workspace,
+     * already acquired by the caller.
+     */
+    ImageStack dilationInMemory(ImageStack image, ImageStack target, StrelWorkspace workspace)
+    {
+        OperationEvent event = OperationEvent.begin("Dilation");
+        ImageStack res = computeDilation(image, target, null, event, workspace);
+        event.end(image, chordRadius());
+        return res;
+    }
+    
+    private ImageStack computeDilation(ImageStack image, ImageStack res, ImageStack original, OperationEvent event, StrelWorkspace workspace)
+    {
+        if (image.getBitDepth() == 8)
+        {
+            if (BitPackedBinaryEngine.isBinary(image))
+            {
+                int squaredRadius = binarySquaredRadius();
+                if (squaredRadius >= 0)
+                {
+                    event.setEngine("DistanceTransform", "");
+                    return residue(original, createDistanceTransformEngine(squaredRadius, workspace).dilation(image, res), true);
+                }
+                event.setEngine("BitPacked", "");
+                return residue(original, createBinaryEngine(workspace).dilation(image, res), true);
+            }
+        }
+        
+        if (chordRadius() <= ShiftedRowsEngine.MAX_RADIUS && image.getBitDepth() != 24)
+        {
+            event.setEngine(ShiftedRowsEngine.isVectorized() ? "ShiftedRowsVector" : "ShiftedRows", "");
+            event.threads = RowBands.threadCount(this.threadCount, image.getHeight() * image.getSize());
+            return residue(original, createShiftedRowsEngine(event.threads).dilation(image, res), true);
+        }
+        
+        if (image.getBitDepth() == 8)
+        {
+            event.setEngine("Histogram", "UInt8");
+            event.threads = RowBands.threadCount(this.threadCount, image.getHeight() * image.getSize());
+            return slidingDilationUInt8(image, res, original, workspace);
+        }
+        event.setEngine("Histogram", "DoubleHashMap");
+        event.threads = RowBands.threadCount(this.threadCount, image.getHeight() * image.getSize());
+        return slidingDilationFloat(image, res, original, workspace);
+    }
+    
+    private ImageStack slidingDilationUInt8(ImageStack stack, ImageStack resStack, ImageStack originalStack, StrelWorkspace workspace)
+    {
+        ByteStackWrapper array = new ByteStackWrapper(stack);
+        Object[] slices = slices(stack);
+        int sizeY = stack.getHeight();
+        int sizeZ = stack.getSize();
+        
+        ByteStackWrapper res = new ByteStackWrapper(resStack);
+        ByteStackWrapper original = originalStack != null ? new ByteStackWrapper(originalStack) : null;
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        int nRows = sizeY * sizeZ;
+        ProgressCounter progress = new ProgressCounter(nRows);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Dilation UInt8") : null;
+        int nThreads = RowBands.threadCount(this.threadCount, nRows);
+        workspace.ensureBands(nThreads);
+        RowBands.process(nRows, nThreads, 
+                (band, row0, row1) -> slidingDilationUInt8(array, res, original, slices, row0, row1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeZ, sizeZ);
+        
+        return resStack;
+    }
+
+    private void slidingDilationUInt8(ByteStackWrapper array, ByteStackWrapper res, ByteStackWrapper original, Object[] slices, int row0, int row1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getSize(0);
+        int sizeY = array.getSize(1);
+        int sizeZ = array.getSize(2);
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final int OUTSIDE = 0;
+        LocalHistogramUInt8 localHisto = workspace.histogramUInt8(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = FlatZones.accepts(slices) ? new FlatZones(this.xOffsets, this.xCenters, 
+                this.yOffsets, this.zOffsets, slices, sizeX, sizeY, workspace, band) : null;
+
+        // temp variables for updating local histogram
+        int vOld, vNew;
+        
+        // Iterate on image rows, indexed by z and y
+        for (int row = row0; row < row1; row++)
+        {
+            int z = row / sizeY;
+            int y = row % sizeY;
+            nextRow(progress);
+            
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int z2 = z + this.zOffsets[i];
+                if (z2 < 0 || z2 >= sizeZ)
+                {
+                    continue;
+                }
+                
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.get(x2, y2, z2));
+                }
+            }
+            
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            if (flatZones != null)
+            {
+                flatZones.setRow(y, z);
+            }
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (flatZones != null && x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        int value = (int) flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.set(x2, y, z, original == null ? value : original.get(x2, y, z) - value);
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                // iterate over the list of offsets
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    int z2 = z + this.zOffsets[i];
+                    if (z2 < 0 || z2 >= sizeZ)
+                    {
+                        continue;
+                    }
+                    
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+                    
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2, z2) : OUTSIDE;
+                        
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2, z2) : OUTSIDE;
+                        
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                int value = (int) localHisto.getMaxValue();
+                res.set(x, y, z, original == null ? value : original.get(x, y, z) - value);
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+
+    private ImageStack slidingDilationFloat(ImageStack stack, ImageStack resStack, ImageStack originalStack, StrelWorkspace workspace)
+    {
+        Image3D array = Images3D.createWrapper(stack);
+        Object[] slices = slices(stack);
+        int sizeY = stack.getHeight();
+        int sizeZ = stack.getSize();
+        
+        Image3D res = Images3D.createWrapper(resStack);
+        Image3D original = originalStack != null ? Images3D.createWrapper(originalStack) : null;
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        int nRows = sizeY * sizeZ;
+        ProgressCounter progress = new ProgressCounter(nRows);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Dilation DoubleHashMap") : null;
+        int nThreads = RowBands.threadCount(this.threadCount, nRows);
+        workspace.ensureBands(nThreads);
+        RowBands.process(nRows, nThreads, 
+                (band, row0, row1) -> slidingDilationFloat(array, res, original, slices, row0, row1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeZ, sizeZ);
+        
+        return resStack;
+    }
+
+    private void slidingDilationFloat(Image3D array, Image3D res, Image3D original, Object[] slices, int row0, int row1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getSize(0);
+        int sizeY = array.getSize(1);
+        int sizeZ = array.getSize(2);
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final double OUTSIDE = Double.NEGATIVE_INFINITY;
+        LocalHistogramDoubleHashMap localHisto = workspace.histogramDouble(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = FlatZones.accepts(slices) ? new FlatZones(this.xOffsets, this.xCenters, 
+                this.yOffsets, this.zOffsets, slices, sizeX, sizeY, workspace, band) : null;
+
+        // temp variables for updating local histogram
+        double vOld, vNew;
+        
+        // Iterate on image rows, indexed by z and y
+        for (int row = row0; row < row1; row++)
+        {
+            int z = row / sizeY;
+            int y = row % sizeY;
+            nextRow(progress);
+            
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int z2 = z + this.zOffsets[i];
+                if (z2 < 0 || z2 >= sizeZ)
+                {
+                    continue;
+                }
+                
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.getValue(x2, y2, z2));
+                }
+            }
+            
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            if (flatZones != null)
+            {
+                flatZones.setRow(y, z);
+            }
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (flatZones != null && x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        double value = flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.setValue(x2, y, z, original == null ? value : original.getValue(x2, y, z) - value);
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                // iterate over the list of offsets
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    int z2 = z + this.zOffsets[i];
+                    if (z2 < 0 || z2 >= sizeZ)
+                    {
+                        continue;
+                    }
+                    
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+                    
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.getValue(x2, y2, z2) : OUTSIDE;
+                        
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.getValue(x2, y2, z2) : OUTSIDE;
+                        
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                double value = localHisto.getMaxValue();
+                res.setValue(x, y, z, original == null ? value : original.getValue(x, y, z) - value);
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+
+    @Override
+    public ImageStack erosion(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.EROSION, image);
+        if (slabSize > 0)
+        {
+            return MemoryStreaming.processSlabs(image, chordRadius(), slabSize, this::erosionInMemory);
+        }
+        return erosionInMemory(image);
+    }
+    
+    /**
+     * Computes the erosion of a 3D image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param image
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack erosion(ImageStack image, ImageStack target)
+    {
+        checkTarget(image, target);
+        return erosionInMemory(image, target);
+    }
+    
+    /**
+     * Computes the erosion of an 8-bits 3D image given as an array of slices,
+     * and stores the result within existing arrays.
+     * 
+     * @param slices
+     *            the pixels of each slice of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the arrays that receive the result, one array per slice
+     */
+    public void erosion(byte[][] slices, int sizeX, int sizeY, byte[][] target)
+    {
+        erosion(createStack(slices, sizeX, sizeY), createStack(target, sizeX, sizeY));
+    }
+    
+    /**
+     * Computes the erosion of a 32-bits 3D image given as an array of slices,
+     * and stores the result within existing arrays.
+     * 
+     * @param slices
+     *            the pixels of each slice of the input image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param target
+     *            the arrays that receive the result, one array per slice
+     */
+    public void erosion(float[][] slices, int sizeX, int sizeY, float[][] target)
+    {
+        erosion(createStack(slices, sizeX, sizeY), createStack(target, sizeX, sizeY));
+    }
+    
+    private ImageStack erosionInMemory(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return erosionInMemory(image, res);
+    }
+    
+    private ImageStack erosionInMemory(ImageStack image, ImageStack target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            return erosionInMemory(image, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Computes the erosion of the whole image using the specified workspace,
+     * already acquired by the caller.
+     */
+    ImageStack erosionInMemory(ImageStack image, ImageStack target, StrelWorkspace workspace)
+    {
+        OperationEvent event = OperationEvent.begin("Erosion");
+        ImageStack res = computeErosion(image, target, null, event, workspace);
+        event.end(image, chordRadius());
+        return res;
+    }
+    
+    private ImageStack computeErosion(ImageStack image, ImageStack res, ImageStack original, OperationEvent event, StrelWorkspace workspace)
+    {
+        if (image.getBitDepth() == 8)
+        {
+            if (BitPackedBinaryEngine.isBinary(image))
+            {
+                int squaredRadius = binarySquaredRadius();
+                if (squaredRadius >= 0)
+                {
+                    event.setEngine("DistanceTransform", "");
+                    return residue(original, createDistanceTransformEngine(squaredRadius, workspace).erosion(image, res), false);
+                }
+                event.setEngine("BitPacked", "");
+                return residue(original, createBinaryEngine(workspace).erosion(image, res), false);
+            }
+        }
+        
+        if (chordRadius() <= ShiftedRowsEngine.MAX_RADIUS && image.getBitDepth() != 24)
+        {
+            event.setEngine(ShiftedRowsEngine.isVectorized() ? "ShiftedRowsVector" : "ShiftedRows", "");
+            event.threads = RowBands.threadCount(this.threadCount, image.getHeight() * image.getSize());
+            return residue(original, createShiftedRowsEngine(event.threads).erosion(image, res), false);
+        }
+        
+        if (image.getBitDepth() == 8)
+        {
+            event.setEngine("Histogram", "UInt8");
+            event.threads = RowBands.threadCount(this.threadCount, image.getHeight() * image.getSize());
+            return slidingErosionUInt8(image, res, original, workspace);
+        }
+        event.setEngine("Histogram", "DoubleHashMap");
+        event.threads = RowBands.threadCount(this.threadCount, image.getHeight() * image.getSize());
+        return slidingErosionFloat(image, res, original, workspace);
+    }
+    
+    private ImageStack slidingErosionUInt8(ImageStack stack, ImageStack resStack, ImageStack originalStack, StrelWorkspace workspace)
+    {
+        ByteStackWrapper array = new ByteStackWrapper(stack);
+        Object[] slices = slices(stack);
+        int sizeY = stack.getHeight();
+        int sizeZ = stack.getSize();
+        
+        ByteStackWrapper res = new ByteStackWrapper(resStack);
+        ByteStackWrapper original = originalStack != null ? new ByteStackWrapper(originalStack) : null;
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        int nRows = sizeY * sizeZ;
+        ProgressCounter progress = new ProgressCounter(nRows);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Erosion UInt8") : null;
+        int nThreads = RowBands.threadCount(this.threadCount, nRows);
+        workspace.ensureBands(nThreads);
+        RowBands.process(nRows, nThreads, 
+                (band, row0, row1) -> slidingErosionUInt8(array, res, original, slices, row0, row1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeZ, sizeZ);
+        
+        return resStack;
+    }
+
+    private void slidingErosionUInt8(ByteStackWrapper array, ByteStackWrapper res, ByteStackWrapper original, Object[] slices, int row0, int row1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getSize(0);
+        int sizeY = array.getSize(1);
+        int sizeZ = array.getSize(2);
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final int OUTSIDE = 255;
+        LocalHistogramUInt8 localHisto = workspace.histogramUInt8(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = FlatZones.accepts(slices) ? new FlatZones(this.xOffsets, this.xCenters, 
+                this.yOffsets, this.zOffsets, slices, sizeX, sizeY, workspace, band) : null;
+
+        // temp variables for updating local histogram
+        int vOld, vNew;
+        
+        // Iterate on image rows, indexed by z and y
+        for (int row = row0; row < row1; row++)
+        {
+            int z = row / sizeY;
+            int y = row % sizeY;
+            nextRow(progress);
+            
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int z2 = z + this.zOffsets[i];
+                if (z2 < 0 || z2 >= sizeZ)
+                {
+                    continue;
+                }
+                
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.get(x2, y2, z2));
+                }
+            }
+            
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            if (flatZones != null)
+            {
+                flatZones.setRow(y, z);
+            }
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (flatZones != null && x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        int value = (int) flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.set(x2, y, z, original == null ? value : value - original.get(x2, y, z));
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                // iterate over the list of offsets
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    int z2 = z + this.zOffsets[i];
+                    if (z2 < 0 || z2 >= sizeZ)
+                    {
+                        continue;
+                    }
+                    
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+                    
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2, z2) : OUTSIDE;
+                        
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2, z2) : OUTSIDE;
+                        
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                int value = (int) localHisto.getMinValue();
+                res.set(x, y, z, original == null ? value : value - original.get(x, y, z));
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+
+    private ImageStack slidingErosionFloat(ImageStack stack, ImageStack resStack, ImageStack originalStack, StrelWorkspace workspace)
+    {
+        Image3D array = Images3D.createWrapper(stack);
+        Object[] slices = slices(stack);
+        int sizeY = stack.getHeight();
+        int sizeZ = stack.getSize();
+        
+        Image3D res = Images3D.createWrapper(resStack);
+        Image3D original = originalStack != null ? Images3D.createWrapper(originalStack) : null;
+        
+        // process bands of rows in parallel, each one with its own local histogram
+        int nRows = sizeY * sizeZ;
+        ProgressCounter progress = new ProgressCounter(nRows);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Erosion DoubleHashMap") : null;
+        int nThreads = RowBands.threadCount(this.threadCount, nRows);
+        workspace.ensureBands(nThreads);
+        RowBands.process(nRows, nThreads, 
+                (band, row0, row1) -> slidingErosionFloat(array, res, original, slices, row0, row1, workspace, band, progress, counters));
+        
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
+        // clear the progress bar
+        fireProgressChanged(this, sizeZ, sizeZ);
+        
+        return resStack;
+    }
+
+    private void slidingErosionFloat(Image3D array, Image3D res, Image3D original, Object[] slices, int row0, int row1, StrelWorkspace workspace, int band, ProgressCounter progress, HistogramCounters totalCounters)
+    {
+        // get array size
+        int sizeX = array.getSize(0);
+        int sizeY = array.getSize(1);
+        int sizeZ = array.getSize(2);
+        
+        // number of non zero elements 
+        int count = elementCount();
+        int nOffsets = this.xOffsets.length;
+        
+        // create local histogram instance
+        final double OUTSIDE = Double.POSITIVE_INFINITY;
+        LocalHistogramDoubleHashMap localHisto = workspace.histogramDouble(band, count, OUTSIDE);
+        HistogramCounters counters = totalCounters != null ? new HistogramCounters(totalCounters.getOperation()) : null;
+        localHisto.setCounters(counters);
+
+        // detect flat zones, whose result is the value of the zone
+        FlatZones flatZones = FlatZones.accepts(slices) ? new FlatZones(this.xOffsets, this.xCenters, 
+                this.yOffsets, this.zOffsets, slices, sizeX, sizeY, workspace, band) : null;
+
+        // temp variables for updating local histogram
+        double vOld, vNew;
+        
+        // Iterate on image rows, indexed by z and y
+        for (int row = row0; row < row1; row++)
+        {
+            int z = row / sizeY;
+            int y = row % sizeY;
+            nextRow(progress);
+            
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
+            // init local histogram with background values
+            localHisto.reset(count, OUTSIDE);
+
+            // initialize histogram with the values within the chords at x = -1
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int z2 = z + this.zOffsets[i];
+                if (z2 < 0 || z2 >= sizeZ)
+                {
+                    continue;
+                }
+                
+                int y2 = y + this.yOffsets[i];
+                if (y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+                
+                int x0 = Math.max(this.xCenters[i] - this.xOffsets[i] - 1, 0);
+                int x1 = Math.min(this.xCenters[i] + this.xOffsets[i], sizeX);
+                for (int x2 = x0; x2 < x1; x2++)
+                {
+                    localHisto.replace(OUTSIDE, array.getValue(x2, y2, z2));
+                }
+            }
+            
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
+            if (flatZones != null)
+            {
+                flatZones.setRow(y, z);
+            }
+            
+            // iterate along "middle" values
+            for (int x = 0; x < sizeX; x++)
+            {
+                // within a flat zone, the result is the value of the zone
+                if (flatZones != null && x >= flatZones.nextCandidate)
+                {
+                    int end = flatZones.flatEnd(x);
+                    if (end > x)
+                    {
+                        double value = flatZones.value();
+                        for (int x2 = x; x2 < end; x2++)
+                        {
+                            res.setValue(x2, y, z, original == null ? value : value - original.getValue(x2, y, z));
+                        }
+                        
+                        // update the histogram at once for the last position of the zone
+                        x = end - 1;
+                        localHisto.reset(count, OUTSIDE);
+                        localHisto.replace(OUTSIDE, value, flatZones.insideCount(x));
+                        continue;
+                    }
+                }
+                
+                // iterate over the list of offsets
+                for (int i = 0; i < nOffsets; i++)
+                {
+                    int z2 = z + this.zOffsets[i];
+                    if (z2 < 0 || z2 >= sizeZ)
+                    {
+                        continue;
+                    }
+                    
+                    // current line offset
+                    int y2 = y + this.yOffsets[i];
+                    
+                    // We need to test values only for lines within array bounds
+                    if (y2 >= 0 && y2 < sizeY)
+                    {
+                        // old value
+                        int x2 = x + this.xCenters[i] - this.xOffsets[i] - 1;
+                        vOld = (x2 >= 0 && x2 < sizeX) ? array.getValue(x2, y2, z2) : OUTSIDE;
+                        
+                        // new value
+                        x2 = x + this.xCenters[i] + this.xOffsets[i];
+                        vNew = (x2 >= 0 && x2 < sizeX) ? array.getValue(x2, y2, z2) : OUTSIDE;
+                        
+                        localHisto.replace(vOld, vNew);
+                    }
+                }
+
+                double value = localHisto.getMinValue();
+                res.setValue(x, y, z, original == null ? value : value - original.getValue(x, y, z));
+            }
+        }
+
+        if (counters != null)
+        {
+            totalCounters.merge(counters);
+        }
+    }
+
+
+    @Override
+    public ImageStack closing(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.CLOSING, image);
+        if (slabSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.CLOSING, chordRadius());
+            return MemoryStreaming.processSlabs(image, halo, slabSize, this::closingInMemory);
+        }
+        return closingInMemory(image);
+    }
+    
+    /**
+     * Computes the closing of a 3D image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param image
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack closing(ImageStack image, ImageStack target)
+    {
+        checkTarget(image, target);
+        return closingInMemory(image, target);
+    }
+    
+    private ImageStack closingInMemory(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return closingInMemory(image, res);
+    }
+    
+    private ImageStack closingInMemory(ImageStack image, ImageStack target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageStack dilated = workspace.stack(0, image);
+            dilationInMemory(image, dilated, workspace);
+            return reverseWithSettings().erosionInMemory(dilated, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+
+    @Override
+    public ImageStack opening(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.OPENING, image);
+        if (slabSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.OPENING, chordRadius());
+            return MemoryStreaming.processSlabs(image, halo, slabSize, this::openingInMemory);
+        }
+        return openingInMemory(image);
+    }
+    
+    /**
+     * Computes the opening of a 3D image, and stores the result within an
+     * existing image. The whole image is processed at once.
+     * 
+     * @param image
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack opening(ImageStack image, ImageStack target)
+    {
+        checkTarget(image, target);
+        return openingInMemory(image, target);
+    }
+    
+    private ImageStack openingInMemory(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return openingInMemory(image, res);
+    }
+    
+    private ImageStack openingInMemory(ImageStack image, ImageStack target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageStack eroded = workspace.stack(0, image);
+            erosionInMemory(image, eroded, workspace);
+            return reverseWithSettings().dilationInMemory(eroded, target, workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+
+    
+    /**
+     * Computes the white top-hat of a 3D image, as the difference of the image
+     * with its opening. The second pass of the opening subtracts each value
+     * from the input image as soon as it is computed, such that the opening
+     * is not stored.
+     * 
+     * @param image
+     *            the input image
+     * @return the white top-hat of the image
+     */
+    public ImageStack whiteTopHat(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.TOPHAT, image);
+        if (slabSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.TOPHAT, chordRadius());
+            return MemoryStreaming.processSlabs(image, halo, slabSize, this::whiteTopHatInMemory);
+        }
+        return whiteTopHatInMemory(image);
+    }
+    
+    /**
+     * Computes the white top-hat of a 3D image, and stores the result within
+     * an existing image. The whole image is processed at once.
+     * 
+     * @param image
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack whiteTopHat(ImageStack image, ImageStack target)
+    {
+        checkTarget(image, target);
+        return whiteTopHatInMemory(image, target);
+    }
+    
+    private ImageStack whiteTopHatInMemory(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return whiteTopHatInMemory(image, res);
+    }
+    
+    private ImageStack whiteTopHatInMemory(ImageStack image, ImageStack target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageStack eroded = workspace.stack(0, image);
+            erosionInMemory(image, eroded, workspace);
+            
+            OperationEvent event = OperationEvent.begin("WhiteTopHat");
+            ImageStack res = reverseWithSettings().computeDilation(eroded, target, image, event, workspace);
+            event.end(image, chordRadius());
+            return res;
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Computes the black top-hat of a 3D image, as the difference of the
+     * closing of the image with the image. The second pass of the closing
+     * subtracts the input image from each value as soon as it is computed,
+     * such that the closing is not stored.
+     * 
+     * @param image
+     *            the input image
+     * @return the black top-hat of the image
+     */
+    public ImageStack blackTopHat(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.BOTTOMHAT, image);
+        if (slabSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.BOTTOMHAT, chordRadius());
+            return MemoryStreaming.processSlabs(image, halo, slabSize, this::blackTopHatInMemory);
+        }
+        return blackTopHatInMemory(image);
+    }
+    
+    /**
+     * Computes the black top-hat of a 3D image, and stores the result within
+     * an existing image. The whole image is processed at once.
+     * 
+     * @param image
+     *            the input image
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack blackTopHat(ImageStack image, ImageStack target)
+    {
+        checkTarget(image, target);
+        return blackTopHatInMemory(image, target);
+    }
+    
+    private ImageStack blackTopHatInMemory(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return blackTopHatInMemory(image, res);
+    }
+    
+    private ImageStack blackTopHatInMemory(ImageStack image, ImageStack target)
+    {
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            ImageStack dilated = workspace.stack(0, image);
+            dilationInMemory(image, dilated, workspace);
+            
+            OperationEvent event = OperationEvent.begin("BlackTopHat");
+            ImageStack res = reverseWithSettings().computeErosion(dilated, target, image, event, workspace);
+            event.end(image, chordRadius());
+            return res;
+        }
+        finally
+        {
+            workspace.release();
+        }
+    }
+    
+    /**
+     * Replaces the result of the second pass of a top-hat by its difference
+     * with the original image, slice by slice.
+     * 
+     * @see AbstractSlidingStrel#residue(ij.process.ImageProcessor, ij.process.ImageProcessor, boolean)
+     */
+    private static ImageStack residue(ImageStack original, ImageStack res, boolean white)
+    {
+        if (original == null)
+        {
+            return res;
+        }
+        for (int z = 1; z <= res.getSize(); z++)
+        {
+            AbstractSlidingStrel.residue(original.getProcessor(z), res.getProcessor(z), white);
+        }
+        return res;
+    }
+
+
+    // ==================================================
+    // Implementation of Strel3D
+
+    @Override
+    public int[] getSize()
+    {
+        int[] offset = getOffset();
+        return new int[] {2 * offset[0] + 1, 2 * offset[1] + 1, 2 * offset[2] + 1};
+    }
+
+    @Override
+    public int[][][] getMask3D()
+    {
+        int[] size = getSize();
+        int[] offset = getOffset();
+        
+        // fill the mask from the chords
+        int[][][] mask = new int[size[2]][size[1]][size[0]];
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            int y = this.yOffsets[i] + offset[1];
+            int z = this.zOffsets[i] + offset[2];
+            int x0 = this.xCenters[i] - this.xOffsets[i] + offset[0];
+            for (int x = x0; x <= x0 + 2 * this.xOffsets[i]; x++)
+            {
+                mask[z][y][x] = 255;
+            }
+        }
+        return mask;
+    }
+
+    @Override
+    public int[] getOffset()
+    {
+        int[] offset = new int[3];
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            offset[0] = Math.max(offset[0], Math.abs(this.xCenters[i]) + this.xOffsets[i]);
+            offset[1] = Math.max(offset[1], Math.abs(this.yOffsets[i]));
+            offset[2] = Math.max(offset[2], Math.abs(this.zOffsets[i]));
+        }
+        return offset;
+    }
+
+    @Override
+    public int[][] getShifts3D()
+    {
+        if (this.shiftArray == null)
+        {
+            createShiftArray();
+        }
+        return this.shiftArray;
+    }
+
+
+    // ==================================================
+    // Utility methods
+
+    void createShiftArray()
+    {
+        int count = elementCount();
+        
+        // create the shift array
+        this.shiftArray = new int[count][];
+        count = 0;
+    
+        int nOffsets = this.xOffsets.length;
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int dz = this.zOffsets[i];
+            int dy = this.yOffsets[i];
+            int xc = this.xCenters[i];
+            int ri = this.xOffsets[i];
+            for (int dx = xc - ri; dx <= xc + ri; dx++)
+            {
+                this.shiftArray[count++] = new int[] {dx, dy, dz};
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.ImageStack;
+import inra.ijpb.algo.AlgoStub;
+
+/**
+ * <p>
+ * Alternating sequential filter of a 3D image: the image is filtered by an
+ * opening and a closing (or by a closing and an opening) by balls of
+ * increasing radius, from 1 to the maximal radius. The structuring elements
+ * of all radii are created once, and the stages alternate between the result
+ * image and an intermediate image kept within a workspace.
+ * </p>
+ *
+ * <pre>{@code
+ * AlternatingSequentialFilter3D filter = new AlternatingSequentialFilter3D(3);
+ * ImageStack res = filter.process(image);
+ * }</pre>
+ *
+ * @see AlternatingSequentialFilter
+ *
+ * @author dlegland
+ *
+ */
+public class AlternatingSequentialFilter3D extends AlgoStub
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The structuring elements of each stage, indexed by radius minus one.
+     */
+    SlidingBallStrel3D[] strels;
+
+    /**
+     * Indicates whether the opening is applied before the closing for each
+     * radius.
+     */
+    boolean openingFirst = true;
+
+    /**
+     * The workspace that provides the intermediate images and the buffers of
+     * the structuring elements.
+     */
+    StrelWorkspace workspace = new StrelWorkspace();
+
+    /**
+     * The token checked before each stage, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new filter.
+     *
+     * @param maxRadius
+     *            the radius of the ball used by the last stages, at least 1
+     */
+    public AlternatingSequentialFilter3D(int maxRadius)
+    {
+        if (maxRadius < 1)
+        {
+            throw new RuntimeException("The maximal radius must be at least 1");
+        }
+        this.strels = new SlidingBallStrel3D[maxRadius];
+        for (int r = 1; r <= maxRadius; r++)
+        {
+            this.strels[r - 1] = new SlidingBallStrel3D(r);
+        }
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Chooses whether the opening is applied before the closing for each
+     * radius (the default), or after it.
+     *
+     * @param openingFirst
+     *            true for applying the opening first
+     */
+    public void setOpeningFirst(boolean openingFirst)
+    {
+        this.openingFirst = openingFirst;
+    }
+
+    /**
+     * Changes the number of threads used by each stage.
+     *
+     * @param threadCount
+     *            the number of threads, or 0 for using the number of threads
+     *            specified within ImageJ preferences
+     */
+    public void setThreadCount(int threadCount)
+    {
+        for (SlidingBallStrel3D strel : this.strels)
+        {
+            strel.setThreadCount(threadCount);
+        }
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. Cancelled
+     * operations throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+        for (SlidingBallStrel3D strel : this.strels)
+        {
+            strel.setCancellationToken(token);
+        }
+    }
+
+    /**
+     * Specifies the workspace that provides the intermediate images. The
+     * workspace can be shared with structuring elements.
+     *
+     * @param workspace
+     *            the workspace, or null for allocating buffers for each
+     *            filtering
+     */
+    public void setWorkspace(StrelWorkspace workspace)
+    {
+        this.workspace = workspace;
+    }
+
+
+    // ==================================================
+    // Processing
+
+    /**
+     * Applies the alternating sequential filter on a 3D image.
+     *
+     * @param image
+     *            the image to process
+     * @return a new image containing the result of the filter
+     */
+    public ImageStack process(ImageStack image)
+    {
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        return process(image, res);
+    }
+
+    /**
+     * Applies the alternating sequential filter on a 3D image, and stores the
+     * result within an existing image.
+     *
+     * @param image
+     *            the image to process
+     * @param target
+     *            the image that receives the result, with the same size and
+     *            type as the input image, and not sharing its slices
+     * @return the target image
+     */
+    public ImageStack process(ImageStack image, ImageStack target)
+    {
+        AbstractSlidingStrel3D.checkTarget(image, target);
+
+        StrelWorkspace workspace = acquireWorkspace();
+        try
+        {
+            applyStages(image, target, workspace.stack(0, image), workspace);
+        }
+        finally
+        {
+            workspace.release();
+        }
+
+        // clear the progress bar
+        fireProgressChanged(this, 1, 1);
+
+        return target;
+    }
+
+    /**
+     * Applies all the stages on an image, alternating between the target and
+     * the intermediate image. The number of stages being even, the last stage
+     * writes into the target.
+     */
+    private void applyStages(ImageStack image, ImageStack target, ImageStack buffer, StrelWorkspace workspace)
+    {
+        int nStages = 4 * this.strels.length;
+        ImageStack source = image;
+        for (int stage = 0; stage < nStages; stage++)
+        {
+            if (this.cancellationToken != null)
+            {
+                this.cancellationToken.checkCancelled();
+            }
+            fireProgressChanged(this, stage, nStages);
+
+            SlidingBallStrel3D strel = this.strels[stage / 4];
+            ImageStack dest = stage % 2 == 0 ? buffer : target;
+            if (isErosion(stage))
+            {
+                strel.erosionInMemory(source, dest, workspace);
+            }
+            else
+            {
+                strel.dilationInMemory(source, dest, workspace);
+            }
+            source = dest;
+        }
+    }
+
+    /**
+     * Checks whether a stage is an erosion. The stages of each radius are
+     * erosion, dilation, dilation and erosion when the opening is applied
+     * first, and dilation, erosion, erosion and dilation otherwise.
+     */
+    private boolean isErosion(int stage)
+    {
+        int index = stage % 4;
+        return (index == 0 || index == 3) == this.openingFirst;
+    }
+
+    /**
+     * Returns the workspace of this filter if it is not used by another
+     * operation, or a new workspace otherwise.
+     */
+    private StrelWorkspace acquireWorkspace()
+    {
+        StrelWorkspace workspace = this.workspace;
+        if (workspace != null && workspace.acquire())
+        {
+            return workspace;
+        }
+        return new StrelWorkspace();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+import net.ijt.mmorph.strel.StrelCostModel.Engine;
+
+/**
+ * Creates the disk or ball structuring element expected to be the fastest for
+ * processing a given image, based on the default cost model.
+ *
+ * Binary images are always processed with sliding structuring elements, that
+ * use dedicated engines.
+ *
+ * @see StrelCostModel
+ *
+ * @author dlegland
+ *
+ */
+public class AutoStrelFactory
+{
+    // ==================================================
+    // Static methods
+
+    /**
+     * Chooses the fastest implementation of disk structuring element for
+     * processing the specified image.
+     *
+     * @param image
+     *            the image to process
+     * @param radius
+     *            the radius of the disk
+     * @return the implementation with the smallest estimated running time
+     */
+    public static final Engine selectEngine(ImageProcessor image, double radius)
+    {
+        if (image instanceof ByteProcessor && BitPackedBinaryEngine.isBinary((ByteProcessor) image))
+        {
+            return Engine.SLIDING;
+        }
+        int[] dims = new int[] {image.getWidth(), image.getHeight()};
+        return StrelCostModel.getDefault().selectEngine(dims, image.getBitDepth(), radius, Prefs.getThreads());
+    }
+
+    /**
+     * Chooses the fastest implementation of ball structuring element for
+     * processing the specified image.
+     *
+     * @param image
+     *            the image to process
+     * @param radius
+     *            the radius of the ball
+     * @return the implementation with the smallest estimated running time
+     */
+    public static final Engine selectEngine(ImageStack image, double radius)
+    {
+        if (BitPackedBinaryEngine.isBinary(image))
+        {
+            return Engine.SLIDING;
+        }
+        int[] dims = new int[] {image.getWidth(), image.getHeight(), image.getSize()};
+        return StrelCostModel.getDefault().selectEngine(dims, image.getBitDepth(), radius, Prefs.getThreads());
+    }
+
+    /**
+     * Creates the disk structuring element expected to be the fastest for
+     * processing the specified image.
+     *
+     * @param image
+     *            the image to process
+     * @param radius
+     *            the radius of the disk
+     * @return the fastest disk structuring element
+     */
+    public static final Strel createDisk(ImageProcessor image, double radius)
+    {
+        return createDisk(selectEngine(image, radius), radius);
+    }
+
+    /**
+     * Creates the ball structuring element expected to be the fastest for
+     * processing the specified image.
+     *
+     * @param image
+     *            the image to process
+     * @param radius
+     *            the radius of the ball
+     * @return the fastest ball structuring element
+     */
+    public static final Strel3D createBall(ImageStack image, double radius)
+    {
+        return createBall(selectEngine(image, radius), radius);
+    }
+
+    /**
+     * Creates a disk structuring element using the specified implementation.
+     *
+     * @param engine
+     *            the implementation of the structuring element
+     * @param radius
+     *            the radius of the disk
+     * @return a new disk structuring element
+     */
+    public static final Strel createDisk(Engine engine, double radius)
+    {
+        switch (engine)
+        {
+        case SLIDING: return new SlidingDiskStrel(radius);
+        case NAIVE: return new NaiveDiskStrel(radius);
+        case NATIVE: return Strel.Shape.DISK.fromRadius((int) radius);
+        default:
+            throw new RuntimeException("Unknown structuring element type: " + engine);
+        }
+    }
+
+    /**
+     * Creates a ball structuring element using the specified implementation.
+     *
+     * @param engine
+     *            the implementation of the structuring element
+     * @param radius
+     *            the radius of the ball
+     * @return a new ball structuring element
+     */
+    public static final Strel3D createBall(Engine engine, double radius)
+    {
+        switch (engine)
+        {
+        case SLIDING: return new SlidingBallStrel3D(radius);
+        case NAIVE: return new NaiveBallStrel3D(radius);
+        case NATIVE: return Strel3D.Shape.BALL.fromRadius((int) radius);
+        default:
+            throw new RuntimeException("Unknown structuring element type: " + engine);
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private AutoStrelFactory()
+    {
+    }
+}
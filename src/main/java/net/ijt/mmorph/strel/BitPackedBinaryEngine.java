@@ -0,0 +1,588 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/**
+ * <p>
+ * Morphological dilation and erosion of binary images (containing only the
+ * values 0 and 255) by a structuring element described by a set of
+ * horizontal chords.
+ * </p>
+ *
+ * <p>
+ * Each image row is packed into an array of <code>long</code> words, one bit
+ * per pixel. The dilation of a row by a chord then reduces to word-parallel
+ * OR operations between shifted copies of the row, processing 64 pixels per
+ * operation. Erosion is computed as the complement of the dilation of the
+ * complemented image, so that pixels outside image bounds behave in the same
+ * way as within the local histogram implementations (background for
+ * dilation, foreground for erosion).
+ * </p>
+ *
+ * <p>
+ * Chords are described in the same way as within sliding structuring
+ * elements: the chord with index <code>i</code> covers the positions
+ * <code>(dx, yOffsets[i], zOffsets[i])</code> with
+ * <code>xCenters[i]-xOffsets[i] &lt;= dx &lt;= xCenters[i]+xOffsets[i]</code>.
+ * </p>
+ *
+ * @see SlidingDiskStrel
+ * @see SlidingBallStrel3D
+ *
+ * @author dlegland
+ *
+ */
+public class BitPackedBinaryEngine
+{
+    // ==================================================
+    // Static methods
+
+    /**
+     * Checks if the specified image contains only 0 and 255 values.
+     *
+     * @param image
+     *            the image to check
+     * @return true if the image contains only the values 0 and 255
+     */
+    public static final boolean isBinary(ByteProcessor image)
+    {
+        return isBinary((byte[]) image.getPixels());
+    }
+
+    /**
+     * Checks if the specified 8-bits stack contains only 0 and 255 values.
+     *
+     * @param image
+     *            the image to check
+     * @return true if the image contains only the values 0 and 255
+     */
+    public static final boolean isBinary(ImageStack image)
+    {
+        if (image.getBitDepth() != 8)
+        {
+            return false;
+        }
+
+        for (int z = 1; z <= image.getSize(); z++)
+        {
+            if (!isBinary((byte[]) image.getPixels(z)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final boolean isBinary(byte[] pixels)
+    {
+        for (byte b : pixels)
+        {
+            if (b != 0 && b != (byte) 255)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The half-width of each chord.
+     */
+    int[] xOffsets;
+
+    /**
+     * The y-offset of each chord.
+     */
+    int[] yOffsets;
+
+    /**
+     * The z-offset of each chord.
+     */
+    int[] zOffsets;
+
+    /**
+     * The x-offset of the center of each chord.
+     */
+    int[] xCenters;
+
+    /**
+     * The indices of chords, sorted by increasing half-width.
+     */
+    int[] chordOrder;
+
+    /**
+     * The workspace that provides the buffers of packed rows, or null for
+     * allocating them for each operation.
+     */
+    StrelWorkspace workspace = null;
+
+    /**
+     * The token used for cancelling operations, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+    /**
+     * The listener notified of the progress of operations, or null.
+     */
+    ProgressCounter.Listener progressListener = null;
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new engine for a planar structuring element.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     */
+    public BitPackedBinaryEngine(int[] xOffsets, int[] yOffsets)
+    {
+        this(xOffsets, yOffsets, new int[xOffsets.length]);
+    }
+
+    /**
+     * Creates a new engine for a 3D structuring element.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     * @param zOffsets
+     *            the z-offset of each chord
+     */
+    public BitPackedBinaryEngine(int[] xOffsets, int[] yOffsets, int[] zOffsets)
+    {
+        this(xOffsets, yOffsets, zOffsets, new int[xOffsets.length]);
+    }
+
+    /**
+     * Creates a new engine for a 3D structuring element whose chords are not
+     * necessarily centered on the x = 0 plane.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     * @param zOffsets
+     *            the z-offset of each chord
+     * @param xCenters
+     *            the x-offset of the center of each chord
+     */
+    public BitPackedBinaryEngine(int[] xOffsets, int[] yOffsets, int[] zOffsets, int[] xCenters)
+    {
+        this.xOffsets = xOffsets;
+        this.yOffsets = yOffsets;
+        this.zOffsets = zOffsets;
+        this.xCenters = xCenters;
+
+        // sort chord indices by increasing half-width, to update the
+        // horizontally dilated rows incrementally
+        int nOffsets = xOffsets.length;
+        long[] keys = new long[nOffsets];
+        for (int i = 0; i < nOffsets; i++)
+        {
+            keys[i] = (((long) xOffsets[i]) << 32) | i;
+        }
+        Arrays.sort(keys);
+        this.chordOrder = new int[nOffsets];
+        for (int i = 0; i < nOffsets; i++)
+        {
+            this.chordOrder[i] = (int) keys[i];
+        }
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Specifies the workspace that provides the buffers of packed rows. The
+     * engine must not be used concurrently with the same workspace.
+     *
+     * @param workspace
+     *            the workspace, or null for allocating buffers for each
+     *            operation
+     */
+    void setWorkspace(StrelWorkspace workspace)
+    {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two chords (or planes), and cancelled operations
+     * throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+    /**
+     * Specifies the listener notified of the progress of operations.
+     *
+     * @param listener
+     *            the listener of progress, or null
+     */
+    void setProgressListener(ProgressCounter.Listener listener)
+    {
+        this.progressListener = listener;
+    }
+
+
+    // ==================================================
+    // Processing methods
+
+    /**
+     * Computes the dilation of a binary image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @return the result of dilation
+     */
+    public ByteProcessor dilation(ByteProcessor image)
+    {
+        return dilation(image, new ByteProcessor(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Computes the dilation of a binary image, and stores the result within an
+     * existing image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ByteProcessor dilation(ByteProcessor image, ByteProcessor res)
+    {
+        process(new byte[][] {(byte[]) image.getPixels()},
+                new byte[][] {(byte[]) res.getPixels()},
+                image.getWidth(), image.getHeight(), false);
+        return res;
+    }
+
+    /**
+     * Computes the erosion of a binary image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @return the result of erosion
+     */
+    public ByteProcessor erosion(ByteProcessor image)
+    {
+        return erosion(image, new ByteProcessor(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Computes the erosion of a binary image, and stores the result within an
+     * existing image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ByteProcessor erosion(ByteProcessor image, ByteProcessor res)
+    {
+        process(new byte[][] {(byte[]) image.getPixels()},
+                new byte[][] {(byte[]) res.getPixels()},
+                image.getWidth(), image.getHeight(), true);
+        return res;
+    }
+
+    /**
+     * Computes the dilation of a binary 3D image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @return the result of dilation
+     */
+    public ImageStack dilation(ImageStack image)
+    {
+        return dilation(image, ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8));
+    }
+
+    /**
+     * Computes the dilation of a binary 3D image, and stores the result within
+     * an existing image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageStack dilation(ImageStack image, ImageStack res)
+    {
+        process(slices(image), slices(res), image.getWidth(), image.getHeight(), false);
+        return res;
+    }
+
+    /**
+     * Computes the erosion of a binary 3D image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @return the result of erosion
+     */
+    public ImageStack erosion(ImageStack image)
+    {
+        return erosion(image, ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8));
+    }
+
+    /**
+     * Computes the erosion of a binary 3D image, and stores the result within
+     * an existing image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageStack erosion(ImageStack image, ImageStack res)
+    {
+        process(slices(image), slices(res), image.getWidth(), image.getHeight(), true);
+        return res;
+    }
+
+    private static final byte[][] slices(ImageStack image)
+    {
+        int sizeZ = image.getSize();
+        byte[][] slices = new byte[sizeZ][];
+        for (int z = 0; z < sizeZ; z++)
+        {
+            slices[z] = (byte[]) image.getPixels(z + 1);
+        }
+        return slices;
+    }
+
+    /**
+     * Computes the dilation of the (optionally complemented) binary image
+     * given as an array of slices, and stores the (optionally complemented)
+     * result in the target slices.
+     *
+     * @param source
+     *            the pixels of the input image, one array per slice
+     * @param target
+     *            the pixels of the output image, one array per slice
+     * @param sizeX
+     *            the image width
+     * @param sizeY
+     *            the image height
+     * @param complement
+     *            if true, both input and output are complemented, resulting in
+     *            an erosion
+     */
+    private void process(byte[][] source, byte[][] target, int sizeX, int sizeY, boolean complement)
+    {
+        int sizeZ = source.length;
+        int nRows = sizeY * sizeZ;
+        // rows are padded on each side, such that the horizontal dilation of
+        // rows can be shifted by the offset of chord centers
+        int margin = 0;
+        for (int xCenter : this.xCenters)
+        {
+            margin = Math.max(margin, Math.abs(xCenter));
+        }
+        int rowLength = sizeX + 2 * margin;
+        int nWords = (rowLength + 63) >>> 6;
+
+        // the bits of the last word that correspond to positions within the padded row
+        long lastWordMask = (rowLength & 63) == 0 ? -1L : (1L << (rowLength & 63)) - 1;
+
+        // pack the (optionally complemented) input image
+        long[][] rows = rows(0, nRows, nWords);
+        for (int z = 0; z < sizeZ; z++)
+        {
+            for (int y = 0; y < sizeY; y++)
+            {
+                packRow(source[z], y * sizeX, sizeX, margin, rows[z * sizeY + y], complement);
+            }
+        }
+
+        // horizontal dilation of each row by the current chord half-width
+        long[][] dilatedRows = rows(1, nRows, nWords);
+        for (int r = 0; r < nRows; r++)
+        {
+            System.arraycopy(rows[r], 0, dilatedRows[r], 0, nWords);
+        }
+        int currentWidth = 0;
+
+        // packed result, initialized with empty rows
+        long[][] resRows = rows(2, nRows, nWords);
+        for (long[] resRow : resRows)
+        {
+            Arrays.fill(resRow, 0L);
+        }
+
+        // process chords by increasing half-width
+        ProgressCounter progress = new ProgressCounter(this.chordOrder.length);
+        for (int i : this.chordOrder)
+        {
+            progress.next(this.cancellationToken, this.progressListener);
+
+            // update horizontal dilation of rows until reaching chord width
+            while (currentWidth < this.xOffsets[i])
+            {
+                currentWidth++;
+                for (int r = 0; r < nRows; r++)
+                {
+                    orShifted(rows[r], dilatedRows[r], currentWidth);
+                    orShifted(rows[r], dilatedRows[r], -currentWidth);
+                    // clear bits after the end of the padded row, as chords
+                    // with non-zero center may shift them within the row
+                    dilatedRows[r][nWords - 1] &= lastWordMask;
+                }
+            }
+
+            // combine the dilated rows at chord position with result rows
+            int dx = this.xCenters[i];
+            int dy = this.yOffsets[i];
+            int dz = this.zOffsets[i];
+            int y0 = Math.max(0, -dy), y1 = Math.min(sizeY, sizeY - dy);
+            int z0 = Math.max(0, -dz), z1 = Math.min(sizeZ, sizeZ - dz);
+            for (int z = z0; z < z1; z++)
+            {
+                checkCancelled();
+                for (int y = y0; y < y1; y++)
+                {
+                    long[] resRow = resRows[z * sizeY + y];
+                    long[] row = dilatedRows[(z + dz) * sizeY + y + dy];
+                    if (dx == 0)
+                    {
+                        for (int w = 0; w < nWords; w++)
+                        {
+                            resRow[w] |= row[w];
+                        }
+                    }
+                    else
+                    {
+                        orShifted(row, resRow, dx);
+                    }
+                }
+            }
+        }
+
+        // unpack result
+        for (int z = 0; z < sizeZ; z++)
+        {
+            for (int y = 0; y < sizeY; y++)
+            {
+                unpackRow(resRows[z * sizeY + y], target[z], y * sizeX, sizeX, margin, complement);
+            }
+        }
+        progress.done(this.progressListener);
+    }
+
+    private void checkCancelled()
+    {
+        if (this.cancellationToken != null)
+        {
+            this.cancellationToken.checkCancelled();
+        }
+    }
+
+    /**
+     * Returns a buffer of packed rows, from the workspace if any.
+     */
+    private long[][] rows(int slot, int nRows, int nWords)
+    {
+        if (this.workspace == null)
+        {
+            return new long[nRows][nWords];
+        }
+        return this.workspace.longRows(slot, nRows, nWords);
+    }
+
+    /**
+     * Packs a row of pixels into an array of words, the pixel at position x
+     * being stored at bit index (x + margin). Bits located before and after
+     * the pixels of the row are set to zero.
+     */
+    private static final void packRow(byte[] pixels, int offset, int sizeX, int margin, long[] row, boolean complement)
+    {
+        Arrays.fill(row, 0L);
+        for (int x = 0; x < sizeX; x++)
+        {
+            if ((pixels[offset + x] != 0) != complement)
+            {
+                int b = x + margin;
+                row[b >>> 6] |= 1L << (b & 63);
+            }
+        }
+    }
+
+    private static final void unpackRow(long[] row, byte[] pixels, int offset, int sizeX, int margin, boolean complement)
+    {
+        for (int x = 0; x < sizeX; x++)
+        {
+            int bit = x + margin;
+            boolean b = (row[bit >>> 6] & (1L << (bit & 63))) != 0;
+            pixels[offset + x] = b != complement ? (byte) 255 : 0;
+        }
+    }
+
+    /**
+     * Combines the target row with a shifted copy of the source row, such
+     * that <code>target(x) |= source(x + shift)</code>. Positions outside of
+     * the source row are considered as zero.
+     */
+    private static final void orShifted(long[] source, long[] target, int shift)
+    {
+        int nWords = source.length;
+        if (shift >= 0)
+        {
+            // bits move towards lower indices
+            int wordShift = shift >>> 6;
+            int bitShift = shift & 63;
+            for (int w = 0; w < nWords - wordShift; w++)
+            {
+                long v = source[w + wordShift] >>> bitShift;
+                if (bitShift != 0 && w + wordShift + 1 < nWords)
+                {
+                    v |= source[w + wordShift + 1] << (64 - bitShift);
+                }
+                target[w] |= v;
+            }
+        }
+        else
+        {
+            // bits move towards higher indices
+            int wordShift = (-shift) >>> 6;
+            int bitShift = (-shift) & 63;
+            for (int w = wordShift; w < nWords; w++)
+            {
+                long v = source[w - wordShift] << bitShift;
+                if (bitShift != 0 && w - wordShift - 1 >= 0)
+                {
+                    v |= source[w - wordShift - 1] >>> (64 - bitShift);
+                }
+                target[w] |= v;
+            }
+        }
+    }
+}
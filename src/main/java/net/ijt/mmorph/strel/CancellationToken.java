@@ -0,0 +1,56 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * A token used for cancelling a long running operation. The token is checked
+ * by structuring elements between the processing of two rows (or slabs) of the
+ * image. When the token is cancelled, the operation stops by throwing a
+ * CancellationException.
+ * 
+ * Sub-classes may override the isCancelled() method for considering other
+ * sources of cancellation, such as the Escape key within ImageJ.
+ * 
+ * @author dlegland
+ *
+ */
+public class CancellationToken
+{
+    /**
+     * The flag indicating that cancellation was requested.
+     */
+    private volatile boolean cancelled = false;
+    
+    /**
+     * Requests the cancellation of the operations using this token.
+     */
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+    
+    /**
+     * @return true if the cancellation of operations was requested.
+     */
+    public boolean isCancelled()
+    {
+        return this.cancelled;
+    }
+    
+    /**
+     * Throws a CancellationException if the cancellation was requested.
+     * 
+     * @throws CancellationException
+     *             if the cancellation was requested
+     */
+    public void checkCancelled()
+    {
+        if (isCancelled())
+        {
+            throw new CancellationException("Operation was cancelled");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Utility for processing the three channels of a color image concurrently.
+ * The channels are unpacked once into byte arrays, processed as 8-bit images,
+ * and packed into the result.
+ *
+ * @author dlegland
+ *
+ */
+final class ColorChannels
+{
+    /**
+     * Processes a single channel.
+     */
+    interface Operator
+    {
+        /**
+         * Processes a channel of a color image.
+         *
+         * @param channel
+         *            the channel to process
+         * @param res
+         *            the image that receives the processed channel
+         * @param nThreads
+         *            the number of threads available for processing the
+         *            channel
+         * @param workspace
+         *            the workspace used for processing the channel
+         * @return the processed channel, as an 8-bit image
+         */
+        public ImageProcessor apply(ByteProcessor channel, ByteProcessor res, int nThreads, StrelWorkspace workspace);
+    }
+
+    /**
+     * Applies an operator on each channel of a color image. Channels are
+     * processed by concurrent threads, the remaining threads being shared
+     * between channels.
+     *
+     * @param image
+     *            the color image to process
+     * @param res
+     *            the color image that receives the result
+     * @param nThreads
+     *            the total number of threads
+     * @param workspace
+     *            the workspace that provides the buffers of the channels, and
+     *            the workspace of each channel
+     * @param operator
+     *            the operator applied on each channel
+     * @return the color image made of the processed channels
+     */
+    static final ColorProcessor process(ColorProcessor image, ColorProcessor res, int nThreads, StrelWorkspace workspace, Operator operator)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        int pixelCount = sizeX * sizeY;
+
+        // unpack the channels
+        byte[][] channels = workspace.byteRows(0, 3, pixelCount);
+        byte[][] results = workspace.byteRows(1, 3, pixelCount);
+        image.getRGB(channels[0], channels[1], channels[2]);
+        StrelWorkspace[] channelWorkspaces = new StrelWorkspace[3];
+        for (int c = 0; c < 3; c++)
+        {
+            channelWorkspaces[c] = workspace.channel(c);
+        }
+
+        // process each channel
+        int channelThreads = Math.max(nThreads / 3, 1);
+        RowBands.process(3, Math.min(nThreads, 3), (c0, c1) ->
+        {
+            for (int c = c0; c < c1; c++)
+            {
+                ByteProcessor channel = new ByteProcessor(sizeX, sizeY, channels[c]);
+                ByteProcessor channelRes = new ByteProcessor(sizeX, sizeY, results[c]);
+                operator.apply(channel, channelRes, channelThreads, channelWorkspaces[c]);
+            }
+        });
+
+        // pack the result
+        res.setRGB(results[0], results[1], results[2]);
+        return res;
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private ColorChannels()
+    {
+    }
+}
@@ -0,0 +1,587 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/**
+ * <p>
+ * Morphological dilation and erosion of binary images (containing only the
+ * values 0 and 255) by a discrete Euclidean disk or ball, computed by
+ * thresholding a squared Euclidean distance map.
+ * </p>
+ *
+ * <p>
+ * The dilation of a binary image by a Euclidean ball with squared radius
+ * <code>T</code> contains all the pixels whose squared distance to the
+ * nearest foreground pixel is lower than or equal to <code>T</code>. The
+ * distance map is computed exactly using integer arithmetic, with a
+ * separable algorithm (Meijster et al., 2000) whose complexity is linear
+ * with the number of pixels, and independent of the radius.
+ * </p>
+ *
+ * <p>
+ * The structuring element is given as a set of horizontal chords, in the
+ * same way as for sliding structuring elements. The engine can be used only
+ * if the chords correspond exactly to the set of offsets whose squared norm
+ * is lower than or equal to an integer threshold, which can be checked with
+ * the {@link #squaredRadius(int[], int[], int[])} method.
+ * </p>
+ *
+ * @see BitPackedBinaryEngine
+ * @see SlidingDiskStrel
+ * @see SlidingBallStrel3D
+ *
+ * @author dlegland
+ *
+ */
+public class DistanceTransformBinaryEngine
+{
+    // ==================================================
+    // Static methods
+
+    /**
+     * Computes the squared radius of the Euclidean ball described by the
+     * specified set of chords.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     * @param zOffsets
+     *            the z-offset of each chord
+     * @return the integer squared radius of the ball, or -1 if the chords do
+     *         not correspond to a Euclidean ball.
+     */
+    public static final int squaredRadius(int[] xOffsets, int[] yOffsets, int[] zOffsets)
+    {
+        int nOffsets = xOffsets.length;
+
+        // the candidate threshold is the largest squared norm of strel offsets
+        int threshold = -1;
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int dx = xOffsets[i];
+            threshold = Math.max(threshold, dx * dx + yOffsets[i] * yOffsets[i] + zOffsets[i] * zOffsets[i]);
+        }
+        if (threshold < 0)
+        {
+            return -1;
+        }
+
+        // check that the (y,z) offsets of the chords are all distinct, and
+        // that each chord is the largest one within the ball
+        int r = isqrt(threshold);
+        boolean[][] visited = new boolean[2 * r + 1][2 * r + 1];
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int dy = yOffsets[i];
+            int dz = zOffsets[i];
+            if (Math.abs(dy) > r || Math.abs(dz) > r || visited[dz + r][dy + r])
+            {
+                return -1;
+            }
+            visited[dz + r][dy + r] = true;
+
+            int remaining = threshold - dy * dy - dz * dz;
+            if (remaining < 0 || xOffsets[i] != isqrt(remaining))
+            {
+                return -1;
+            }
+        }
+
+        // check that all the (y,z) offsets within the ball are represented
+        boolean planar = true;
+        for (int dz : zOffsets)
+        {
+            planar = planar && dz == 0;
+        }
+        int rz = planar ? 0 : r;
+        for (int dz = -rz; dz <= rz; dz++)
+        {
+            for (int dy = -r; dy <= r; dy++)
+            {
+                if (dy * dy + dz * dz <= threshold && !visited[dz + r][dy + r])
+                {
+                    return -1;
+                }
+            }
+        }
+
+        return threshold;
+    }
+
+    /**
+     * Integer square root.
+     */
+    private static final int isqrt(int value)
+    {
+        int r = (int) Math.sqrt(value);
+        while (r * r > value)
+        {
+            r--;
+        }
+        while ((r + 1) * (r + 1) <= value)
+        {
+            r++;
+        }
+        return r;
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The squared radius of the ball. Positions with squared distance lower
+     * than or equal to this value are considered within the ball.
+     */
+    int threshold;
+
+    /**
+     * The workspace that provides the buffers of distance maps, or null for
+     * allocating them for each operation.
+     */
+    StrelWorkspace workspace = null;
+
+    /**
+     * The token used for cancelling operations, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+    /**
+     * The listener notified of the progress of operations, or null.
+     */
+    ProgressCounter.Listener progressListener = null;
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new engine from the squared radius of a Euclidean ball.
+     *
+     * @param squaredRadius
+     *            the squared radius of the ball, as an integer.
+     */
+    public DistanceTransformBinaryEngine(int squaredRadius)
+    {
+        if (squaredRadius < 0)
+        {
+            throw new IllegalArgumentException("Squared radius must be positive or zero");
+        }
+        this.threshold = squaredRadius;
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Specifies the workspace that provides the buffers of distance maps. The
+     * engine must not be used concurrently with the same workspace.
+     *
+     * @param workspace
+     *            the workspace, or null for allocating buffers for each
+     *            operation
+     */
+    void setWorkspace(StrelWorkspace workspace)
+    {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two rows (or planes), and cancelled operations
+     * throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+    /**
+     * Specifies the listener notified of the progress of operations.
+     *
+     * @param listener
+     *            the listener of progress, or null
+     */
+    void setProgressListener(ProgressCounter.Listener listener)
+    {
+        this.progressListener = listener;
+    }
+
+
+    // ==================================================
+    // Processing methods
+
+    /**
+     * Computes the dilation of a binary image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @return the result of dilation
+     */
+    public ByteProcessor dilation(ByteProcessor image)
+    {
+        return dilation(image, new ByteProcessor(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Computes the dilation of a binary image, and stores the result within an
+     * existing image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ByteProcessor dilation(ByteProcessor image, ByteProcessor res)
+    {
+        process(new byte[][] {(byte[]) image.getPixels()},
+                new byte[][] {(byte[]) res.getPixels()},
+                image.getWidth(), image.getHeight(), false);
+        return res;
+    }
+
+    /**
+     * Computes the erosion of a binary image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @return the result of erosion
+     */
+    public ByteProcessor erosion(ByteProcessor image)
+    {
+        return erosion(image, new ByteProcessor(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Computes the erosion of a binary image, and stores the result within an
+     * existing image.
+     *
+     * @param image
+     *            a binary image containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ByteProcessor erosion(ByteProcessor image, ByteProcessor res)
+    {
+        process(new byte[][] {(byte[]) image.getPixels()},
+                new byte[][] {(byte[]) res.getPixels()},
+                image.getWidth(), image.getHeight(), true);
+        return res;
+    }
+
+    /**
+     * Computes the dilation of a binary 3D image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @return the result of dilation
+     */
+    public ImageStack dilation(ImageStack image)
+    {
+        return dilation(image, ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8));
+    }
+
+    /**
+     * Computes the dilation of a binary 3D image, and stores the result within
+     * an existing image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageStack dilation(ImageStack image, ImageStack res)
+    {
+        process(slices(image), slices(res), image.getWidth(), image.getHeight(), false);
+        return res;
+    }
+
+    /**
+     * Computes the erosion of a binary 3D image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @return the result of erosion
+     */
+    public ImageStack erosion(ImageStack image)
+    {
+        return erosion(image, ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), 8));
+    }
+
+    /**
+     * Computes the erosion of a binary 3D image, and stores the result within
+     * an existing image.
+     *
+     * @param image
+     *            a binary 8-bits stack containing only 0 and 255 values
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageStack erosion(ImageStack image, ImageStack res)
+    {
+        process(slices(image), slices(res), image.getWidth(), image.getHeight(), true);
+        return res;
+    }
+
+    private static final byte[][] slices(ImageStack image)
+    {
+        int sizeZ = image.getSize();
+        byte[][] slices = new byte[sizeZ][];
+        for (int z = 0; z < sizeZ; z++)
+        {
+            slices[z] = (byte[]) image.getPixels(z + 1);
+        }
+        return slices;
+    }
+
+    /**
+     * Computes the dilation (or the erosion) of the binary image given as an
+     * array of slices, and stores the result in the target slices.
+     *
+     * @param source
+     *            the pixels of the input image, one array per slice
+     * @param target
+     *            the pixels of the output image, one array per slice
+     * @param sizeX
+     *            the image width
+     * @param sizeY
+     *            the image height
+     * @param erosion
+     *            if true, distances are computed to the background pixels,
+     *            resulting in an erosion
+     */
+    private void process(byte[][] source, byte[][] target, int sizeX, int sizeY, boolean erosion)
+    {
+        int sizeZ = source.length;
+        int sizeXY = sizeX * sizeY;
+
+        // distances larger than the threshold are clamped to this value,
+        // keeping computations within the int range
+        final int CLAMP = this.threshold + 1;
+
+        // squared distance maps, one array per slice
+        int[][] dist = buffer(0, sizeZ, sizeXY);
+
+        // First pass: distance to the nearest feature along the outermost
+        // direction (z for 3D images, y for planar images). Computation sweeps
+        // whole slices (or rows) to preserve memory locality.
+        boolean planar = sizeZ == 1;
+        int nPlanes = planar ? sizeY : sizeZ;
+        int planeSize = planar ? sizeX : sizeXY;
+        int[] last = buffer(1, 1, planeSize)[0];
+
+        // progress is counted by plane for the first pass, by slice for the
+        // second one, and by row for the last one
+        ProgressCounter progress = new ProgressCounter(2L * nPlanes + (planar ? 0 : sizeZ) + (long) sizeZ * sizeY);
+
+        // forward scan: distance to the closest feature in previous planes
+        Arrays.fill(last, -1);
+        for (int p = 0; p < nPlanes; p++)
+        {
+            progress.next(this.cancellationToken, this.progressListener);
+            byte[] pixels = planar ? source[0] : source[p];
+            int[] distPlane = planar ? dist[0] : dist[p];
+            int offset = planar ? p * sizeX : 0;
+            for (int i = 0; i < planeSize; i++)
+            {
+                if ((pixels[offset + i] != 0) != erosion)
+                {
+                    last[i] = p;
+                }
+                distPlane[offset + i] = last[i] < 0 ? Integer.MAX_VALUE : p - last[i];
+            }
+        }
+
+        // backward scan: distance to the closest feature in next planes, and
+        // conversion to clamped squared distances
+        Arrays.fill(last, -1);
+        for (int p = nPlanes - 1; p >= 0; p--)
+        {
+            progress.next(this.cancellationToken, this.progressListener);
+            byte[] pixels = planar ? source[0] : source[p];
+            int[] distPlane = planar ? dist[0] : dist[p];
+            int offset = planar ? p * sizeX : 0;
+            for (int i = 0; i < planeSize; i++)
+            {
+                if ((pixels[offset + i] != 0) != erosion)
+                {
+                    last[i] = p;
+                }
+                int d = distPlane[offset + i];
+                if (last[i] >= 0)
+                {
+                    d = Math.min(d, last[i] - p);
+                }
+                distPlane[offset + i] = (int) Math.min((long) d * d, CLAMP);
+            }
+        }
+
+        // buffers for processing lines
+        int maxSize = Math.max(sizeX, sizeY);
+        int[][] lines = buffer(2, 4, maxSize);
+        int[] line = lines[0];
+        int[] lineRes = lines[1];
+        int[] s = lines[2];
+        int[] t = lines[3];
+
+        // for 3D images, combine distances along the y direction
+        if (!planar)
+        {
+            for (int z = 0; z < sizeZ; z++)
+            {
+                progress.next(this.cancellationToken, this.progressListener);
+                int[] distSlice = dist[z];
+                for (int x = 0; x < sizeX; x++)
+                {
+                    for (int y = 0; y < sizeY; y++)
+                    {
+                        line[y] = distSlice[y * sizeX + x];
+                    }
+                    lowerEnvelope(line, lineRes, sizeY, s, t, CLAMP);
+                    for (int y = 0; y < sizeY; y++)
+                    {
+                        distSlice[y * sizeX + x] = lineRes[y];
+                    }
+                }
+            }
+        }
+
+        // combine distances along the rows, and threshold the distance map
+        for (int z = 0; z < sizeZ; z++)
+        {
+            int[] distSlice = dist[z];
+            byte[] pixels = target[z];
+            for (int y = 0; y < sizeY; y++)
+            {
+                progress.next(this.cancellationToken, this.progressListener);
+                int offset = y * sizeX;
+                System.arraycopy(distSlice, offset, line, 0, sizeX);
+                lowerEnvelope(line, lineRes, sizeX, s, t, CLAMP);
+                for (int x = 0; x < sizeX; x++)
+                {
+                    boolean inside = lineRes[x] <= this.threshold;
+                    pixels[offset + x] = inside != erosion ? (byte) 255 : 0;
+                }
+            }
+        }
+        progress.done(this.progressListener);
+    }
+
+    /**
+     * Returns a buffer of int rows, from the workspace if any.
+     */
+    private int[][] buffer(int slot, int nRows, int length)
+    {
+        if (this.workspace == null)
+        {
+            return new int[nRows][length];
+        }
+        return this.workspace.intRows(slot, nRows, length);
+    }
+
+    /**
+     * Computes the lower envelope of the parabolas centered on each position
+     * of the line, i.e. <code>res[u] = min_i((u-i)^2 + f[i])</code>, and
+     * clamps the result to the specified value. Parabolas whose minimum is
+     * greater than or equal to the clamping value can not contribute to the
+     * result, and are ignored.
+     *
+     * @param f
+     *            the squared distances computed along the previous
+     *            directions
+     * @param res
+     *            the array used to store the result
+     * @param n
+     *            the number of elements to process
+     * @param s
+     *            buffer for storing the parabola centers
+     * @param t
+     *            buffer for storing the start positions of the parabolas
+     * @param clamp
+     *            the maximum value of the result
+     */
+    private static final void lowerEnvelope(int[] f, int[] res, int n, int[] s, int[] t, int clamp)
+    {
+        int q = -1;
+        for (int u = 0; u < n; u++)
+        {
+            if (f[u] >= clamp)
+            {
+                continue;
+            }
+
+            while (q >= 0 && parabola(t[q], s[q], f) > parabola(t[q], u, f))
+            {
+                q--;
+            }
+
+            if (q < 0)
+            {
+                q = 0;
+                s[0] = u;
+                t[0] = 0;
+            }
+            else
+            {
+                long w = 1 + separation(s[q], u, f);
+                if (w < n)
+                {
+                    q++;
+                    s[q] = u;
+                    t[q] = (int) w;
+                }
+            }
+        }
+
+        // case of a line without any contributing parabola
+        if (q < 0)
+        {
+            Arrays.fill(res, 0, n, clamp);
+            return;
+        }
+
+        for (int u = n - 1; u >= 0; u--)
+        {
+            res[u] = (int) Math.min(parabola(u, s[q], f), clamp);
+            if (u == t[q])
+            {
+                q--;
+            }
+        }
+    }
+
+    private static final long parabola(int x, int i, int[] f)
+    {
+        long d = x - i;
+        return d * d + f[i];
+    }
+
+    /**
+     * Returns the last position where the parabola centered on i is lower
+     * than or equal to the parabola centered on u, with i &lt; u.
+     */
+    private static final long separation(int i, int u, int[] f)
+    {
+        long num = (long) u * u - (long) i * i + f[u] - f[i];
+        return Math.floorDiv(num, 2L * (u - i));
+    }
+}
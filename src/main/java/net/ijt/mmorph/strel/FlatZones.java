@@ -0,0 +1,387 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Detects the positions of a sliding structuring element whose neighborhood
+ * lies within a single flat zone of the image, i.e. whose pixels all have the
+ * same value. For each row used by the chords of the structuring element, the
+ * end of the run of constant values containing each pixel is computed once,
+ * and kept within a small cache of rows indexed by their position modulo the
+ * extent of the structuring element along y and z.
+ * </p>
+ *
+ * <p>
+ * The sliding kernels call {@link #setRow(int, int)} before processing a row,
+ * and {@link #flatEnd(int)} at the positions that may start a flat zone. The
+ * result of the operation is the constant value along the whole zone, and the
+ * local histogram can be updated at once at the end of the zone.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+final class FlatZones
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The minimal length of the flat zones that are skipped. Skipping a zone
+     * resets the local histogram, that costs about as much as sliding it
+     * along a few pixels.
+     */
+    static final int MIN_LENGTH = 8;
+
+    /**
+     * The half-width of each chord.
+     */
+    final int[] xOffsets;
+
+    /**
+     * The x-offset of the center of each chord.
+     */
+    final int[] xCenters;
+
+    /**
+     * The y-offset of each chord.
+     */
+    final int[] yOffsets;
+
+    /**
+     * The z-offset of each chord, or null for planar structuring elements.
+     */
+    final int[] zOffsets;
+
+    /**
+     * The pixel arrays of the slices, as byte, short or float arrays.
+     */
+    final Object[] slices;
+
+    final int sizeX;
+    final int sizeY;
+    final int sizeZ;
+
+    /**
+     * The extent of the structuring element along the y and z directions.
+     */
+    final int spanY;
+    final int spanZ;
+
+    /**
+     * The run ends of the cached rows, and the index of the row stored in
+     * each cache entry, or -1.
+     */
+    final int[][] runEnds;
+    final int[] cachedRows;
+
+    /**
+     * For the current row, the run ends of the row of each chord, or null if
+     * the row of the chord is outside of the image.
+     */
+    final int[][] chordRuns;
+
+    /**
+     * For the current row, the pixels and the offset of the row of each
+     * chord.
+     */
+    final Object[] chordPixels;
+    final int[] chordOffsets;
+
+    /**
+     * The index of the chord checked first, the largest chord within the
+     * image.
+     */
+    int firstChord = 0;
+
+    /**
+     * The value of the last flat zone, as returned by {@link #key(Object, int)}.
+     */
+    int key;
+
+    /**
+     * The first position that may start a flat zone, updated when a zone
+     * is not found.
+     */
+    int nextCandidate = 0;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new detector of flat zones.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param xCenters
+     *            the x-offset of the center of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     * @param zOffsets
+     *            the z-offset of each chord, or null for planar structuring
+     *            elements
+     * @param slices
+     *            the pixel arrays of the slices of the image
+     * @param sizeX
+     *            the width of the image
+     * @param sizeY
+     *            the height of the image
+     * @param workspace
+     *            the workspace that provides the cache of run ends
+     * @param band
+     *            the index of the band of rows
+     */
+    FlatZones(int[] xOffsets, int[] xCenters, int[] yOffsets, int[] zOffsets, Object[] slices, int sizeX, int sizeY, StrelWorkspace workspace, int band)
+    {
+        this.xOffsets = xOffsets;
+        this.xCenters = xCenters;
+        this.yOffsets = yOffsets;
+        this.zOffsets = zOffsets;
+        this.slices = slices;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = slices.length;
+
+        this.spanY = span(yOffsets);
+        this.spanZ = zOffsets != null ? span(zOffsets) : 1;
+        this.runEnds = workspace.runEnds(band, this.spanY * this.spanZ, sizeX);
+        this.cachedRows = new int[this.spanY * this.spanZ];
+        Arrays.fill(this.cachedRows, -1);
+
+        int nOffsets = xOffsets.length;
+        this.chordRuns = new int[nOffsets][];
+        this.chordPixels = new Object[nOffsets];
+        this.chordOffsets = new int[nOffsets];
+    }
+
+    private static final int span(int[] offsets)
+    {
+        int min = 0;
+        int max = 0;
+        for (int offset : offsets)
+        {
+            min = Math.min(min, offset);
+            max = Math.max(max, offset);
+        }
+        return max - min + 1;
+    }
+
+    /**
+     * Checks whether the pixels of the specified type can be processed.
+     *
+     * @param slices
+     *            the pixel arrays of the slices
+     * @return true if the slices contain byte, short or float values
+     */
+    static final boolean accepts(Object[] slices)
+    {
+        Object pixels = slices[0];
+        return pixels instanceof byte[] || pixels instanceof short[] || pixels instanceof float[];
+    }
+
+
+    // ==================================================
+    // Methods
+
+    /**
+     * Prepares the run ends of the rows used by the chords centered on the
+     * specified row.
+     *
+     * @param y
+     *            the y-coordinate of the row
+     * @param z
+     *            the z-coordinate of the row, or 0 for planar images
+     */
+    void setRow(int y, int z)
+    {
+        int maxWidth = -1;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            int y2 = y + this.yOffsets[i];
+            int z2 = this.zOffsets != null ? z + this.zOffsets[i] : z;
+            if (y2 < 0 || y2 >= this.sizeY || z2 < 0 || z2 >= this.sizeZ)
+            {
+                this.chordRuns[i] = null;
+                continue;
+            }
+
+            this.chordRuns[i] = rowRuns(y2, z2);
+            this.chordPixels[i] = this.slices[z2];
+            this.chordOffsets[i] = y2 * this.sizeX;
+            if (this.xOffsets[i] > maxWidth)
+            {
+                maxWidth = this.xOffsets[i];
+                this.firstChord = i;
+            }
+        }
+        this.nextCandidate = 0;
+    }
+
+    /**
+     * Returns the run ends of a row, computing them if the row is not cached.
+     */
+    private int[] rowRuns(int y2, int z2)
+    {
+        int slot = (z2 % this.spanZ) * this.spanY + (y2 % this.spanY);
+        int row = z2 * this.sizeY + y2;
+        int[] runs = this.runEnds[slot];
+        if (this.cachedRows[slot] == row)
+        {
+            return runs;
+        }
+
+        // scan the row backward, the end of each run being known
+        Object pixels = this.slices[z2];
+        int offset = y2 * this.sizeX;
+        int end = this.sizeX;
+        int previous = key(pixels, offset + this.sizeX - 1);
+        for (int x = this.sizeX - 1; x >= 0; x--)
+        {
+            int value = key(pixels, offset + x);
+            if (value != previous)
+            {
+                end = x + 1;
+                previous = value;
+            }
+            runs[x] = end;
+        }
+        this.cachedRows[slot] = row;
+        return runs;
+    }
+
+    /**
+     * Computes the end of the flat zone starting at the specified position.
+     * If the neighborhood of the position does not lie within a flat zone,
+     * returns the position itself and updates the next candidate position.
+     *
+     * @param x
+     *            the position of the structuring element within the row
+     * @return the position after the last position of the flat zone, or x if
+     *         the neighborhood is not flat or if the zone is too short
+     */
+    int flatEnd(int x)
+    {
+        int end = this.sizeX;
+        boolean found = false;
+        int zoneKey = 0;
+        for (int k = 0; k < this.xOffsets.length; k++)
+        {
+            // start with the largest chord, that is the most likely to fail
+            int i = k == 0 ? this.firstChord : (k == this.firstChord ? 0 : k);
+            int[] runs = this.chordRuns[i];
+            if (runs == null)
+            {
+                continue;
+            }
+
+            int x0 = x + this.xCenters[i] - this.xOffsets[i];
+            int x1 = x + this.xCenters[i] + this.xOffsets[i];
+            if (x0 >= this.sizeX)
+            {
+                // the chord remains outside of the image
+                continue;
+            }
+            if (x1 < 0)
+            {
+                // the chord will enter the image after this position
+                this.nextCandidate = x + 1;
+                return x;
+            }
+
+            x0 = Math.max(x0, 0);
+            int runEnd = runs[x0];
+            if (runEnd < this.sizeX)
+            {
+                if (runEnd <= x1)
+                {
+                    // the chord overlaps two runs until it leaves the first one
+                    this.nextCandidate = Math.max(runEnd - this.xCenters[i] + this.xOffsets[i], x + 1);
+                    return x;
+                }
+                end = Math.min(end, runEnd - this.xCenters[i] - this.xOffsets[i]);
+            }
+
+            int chordKey = key(this.chordPixels[i], this.chordOffsets[i] + x0);
+            if (!found)
+            {
+                zoneKey = chordKey;
+                found = true;
+            }
+            else if (chordKey != zoneKey)
+            {
+                this.nextCandidate = x + 1;
+                return x;
+            }
+        }
+
+        if (!found)
+        {
+            // no pixel of the neighborhood within the image
+            this.nextCandidate = x + 1;
+            return x;
+        }
+        if (end - x < MIN_LENGTH)
+        {
+            this.nextCandidate = end;
+            return x;
+        }
+        this.key = zoneKey;
+        return end;
+    }
+
+    /**
+     * Computes the number of pixels of the neighborhood of the specified
+     * position that are within the image.
+     *
+     * @param x
+     *            the position of the structuring element within the row
+     * @return the number of pixels within the image
+     */
+    int insideCount(int x)
+    {
+        int count = 0;
+        for (int i = 0; i < this.xOffsets.length; i++)
+        {
+            if (this.chordRuns[i] == null)
+            {
+                continue;
+            }
+            int x0 = Math.max(x + this.xCenters[i] - this.xOffsets[i], 0);
+            int x1 = Math.min(x + this.xCenters[i] + this.xOffsets[i], this.sizeX - 1);
+            count += Math.max(x1 - x0 + 1, 0);
+        }
+        return count;
+    }
+
+    /**
+     * @return the value of the last flat zone.
+     */
+    double value()
+    {
+        Object pixels = this.slices[0];
+        return pixels instanceof float[] ? Float.intBitsToFloat(this.key) : this.key;
+    }
+
+    /**
+     * Returns an integer that identifies the value of a pixel. Float values
+     * are compared by their bits, such that -0.0 and 0.0 belong to different
+     * zones, as for local histograms.
+     */
+    private static final int key(Object pixels, int index)
+    {
+        if (pixels instanceof byte[])
+        {
+            return ((byte[]) pixels)[index] & 0x00FF;
+        }
+        if (pixels instanceof short[])
+        {
+            return ((short[]) pixels)[index] & 0x00FFFF;
+        }
+        return Float.floatToIntBits(((float[]) pixels)[index]);
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * Counters describing the behavior of the local histograms during a
+ * morphological operation computed with a sliding structuring element: number
+ * of calls to the <code>replace()</code> method, number and length of the
+ * rescans required for updating the minimum or maximum value, largest number
+ * of distinct values within the histogram, number of processed pixels, and
+ * time spent in each processing phase.
+ * </p>
+ * 
+ * <p>
+ * Instrumentation is disabled by default, and can be enabled by setting the
+ * system property <code>net.ijt.mmorph.counters</code> to <code>true</code>
+ * (for example with the <code>-Dnet.ijt.mmorph.counters=true</code> option of
+ * the JVM). As the flag is a static final field, the instrumentation code is
+ * removed by the JIT compiler when it is disabled.
+ * </p>
+ * 
+ * @see HistogramCountersListener
+ * 
+ * @author dlegland
+ *
+ */
+public class HistogramCounters
+{
+    // ==================================================
+    // Static variables
+
+    /**
+     * The flag indicating whether instrumentation is enabled.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("net.ijt.mmorph.counters");
+    
+    
+    // ==================================================
+    // Class variables
+
+    /**
+     * A short description of the operation, such as "Dilation UInt8".
+     */
+    String operation;
+    
+    /**
+     * The number of calls to the replace() method of the local histogram.
+     */
+    long replaceCount = 0;
+    
+    /**
+     * The number of times the minimum or maximum value had to be recomputed.
+     */
+    long rescanCount = 0;
+    
+    /**
+     * The total number of values (or keys) visited during rescans.
+     */
+    long rescanLength = 0;
+    
+    /**
+     * The largest number of distinct values stored within the histogram.
+     */
+    int peakKeyCount = 0;
+    
+    /**
+     * The number of pixels (or voxels) computed by the operation.
+     */
+    long pixelCount = 0;
+    
+    /**
+     * The time spent for initializing the histogram at the beginning of each
+     * row, in nanoseconds.
+     */
+    long initializationTime = 0;
+    
+    /**
+     * The time spent for sliding the histogram along rows, in nanoseconds.
+     */
+    long slidingTime = 0;
+    
+    /**
+     * The time stamp of the beginning of the current phase, or 0 if no phase
+     * is running.
+     */
+    private long phaseStart = 0;
+    
+    /**
+     * The flag indicating whether the current phase is the sliding phase.
+     */
+    private boolean sliding = false;
+    
+    
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new set of counters, all initialized to zero.
+     * 
+     * @param operation
+     *            a short description of the operation
+     */
+    public HistogramCounters(String operation)
+    {
+        this.operation = operation;
+    }
+    
+    
+    // ==================================================
+    // Update methods, called during processing
+    
+    void countReplace()
+    {
+        this.replaceCount++;
+    }
+    
+    void countRescan(int length)
+    {
+        this.rescanCount++;
+        this.rescanLength += length;
+    }
+    
+    void updateKeyCount(int keyCount)
+    {
+        if (keyCount > this.peakKeyCount)
+        {
+            this.peakKeyCount = keyCount;
+        }
+    }
+    
+    /**
+     * Starts the initialization phase of a new row, terminating the current
+     * phase if necessary.
+     */
+    void beginInitialization()
+    {
+        long time = endPhase();
+        this.phaseStart = time;
+        this.sliding = false;
+    }
+    
+    /**
+     * Starts the sliding phase along a row, terminating the current phase if
+     * necessary.
+     * 
+     * @param rowLength
+     *            the number of pixels that will be computed along the row
+     */
+    void beginSliding(int rowLength)
+    {
+        long time = endPhase();
+        this.phaseStart = time;
+        this.sliding = true;
+        this.pixelCount += rowLength;
+    }
+    
+    /**
+     * Terminates the current phase, at the end of processing.
+     */
+    void finish()
+    {
+        endPhase();
+        this.phaseStart = 0;
+    }
+    
+    /**
+     * Adds the values of counters computed by another thread, after
+     * terminating their current phase.
+     * 
+     * @param counters
+     *            the counters to add
+     */
+    synchronized void merge(HistogramCounters counters)
+    {
+        counters.finish();
+        this.replaceCount += counters.replaceCount;
+        this.rescanCount += counters.rescanCount;
+        this.rescanLength += counters.rescanLength;
+        this.peakKeyCount = Math.max(this.peakKeyCount, counters.peakKeyCount);
+        this.pixelCount += counters.pixelCount;
+        this.initializationTime += counters.initializationTime;
+        this.slidingTime += counters.slidingTime;
+    }
+    
+    private long endPhase()
+    {
+        long time = System.nanoTime();
+        if (this.phaseStart != 0)
+        {
+            if (this.sliding)
+            {
+                this.slidingTime += time - this.phaseStart;
+            }
+            else
+            {
+                this.initializationTime += time - this.phaseStart;
+            }
+        }
+        return time;
+    }
+    
+    
+    // ==================================================
+    // Accessors
+    
+    /**
+     * @return a short description of the operation, such as "Dilation UInt8".
+     */
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * @return the number of calls to the replace() method of the local
+     *         histogram.
+     */
+    public long getReplaceCount()
+    {
+        return replaceCount;
+    }
+
+    /**
+     * @return the number of times the minimum or maximum value had to be
+     *         recomputed.
+     */
+    public long getRescanCount()
+    {
+        return rescanCount;
+    }
+
+    /**
+     * @return the total number of values (or keys) visited during rescans.
+     */
+    public long getRescanLength()
+    {
+        return rescanLength;
+    }
+
+    /**
+     * @return the largest number of distinct values stored within the
+     *         histogram.
+     */
+    public int getPeakKeyCount()
+    {
+        return peakKeyCount;
+    }
+
+    /**
+     * @return the number of pixels (or voxels) computed by the operation.
+     */
+    public long getPixelCount()
+    {
+        return pixelCount;
+    }
+
+    /**
+     * @return the time spent for initializing the histogram at the beginning
+     *         of each row, in nanoseconds.
+     */
+    public long getInitializationTime()
+    {
+        return initializationTime;
+    }
+
+    /**
+     * @return the time spent for sliding the histogram along rows, in
+     *         nanoseconds.
+     */
+    public long getSlidingTime()
+    {
+        return slidingTime;
+    }
+    
+    @Override
+    public String toString()
+    {
+        double meanRescan = this.rescanCount > 0 ? ((double) this.rescanLength) / this.rescanCount : 0.0;
+        return String.format(Locale.ENGLISH,
+                "%s: %d pixels, %d replace, %d rescans (mean length %.1f), %d peak keys, init %.3f ms, sliding %.3f ms",
+                this.operation, this.pixelCount, this.replaceCount, this.rescanCount, meanRescan,
+                this.peakKeyCount, this.initializationTime * 1e-6, this.slidingTime * 1e-6);
+    }
+}
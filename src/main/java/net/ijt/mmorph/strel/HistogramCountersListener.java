@@ -0,0 +1,26 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+/**
+ * Listener notified at the end of each operation computed with local
+ * histograms, when instrumentation is enabled.
+ * 
+ * @see HistogramCounters
+ * 
+ * @author dlegland
+ *
+ */
+public interface HistogramCountersListener
+{
+    /**
+     * Called when an operation is finished.
+     * 
+     * @param source
+     *            the structuring element that computed the operation
+     * @param counters
+     *            the counters describing the behavior of local histograms
+     */
+    public void countersReported(Object source, HistogramCounters counters);
+}
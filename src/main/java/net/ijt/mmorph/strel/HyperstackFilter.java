@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * <p>
+ * Applies a 3D morphological operation on each volume of a hyperstack, that
+ * is on each channel of each frame. Volumes are processed concurrently, and
+ * share the same structuring element.
+ * </p>
+ *
+ * <pre>{@code
+ * HyperstackFilter filter = new HyperstackFilter(new SlidingBallStrel3D(3));
+ * ImagePlus res = filter.process(imagePlus, Operation.OPENING);
+ * }</pre>
+ *
+ * <p>
+ * The threads of sliding structuring elements are shared between the volumes
+ * processed concurrently: their thread count is changed when processing
+ * starts. Progress is reported after each volume, and the cancellation token
+ * is checked before each volume, and by the structuring element.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+public class HyperstackFilter extends AlgoStub
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The structuring element shared by all volumes.
+     */
+    Strel3D strel;
+
+    /**
+     * The total number of threads, or 0 for using the number of threads
+     * specified within ImageJ preferences.
+     */
+    int threadCount = 0;
+
+    /**
+     * The token checked before each volume, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new filter.
+     *
+     * @param strel
+     *            the structuring element used for processing each volume
+     */
+    public HyperstackFilter(Strel3D strel)
+    {
+        this.strel = strel;
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Changes the total number of threads.
+     *
+     * @param threadCount
+     *            the number of threads, or 0 for using the number of threads
+     *            specified within ImageJ preferences
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. Cancelled
+     * operations throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+
+    // ==================================================
+    // Processing
+
+    /**
+     * Applies a morphological operation on each volume of a hyperstack.
+     *
+     * @param image
+     *            the hyperstack to process
+     * @param op
+     *            the operation to apply
+     * @return a new hyperstack with the same dimensions and calibration
+     */
+    public ImagePlus process(ImagePlus image, Operation op)
+    {
+        int nChannels = image.getNChannels();
+        int nSlices = image.getNSlices();
+        int nFrames = image.getNFrames();
+        ImageStack res = process(image.getStack(), nChannels, nSlices, nFrames, op);
+
+        String newName = image.getShortTitle() + "-" + op.toString();
+        ImagePlus resultPlus = new ImagePlus(newName, res);
+        resultPlus.setDimensions(nChannels, nSlices, nFrames);
+        resultPlus.setOpenAsHyperStack(image.isHyperStack());
+        resultPlus.copyScale(image);
+        return resultPlus;
+    }
+
+    /**
+     * Applies a morphological operation on each volume of a hyperstack,
+     * whose slices are ordered by channel, then by slice, then by frame.
+     *
+     * @param stack
+     *            the slices of the hyperstack
+     * @param nChannels
+     *            the number of channels
+     * @param nSlices
+     *            the number of slices of each volume
+     * @param nFrames
+     *            the number of frames
+     * @param op
+     *            the operation to apply
+     * @return a new stack containing the processed slices, in the same order
+     */
+    public ImageStack process(ImageStack stack, int nChannels, int nSlices, int nFrames, Operation op)
+    {
+        if (nChannels * nSlices * nFrames != stack.getSize())
+        {
+            throw new RuntimeException("Dimensions " + nChannels + "x" + nSlices + "x" + nFrames
+                    + " do not match the number of slices: " + stack.getSize());
+        }
+
+        int nVolumes = nChannels * nFrames;
+        Object[] results = new Object[stack.getSize()];
+
+        // the volumes processed concurrently share the threads
+        int nThreads = RowBands.threadCount(this.threadCount, Integer.MAX_VALUE);
+        int nWorkers = Math.min(nThreads, nVolumes);
+        if (this.strel instanceof AbstractSlidingStrel3D)
+        {
+            ((AbstractSlidingStrel3D) this.strel).setThreadCount(Math.max(nThreads / nWorkers, 1));
+        }
+
+        // the token of the structuring element is kept if none is specified
+        if (this.cancellationToken != null)
+        {
+            if (this.strel instanceof AbstractSlidingStrel3D)
+            {
+                ((AbstractSlidingStrel3D) this.strel).setCancellationToken(this.cancellationToken);
+            }
+            else if (this.strel instanceof NaiveBallStrel3D)
+            {
+                ((NaiveBallStrel3D) this.strel).setCancellationToken(this.cancellationToken);
+            }
+        }
+
+        // each worker processes the next volume not yet processed
+        AtomicInteger nextVolume = new AtomicInteger(0);
+        ProgressCounter progress = new ProgressCounter(nVolumes);
+        RowBands.process(nWorkers, nWorkers, (w0, w1) ->
+        {
+            int index;
+            while ((index = nextVolume.getAndIncrement()) < nVolumes)
+            {
+                if (this.cancellationToken != null)
+                {
+                    this.cancellationToken.checkCancelled();
+                }
+                int c = index % nChannels;
+                int t = index / nChannels;
+
+                // the volume shares the pixels of the hyperstack
+                ImageStack volume = new ImageStack(stack.getWidth(), stack.getHeight());
+                for (int z = 0; z < nSlices; z++)
+                {
+                    volume.addSlice(stack.getSliceLabel(stackIndex(c, z, t, nChannels, nSlices)),
+                            stack.getPixels(stackIndex(c, z, t, nChannels, nSlices)));
+                }
+
+                ImageStack volumeRes = SlidingOperations.apply(op, volume, this.strel);
+                for (int z = 0; z < nSlices; z++)
+                {
+                    results[stackIndex(c, z, t, nChannels, nSlices) - 1] = volumeRes.getPixels(z + 1);
+                }
+
+                long count = progress.increment();
+                if (count >= 0)
+                {
+                    fireProgressChanged(this, count, nVolumes);
+                }
+            }
+        });
+
+        // assemble the result stack
+        ImageStack res = new ImageStack(stack.getWidth(), stack.getHeight());
+        for (int i = 0; i < results.length; i++)
+        {
+            res.addSlice(stack.getSliceLabel(i + 1), results[i]);
+        }
+        res.setColorModel(stack.getColorModel());
+
+        // clear the progress bar
+        fireProgressChanged(this, nVolumes, nVolumes);
+
+        return res;
+    }
+
+    /**
+     * Computes the one-based index of a slice within a hyperstack, from
+     * zero-based channel, slice and frame indices.
+     */
+    private static final int stackIndex(int c, int z, int t, int nChannels, int nSlices)
+    {
+        return (t * nSlices + z) * nChannels + c + 1;
+    }
+}
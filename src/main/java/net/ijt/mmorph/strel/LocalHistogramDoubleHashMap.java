@@ -17,6 +17,12 @@ import java.util.HashMap;
  * resulting in O(log n) complexity for retrieving value counts.
  * </p>
  * 
+ * <p>
+ * As for the <code>Math.max</code> and <code>Math.min</code> functions, the
+ * minimum and maximum values are NaN as soon as the histogram contains a NaN
+ * value.
+ * </p>
+ * 
  * @see LocalHistogramUInt8
  * @see SlidingDiskStrel
  * @see SlidingBallStrel3D
@@ -56,7 +62,17 @@ public class LocalHistogramDoubleHashMap
      * The flag indicating that the minimum value needs to be recomputed.
      */
     boolean needUpdateMin = false;
- 
+
+    /**
+     * The number of NaN values within the histogram.
+     */
+    int nanCount = 0;
+
+    /**
+     * The optional counters updated when instrumentation is enabled.
+     */
+    HistogramCounters counters = null;
+
     
     // ==================================================
     // Constructors
@@ -80,6 +96,17 @@ public class LocalHistogramDoubleHashMap
     // ==================================================
     // Class methods
 
+    /**
+     * Sets up the counters to update when instrumentation is enabled.
+     * 
+     * @param counters
+     *            the counters to update, or null
+     */
+    public void setCounters(HistogramCounters counters)
+    {
+        this.counters = counters;
+    }
+
     /**
      * Resets this local histogram by filling with the specified value, avoiding
      * to create a new instance.
@@ -98,19 +125,31 @@ public class LocalHistogramDoubleHashMap
         this.minValue = value;
         this.needUpdateMax = false;
         this.needUpdateMin = false;
+        this.nanCount = Double.isNaN(value) ? count : 0;
     }
     
     public double getMaxValue()
     {
+        if (nanCount > 0)
+        {
+            return Double.NaN;
+        }
         if (needUpdateMax)
         {
             this.maxValue = Double.NEGATIVE_INFINITY;
             for (double key : valueCounts.keySet())
             {
-                this.maxValue = Math.max(this.maxValue, key);
+                if (key > this.maxValue)
+                {
+                    this.maxValue = key;
+                }
             }
             
             needUpdateMax = false;
+            if (HistogramCounters.ENABLED && counters != null)
+            {
+                counters.countRescan(valueCounts.size());
+            }
         }
         
         return maxValue;
@@ -118,15 +157,26 @@ public class LocalHistogramDoubleHashMap
 
     public double getMinValue()
     {
+        if (nanCount > 0)
+        {
+            return Double.NaN;
+        }
         if (needUpdateMin)
         {
             this.minValue = Double.POSITIVE_INFINITY;
             for (double key : valueCounts.keySet())
             {
-                this.minValue = Math.min(this.minValue, key);
+                if (key < this.minValue)
+                {
+                    this.minValue = key;
+                }
             }
             
             needUpdateMin = false;
+            if (HistogramCounters.ENABLED && counters != null)
+            {
+                counters.countRescan(valueCounts.size());
+            }
         }
         
         return minValue;
@@ -134,15 +184,96 @@ public class LocalHistogramDoubleHashMap
     
     public void replace(double oldValue, double newValue)
     {
-        if (newValue != oldValue)
+        if (HistogramCounters.ENABLED && counters != null)
+        {
+            counters.countReplace();
+        }
+        // compare bits, as keys of the map distinguish -0.0 from 0.0
+        if (Double.doubleToLongBits(newValue) != Double.doubleToLongBits(oldValue))
         {
             increaseCount(newValue);
             decreaseCount(oldValue);
         }
     }
     
+    /**
+     * Replaces several occurrences of a value by another value, as a single
+     * update of the histogram.
+     * 
+     * @param oldValue
+     *            the value to remove
+     * @param newValue
+     *            the value to add
+     * @param n
+     *            the number of occurrences to replace
+     */
+    public void replace(double oldValue, double newValue, int n)
+    {
+        if (HistogramCounters.ENABLED && counters != null)
+        {
+            counters.countReplace();
+        }
+        if (n == 0 || Double.doubleToLongBits(newValue) == Double.doubleToLongBits(oldValue))
+        {
+            return;
+        }
+        Integer oldCount = valueCounts.get(oldValue);
+        if (oldCount == null || oldCount < n)
+        {
+            throw new RuntimeException("Local histogram does not contain " + n + " counts for value " + oldValue);
+        }
+        
+        // add the new value
+        if (newValue != newValue)
+        {
+            nanCount += n;
+        }
+        Integer newCount = valueCounts.get(newValue);
+        valueCounts.put(newValue, newCount != null ? newCount + n : n);
+        if (newCount == null && HistogramCounters.ENABLED && counters != null)
+        {
+            counters.updateKeyCount(valueCounts.size());
+        }
+        if (newValue > maxValue)
+        {
+            maxValue = newValue;
+            needUpdateMax = false;
+        }
+        if (newValue < minValue)
+        {
+            minValue = newValue;
+            needUpdateMin = false;
+        }
+        
+        // remove the old value
+        if (oldValue != oldValue)
+        {
+            nanCount -= n;
+        }
+        if (oldCount > n)
+        {
+            valueCounts.put(oldValue, oldCount - n);
+        }
+        else
+        {
+            valueCounts.remove(oldValue);
+            if (oldValue == maxValue)
+            {
+                needUpdateMax = true;
+            }
+            if (oldValue == minValue)
+            {
+                needUpdateMin = true;
+            }
+        }
+    }
+    
     private void decreaseCount(double value)
     {
+        if (value != value)
+        {
+            nanCount--;
+        }
         if (valueCounts.containsKey(value))
         {
             // decrease current count
@@ -175,6 +306,10 @@ public class LocalHistogramDoubleHashMap
 
     private void increaseCount(double value)
     {
+        if (value != value)
+        {
+            nanCount++;
+        }
         if (valueCounts.containsKey(value))
         {
             // increase current count
@@ -184,6 +319,10 @@ public class LocalHistogramDoubleHashMap
         {
             // create new count
             valueCounts.put(value, 1);
+            if (HistogramCounters.ENABLED && counters != null)
+            {
+                counters.updateKeyCount(valueCounts.size());
+            }
         }
 
         if (value > maxValue)
@@ -17,6 +17,12 @@ import java.util.TreeMap;
  * resulting in O(log n) complexity for retrieving value counts.
  * </p>
  * 
+ * <p>
+ * As for the <code>Math.max</code> and <code>Math.min</code> functions, the
+ * minimum and maximum values are NaN as soon as the histogram contains a NaN
+ * value.
+ * </p>
+ * 
  * @see LocalHistogramUInt8
  * @see SlidingDiskStrel
  * @see SlidingBallStrel3D
@@ -36,6 +42,11 @@ public class LocalHistogramDoubleTreeMap
      * removed if the count is decreased to 0.
      */
     TreeMap<Double, Integer> valueCounts = new TreeMap<>(); 
+
+    /**
+     * The optional counters updated when instrumentation is enabled.
+     */
+    HistogramCounters counters = null;
     
     
     // ==================================================
@@ -58,6 +69,17 @@ public class LocalHistogramDoubleTreeMap
     // ==================================================
     // Class methods
 
+    /**
+     * Sets up the counters to update when instrumentation is enabled.
+     * 
+     * @param counters
+     *            the counters to update, or null
+     */
+    public void setCounters(HistogramCounters counters)
+    {
+        this.counters = counters;
+    }
+
     /**
      * Resets this local histogram by filling with the specified value, avoiding
      * to create a new instance.
@@ -80,11 +102,17 @@ public class LocalHistogramDoubleTreeMap
 
     public double getMinValue()
     {
-        return valueCounts.firstKey();
+        // NaN is the largest key of the map
+        double max = valueCounts.lastKey();
+        return Double.isNaN(max) ? max : valueCounts.firstKey();
     }
     
     public void replace(double oldValue, double newValue)
     {
+        if (HistogramCounters.ENABLED && counters != null)
+        {
+            counters.countReplace();
+        }
         increaseCount(newValue);
         decreaseCount(oldValue);
     }
@@ -121,6 +149,10 @@ public class LocalHistogramDoubleTreeMap
         {
             // create new count
             valueCounts.put(value, 1);
+            if (HistogramCounters.ENABLED && counters != null)
+            {
+                counters.updateKeyCount(valueCounts.size());
+            }
         }
     }
 }
@@ -32,6 +32,11 @@ public class LocalHistogramUInt8
     boolean needUpdateMax = false;
     boolean needUpdateMin = false;
     
+    /**
+     * The optional counters updated when instrumentation is enabled.
+     */
+    HistogramCounters counters = null;
+    
     
     // ==================================================
     // Constructors
@@ -57,6 +62,17 @@ public class LocalHistogramUInt8
     // ==================================================
     // Class methods
 
+    /**
+     * Sets up the counters to update when instrumentation is enabled.
+     * 
+     * @param counters
+     *            the counters to update, or null
+     */
+    public void setCounters(HistogramCounters counters)
+    {
+        this.counters = counters;
+    }
+
     /**
      * Resets this local histogram by filling with the specified value, avoiding
      * to create a new instance.
@@ -92,6 +108,10 @@ public class LocalHistogramUInt8
                 }
             }
             needUpdateMax = false;
+            if (HistogramCounters.ENABLED && counters != null)
+            {
+                counters.countRescan(256 - maxValue);
+            }
         }
         return maxValue;
     }
@@ -108,16 +128,74 @@ public class LocalHistogramUInt8
                 }
             }
             needUpdateMin = false;
+            if (HistogramCounters.ENABLED && counters != null)
+            {
+                counters.countRescan(minValue + 1);
+            }
         }
         return minValue;
     }
     
     public void replace(int oldValue, int newValue)
     {
+        if (HistogramCounters.ENABLED && counters != null)
+        {
+            counters.countReplace();
+        }
         increaseCount(newValue);
         decreaseCount(oldValue);
     }
     
+    /**
+     * Replaces several occurrences of a value by another value, as a single
+     * update of the histogram.
+     * 
+     * @param oldValue
+     *            the value to remove
+     * @param newValue
+     *            the value to add
+     * @param n
+     *            the number of occurrences to replace
+     */
+    public void replace(int oldValue, int newValue, int n)
+    {
+        if (HistogramCounters.ENABLED && counters != null)
+        {
+            counters.countReplace();
+        }
+        if (n == 0 || oldValue == newValue)
+        {
+            return;
+        }
+        if (valueCounts[oldValue] < n)
+        {
+            throw new RuntimeException("Local histogram does not contain " + n + " counts for value " + oldValue);
+        }
+        
+        valueCounts[newValue] += n;
+        if (newValue > maxValue)
+        {
+            needUpdateMax = true;
+        }
+        if (newValue < minValue)
+        {
+            needUpdateMin = true;
+        }
+        
+        valueCounts[oldValue] -= n;
+        if (valueCounts[oldValue] == 0)
+        {
+            if (oldValue == maxValue)
+            {
+                needUpdateMax = true;
+            }
+            if (oldValue == minValue)
+            {
+                needUpdateMin = true;
+            }
+        }
+    }
+    
     private void decreaseCount(int value)
     {
         if (valueCounts[value] > 0)
@@ -0,0 +1,302 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Utility for computing the boxes processed by operations restricted to a
+ * mask. The mask is decomposed into runs of non zero pixels along each row,
+ * runs are grouped into connected components, and the bounding boxes of the
+ * components are padded by the halo of the operation and merged when they
+ * overlap. Rows and slices that do not contain mask pixels (and that are far
+ * enough from mask pixels) are therefore not processed.
+ *
+ * Boxes are given as arrays <code>{x0, y0, z0, x1, y1, z1}</code>, the
+ * upper bounds being exclusive.
+ *
+ * @author dlegland
+ *
+ */
+final class MaskBoxes
+{
+    /**
+     * The largest number of boxes merged pairwise. When the mask contains
+     * more components, boxes are merged into slabs of rows (or slices), only
+     * skipping the rows (or slices) far from mask pixels.
+     */
+    static final int MAX_BOXES = 1000;
+
+    /**
+     * Computes the bounding box of each connected component of the mask,
+     * using 8-connectivity in 2D and 26-connectivity in 3D.
+     *
+     * @param mask
+     *            the mask, as a stack of one or several slices, whose non
+     *            zero pixels belong to the mask
+     * @return the bounding boxes of the components of the mask
+     */
+    static final List<int[]> components(ImageStack mask)
+    {
+        int sizeX = mask.getWidth();
+        int sizeY = mask.getHeight();
+        int sizeZ = mask.getSize();
+        int nRows = sizeY * sizeZ;
+
+        // runs of mask pixels, stored as pairs of start and end positions
+        int[] runs = new int[64];
+        int nRuns = 0;
+        int[] rowStarts = new int[nRows + 1];
+        for (int z = 0; z < sizeZ; z++)
+        {
+            ImageProcessor slice = mask.getProcessor(z + 1);
+            for (int y = 0; y < sizeY; y++)
+            {
+                rowStarts[z * sizeY + y] = nRuns;
+                int offset = y * sizeX;
+                int x = 0;
+                while (x < sizeX)
+                {
+                    if (slice.get(offset + x) == 0)
+                    {
+                        x++;
+                        continue;
+                    }
+                    int x0 = x;
+                    while (x < sizeX && slice.get(offset + x) != 0)
+                    {
+                        x++;
+                    }
+                    if (2 * nRuns + 2 > runs.length)
+                    {
+                        runs = Arrays.copyOf(runs, 2 * runs.length);
+                    }
+                    runs[2 * nRuns] = x0;
+                    runs[2 * nRuns + 1] = x;
+                    nRuns++;
+                }
+            }
+        }
+        rowStarts[nRows] = nRuns;
+
+        // group the runs touching runs of the previous row and slice
+        int[] parents = new int[nRuns];
+        for (int i = 0; i < nRuns; i++)
+        {
+            parents[i] = i;
+        }
+        for (int z = 0; z < sizeZ; z++)
+        {
+            for (int y = 0; y < sizeY; y++)
+            {
+                int row = z * sizeY + y;
+                if (y > 0)
+                {
+                    connectRows(runs, rowStarts, row, row - 1, parents);
+                }
+                if (z > 0)
+                {
+                    for (int y2 = Math.max(y - 1, 0); y2 <= Math.min(y + 1, sizeY - 1); y2++)
+                    {
+                        connectRows(runs, rowStarts, row, (z - 1) * sizeY + y2, parents);
+                    }
+                }
+            }
+        }
+
+        // compute the bounding box of each group of runs
+        List<int[]> boxes = new ArrayList<>();
+        int[] boxIndices = new int[nRuns];
+        Arrays.fill(boxIndices, -1);
+        for (int row = 0; row < nRows; row++)
+        {
+            int y = row % sizeY;
+            int z = row / sizeY;
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; i++)
+            {
+                int root = find(parents, i);
+                int x0 = runs[2 * i];
+                int x1 = runs[2 * i + 1];
+                if (boxIndices[root] < 0)
+                {
+                    boxIndices[root] = boxes.size();
+                    boxes.add(new int[] {x0, y, z, x1, y + 1, z + 1});
+                }
+                else
+                {
+                    int[] box = boxes.get(boxIndices[root]);
+                    box[0] = Math.min(box[0], x0);
+                    box[1] = Math.min(box[1], y);
+                    box[3] = Math.max(box[3], x1);
+                    box[4] = Math.max(box[4], y + 1);
+                    box[5] = z + 1;
+                }
+            }
+        }
+        return boxes;
+    }
+
+    /**
+     * Pads the boxes by the halo of the operation, clips them to the image
+     * bounds, and merges the boxes that overlap.
+     *
+     * @param boxes
+     *            the boxes to pad, modified by this method
+     * @param halo
+     *            the number of pixels to add on each side, along each
+     *            dimension
+     * @param dims
+     *            the dimensions of the image
+     * @return the list of padded boxes, that do not overlap
+     */
+    static final List<int[]> padAndMerge(List<int[]> boxes, int[] halo, int[] dims)
+    {
+        List<int[]> res = new ArrayList<>(boxes.size());
+        for (int[] box : boxes)
+        {
+            for (int d = 0; d < 3; d++)
+            {
+                box[d] = Math.max(box[d] - halo[d], 0);
+                box[d + 3] = Math.min(box[d + 3] + halo[d], dims[d]);
+            }
+            if (box[0] < box[3] && box[1] < box[4] && box[2] < box[5])
+            {
+                res.add(box);
+            }
+        }
+
+        if (res.size() > MAX_BOXES)
+        {
+            return mergeSlabs(res, dims[2] > 1 ? 2 : 1);
+        }
+
+        // merge pairs of overlapping boxes, until no box overlaps another one
+        boolean merged = true;
+        while (merged)
+        {
+            merged = false;
+            for (int i = 0; i < res.size(); i++)
+            {
+                int[] box = res.get(i);
+                for (int j = res.size() - 1; j > i; j--)
+                {
+                    int[] box2 = res.get(j);
+                    if (intersects(box, box2))
+                    {
+                        for (int d = 0; d < 3; d++)
+                        {
+                            box[d] = Math.min(box[d], box2[d]);
+                            box[d + 3] = Math.max(box[d + 3], box2[d + 3]);
+                        }
+                        res.remove(j);
+                        merged = true;
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Merges the boxes whose ranges along the specified dimension overlap,
+     * resulting in slabs that do not overlap.
+     */
+    private static final List<int[]> mergeSlabs(List<int[]> boxes, int dim)
+    {
+        boxes.sort(Comparator.comparingInt(box -> box[dim]));
+        List<int[]> res = new ArrayList<>();
+        int[] current = null;
+        for (int[] box : boxes)
+        {
+            if (current != null && box[dim] < current[dim + 3])
+            {
+                for (int d = 0; d < 3; d++)
+                {
+                    current[d] = Math.min(current[d], box[d]);
+                    current[d + 3] = Math.max(current[d + 3], box[d + 3]);
+                }
+            }
+            else
+            {
+                current = box;
+                res.add(current);
+            }
+        }
+        return res;
+    }
+
+    private static final boolean intersects(int[] box1, int[] box2)
+    {
+        for (int d = 0; d < 3; d++)
+        {
+            if (box1[d] >= box2[d + 3] || box2[d] >= box1[d + 3])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Groups the runs of two rows that touch each other, including along
+     * diagonals.
+     */
+    private static final void connectRows(int[] runs, int[] rowStarts, int row1, int row2, int[] parents)
+    {
+        int i = rowStarts[row1];
+        int i1 = rowStarts[row1 + 1];
+        int j = rowStarts[row2];
+        int j1 = rowStarts[row2 + 1];
+        while (i < i1 && j < j1)
+        {
+            // runs touch if they overlap after extending them by one pixel
+            if (runs[2 * i] <= runs[2 * j + 1] && runs[2 * j] <= runs[2 * i + 1])
+            {
+                union(parents, i, j);
+            }
+            // advance the run that ends first
+            if (runs[2 * i + 1] < runs[2 * j + 1])
+            {
+                i++;
+            }
+            else
+            {
+                j++;
+            }
+        }
+    }
+
+    private static final int find(int[] parents, int i)
+    {
+        while (parents[i] != i)
+        {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static final void union(int[] parents, int i, int j)
+    {
+        int root1 = find(parents, i);
+        int root2 = find(parents, j);
+        if (root1 != root2)
+        {
+            parents[Math.max(root1, root2)] = Math.min(root1, root2);
+        }
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private MaskBoxes()
+    {
+    }
+}
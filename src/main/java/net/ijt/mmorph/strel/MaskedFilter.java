@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * <p>
+ * Applies a planar morphological operation only within a binary mask or a
+ * region of interest. The mask is decomposed into connected components, and
+ * only the bounding boxes of the components, padded by the size of the
+ * structuring element, are processed. Rows far from mask pixels are
+ * therefore skipped.
+ * </p>
+ *
+ * <pre>{@code
+ * MaskedFilter filter = new MaskedFilter(new SlidingDiskStrel(10));
+ * ImageProcessor res = filter.process(image, mask, Operation.DILATION);
+ * }</pre>
+ *
+ * <p>
+ * Within the mask, the result is the same as the result of the operation
+ * applied on the whole image. Outside of the mask, the pixels of the input
+ * image are copied into the result, unless copy is disabled with
+ * {@link #setCopyOutside(boolean)}: their values are then undefined.
+ * </p>
+ *
+ * @see MaskedFilter3D
+ *
+ * @author dlegland
+ *
+ */
+public class MaskedFilter extends AlgoStub
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The structuring element used within each box.
+     */
+    Strel strel;
+
+    /**
+     * Indicates whether the pixels outside of the mask are copied from the
+     * input image.
+     */
+    boolean copyOutside = true;
+
+    /**
+     * The token checked before each box, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new filter.
+     *
+     * @param strel
+     *            the structuring element used within the mask
+     */
+    public MaskedFilter(Strel strel)
+    {
+        this.strel = strel;
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Chooses whether the pixels outside of the mask are copied from the
+     * input image (the default), or left undefined. Not copying them saves
+     * a pass over the whole image.
+     *
+     * @param copyOutside
+     *            true for copying the pixels outside of the mask
+     */
+    public void setCopyOutside(boolean copyOutside)
+    {
+        this.copyOutside = copyOutside;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. Cancelled
+     * operations throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+
+    // ==================================================
+    // Processing
+
+    /**
+     * Applies a morphological operation within a binary mask.
+     *
+     * @param image
+     *            the image to process
+     * @param mask
+     *            the mask, with the same size as the image, whose non zero
+     *            pixels are processed
+     * @param op
+     *            the operation to apply
+     * @return a new image containing the result of the operation within
+     *         the mask
+     */
+    public ImageProcessor process(ImageProcessor image, ImageProcessor mask, Operation op)
+    {
+        if (mask.getWidth() != image.getWidth() || mask.getHeight() != image.getHeight())
+        {
+            throw new RuntimeException("The mask must have the same size as the image");
+        }
+        return process(image, mask, new Rectangle(0, 0, image.getWidth(), image.getHeight()), op);
+    }
+
+    /**
+     * Applies a morphological operation within a region of interest.
+     *
+     * @param image
+     *            the image to process
+     * @param roi
+     *            the area region of interest whose pixels are processed
+     * @param op
+     *            the operation to apply
+     * @return a new image containing the result of the operation within
+     *         the region
+     */
+    public ImageProcessor process(ImageProcessor image, Roi roi, Operation op)
+    {
+        if (!roi.isArea())
+        {
+            throw new RuntimeException("The region of interest must be an area");
+        }
+        return process(image, roi.getMask(), roi.getBounds(), op);
+    }
+
+    /**
+     * Applies a morphological operation within a mask located at the
+     * specified position within the image.
+     *
+     * @param mask
+     *            the mask, or null if all the pixels within bounds are
+     *            processed
+     * @param bounds
+     *            the position and the size of the mask within the image
+     */
+    private ImageProcessor process(ImageProcessor image, ImageProcessor mask, Rectangle bounds, Operation op)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+
+        // the boxes containing the mask, in image coordinates
+        List<int[]> boxes;
+        if (mask == null)
+        {
+            boxes = new ArrayList<>();
+            boxes.add(new int[] {bounds.x, bounds.y, 0, bounds.x + bounds.width, bounds.y + bounds.height, 1});
+        }
+        else
+        {
+            ImageStack maskStack = new ImageStack(mask.getWidth(), mask.getHeight());
+            maskStack.addSlice("", mask);
+            boxes = MaskBoxes.components(maskStack);
+            for (int[] box : boxes)
+            {
+                box[0] += bounds.x;
+                box[1] += bounds.y;
+                box[3] += bounds.x;
+                box[4] += bounds.y;
+            }
+        }
+        boxes = MaskBoxes.padAndMerge(boxes, halo(op), new int[] {sizeX, sizeY, 1});
+
+        // the token of the structuring element is kept if none is specified
+        if (this.cancellationToken != null)
+        {
+            if (this.strel instanceof AbstractSlidingStrel)
+            {
+                ((AbstractSlidingStrel) this.strel).setCancellationToken(this.cancellationToken);
+            }
+            else if (this.strel instanceof NaiveDiskStrel)
+            {
+                ((NaiveDiskStrel) this.strel).setCancellationToken(this.cancellationToken);
+            }
+        }
+
+        ImageProcessor res = this.copyOutside ? image.duplicate() : image.createProcessor(sizeX, sizeY);
+        int nBoxes = boxes.size();
+        for (int i = 0; i < nBoxes; i++)
+        {
+            if (this.cancellationToken != null)
+            {
+                this.cancellationToken.checkCancelled();
+            }
+            fireProgressChanged(this, i, nBoxes);
+
+            // process the box, or the whole image if the box covers it
+            int[] box = boxes.get(i);
+            int boxSizeX = box[3] - box[0];
+            int boxSizeY = box[4] - box[1];
+            boolean whole = boxSizeX == sizeX && boxSizeY == sizeY;
+            ImageProcessor boxRes = SlidingOperations.apply(op, whole ? image : crop(image, box), this.strel);
+
+            // copy the result of pixels within the mask
+            for (int y = box[1]; y < box[4]; y++)
+            {
+                for (int x = box[0]; x < box[3]; x++)
+                {
+                    if (contains(mask, bounds, x, y))
+                    {
+                        res.set(y * sizeX + x, boxRes.get((y - box[1]) * boxSizeX + x - box[0]));
+                    }
+                }
+            }
+        }
+
+        // clear the progress bar
+        fireProgressChanged(this, nBoxes, nBoxes);
+
+        res.resetMinAndMax();
+        return res;
+    }
+
+    /**
+     * Computes the number of pixels around the mask that are needed for
+     * computing the operation within the mask, along each dimension.
+     */
+    private int[] halo(Operation op)
+    {
+        int[] size = this.strel.getSize();
+        int[] offset = this.strel.getOffset();
+        int[] halo = new int[3];
+        for (int d = 0; d < 2; d++)
+        {
+            int radius = Math.max(offset[d], size[d] - 1 - offset[d]);
+            halo[d] = MemoryStreaming.halo(op, radius);
+        }
+        return halo;
+    }
+
+    private static final boolean contains(ImageProcessor mask, Rectangle bounds, int x, int y)
+    {
+        int x2 = x - bounds.x;
+        int y2 = y - bounds.y;
+        if (x2 < 0 || y2 < 0 || x2 >= bounds.width || y2 >= bounds.height)
+        {
+            return false;
+        }
+        return mask == null || mask.get(x2, y2) != 0;
+    }
+
+    private static final ImageProcessor crop(ImageProcessor image, int[] box)
+    {
+        int sizeX = image.getWidth();
+        int boxSizeX = box[3] - box[0];
+        int boxSizeY = box[4] - box[1];
+        ImageProcessor res = image.createProcessor(boxSizeX, boxSizeY);
+        for (int y = 0; y < boxSizeY; y++)
+        {
+            System.arraycopy(image.getPixels(), (box[1] + y) * sizeX + box[0], res.getPixels(), y * boxSizeX, boxSizeX);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.List;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * <p>
+ * Applies a 3D morphological operation only within a binary mask. The mask is
+ * decomposed into connected components, and only the bounding boxes of the
+ * components, padded by the size of the structuring element, are processed.
+ * Slices and rows far from mask voxels are therefore skipped.
+ * </p>
+ *
+ * <pre>{@code
+ * MaskedFilter3D filter = new MaskedFilter3D(new SlidingBallStrel3D(5));
+ * ImageStack res = filter.process(image, mask, Operation.CLOSING);
+ * }</pre>
+ *
+ * <p>
+ * Within the mask, the result is the same as the result of the operation
+ * applied on the whole image. Outside of the mask, the voxels of the input
+ * image are copied into the result, unless copy is disabled with
+ * {@link #setCopyOutside(boolean)}: their values are then undefined.
+ * </p>
+ *
+ * @see MaskedFilter
+ *
+ * @author dlegland
+ *
+ */
+public class MaskedFilter3D extends AlgoStub
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The structuring element used within each box.
+     */
+    Strel3D strel;
+
+    /**
+     * Indicates whether the voxels outside of the mask are copied from the
+     * input image.
+     */
+    boolean copyOutside = true;
+
+    /**
+     * The token checked before each box, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new filter.
+     *
+     * @param strel
+     *            the structuring element used within the mask
+     */
+    public MaskedFilter3D(Strel3D strel)
+    {
+        this.strel = strel;
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Chooses whether the voxels outside of the mask are copied from the
+     * input image (the default), or left undefined. Not copying them saves
+     * a pass over the whole image.
+     *
+     * @param copyOutside
+     *            true for copying the voxels outside of the mask
+     */
+    public void setCopyOutside(boolean copyOutside)
+    {
+        this.copyOutside = copyOutside;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. Cancelled
+     * operations throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+
+    // ==================================================
+    // Processing
+
+    /**
+     * Applies a morphological operation within a binary mask.
+     *
+     * @param image
+     *            the image to process
+     * @param mask
+     *            the mask, with the same size as the image, whose non zero
+     *            voxels are processed
+     * @param op
+     *            the operation to apply
+     * @return a new image containing the result of the operation within
+     *         the mask
+     */
+    public ImageStack process(ImageStack image, ImageStack mask, Operation op)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        int sizeZ = image.getSize();
+        if (mask.getWidth() != sizeX || mask.getHeight() != sizeY || mask.getSize() != sizeZ)
+        {
+            throw new RuntimeException("The mask must have the same size as the image");
+        }
+
+        List<int[]> boxes = MaskBoxes.components(mask);
+        boxes = MaskBoxes.padAndMerge(boxes, halo(op), new int[] {sizeX, sizeY, sizeZ});
+
+        // the token of the structuring element is kept if none is specified
+        if (this.cancellationToken != null)
+        {
+            if (this.strel instanceof AbstractSlidingStrel3D)
+            {
+                ((AbstractSlidingStrel3D) this.strel).setCancellationToken(this.cancellationToken);
+            }
+            else if (this.strel instanceof NaiveBallStrel3D)
+            {
+                ((NaiveBallStrel3D) this.strel).setCancellationToken(this.cancellationToken);
+            }
+        }
+
+        ImageStack res;
+        if (this.copyOutside)
+        {
+            res = image.duplicate();
+        }
+        else
+        {
+            res = ImageStack.create(sizeX, sizeY, sizeZ, image.getBitDepth());
+            res.setColorModel(image.getColorModel());
+        }
+
+        int nBoxes = boxes.size();
+        for (int i = 0; i < nBoxes; i++)
+        {
+            if (this.cancellationToken != null)
+            {
+                this.cancellationToken.checkCancelled();
+            }
+            fireProgressChanged(this, i, nBoxes);
+
+            // process the box, or the whole image if the box covers it
+            int[] box = boxes.get(i);
+            int boxSizeX = box[3] - box[0];
+            boolean whole = boxSizeX == sizeX && box[4] - box[1] == sizeY && box[5] - box[2] == sizeZ;
+            ImageStack boxRes = SlidingOperations.apply(op, whole ? image : crop(image, box), this.strel);
+
+            // copy the result of voxels within the mask
+            for (int z = box[2]; z < box[5]; z++)
+            {
+                ImageProcessor maskSlice = mask.getProcessor(z + 1);
+                ImageProcessor resSlice = res.getProcessor(z + 1);
+                ImageProcessor boxSlice = boxRes.getProcessor(z - box[2] + 1);
+                for (int y = box[1]; y < box[4]; y++)
+                {
+                    for (int x = box[0]; x < box[3]; x++)
+                    {
+                        if (maskSlice.get(y * sizeX + x) != 0)
+                        {
+                            resSlice.set(y * sizeX + x, boxSlice.get((y - box[1]) * boxSizeX + x - box[0]));
+                        }
+                    }
+                }
+            }
+        }
+
+        // clear the progress bar
+        fireProgressChanged(this, nBoxes, nBoxes);
+
+        return res;
+    }
+
+    /**
+     * Computes the number of voxels around the mask that are needed for
+     * computing the operation within the mask, along each dimension.
+     */
+    private int[] halo(Operation op)
+    {
+        int[] size = this.strel.getSize();
+        int[] offset = this.strel.getOffset();
+        int[] halo = new int[3];
+        for (int d = 0; d < 3; d++)
+        {
+            int radius = Math.max(offset[d], size[d] - 1 - offset[d]);
+            halo[d] = MemoryStreaming.halo(op, radius);
+        }
+        return halo;
+    }
+
+    private static final ImageStack crop(ImageStack image, int[] box)
+    {
+        int sizeX = image.getWidth();
+        int boxSizeX = box[3] - box[0];
+        int boxSizeY = box[4] - box[1];
+        ImageStack res = new ImageStack(boxSizeX, boxSizeY);
+        for (int z = box[2]; z < box[5]; z++)
+        {
+            ImageProcessor slice = image.getProcessor(z + 1);
+            ImageProcessor boxSlice = slice.createProcessor(boxSizeX, boxSizeY);
+            for (int y = 0; y < boxSizeY; y++)
+            {
+                System.arraycopy(slice.getPixels(), (box[1] + y) * sizeX + box[0], boxSlice.getPixels(), y * boxSizeX, boxSizeX);
+            }
+            res.addSlice(image.getSliceLabel(z + 1), boxSlice);
+        }
+        return res;
+    }
+}
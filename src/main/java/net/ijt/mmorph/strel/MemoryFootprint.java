@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import inra.ijpb.morphology.Morphology.Operation;
+
+/**
+ * Structuring elements that can estimate the memory allocated by morphological
+ * operations, and that process images by slabs of slices (or bands of rows)
+ * when the whole image can not be processed within the available memory.
+ *
+ * @author dlegland
+ *
+ */
+public interface MemoryFootprint
+{
+    /**
+     * Estimates the amount of memory allocated for applying an operation on
+     * an image, including the result image, the intermediate images and the
+     * buffers used by the engines. The input image is not counted. The
+     * estimate is an upper bound over the engines that may process an image
+     * with the specified bit depth.
+     *
+     * @param operation
+     *            the morphological operation
+     * @param dims
+     *            the dimensions of the image, with two or three elements
+     * @param bitDepth
+     *            the bit depth of the image (8, 16, 24 or 32)
+     * @return the estimated amount of memory, in bytes
+     */
+    public long estimateMemory(Operation operation, int[] dims, int bitDepth);
+
+    /**
+     * Changes the amount of memory operations can allocate. When the estimate
+     * for an operation exceeds this amount, the image is processed by slabs
+     * of slices (or bands of rows), whose size is chosen such that the
+     * processing of each slab fits within the remaining memory.
+     *
+     * @param limit
+     *            the amount of memory, in bytes, or 0 for using the memory
+     *            available within the Java heap
+     */
+    public void setMemoryLimit(long limit);
+}
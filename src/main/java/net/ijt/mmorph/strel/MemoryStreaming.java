@@ -0,0 +1,263 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.function.IntToLongFunction;
+import java.util.function.UnaryOperator;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+
+/**
+ * Utility for estimating the memory needed by morphological operations, and
+ * for processing images by slabs of slices (or bands of rows) when the whole
+ * image does not fit within the available memory.
+ *
+ * Each slab is extended by a halo of slices (or rows) on each side, such that
+ * the processed slices are identical to the ones obtained by processing the
+ * whole image.
+ *
+ * @see MemoryFootprint
+ *
+ * @author dlegland
+ *
+ */
+final class MemoryStreaming
+{
+    // ==================================================
+    // Memory estimates
+
+    /**
+     * Computes the number of bytes used for storing the pixels of an image.
+     *
+     * @param dims
+     *            the dimensions of the image
+     * @param bitDepth
+     *            the bit depth of the image
+     * @return the size of the pixel arrays, in bytes
+     */
+    static final long imageBytes(int[] dims, int bitDepth)
+    {
+        long count = 1;
+        for (int dim : dims)
+        {
+            count *= dim;
+        }
+        int bytesPerPixel = bitDepth == 24 ? 4 : bitDepth / 8;
+        return count * bytesPerPixel;
+    }
+
+    /**
+     * Returns the largest number of images of the size of the input image
+     * that are simultaneously allocated by an operation.
+     *
+     * @param operation
+     *            the morphological operation
+     * @return the number of allocated images
+     */
+    static final int imageCount(Operation operation)
+    {
+        switch (operation)
+        {
+        case DILATION:
+        case EROSION:
+            return 1;
+        case LAPLACIAN:
+            return 3;
+        default:
+            // the intermediate image and the result
+            return 2;
+        }
+    }
+
+    /**
+     * Returns the number of slices (or rows) on each side of a slab that are
+     * needed for computing an operation within the slab.
+     *
+     * @param operation
+     *            the morphological operation
+     * @param radius
+     *            the largest offset of the structuring element
+     * @return the size of the halo
+     */
+    static final int halo(Operation operation, int radius)
+    {
+        return imageCount(operation) == 1 ? radius : 2 * radius;
+    }
+
+    /**
+     * Returns the amount of memory operations can allocate.
+     *
+     * @param memoryLimit
+     *            the limit specified by the user, or 0 for using the memory
+     *            available within the Java heap
+     * @return the available memory, in bytes
+     */
+    static final long availableMemory(long memoryLimit)
+    {
+        if (memoryLimit > 0)
+        {
+            return memoryLimit;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+    }
+
+    /**
+     * Computes the number of slices (or rows) to process together.
+     *
+     * @param estimator
+     *            the memory estimate for processing a given number of slices
+     *            (or rows)
+     * @param planeCount
+     *            the number of slices (or rows) of the image
+     * @param halo
+     *            the number of additional slices (or rows) on each side of a
+     *            slab
+     * @param resultBytes
+     *            the size of the result image, that is kept in memory during
+     *            the whole processing
+     * @param planeCopyBytes
+     *            the number of bytes allocated for copying each slice (or
+     *            row) of a slab, or 0 if slabs share the pixels of the image
+     * @param memoryLimit
+     *            the limit specified by the user, or 0 for using the memory
+     *            available within the Java heap
+     * @return the number of slices (or rows) within each slab, or 0 if the
+     *         image can be processed at once
+     */
+    static final int slabSize(IntToLongFunction estimator, int planeCount, int halo, long resultBytes, long planeCopyBytes, long memoryLimit)
+    {
+        long required = estimator.applyAsLong(planeCount);
+        long available = availableMemory(memoryLimit);
+        if (required <= available)
+        {
+            return 0;
+        }
+
+        // fail before processing if the result itself can not be allocated
+        long budget = available - resultBytes;
+        if (budget <= 0)
+        {
+            throw new RuntimeException(String.format(
+                    "Not enough memory: the result requires %d MB, but only %d MB are available",
+                    resultBytes >> 20, available >> 20));
+        }
+
+        // search the largest slab whose processing fits within the budget
+        int size0 = 1;
+        int size1 = planeCount;
+        while (size0 < size1)
+        {
+            int size = (size0 + size1 + 1) >>> 1;
+            int slabPlanes = size + 2 * halo;
+            if (estimator.applyAsLong(slabPlanes) + slabPlanes * planeCopyBytes <= budget)
+            {
+                size0 = size;
+            }
+            else
+            {
+                size1 = size - 1;
+            }
+        }
+        return size0;
+    }
+
+
+    // ==================================================
+    // Processing of slabs
+
+    /**
+     * Applies an operator on each band of rows of a planar image, and copies
+     * the inner rows of each processed band into the result.
+     *
+     * @param image
+     *            the image to process
+     * @param halo
+     *            the number of additional rows above and below each band
+     * @param bandSize
+     *            the number of rows of the result computed from each band
+     * @param operator
+     *            the operator applied on each band
+     * @return the result of the operator applied on the whole image
+     */
+    static final ImageProcessor processBands(ImageProcessor image, int halo, int bandSize, UnaryOperator<ImageProcessor> operator)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        Object pixels = image.getPixels();
+
+        ImageProcessor res = image.createProcessor(sizeX, sizeY);
+        Object resPixels = res.getPixels();
+
+        for (int y0 = 0; y0 < sizeY; y0 += bandSize)
+        {
+            int y1 = Math.min(y0 + bandSize, sizeY);
+            int yMin = Math.max(y0 - halo, 0);
+            int yMax = Math.min(y1 + halo, sizeY);
+
+            ImageProcessor band = image.createProcessor(sizeX, yMax - yMin);
+            System.arraycopy(pixels, yMin * sizeX, band.getPixels(), 0, (yMax - yMin) * sizeX);
+
+            ImageProcessor bandRes = operator.apply(band);
+            System.arraycopy(bandRes.getPixels(), (y0 - yMin) * sizeX, resPixels, y0 * sizeX, (y1 - y0) * sizeX);
+        }
+
+        res.resetMinAndMax();
+        return res;
+    }
+
+    /**
+     * Applies an operator on each slab of slices of a 3D image. The slabs
+     * share the pixel arrays of the input image, and the result is made of
+     * the inner slices of the processed slabs.
+     *
+     * @param image
+     *            the image to process
+     * @param halo
+     *            the number of additional slices before and after each slab
+     * @param slabSize
+     *            the number of slices of the result computed from each slab
+     * @param operator
+     *            the operator applied on each slab
+     * @return the result of the operator applied on the whole image
+     */
+    static final ImageStack processSlabs(ImageStack image, int halo, int slabSize, UnaryOperator<ImageStack> operator)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        int sizeZ = image.getSize();
+
+        ImageStack res = new ImageStack(sizeX, sizeY);
+        for (int z0 = 0; z0 < sizeZ; z0 += slabSize)
+        {
+            int z1 = Math.min(z0 + slabSize, sizeZ);
+            int zMin = Math.max(z0 - halo, 0);
+            int zMax = Math.min(z1 + halo, sizeZ);
+
+            ImageStack slab = new ImageStack(sizeX, sizeY);
+            for (int z = zMin; z < zMax; z++)
+            {
+                slab.addSlice(image.getSliceLabel(z + 1), image.getPixels(z + 1));
+            }
+
+            ImageStack slabRes = operator.apply(slab);
+            for (int z = z0; z < z1; z++)
+            {
+                res.addSlice(image.getSliceLabel(z + 1), slabRes.getPixels(z - zMin + 1));
+            }
+        }
+
+        res.setColorModel(image.getColorModel());
+        return res;
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private MemoryStreaming()
+    {
+    }
+}
@@ -7,6 +7,7 @@ import ij.ImageStack;
 import inra.ijpb.data.image.ByteStackWrapper;
 import inra.ijpb.data.image.Image3D;
 import inra.ijpb.data.image.Images3D;
+import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel3D;
 import inra.ijpb.morphology.strel.AbstractStrel3D;
 
@@ -21,7 +22,7 @@ import inra.ijpb.morphology.strel.AbstractStrel3D;
  * @author dlegland
  *
  */
-public class NaiveBallStrel3D extends AbstractStrel3D
+public class NaiveBallStrel3D extends AbstractStrel3D implements MemoryFootprint
 {
     // ==================================================
     // Class variables
@@ -42,6 +43,17 @@ public class NaiveBallStrel3D extends AbstractStrel3D
      * Used for lazy evaluation of getShifts() method. 
      */
     int[][] shiftArray;
+
+    /**
+     * The amount of memory operations can allocate, or 0 for using the memory
+     * available within the Java heap.
+     */
+    long memoryLimit = 0;
+
+    /**
+     * The token checked between the processing of two rows, or null.
+     */
+    CancellationToken cancellationToken = null;
     
     int[] xOffsets;
     int[] yOffsets;
@@ -71,7 +83,7 @@ public class NaiveBallStrel3D extends AbstractStrel3D
 
         // compute x-offsets of the XY-projection,
         // that corresponds to the z offsets of the YZ projection
-        int[] yOffsets2d = computeOffsets2d(this.intRadius);
+        int[] yOffsets2d = computeOffsets2d(this.radius);
         
         // compute total number of run lengths in the x direction
         int nOffsets = 0;
@@ -133,17 +145,92 @@ public class NaiveBallStrel3D extends AbstractStrel3D
 
 
 
+    // ==================================================
+    // Memory management
+    
+    @Override
+    public long estimateMemory(Operation operation, int[] dims, int bitDepth)
+    {
+        return MemoryStreaming.imageCount(operation) * MemoryStreaming.imageBytes(dims, bitDepth);
+    }
+    
+    @Override
+    public void setMemoryLimit(long limit)
+    {
+        this.memoryLimit = limit;
+    }
+    
+    /**
+     * Computes the number of slices to process together for applying the
+     * specified operation, or 0 if the whole image can be processed at once.
+     */
+    private int slabSize(Operation operation, ImageStack image)
+    {
+        int[] dims = new int[] {image.getWidth(), image.getHeight(), image.getSize()};
+        int bitDepth = image.getBitDepth();
+        return MemoryStreaming.slabSize(
+                n -> estimateMemory(operation, new int[] {dims[0], dims[1], n}, bitDepth),
+                dims[2], MemoryStreaming.halo(operation, this.intRadius), 
+                MemoryStreaming.imageBytes(dims, bitDepth), 0, this.memoryLimit);
+    }
+    
+    
+    // ==================================================
+    // Cancellation
+
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two slices, and cancelled operations
+     * throw a CancellationException.
+     * 
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+    
+    private void checkCancelled()
+    {
+        if (this.cancellationToken != null)
+        {
+            this.cancellationToken.checkCancelled();
+        }
+    }
+    
+    
     // ==================================================
     // Processing methods
     
     @Override
     public ImageStack dilation(ImageStack image)
     {
+        int slabSize = slabSize(Operation.DILATION, image);
+        if (slabSize > 0)
+        {
+            return MemoryStreaming.processSlabs(image, this.intRadius, slabSize, this::dilationInMemory);
+        }
+        return dilationInMemory(image);
+    }
+    
+    private ImageStack dilationInMemory(ImageStack image)
+    {
+        OperationEvent event = OperationEvent.begin("Dilation");
+        event.setEngine("Naive", "");
+        
+        ImageStack res;
         if (image.getBitDepth() == 8)
         {
-            return dilationUInt8(image);
+            res = dilationUInt8(image);
         }
-        return dilationDouble(image);
+        else
+        {
+            res = dilationDouble(image);
+        }
+        
+        event.end(image, this.radius);
+        return res;
     }
     
     private ImageStack dilationUInt8(ImageStack stack)
@@ -162,6 +249,7 @@ public class NaiveBallStrel3D extends AbstractStrel3D
         // Iterate on image rows indexed by z and y
         for (int z = 0; z < sizeZ; z++)
         {
+            checkCancelled();
             fireProgressChanged(this, z, sizeZ);
             
             for (int y = 0; y < sizeY; y++)
@@ -204,12 +292,14 @@ public class NaiveBallStrel3D extends AbstractStrel3D
         int sizeZ = array.getSize(2);
         
         // Allocate result
-        ImageStack resStack = stack.duplicate();
+        ImageStack resStack = ImageStack.create(sizeX, sizeY, sizeZ, stack.getBitDepth());
+        resStack.setColorModel(stack.getColorModel());
         Image3D res = Images3D.createWrapper(resStack);
         
         // Iterate on image rows indexed by z and y
         for (int z = 0; z < sizeZ; z++)
         {
+            checkCancelled();
             fireProgressChanged(this, z, sizeZ);
             
             for (int y = 0; y < sizeY; y++)
@@ -245,11 +335,31 @@ public class NaiveBallStrel3D extends AbstractStrel3D
     @Override
     public ImageStack erosion(ImageStack image)
     {
+        int slabSize = slabSize(Operation.EROSION, image);
+        if (slabSize > 0)
+        {
+            return MemoryStreaming.processSlabs(image, this.intRadius, slabSize, this::erosionInMemory);
+        }
+        return erosionInMemory(image);
+    }
+    
+    private ImageStack erosionInMemory(ImageStack image)
+    {
+        OperationEvent event = OperationEvent.begin("Erosion");
+        event.setEngine("Naive", "");
+        
+        ImageStack res;
         if (image.getBitDepth() == 8)
         {
-            return erosionUInt8(image);
+            res = erosionUInt8(image);
         }
-        return erosionDouble(image);
+        else
+        {
+            res = erosionDouble(image);
+        }
+        
+        event.end(image, this.radius);
+        return res;
     }
     
     private ImageStack erosionUInt8(ImageStack stack)
@@ -268,6 +378,7 @@ public class NaiveBallStrel3D extends AbstractStrel3D
         // Iterate on image rows indexed by z and y
         for (int z = 0; z < sizeZ; z++)
         {
+            checkCancelled();
             fireProgressChanged(this, z, sizeZ);
             
             for (int y = 0; y < sizeY; y++)
@@ -310,12 +421,14 @@ public class NaiveBallStrel3D extends AbstractStrel3D
         int sizeZ = array.getSize(2);
         
         // Allocate result
-        ImageStack resStack = stack.duplicate();
+        ImageStack resStack = ImageStack.create(sizeX, sizeY, sizeZ, stack.getBitDepth());
+        resStack.setColorModel(stack.getColorModel());
         Image3D res = Images3D.createWrapper(resStack);
         
         // Iterate on image rows indexed by z and y
         for (int z = 0; z < sizeZ; z++)
         {
+            checkCancelled();
             fireProgressChanged(this, z, sizeZ);
             
             for (int y = 0; y < sizeY; y++)
@@ -349,6 +462,41 @@ public class NaiveBallStrel3D extends AbstractStrel3D
     }
 
 
+    @Override
+    public ImageStack closing(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.CLOSING, image);
+        if (slabSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.CLOSING, this.intRadius);
+            return MemoryStreaming.processSlabs(image, halo, slabSize, this::closingInMemory);
+        }
+        return closingInMemory(image);
+    }
+    
+    private ImageStack closingInMemory(ImageStack image)
+    {
+        return erosion(dilationInMemory(image));
+    }
+
+    @Override
+    public ImageStack opening(ImageStack image)
+    {
+        int slabSize = slabSize(Operation.OPENING, image);
+        if (slabSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.OPENING, this.intRadius);
+            return MemoryStreaming.processSlabs(image, halo, slabSize, this::openingInMemory);
+        }
+        return openingInMemory(image);
+    }
+    
+    private ImageStack openingInMemory(ImageStack image)
+    {
+        return dilation(erosionInMemory(image));
+    }
+
+
     // ==================================================
     // Implementation of Strel3D
 
@@ -362,8 +510,9 @@ public class NaiveBallStrel3D extends AbstractStrel3D
     @Override
     public int[][][] getMask3D()
     {
-        // convert to "real" radius by taking into account central pixel
-        double r2 = this.radius + 0.5;
+        // convert to "real" radius by taking into account central pixel, and
+        // compare squared distances, that are exact for integer offsets
+        double r2 = (this.radius + 0.5) * (this.radius + 0.5);
         
         // size of structuring element
         int diam = 2 * this.intRadius + 1;
@@ -372,12 +521,14 @@ public class NaiveBallStrel3D extends AbstractStrel3D
         int[][][] mask = new int[diam][diam][diam];
         for (int z = 0; z < diam; z++)
         {
+            int dz = z - this.intRadius;
             for (int y = 0; y < diam; y++)
             {
-                double y2 = Math.hypot(z - this.intRadius, y - this.intRadius);
+                int dy = y - this.intRadius;
                 for (int x = 0; x < diam; x++)
                 {
-                    if (Math.hypot(x - this.intRadius, y2) <= r2)
+                    int dx = x - this.intRadius;
+                    if (dx * dx + dy * dy + dz * dz <= r2)
                     {
                         mask[z][y][x] = 255;
                     }
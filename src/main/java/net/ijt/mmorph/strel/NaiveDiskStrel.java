@@ -5,6 +5,7 @@ package net.ijt.mmorph.strel;
 
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel;
 import inra.ijpb.morphology.strel.AbstractStrel;
 
@@ -18,7 +19,7 @@ import inra.ijpb.morphology.strel.AbstractStrel;
  * @author dlegland
  *
  */
-public class NaiveDiskStrel extends AbstractStrel
+public class NaiveDiskStrel extends AbstractStrel implements MemoryFootprint
 {
     // ==================================================
     // Class variables
@@ -39,6 +40,17 @@ public class NaiveDiskStrel extends AbstractStrel
      * An array of shifts referring to strel elements, relative to center pixel.
      */
     int[][] shiftArray;
+
+    /**
+     * The amount of memory operations can allocate, or 0 for using the memory
+     * available within the Java heap.
+     */
+    long memoryLimit = 0;
+
+    /**
+     * The token checked between the processing of two rows, or null.
+     */
+    CancellationToken cancellationToken = null;
     
     // ==================================================
     // Constructors
@@ -99,6 +111,62 @@ public class NaiveDiskStrel extends AbstractStrel
     }
 
     
+    // ==================================================
+    // Memory management
+    
+    @Override
+    public long estimateMemory(Operation operation, int[] dims, int bitDepth)
+    {
+        return MemoryStreaming.imageCount(operation) * MemoryStreaming.imageBytes(dims, bitDepth);
+    }
+    
+    @Override
+    public void setMemoryLimit(long limit)
+    {
+        this.memoryLimit = limit;
+    }
+    
+    /**
+     * Computes the number of rows to process together for applying the
+     * specified operation, or 0 if the whole image can be processed at once.
+     */
+    private int bandSize(Operation operation, ImageProcessor image)
+    {
+        int[] dims = new int[] {image.getWidth(), image.getHeight()};
+        int bitDepth = image.getBitDepth();
+        return MemoryStreaming.slabSize(
+                n -> estimateMemory(operation, new int[] {dims[0], n}, bitDepth),
+                dims[1], MemoryStreaming.halo(operation, this.intRadius), 
+                MemoryStreaming.imageBytes(dims, bitDepth), 
+                MemoryStreaming.imageBytes(new int[] {dims[0], 1}, bitDepth), this.memoryLimit);
+    }
+    
+    
+    // ==================================================
+    // Cancellation
+
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two rows, and cancelled operations
+     * throw a CancellationException.
+     * 
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+    
+    private void checkCancelled()
+    {
+        if (this.cancellationToken != null)
+        {
+            this.cancellationToken.checkCancelled();
+        }
+    }
+    
+    
     // ==================================================
     // Implementation of the Strel2D interface
 
@@ -108,11 +176,31 @@ public class NaiveDiskStrel extends AbstractStrel
     @Override
     public ImageProcessor dilation(ImageProcessor array)
     {
+        int bandSize = bandSize(Operation.DILATION, array);
+        if (bandSize > 0)
+        {
+            return MemoryStreaming.processBands(array, this.intRadius, bandSize, this::dilationInMemory);
+        }
+        return dilationInMemory(array);
+    }
+    
+    private ImageProcessor dilationInMemory(ImageProcessor array)
+    {
+        OperationEvent event = OperationEvent.begin("Dilation");
+        event.setEngine("Naive", "");
+        
+        ImageProcessor res;
         if (array instanceof ByteProcessor)
         {
-            return dilationUInt8((ByteProcessor) array);
+            res = dilationUInt8((ByteProcessor) array);
         }
-        return dilationFloat(array);
+        else
+        {
+            res = dilationFloat(array);
+        }
+        
+        event.end(array, this.radius);
+        return res;
     }
     
     private ByteProcessor dilationUInt8(ByteProcessor array)
@@ -126,6 +214,8 @@ public class NaiveDiskStrel extends AbstractStrel
         // iterate over the pixels of the array
         for (int y = 0; y < sizeY; y++)
         {
+            checkCancelled();
+            
             for (int x = 0; x < sizeX; x++)
             {
                 int value = 0;
@@ -155,14 +245,16 @@ public class NaiveDiskStrel extends AbstractStrel
         int sizeX = array.getWidth();
         int sizeY = array.getHeight();
         
-        ImageProcessor res = array.duplicate();
+        ImageProcessor res = array.createProcessor(sizeX, sizeY);
         
         // iterate over the pixels of the array
         for (int y = 0; y < sizeY; y++)
         {
+            checkCancelled();
+            
             for (int x = 0; x < sizeX; x++)
             {
-                float value = 0;
+                float value = Float.NEGATIVE_INFINITY;
                 
                 // iterate over neighbors
                 for (int[] shift : this.shiftArray)
@@ -188,11 +280,31 @@ public class NaiveDiskStrel extends AbstractStrel
     @Override
     public ImageProcessor erosion(ImageProcessor array)
     {
+        int bandSize = bandSize(Operation.EROSION, array);
+        if (bandSize > 0)
+        {
+            return MemoryStreaming.processBands(array, this.intRadius, bandSize, this::erosionInMemory);
+        }
+        return erosionInMemory(array);
+    }
+    
+    private ImageProcessor erosionInMemory(ImageProcessor array)
+    {
+        OperationEvent event = OperationEvent.begin("Erosion");
+        event.setEngine("Naive", "");
+        
+        ImageProcessor res;
         if (array instanceof ByteProcessor)
         {
-            return erosionUInt8((ByteProcessor) array);
+            res = erosionUInt8((ByteProcessor) array);
+        }
+        else
+        {
+            res = erosionFloat(array);
         }
-        return erosionFloat(array);
+        
+        event.end(array, this.radius);
+        return res;
     }
     
     private ByteProcessor erosionUInt8(ByteProcessor array)
@@ -206,6 +318,8 @@ public class NaiveDiskStrel extends AbstractStrel
         // iterate over the pixels of the array
         for (int y = 0; y < sizeY; y++)
         {
+            checkCancelled();
+            
             for (int x = 0; x < sizeX; x++)
             {
                 int value = 255;
@@ -234,11 +348,13 @@ public class NaiveDiskStrel extends AbstractStrel
         int sizeX = array.getWidth();
         int sizeY = array.getHeight();
         
-        ImageProcessor res = array.duplicate();
+        ImageProcessor res = array.createProcessor(sizeX, sizeY);
         
         // iterate over the pixels of the array
         for (int y = 0; y < sizeY; y++)
         {
+            checkCancelled();
+            
             for (int x = 0; x < sizeX; x++)
             {
                 float value = Float.POSITIVE_INFINITY;
@@ -264,13 +380,35 @@ public class NaiveDiskStrel extends AbstractStrel
     @Override
     public ImageProcessor closing(ImageProcessor array)
     {
-        return erosion(dilation(array));
+        int bandSize = bandSize(Operation.CLOSING, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.CLOSING, this.intRadius);
+            return MemoryStreaming.processBands(array, halo, bandSize, this::closingInMemory);
+        }
+        return closingInMemory(array);
+    }
+    
+    private ImageProcessor closingInMemory(ImageProcessor array)
+    {
+        return erosion(dilationInMemory(array));
     }
 
     @Override
     public ImageProcessor opening(ImageProcessor array)
     {
-        return dilation(erosion(array));
+        int bandSize = bandSize(Operation.OPENING, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.OPENING, this.intRadius);
+            return MemoryStreaming.processBands(array, halo, bandSize, this::openingInMemory);
+        }
+        return openingInMemory(array);
+    }
+    
+    private ImageProcessor openingInMemory(ImageProcessor array)
+    {
+        return dilation(erosionInMemory(array));
     }
     
     // ==================================================
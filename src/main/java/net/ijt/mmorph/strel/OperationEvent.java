@@ -0,0 +1,211 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * <p>
+ * Describes a morphological operation computed by a structuring element: the
+ * operation, the engine and the type of local histogram used, the
+ * characteristics of the image, the radius and the number of threads.
+ * </p>
+ *
+ * <p>
+ * When the Java Flight Recorder is available, each operation is emitted as a
+ * JFR event that also contains the duration and the number of bytes allocated
+ * by the operation, within the calling thread and within the threads that
+ * process the bands of rows. The JFR implementation is compiled only with JDK 11 or
+ * later, and is instantiated by reflection, so that operations are not
+ * recorded otherwise.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+final class OperationEvent
+{
+    // ==================================================
+    // Inner interface
+
+    /**
+     * Records the operations, typically as Java Flight Recorder events.
+     */
+    interface Recorder
+    {
+        /**
+         * Called at the beginning of an operation.
+         *
+         * @return an object storing the state of the recording, passed to the
+         *         commit method
+         */
+        public Object begin();
+
+        /**
+         * Called at the end of an operation.
+         *
+         * @param state
+         *            the state returned by the begin method
+         * @param event
+         *            the description of the operation
+         */
+        public void commit(Object state, OperationEvent event);
+
+        /**
+         * @return the number of bytes allocated by the current thread, or 0
+         *         if it can not be measured.
+         */
+        public long allocatedBytes();
+    }
+
+
+    // ==================================================
+    // Static variables
+
+    /**
+     * The name of the class recording operations as Java Flight Recorder
+     * events.
+     */
+    private static final String JFR_RECORDER_CLASS = "net.ijt.mmorph.strel.JfrOperationRecorder";
+
+    /**
+     * The recorder shared by all operations, or null if none is available.
+     */
+    private static final Recorder RECORDER = createRecorder();
+
+    private static final Recorder createRecorder()
+    {
+        try
+        {
+            return (Recorder) Class.forName(JFR_RECORDER_CLASS).getDeclaredConstructor().newInstance();
+        }
+        catch (Throwable ex)
+        {
+            // either the class was not compiled, or JFR is not available
+            return null;
+        }
+    }
+
+    /**
+     * @return true if operations are recorded as Java Flight Recorder events.
+     */
+    static final boolean isRecording()
+    {
+        return RECORDER != null;
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread, or 0 if
+     *         operations are not recorded.
+     */
+    static final long threadAllocatedBytes()
+    {
+        return RECORDER != null ? RECORDER.allocatedBytes() : 0;
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    String operation;
+    String engine = "";
+    String histogram = "";
+    int bitDepth;
+    int sizeX;
+    int sizeY;
+    int sizeZ = 1;
+    double radius;
+    int threads = 1;
+
+    /**
+     * The state of the recorder.
+     */
+    private final Object state;
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Starts a new operation.
+     *
+     * @param operation
+     *            the name of the operation, such as "Dilation"
+     * @return a new event describing the operation
+     */
+    static final OperationEvent begin(String operation)
+    {
+        return new OperationEvent(operation);
+    }
+
+    private OperationEvent(String operation)
+    {
+        this.operation = operation;
+        this.state = RECORDER != null ? RECORDER.begin() : null;
+    }
+
+
+    // ==================================================
+    // Methods
+
+    /**
+     * Specifies the engine used for computing the operation.
+     *
+     * @param engine
+     *            the name of the engine
+     * @param histogram
+     *            the type of local histogram, or an empty string if the
+     *            engine does not use local histograms
+     */
+    void setEngine(String engine, String histogram)
+    {
+        this.engine = engine;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Terminates the operation on a planar image.
+     *
+     * @param image
+     *            the processed image
+     * @param radius
+     *            the radius of the structuring element
+     */
+    void end(ImageProcessor image, double radius)
+    {
+        this.bitDepth = image.getBitDepth();
+        this.sizeX = image.getWidth();
+        this.sizeY = image.getHeight();
+        this.sizeZ = 1;
+        this.radius = radius;
+        commit();
+    }
+
+    /**
+     * Terminates the operation on a 3D image.
+     *
+     * @param image
+     *            the processed image
+     * @param radius
+     *            the radius of the structuring element
+     */
+    void end(ImageStack image, double radius)
+    {
+        this.bitDepth = image.getBitDepth();
+        this.sizeX = image.getWidth();
+        this.sizeY = image.getHeight();
+        this.sizeZ = image.getSize();
+        this.radius = radius;
+        commit();
+    }
+
+    private void commit()
+    {
+        if (RECORDER != null)
+        {
+            RECORDER.commit(this.state, this);
+        }
+    }
+}
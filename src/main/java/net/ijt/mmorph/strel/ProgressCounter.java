@@ -0,0 +1,125 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the number of processed rows of an operation, possibly from several
+ * threads, and decides when the progress should be reported to listeners.
+ * 
+ * The counter is lock-free, and progress is reported at most once within each
+ * time interval, by a single thread.
+ * 
+ * @author dlegland
+ *
+ */
+final class ProgressCounter
+{
+    /**
+     * Receives the progress of an operation.
+     */
+    interface Listener
+    {
+        /**
+         * Called when the progress of the operation should be reported.
+         * 
+         * @param count
+         *            the number of processed rows
+         * @param total
+         *            the total number of rows to process
+         */
+        public void progressChanged(long count, long total);
+    }
+    
+    /**
+     * The minimal delay between two reports, in nanoseconds.
+     */
+    static final long REPORT_INTERVAL = 100_000_000L;
+    
+    /**
+     * The total number of rows to process.
+     */
+    final long total;
+    
+    /**
+     * The number of rows already processed.
+     */
+    private final AtomicLong count = new AtomicLong(0);
+    
+    /**
+     * The time stamp before which progress should not be reported.
+     */
+    private final AtomicLong nextReportTime;
+    
+    /**
+     * Creates a new progress counter.
+     * 
+     * @param total
+     *            the total number of rows to process
+     */
+    ProgressCounter(long total)
+    {
+        this.total = total;
+        this.nextReportTime = new AtomicLong(System.nanoTime());
+    }
+    
+    /**
+     * Increments the number of processed rows.
+     * 
+     * @return the number of processed rows if progress should be reported by
+     *         the calling thread, or -1 otherwise
+     */
+    long increment()
+    {
+        long current = this.count.getAndIncrement();
+        long time = System.nanoTime();
+        long next = this.nextReportTime.get();
+        if (time - next >= 0 && this.nextReportTime.compareAndSet(next, time + REPORT_INTERVAL))
+        {
+            return current;
+        }
+        return -1;
+    }
+    
+    /**
+     * Called by engines before processing each row (or plane): checks if the
+     * operation was cancelled, and notifies the listener at a bounded rate.
+     * 
+     * @param token
+     *            the cancellation token, or null
+     * @param listener
+     *            the listener of progress, or null
+     */
+    void next(CancellationToken token, Listener listener)
+    {
+        if (token != null)
+        {
+            token.checkCancelled();
+        }
+        if (listener != null)
+        {
+            long current = increment();
+            if (current >= 0)
+            {
+                listener.progressChanged(current, this.total);
+            }
+        }
+    }
+    
+    /**
+     * Notifies the listener that all rows are processed, for clearing
+     * progress bars.
+     * 
+     * @param listener
+     *            the listener of progress, or null
+     */
+    void done(Listener listener)
+    {
+        if (listener != null)
+        {
+            listener.progressChanged(this.total, this.total);
+        }
+    }
+}
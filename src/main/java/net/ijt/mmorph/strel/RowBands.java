@@ -0,0 +1,273 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.Prefs;
+
+/**
+ * Utility for processing the rows of an image by contiguous bands, the bands
+ * being processed concurrently by the calling thread and by the threads of a
+ * shared pool.
+ * 
+ * The pool is created once, and its size is bounded by the number of
+ * processors, such that operations do not start new threads. The calling
+ * thread processes the bands that are not yet started by the pool, such that
+ * bands can be processed within bands (for example for the channels of color
+ * images, or the slices of stacks) without waiting for busy pool threads.
+ * 
+ * @author dlegland
+ *
+ */
+final class RowBands
+{
+    /**
+     * The threads shared by all operations, created when first needed.
+     */
+    private static final class Pool
+    {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.max(Runtime.getRuntime().availableProcessors(), 1), task ->
+                {
+                    Thread thread = new Thread(task, "sliding-strel-" + THREAD_INDEX.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+    
+    /**
+     * The index of the last thread created by the pool.
+     */
+    private static final AtomicInteger THREAD_INDEX = new AtomicInteger(0);
+    
+    /**
+     * The number of bytes allocated by the threads of the pool on behalf of
+     * a thread, including the bytes allocated on behalf of the bands
+     * processed by this thread.
+     */
+    private static final class Allocations
+    {
+        final AtomicLong bytes = new AtomicLong(0);
+        final Allocations parent;
+        
+        Allocations(Allocations parent)
+        {
+            this.parent = parent;
+        }
+        
+        void add(long count)
+        {
+            for (Allocations allocations = this; allocations != null; allocations = allocations.parent)
+            {
+                allocations.bytes.addAndGet(count);
+            }
+        }
+    }
+    
+    /**
+     * The allocations of the pool charged to each thread, when operations
+     * are recorded.
+     */
+    private static final ThreadLocal<Allocations> ALLOCATIONS = ThreadLocal.withInitial(() -> new Allocations(null));
+    
+    /**
+     * Returns the number of bytes allocated by the threads of the pool for
+     * processing the bands submitted by the current thread, including nested
+     * bands. Allocations are measured only when operations are recorded, the
+     * bytes allocated by the current thread itself being measured by the
+     * recorder.
+     * 
+     * @return the number of bytes allocated by the pool on behalf of the
+     *         current thread
+     */
+    static final long pooledAllocatedBytes()
+    {
+        return ALLOCATIONS.get().bytes.get();
+    }
+    
+    /**
+     * Processes a range of rows.
+     */
+    interface Processor
+    {
+        /**
+         * Processes the rows between row0 (inclusive) and row1 (exclusive).
+         * 
+         * @param row0
+         *            the index of the first row
+         * @param row1
+         *            the index of the row after the last one
+         */
+        public void process(int row0, int row1);
+    }
+    
+    /**
+     * Processes a range of rows, knowing the index of the band.
+     */
+    interface BandProcessor
+    {
+        /**
+         * Processes the rows between row0 (inclusive) and row1 (exclusive).
+         * 
+         * @param band
+         *            the index of the band, between 0 and the number of
+         *            threads
+         * @param row0
+         *            the index of the first row
+         * @param row1
+         *            the index of the row after the last one
+         */
+        public void process(int band, int row0, int row1);
+    }
+    
+    /**
+     * Computes the number of threads to use for processing rows.
+     * 
+     * @param threadCount
+     *            the requested number of threads, or 0 for using the number
+     *            of threads of ImageJ preferences
+     * @param rowCount
+     *            the number of rows to process
+     * @return the number of threads to use
+     */
+    static final int threadCount(int threadCount, int rowCount)
+    {
+        int nThreads = threadCount > 0 ? threadCount : Prefs.getThreads();
+        return Math.max(Math.min(nThreads, rowCount), 1);
+    }
+    
+    /**
+     * Processes the rows by contiguous bands. Bands are processed by the
+     * calling thread and by the threads of the pool. If processing of a band
+     * throws an exception, it is propagated after all bands are terminated.
+     * 
+     * @param rowCount
+     *            the number of rows to process
+     * @param nThreads
+     *            the number of threads
+     * @param processor
+     *            the processor of row ranges
+     */
+    static final void process(int rowCount, int nThreads, final Processor processor)
+    {
+        process(rowCount, nThreads, (band, row0, row1) -> processor.process(row0, row1));
+    }
+    
+    /**
+     * Processes the rows by contiguous bands, and gives the index of the
+     * band to the processor, such that each band can use its own buffers.
+     * 
+     * @param rowCount
+     *            the number of rows to process
+     * @param nThreads
+     *            the number of threads
+     * @param processor
+     *            the processor of row ranges
+     */
+    static final void process(int rowCount, int nThreads, final BandProcessor processor)
+    {
+        if (nThreads <= 1)
+        {
+            processor.process(0, 0, rowCount);
+            return;
+        }
+        
+        final Throwable[] errors = new Throwable[nThreads];
+        final AtomicInteger nextBand = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(nThreads);
+        
+        // the bands processed by the pool are charged to the calling thread
+        final Thread caller = Thread.currentThread();
+        final Allocations callerAllocations = OperationEvent.isRecording() ? ALLOCATIONS.get() : null;
+        
+        Runnable worker = () -> 
+        {
+            boolean pooled = callerAllocations != null && Thread.currentThread() != caller;
+            Allocations previous = pooled ? ALLOCATIONS.get() : null;
+            
+            // process the bands that are not yet started
+            int band;
+            while ((band = nextBand.getAndIncrement()) < nThreads)
+            {
+                Allocations bandAllocations = null;
+                long bytes0 = 0;
+                if (pooled)
+                {
+                    bandAllocations = new Allocations(callerAllocations);
+                    ALLOCATIONS.set(bandAllocations);
+                    bytes0 = OperationEvent.threadAllocatedBytes();
+                }
+                try
+                {
+                    int row0 = (int) ((long) rowCount * band / nThreads);
+                    int row1 = (int) ((long) rowCount * (band + 1) / nThreads);
+                    processor.process(band, row0, row1);
+                }
+                catch (Throwable ex)
+                {
+                    errors[band] = ex;
+                }
+                finally
+                {
+                    // charge the allocations before the caller may resume
+                    if (pooled)
+                    {
+                        callerAllocations.add(OperationEvent.threadAllocatedBytes() - bytes0);
+                        ALLOCATIONS.set(previous);
+                    }
+                    done.countDown();
+                }
+            }
+        };
+        for (int t = 0; t < nThreads - 1; t++)
+        {
+            Pool.EXECUTOR.execute(worker);
+        }
+        worker.run();
+        
+        // wait for the bands processed by the pool
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                done.await();
+                break;
+            }
+            catch (InterruptedException ex)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        
+        // propagate the first error
+        for (Throwable error : errors)
+        {
+            if (error instanceof RuntimeException)
+            {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error)
+            {
+                throw (Error) error;
+            }
+        }
+    }
+    
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private RowBands()
+    {
+    }
+}
@@ -0,0 +1,577 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * <p>
+ * Morphological dilation and erosion of grayscale images by small structuring
+ * elements, described by a set of horizontal chords.
+ * </p>
+ *
+ * <p>
+ * Each row of the result is computed as the lane-wise maximum (or minimum) of
+ * the image rows located at chord positions, shifted by each horizontal offset
+ * of the chord. Compared to local histograms, this avoids any per-pixel
+ * bookkeeping, and is faster for structuring elements with few elements.
+ * </p>
+ *
+ * <p>
+ * The combination of rows is delegated to a set of kernels. When the
+ * (incubating) Java Vector API is available, that is when the classes
+ * compiled with the "vector" build profile are found and the
+ * <code>jdk.incubator.vector</code> module is enabled at runtime, the kernels
+ * process several pixels with a single SIMD instruction. Otherwise, plain
+ * loops are used.
+ * </p>
+ *
+ * <p>
+ * Pixels outside image bounds are ignored, resulting in the same values as
+ * the local histogram implementations (background for dilation, foreground
+ * for erosion). 8-bits, 16-bits and 32-bits images are supported.
+ * </p>
+ *
+ * <p>
+ * As each row of the result depends only on the input image, the rows are
+ * processed by contiguous bands, in parallel.
+ * </p>
+ *
+ * @see AbstractSlidingStrel
+ * @see AbstractSlidingStrel3D
+ *
+ * @author dlegland
+ *
+ */
+public class ShiftedRowsEngine
+{
+    // ==================================================
+    // Static variables
+
+    /**
+     * The largest chord radius for which the shifted rows are used instead of
+     * local histograms.
+     */
+    public static final int MAX_RADIUS = 5;
+
+    /**
+     * The name of the class implementing the kernels with the Java Vector API.
+     */
+    private static final String VECTOR_KERNELS_CLASS = "net.ijt.mmorph.strel.VectorRowKernels";
+
+    /**
+     * The kernels used for combining rows, shared by all instances.
+     */
+    private static final RowKernels KERNELS = createKernels();
+
+    private static final RowKernels createKernels()
+    {
+        try
+        {
+            return (RowKernels) Class.forName(VECTOR_KERNELS_CLASS).getDeclaredConstructor().newInstance();
+        }
+        catch (Throwable ex)
+        {
+            // either the class was not compiled, or the module is not available
+            return new ScalarRowKernels();
+        }
+    }
+
+    /**
+     * @return true if the kernels based on the Java Vector API are used.
+     */
+    public static final boolean isVectorized()
+    {
+        return !(KERNELS instanceof ScalarRowKernels);
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The half-width of each chord.
+     */
+    int[] xOffsets;
+
+    /**
+     * The y-offset of each chord.
+     */
+    int[] yOffsets;
+
+    /**
+     * The z-offset of each chord.
+     */
+    int[] zOffsets;
+
+    /**
+     * The x-offset of the center of each chord.
+     */
+    int[] xCenters;
+
+    /**
+     * The number of threads used for processing bands of rows, or 0 for
+     * using the number of threads specified within ImageJ preferences.
+     */
+    int threadCount = 0;
+
+    /**
+     * The token used for cancelling operations, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+    /**
+     * The listener notified of the progress of operations, or null.
+     */
+    ProgressCounter.Listener progressListener = null;
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new engine for a planar structuring element.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     * @param xCenters
+     *            the x-offset of the center of each chord
+     */
+    public ShiftedRowsEngine(int[] xOffsets, int[] yOffsets, int[] xCenters)
+    {
+        this(xOffsets, yOffsets, new int[xOffsets.length], xCenters);
+    }
+
+    /**
+     * Creates a new engine for a 3D structuring element.
+     *
+     * @param xOffsets
+     *            the half-width of each chord
+     * @param yOffsets
+     *            the y-offset of each chord
+     * @param zOffsets
+     *            the z-offset of each chord
+     * @param xCenters
+     *            the x-offset of the center of each chord
+     */
+    public ShiftedRowsEngine(int[] xOffsets, int[] yOffsets, int[] zOffsets, int[] xCenters)
+    {
+        this.xOffsets = xOffsets;
+        this.yOffsets = yOffsets;
+        this.zOffsets = zOffsets;
+        this.xCenters = xCenters;
+    }
+
+
+    // ==================================================
+    // Settings
+
+    /**
+     * Changes the number of threads used for processing bands of image rows.
+     *
+     * @param threadCount
+     *            the number of threads, or 0 for using the number of threads
+     *            specified within ImageJ preferences
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. The token is
+     * checked between the processing of two rows, and cancelled operations
+     * throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+    /**
+     * Specifies the listener notified of the progress of operations.
+     *
+     * @param listener
+     *            the listener of progress, or null
+     */
+    void setProgressListener(ProgressCounter.Listener listener)
+    {
+        this.progressListener = listener;
+    }
+
+
+    // ==================================================
+    // Processing methods
+
+    /**
+     * Computes the dilation of a grayscale image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits image
+     * @return the result of dilation
+     */
+    public ImageProcessor dilation(ImageProcessor image)
+    {
+        return dilation(image, image.createProcessor(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Computes the dilation of a grayscale image, and stores the result within
+     * an existing image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits image
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageProcessor dilation(ImageProcessor image, ImageProcessor res)
+    {
+        process(new Object[] {image.getPixels()}, new Object[] {res.getPixels()},
+                image.getWidth(), image.getHeight(), true);
+        return res;
+    }
+
+    /**
+     * Computes the erosion of a grayscale image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits image
+     * @return the result of erosion
+     */
+    public ImageProcessor erosion(ImageProcessor image)
+    {
+        return erosion(image, image.createProcessor(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Computes the erosion of a grayscale image, and stores the result within
+     * an existing image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits image
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageProcessor erosion(ImageProcessor image, ImageProcessor res)
+    {
+        process(new Object[] {image.getPixels()}, new Object[] {res.getPixels()},
+                image.getWidth(), image.getHeight(), false);
+        return res;
+    }
+
+    /**
+     * Computes the dilation of a grayscale 3D image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits stack
+     * @return the result of dilation
+     */
+    public ImageStack dilation(ImageStack image)
+    {
+        return dilation(image, ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth()));
+    }
+
+    /**
+     * Computes the dilation of a grayscale 3D image, and stores the result
+     * within an existing image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits stack
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageStack dilation(ImageStack image, ImageStack res)
+    {
+        process(slices(image), slices(res), image.getWidth(), image.getHeight(), true);
+        return res;
+    }
+
+    /**
+     * Computes the erosion of a grayscale 3D image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits stack
+     * @return the result of erosion
+     */
+    public ImageStack erosion(ImageStack image)
+    {
+        return erosion(image, ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth()));
+    }
+
+    /**
+     * Computes the erosion of a grayscale 3D image, and stores the result
+     * within an existing image.
+     *
+     * @param image
+     *            an 8-bits, 16-bits or 32-bits stack
+     * @param res
+     *            the image that receives the result, with the same size and
+     *            type as the input image
+     * @return the result image
+     */
+    public ImageStack erosion(ImageStack image, ImageStack res)
+    {
+        process(slices(image), slices(res), image.getWidth(), image.getHeight(), false);
+        return res;
+    }
+
+    private static final Object[] slices(ImageStack image)
+    {
+        int sizeZ = image.getSize();
+        Object[] slices = new Object[sizeZ];
+        for (int z = 0; z < sizeZ; z++)
+        {
+            slices[z] = image.getPixels(z + 1);
+        }
+        return slices;
+    }
+
+    /**
+     * Combines the shifted rows of the source slices into the rows of the
+     * target slices. The rows of all slices are processed by contiguous
+     * bands, in parallel.
+     *
+     * @param source
+     *            the pixel arrays of the input image, one array per slice
+     * @param target
+     *            the pixel arrays of the output image, one array per slice
+     * @param sizeX
+     *            the image width
+     * @param sizeY
+     *            the image height
+     * @param dilation
+     *            true for computing the maximum of rows, false for the minimum
+     */
+    private void process(Object[] source, Object[] target, int sizeX, int sizeY, boolean dilation)
+    {
+        int nRows = source.length * sizeY;
+        ProgressCounter progress = new ProgressCounter(nRows);
+        RowBands.process(nRows, RowBands.threadCount(this.threadCount, nRows),
+                (row0, row1) -> process(source, target, sizeX, sizeY, row0, row1, dilation, progress));
+        progress.done(this.progressListener);
+    }
+
+    /**
+     * Combines the shifted rows for the range of rows between row0
+     * (inclusive) and row1 (exclusive), rows being indexed over all slices.
+     */
+    private void process(Object[] source, Object[] target, int sizeX, int sizeY, int row0, int row1, boolean dilation, ProgressCounter progress)
+    {
+        int sizeZ = source.length;
+        int nOffsets = this.xOffsets.length;
+
+        for (int row = row0; row < row1; row++)
+        {
+            progress.next(this.cancellationToken, this.progressListener);
+            int z = row / sizeY;
+            int y = row % sizeY;
+
+            // initialize result row with the neutral value of the operation
+            int rowStart = y * sizeX;
+            fill(target[z], rowStart, sizeX, dilation);
+
+            for (int i = 0; i < nOffsets; i++)
+            {
+                int z2 = z + this.zOffsets[i];
+                int y2 = y + this.yOffsets[i];
+                if (z2 < 0 || z2 >= sizeZ || y2 < 0 || y2 >= sizeY)
+                {
+                    continue;
+                }
+
+                // combine with the source row shifted by each offset of the chord
+                int xc = this.xCenters[i];
+                int ri = this.xOffsets[i];
+                for (int dx = xc - ri; dx <= xc + ri; dx++)
+                {
+                    int x0 = Math.max(0, -dx);
+                    int x1 = Math.min(sizeX, sizeX - dx);
+                    if (x0 < x1)
+                    {
+                        combine(source[z2], y2 * sizeX + x0 + dx, target[z], rowStart + x0, x1 - x0, dilation);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final void fill(Object pixels, int start, int length, boolean dilation)
+    {
+        if (pixels instanceof byte[])
+        {
+            Arrays.fill((byte[]) pixels, start, start + length, dilation ? 0 : (byte) 255);
+        }
+        else if (pixels instanceof short[])
+        {
+            Arrays.fill((short[]) pixels, start, start + length, dilation ? 0 : (short) 65535);
+        }
+        else
+        {
+            Arrays.fill((float[]) pixels, start, start + length,
+                    dilation ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY);
+        }
+    }
+
+    private static final void combine(Object src, int srcPos, Object acc, int accPos, int length, boolean dilation)
+    {
+        if (src instanceof byte[])
+        {
+            if (dilation)
+            {
+                KERNELS.maxUInt8((byte[]) src, srcPos, (byte[]) acc, accPos, length);
+            }
+            else
+            {
+                KERNELS.minUInt8((byte[]) src, srcPos, (byte[]) acc, accPos, length);
+            }
+        }
+        else if (src instanceof short[])
+        {
+            if (dilation)
+            {
+                KERNELS.maxUInt16((short[]) src, srcPos, (short[]) acc, accPos, length);
+            }
+            else
+            {
+                KERNELS.minUInt16((short[]) src, srcPos, (short[]) acc, accPos, length);
+            }
+        }
+        else
+        {
+            if (dilation)
+            {
+                KERNELS.maxFloat32((float[]) src, srcPos, (float[]) acc, accPos, length);
+            }
+            else
+            {
+                KERNELS.minFloat32((float[]) src, srcPos, (float[]) acc, accPos, length);
+            }
+        }
+    }
+
+    /**
+     * Checks if the specified image can be processed by this engine.
+     *
+     * @param image
+     *            the image to check
+     * @return true for 8-bits, 16-bits and 32-bits images
+     */
+    public static final boolean accepts(ImageProcessor image)
+    {
+        return image instanceof ByteProcessor || image instanceof ShortProcessor || image instanceof FloatProcessor;
+    }
+
+
+    // ==================================================
+    // Kernels
+
+    /**
+     * Lane-wise combination of a source row segment into an accumulator row
+     * segment: <code>acc[accPos + i] = max(acc[accPos + i], src[srcPos + i])</code>
+     * (or min) for <code>0 &lt;= i &lt; length</code>. Integer values are
+     * considered as unsigned.
+     */
+    interface RowKernels
+    {
+        void maxUInt8(byte[] src, int srcPos, byte[] acc, int accPos, int length);
+        void minUInt8(byte[] src, int srcPos, byte[] acc, int accPos, int length);
+        void maxUInt16(short[] src, int srcPos, short[] acc, int accPos, int length);
+        void minUInt16(short[] src, int srcPos, short[] acc, int accPos, int length);
+        void maxFloat32(float[] src, int srcPos, float[] acc, int accPos, int length);
+        void minFloat32(float[] src, int srcPos, float[] acc, int accPos, int length);
+    }
+
+    /**
+     * Implementation of kernels with plain loops.
+     */
+    static class ScalarRowKernels implements RowKernels
+    {
+        @Override
+        public void maxUInt8(byte[] src, int srcPos, byte[] acc, int accPos, int length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                int v = src[srcPos + i] & 0x00FF;
+                if (v > (acc[accPos + i] & 0x00FF))
+                {
+                    acc[accPos + i] = (byte) v;
+                }
+            }
+        }
+
+        @Override
+        public void minUInt8(byte[] src, int srcPos, byte[] acc, int accPos, int length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                int v = src[srcPos + i] & 0x00FF;
+                if (v < (acc[accPos + i] & 0x00FF))
+                {
+                    acc[accPos + i] = (byte) v;
+                }
+            }
+        }
+
+        @Override
+        public void maxUInt16(short[] src, int srcPos, short[] acc, int accPos, int length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                int v = src[srcPos + i] & 0x00FFFF;
+                if (v > (acc[accPos + i] & 0x00FFFF))
+                {
+                    acc[accPos + i] = (short) v;
+                }
+            }
+        }
+
+        @Override
+        public void minUInt16(short[] src, int srcPos, short[] acc, int accPos, int length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                int v = src[srcPos + i] & 0x00FFFF;
+                if (v < (acc[accPos + i] & 0x00FFFF))
+                {
+                    acc[accPos + i] = (short) v;
+                }
+            }
+        }
+
+        @Override
+        public void maxFloat32(float[] src, int srcPos, float[] acc, int accPos, int length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                acc[accPos + i] = Math.max(acc[accPos + i], src[srcPos + i]);
+            }
+        }
+
+        @Override
+        public void minFloat32(float[] src, int srcPos, float[] acc, int accPos, int length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                acc[accPos + i] = Math.min(acc[accPos + i], src[srcPos + i]);
+            }
+        }
+    }
+}
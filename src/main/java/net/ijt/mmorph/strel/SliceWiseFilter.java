@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.algo.AlgoStub;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * <p>
+ * Applies a planar morphological operation on each slice of a stack, for
+ * example on each frame of a time series. Slices are processed concurrently,
+ * each thread using its own structuring element created by a factory. The
+ * structuring elements process each slice within a single thread, such that
+ * the threads are not shared between slices and rows.
+ * </p>
+ *
+ * <pre>{@code
+ * SliceWiseFilter filter = new SliceWiseFilter(() -> new SlidingDiskStrel(5));
+ * ImageStack res = filter.process(stack, Operation.CLOSING);
+ * }</pre>
+ *
+ * <p>
+ * Progress is reported after each slice, and the cancellation token is
+ * checked before each slice, and by the structuring elements between two
+ * rows.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+public class SliceWiseFilter extends AlgoStub
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * Creates the structuring element used by each thread.
+     */
+    Supplier<? extends Strel> strelFactory;
+
+    /**
+     * The number of slices processed concurrently, or 0 for using the number
+     * of threads specified within ImageJ preferences.
+     */
+    int threadCount = 0;
+
+    /**
+     * The token checked before each slice, or null.
+     */
+    CancellationToken cancellationToken = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new filter.
+     *
+     * @param strelFactory
+     *            the function that creates the structuring element used by
+     *            each thread
+     */
+    public SliceWiseFilter(Supplier<? extends Strel> strelFactory)
+    {
+        this.strelFactory = strelFactory;
+    }
+
+
+    // ==================================================
+    // Setters
+
+    /**
+     * Changes the number of slices processed concurrently.
+     *
+     * @param threadCount
+     *            the number of threads, or 0 for using the number of threads
+     *            specified within ImageJ preferences
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Specifies the token used for cancelling operations. Cancelled
+     * operations throw a CancellationException.
+     *
+     * @param token
+     *            the cancellation token, or null
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        this.cancellationToken = token;
+    }
+
+
+    // ==================================================
+    // Processing
+
+    /**
+     * Applies a morphological operation on each slice of a stack.
+     *
+     * @param stack
+     *            the stack to process
+     * @param op
+     *            the operation to apply
+     * @return a new stack containing the result of the operation on each
+     *         slice
+     */
+    public ImageStack process(ImageStack stack, Operation op)
+    {
+        int nSlices = stack.getSize();
+        ImageProcessor[] results = new ImageProcessor[nSlices];
+
+        // each thread processes the next slice not yet processed
+        AtomicInteger nextSlice = new AtomicInteger(0);
+        ProgressCounter progress = new ProgressCounter(nSlices);
+        int nThreads = RowBands.threadCount(this.threadCount, nSlices);
+        RowBands.process(nThreads, nThreads, (t0, t1) ->
+        {
+            Strel strel = createStrel();
+            int index;
+            while ((index = nextSlice.getAndIncrement()) < nSlices)
+            {
+                if (this.cancellationToken != null)
+                {
+                    this.cancellationToken.checkCancelled();
+                }
+                results[index] = SlidingOperations.apply(op, stack.getProcessor(index + 1), strel);
+
+                long count = progress.increment();
+                if (count >= 0)
+                {
+                    fireProgressChanged(this, count, nSlices);
+                }
+            }
+        });
+
+        // assemble the result stack
+        ImageStack res = new ImageStack(stack.getWidth(), stack.getHeight());
+        for (int i = 0; i < nSlices; i++)
+        {
+            res.addSlice(stack.getSliceLabel(i + 1), results[i]);
+        }
+        res.setColorModel(stack.getColorModel());
+
+        // clear the progress bar
+        fireProgressChanged(this, nSlices, nSlices);
+
+        return res;
+    }
+
+    /**
+     * Creates the structuring element of a thread, that processes each slice
+     * within the calling thread.
+     */
+    private Strel createStrel()
+    {
+        Strel strel = this.strelFactory.get();
+        if (strel instanceof AbstractSlidingStrel)
+        {
+            AbstractSlidingStrel sliding = (AbstractSlidingStrel) strel;
+            sliding.setThreadCount(1);
+            sliding.setCancellationToken(this.cancellationToken);
+        }
+        else if (strel instanceof NaiveDiskStrel)
+        {
+            ((NaiveDiskStrel) strel).setCancellationToken(this.cancellationToken);
+        }
+        return strel;
+    }
+}
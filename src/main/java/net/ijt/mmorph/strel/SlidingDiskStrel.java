@@ -3,11 +3,7 @@
  */
 package net.ijt.mmorph.strel;
 
-import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
-import ij.process.ImageProcessor;
 import inra.ijpb.morphology.Strel;
-import inra.ijpb.morphology.strel.AbstractStrel;
 
 /**
  * <pre>{@code
@@ -27,7 +23,7 @@ import inra.ijpb.morphology.strel.AbstractStrel;
  * @author dlegland
  *
  */
-public class SlidingDiskStrel extends AbstractStrel implements Strel
+public class SlidingDiskStrel extends AbstractSlidingStrel
 {
     // ==================================================
     // Class variables
@@ -45,16 +41,6 @@ public class SlidingDiskStrel extends AbstractStrel implements Strel
      */
     int intRadius;
     
-    /**
-     * An array of shifts referring to strel elements, relative to center pixel.
-     * Used for lazy evaluation of getShifts() method. 
-     */
-    int[][] shiftArray;
-    
-    
-    int[] xOffsets;
-    int[] yOffsets;
-    
     
     // ==================================================
     // Constructors
@@ -81,6 +67,7 @@ public class SlidingDiskStrel extends AbstractStrel implements Strel
         int nOffsets = 2 * this.intRadius + 1;
         this.xOffsets = new int[nOffsets];
         this.yOffsets = new int[nOffsets];
+        this.xCenters = new int[nOffsets];
         
         // initialize each row
         double r2 = (this.radius + 0.5) * ((this.radius + 0.5));
@@ -93,395 +80,9 @@ public class SlidingDiskStrel extends AbstractStrel implements Strel
     }
     
 
-    // ==================================================
-    // Specific methods
-    
-    /**
-     * @return the number of non zero elements within this structuring element.
-     */
-    private int elementCount()
-    {
-        int count = 0;
-        for (int i = 0; i < this.xOffsets.length; i++)
-        {
-            count += 2 * this.xOffsets[i] + 1;
-        }
-        return count;
-    }
-    
-    
     // ==================================================
     // Implementation of the Strel interface
 
-    @Override
-    public ImageProcessor dilation(ImageProcessor array)
-    {
-        if (array instanceof ByteProcessor)
-        {
-            return slidingDilationUInt8((ByteProcessor) array);
-        }
-        else if (array instanceof FloatProcessor)
-        {
-            return slidingDilationFloat32((FloatProcessor) array);
-        }
-        throw new RuntimeException("Can not process input with class: " + array.getClass().getName());
-    }
-    
-    private ByteProcessor slidingDilationUInt8(ByteProcessor array)
-    {
-        // get array size
-        int sizeX = array.getWidth();
-        int sizeY = array.getHeight();
-        
-        // number of non zero elements 
-        int count = elementCount();
-        int nOffsets = this.xOffsets.length;
-        
-        // create local histogram instance
-        final int OUTSIDE = 0;
-        LocalHistogramUInt8 localHisto = new LocalHistogramUInt8(count, OUTSIDE);
-
-        // Allocate result
-        ByteProcessor res = (ByteProcessor) array.duplicate();
-        
-        // temp variables for updating local histogram
-        int vOld, vNew;
-        
-        // Iterate on image rows indexed by y
-        for (int y = 0; y < sizeY; y++)
-        {
-            fireProgressChanged(this, y, sizeY);
-            
-            // init local histogram with background values
-            localHisto.reset(count, OUTSIDE);
-
-            // update initialization with visible neighbors
-            for (int x = -intRadius; x < 0; x++)
-            {
-                // iterate over the list of offsets
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    int y2 = y + this.yOffsets[i];
-                    if (y2 < 0 || y2 >= sizeY)
-                    {
-                        continue;
-                    }
-
-                    int x2 = x + this.xOffsets[i];
-                    if (x2 < 0 || x2 >= sizeX)
-                    {
-                        continue;
-                    }
-                    localHisto.replace(OUTSIDE, array.get(x2, y2));
-                }
-            }   
-
-            // iterate along "middle" values
-            for (int x = 0; x < sizeX; x++)
-            {
-                // iterate over the list of offsets
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    // current line offset
-                    int y2 = y + this.yOffsets[i];
-
-                    // We need to test values only for lines within array bounds
-                    if (y2 >= 0 && y2 < sizeY)
-                    {
-                        // old value
-                        int x2 = x - this.xOffsets[i] - 1;
-                        vOld = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
-
-                        // new value
-                        x2 = x + this.xOffsets[i];
-                        vNew = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
-
-                        localHisto.replace(vOld, vNew);
-                    }
-                }
-
-                res.set(x, y, (int) localHisto.getMaxValue());
-            }
-        }
-
-        // clear the progress bar
-        fireProgressChanged(this, sizeY, sizeY);
-
-        return res;
-    }
-
-    private FloatProcessor slidingDilationFloat32(FloatProcessor array)
-    {
-        // get array size
-        int sizeX = array.getWidth();
-        int sizeY = array.getHeight();
-        
-        // number of non zero elements 
-        int count = elementCount();
-        int nOffsets = this.xOffsets.length;
-        
-        // create local histogram instance
-        final double OUTSIDE = Double.NEGATIVE_INFINITY;
-        LocalHistogramDoubleHashMap localHisto = new LocalHistogramDoubleHashMap(count, OUTSIDE);
-
-        // Allocate result
-        FloatProcessor res = (FloatProcessor) array.duplicate();
-
-        // temp variables for updating local histogram
-        double vOld, vNew;
-        
-        // Iterate on image rows
-        for (int y = 0; y < sizeY; y++)
-        {
-            fireProgressChanged(this, y, sizeY);
-
-            // init local histogram with background values
-            localHisto.reset(count, OUTSIDE);
-
-            // initialize histogram with values on the right of current position
-            for (int x = -intRadius; x < 0; x++)
-            {
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    int y2 = y + this.yOffsets[i];
-                    if (y2 < 0 || y2 >= sizeY)
-                    {
-                        continue;
-                    }
-
-                    int x2 = x + this.xOffsets[i];
-                    if (x2 < 0 || x2 >= sizeX)
-                    {
-                        continue;
-                    }
-                    localHisto.replace(OUTSIDE, array.getf(x2, y2));
-                }
-            }   
-
-            // iterate along "middle" values
-            for (int x = 0; x < sizeX; x++)
-            {
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    // current line offset
-                    int y2 = y + this.yOffsets[i];
-                    
-                    // We need to test values only for lines within array bounds
-                    if (y2 >= 0 && y2 < sizeY)
-                    {
-                        // old value
-                        int x2 = x - this.xOffsets[i] - 1;
-                        vOld = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
-                        
-                        // new value
-                        x2 = x + this.xOffsets[i];
-                        vNew = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
-                        
-                        localHisto.replace(vOld, vNew);
-                    }
-                }
-
-                res.setf(x, y, (float) localHisto.getMaxValue());
-            }
-        }
-
-        // clear the progress bar
-        fireProgressChanged(this, sizeY, sizeY);
-        
-        return res;
-    }
-    
-    @Override
-    public ImageProcessor erosion(ImageProcessor array)
-    {
-        if (array instanceof ByteProcessor)
-        {
-            return slidingErosionUInt8((ByteProcessor) array);
-        }
-        else if (array instanceof FloatProcessor)
-        {
-            return slidingErosionFloat32((FloatProcessor) array);
-        }
-        throw new RuntimeException("Can not process input with class: " + array.getClass().getName());
-    }
-
-    private ByteProcessor slidingErosionUInt8(ByteProcessor array)
-    {
-        // get array size
-        int sizeX = array.getWidth();
-        int sizeY = array.getHeight();
-        
-        // number of non zero elements 
-        int count = elementCount();
-        int nOffsets = this.xOffsets.length;
-        
-        // create local histogram instance
-        final int OUTSIDE = 255;
-        LocalHistogramUInt8 localHisto = new LocalHistogramUInt8(count, OUTSIDE);
-
-        // Allocate result
-        ByteProcessor res = (ByteProcessor) array.duplicate();
-        
-        // temp variables for updating local histogram
-        int vOld, vNew;
-        
-        // Iterate on image rows indexed by y
-        for (int y = 0; y < sizeY; y++)
-        {
-            fireProgressChanged(this, y, sizeY);
-
-            // init local histogram with background values
-            localHisto.reset(count, OUTSIDE);
-
-            // update initialization with visible neighbors
-            for (int x = -intRadius; x < 0; x++)
-            {
-                // iterate over the list of offsets
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    int y2 = y + this.yOffsets[i];
-                    if (y2 < 0 || y2 >= sizeY)
-                    {
-                        continue;
-                    }
-
-                    int x2 = x + this.xOffsets[i];
-                    if (x2 < 0 || x2 >= sizeX)
-                    {
-                        continue;
-                    }
-                    localHisto.replace(OUTSIDE, array.get(x2, y2));
-                }
-            }   
-
-            // iterate along "middle" values
-            for (int x = 0; x < sizeX; x++)
-            {
-                // iterate over the list of offsets
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    // current line offset
-                    int y2 = y + this.yOffsets[i];
-
-                    // We need to test values only for lines within array bounds
-                    if (y2 >= 0 && y2 < sizeY)
-                    {
-                        // old value
-                        int x2 = x - this.xOffsets[i] - 1;
-                        vOld = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
-
-                        // new value
-                        x2 = x + this.xOffsets[i];
-                        vNew = (x2 >= 0 && x2 < sizeX) ? array.get(x2, y2) : OUTSIDE;
-
-                        localHisto.replace(vOld, vNew);
-                    }
-                }
-
-                res.set(x, y, (int) localHisto.getMinValue());
-            }
-        }
-
-        // clear the progress bar
-        fireProgressChanged(this, sizeY, sizeY);
-        
-        return res;
-    }
-
-    private FloatProcessor slidingErosionFloat32(FloatProcessor array)
-    {
-        // get array size
-        int sizeX = array.getWidth();
-        int sizeY = array.getHeight();
-        
-        // number of non zero elements 
-        int count = elementCount();
-        int nOffsets = this.xOffsets.length;
-
-        // create local histogram instance
-        final double OUTSIDE = Double.POSITIVE_INFINITY; 
-        LocalHistogramDoubleHashMap localHisto = new LocalHistogramDoubleHashMap(count, OUTSIDE);
-
-        // Allocate result
-        FloatProcessor res = (FloatProcessor) array.duplicate();
-
-        // temp variables for updating local histogram
-        double vOld, vNew;
-        
-        // Iterate on image rows
-        for (int y = 0; y < sizeY; y++)
-        {
-            fireProgressChanged(this, y, sizeY);
-
-            // init local histogram with background values
-            localHisto.reset(count, OUTSIDE);
-
-            // initialize histogram with values on the right of current position
-            for (int x = -intRadius; x < 0; x++)
-            {
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    int y2 = y + this.yOffsets[i];
-                    if (y2 < 0 || y2 >= sizeY)
-                    {
-                        continue;
-                    }
-
-                    int x2 = x + this.xOffsets[i];
-                    if (x2 < 0 || x2 >= sizeX)
-                    {
-                        continue;
-                    }
-                    
-                    localHisto.replace(OUTSIDE, array.getf(x2, y2));
-                }
-            }   
-
-            // iterate along "middle" values
-            for (int x = 0; x < sizeX; x++)
-            {
-                for (int i = 0; i < nOffsets; i++)
-                {
-                    // current line offset
-                    int y2 = y + this.yOffsets[i];
-                    
-                    // We need to test values only for lines within array bounds
-                    if (y2 >= 0 && y2 < sizeY)
-                    {
-                        // old value
-                        int x2 = x - this.xOffsets[i] - 1;
-                        vOld = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
-                        
-                        // new value
-                        x2 = x + this.xOffsets[i];
-                        vNew = (x2 >= 0 && x2 < sizeX) ? array.getf(x2, y2) : OUTSIDE;
-                        
-                        localHisto.replace(vOld, vNew);
-                    }
-                }
-
-                res.setf(x, y, (float) localHisto.getMinValue());
-            }
-        }
-
-        // clear the progress bar
-        fireProgressChanged(this, sizeY, sizeY);
-        
-        return res;
-    }
-    
-    @Override
-    public ImageProcessor closing(ImageProcessor array)
-    {
-        return erosion(dilation(array));
-    }
-
-    @Override
-    public ImageProcessor opening(ImageProcessor array)
-    {
-        return dilation(erosion(array));
-    }
-	
     /* (non-Javadoc)
      * @see net.sci.image.morphology.Strel2D#getMask()
      */
@@ -518,43 +119,6 @@ public class SlidingDiskStrel extends AbstractStrel implements Strel
         return new int[] {this.intRadius, this.intRadius};
     }
     
-    /* (non-Javadoc)
-     * @see net.sci.image.morphology.Strel2D#getShifts()
-     */
-    @Override
-    public int[][] getShifts()
-    {
-        if (this.shiftArray == null)
-        {
-            createShiftArray();
-        }
-        return this.shiftArray;
-    }
-
-    private void createShiftArray()
-    {
-        int count = elementCount();
-        
-        // create the shift array
-        this.shiftArray = new int[count][];
-        count = 0;
-
-        int nOffsets = this.xOffsets.length;
-        for (int i = 0; i < nOffsets; i++)
-        {
-            int dy = this.yOffsets[i];
-            int ri = this.xOffsets[i];
-            for (int dx = -ri; dx <= ri; dx++)
-            {
-                this.shiftArray[count++] = new int[] {dx, dy};
-            }
-        }
-    }
-
-    
-    // ==================================================
-    // Implementation of the Strel interface
-
 	@Override
 	public int[] getSize() 
 	{
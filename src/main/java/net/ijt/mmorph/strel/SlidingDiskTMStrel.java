@@ -3,9 +3,13 @@
  */
 package net.ijt.mmorph.strel;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel;
 import inra.ijpb.morphology.strel.AbstractStrel;
 
@@ -14,7 +18,7 @@ import inra.ijpb.morphology.strel.AbstractStrel;
  * float processors.
  *
  */
-public class SlidingDiskTMStrel extends AbstractStrel implements Strel
+public class SlidingDiskTMStrel extends AbstractStrel implements Strel, MemoryFootprint
 {
     // ==================================================
     // Class variables
@@ -37,6 +41,18 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
      * Used for lazy evaluation of getShifts() method. 
      */
     int[][] shiftArray;
+
+    /**
+     * The amount of memory operations can allocate, or 0 for using the memory
+     * available within the Java heap.
+     */
+    long memoryLimit = 0;
+
+    /**
+     * The listeners notified with histogram counters at the end of each
+     * operation, when instrumentation is enabled.
+     */
+    List<HistogramCountersListener> countersListeners = new ArrayList<>();
     
     
     int[] xOffsets;
@@ -97,18 +113,109 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
     }
     
     
+    // ==================================================
+    // Memory management
+    
+    @Override
+    public long estimateMemory(Operation operation, int[] dims, int bitDepth)
+    {
+        return MemoryStreaming.imageCount(operation) * MemoryStreaming.imageBytes(dims, bitDepth)
+                // one local histogram
+                + 64L * this.xOffsets.length * (2 * this.intRadius + 1);
+    }
+    
+    @Override
+    public void setMemoryLimit(long limit)
+    {
+        this.memoryLimit = limit;
+    }
+    
+    /**
+     * Computes the number of rows to process together for applying the
+     * specified operation, or 0 if the whole image can be processed at once.
+     */
+    private int bandSize(Operation operation, ImageProcessor image)
+    {
+        int[] dims = new int[] {image.getWidth(), image.getHeight()};
+        int bitDepth = image.getBitDepth();
+        return MemoryStreaming.slabSize(
+                n -> estimateMemory(operation, new int[] {dims[0], n}, bitDepth),
+                dims[1], MemoryStreaming.halo(operation, this.intRadius), 
+                MemoryStreaming.imageBytes(dims, bitDepth), 
+                MemoryStreaming.imageBytes(new int[] {dims[0], 1}, bitDepth), this.memoryLimit);
+    }
+    
+    
+    // ==================================================
+    // Management of histogram counters listeners
+
+    /**
+     * Adds a listener notified with histogram counters at the end of each
+     * operation. Listeners are notified only when instrumentation is enabled.
+     * 
+     * @see HistogramCounters#ENABLED
+     * 
+     * @param listener
+     *            the listener to add
+     */
+    public void addCountersListener(HistogramCountersListener listener)
+    {
+        this.countersListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener of histogram counters.
+     * 
+     * @param listener
+     *            the listener to remove
+     */
+    public void removeCountersListener(HistogramCountersListener listener)
+    {
+        this.countersListeners.remove(listener);
+    }
+
+    private void fireCountersReported(HistogramCounters counters)
+    {
+        counters.finish();
+        for (HistogramCountersListener listener : this.countersListeners)
+        {
+            listener.countersReported(this, counters);
+        }
+    }
+    
+    
     // ==================================================
     // Implementation of the Strel interface
 
     @Override
     public ImageProcessor dilation(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.DILATION, array);
+        if (bandSize > 0)
+        {
+            return MemoryStreaming.processBands(array, this.intRadius, bandSize, this::dilationInMemory);
+        }
+        return dilationInMemory(array);
+    }
+    
+    private ImageProcessor dilationInMemory(ImageProcessor array)
+    {
+        OperationEvent event = OperationEvent.begin("Dilation");
+        ImageProcessor res = computeDilation(array, event);
+        event.end(array, this.radius);
+        return res;
+    }
+    
+    private ImageProcessor computeDilation(ImageProcessor array, OperationEvent event)
     {
         if (array instanceof ByteProcessor)
         {
+            event.setEngine("Histogram", "UInt8");
             return slidingDilationUInt8((ByteProcessor) array);
         }
         else if (array instanceof FloatProcessor)
         {
+            event.setEngine("Histogram", "DoubleTreeMap");
             return slidingDilationFloat32((FloatProcessor) array);
         }
         throw new RuntimeException("Can not process input with class: " + array.getClass().getName());
@@ -127,9 +234,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         // create local histogram instance
         final int OUTSIDE = 0;
         LocalHistogramUInt8 localHisto = new LocalHistogramUInt8(count, OUTSIDE);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Dilation UInt8") : null;
+        localHisto.setCounters(counters);
 
         // Allocate result
-        ByteProcessor res = (ByteProcessor) array.duplicate();
+        ByteProcessor res = new ByteProcessor(sizeX, sizeY);
         
         // temp variables for updating local histogram
         int vOld, vNew;
@@ -139,6 +248,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         {
             fireProgressChanged(this, y, sizeY);
             
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
             // init local histogram with background values
             localHisto.reset(count, OUTSIDE);
 
@@ -163,6 +277,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
                 }
             }   
 
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
             // iterate along "middle" values
             for (int x = 0; x < sizeX; x++)
             {
@@ -191,6 +310,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
             }
         }
 
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
         // clear the progress bar
         fireProgressChanged(this, sizeY, sizeY);
 
@@ -210,9 +334,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         // create local histogram instance
         final double OUTSIDE = Double.NEGATIVE_INFINITY;
         LocalHistogramDoubleTreeMap localHisto = new LocalHistogramDoubleTreeMap(count, OUTSIDE);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Dilation DoubleTreeMap") : null;
+        localHisto.setCounters(counters);
 
         // Allocate result
-        FloatProcessor res = (FloatProcessor) array.duplicate();
+        FloatProcessor res = new FloatProcessor(sizeX, sizeY);
 
         // temp variables for updating local histogram
         double vOld, vNew;
@@ -222,6 +348,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         {
             fireProgressChanged(this, y, sizeY);
 
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
             // init local histogram with background values
             localHisto.reset(count, OUTSIDE);
 
@@ -245,6 +376,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
                 }
             }   
 
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
             // iterate along "middle" values
             for (int x = 0; x < sizeX; x++)
             {
@@ -272,6 +408,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
             }
         }
 
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
         // clear the progress bar
         fireProgressChanged(this, sizeY, sizeY);
         
@@ -280,13 +421,33 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
     
     @Override
     public ImageProcessor erosion(ImageProcessor array)
+    {
+        int bandSize = bandSize(Operation.EROSION, array);
+        if (bandSize > 0)
+        {
+            return MemoryStreaming.processBands(array, this.intRadius, bandSize, this::erosionInMemory);
+        }
+        return erosionInMemory(array);
+    }
+    
+    private ImageProcessor erosionInMemory(ImageProcessor array)
+    {
+        OperationEvent event = OperationEvent.begin("Erosion");
+        ImageProcessor res = computeErosion(array, event);
+        event.end(array, this.radius);
+        return res;
+    }
+    
+    private ImageProcessor computeErosion(ImageProcessor array, OperationEvent event)
     {
         if (array instanceof ByteProcessor)
         {
+            event.setEngine("Histogram", "UInt8");
             return slidingErosionUInt8((ByteProcessor) array);
         }
         else if (array instanceof FloatProcessor)
         {
+            event.setEngine("Histogram", "DoubleTreeMap");
             return slidingErosionFloat32((FloatProcessor) array);
         }
         throw new RuntimeException("Can not process input with class: " + array.getClass().getName());
@@ -305,9 +466,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         // create local histogram instance
         final int OUTSIDE = 255;
         LocalHistogramUInt8 localHisto = new LocalHistogramUInt8(count, OUTSIDE);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Erosion UInt8") : null;
+        localHisto.setCounters(counters);
 
         // Allocate result
-        ByteProcessor res = (ByteProcessor) array.duplicate();
+        ByteProcessor res = new ByteProcessor(sizeX, sizeY);
         
         // temp variables for updating local histogram
         int vOld, vNew;
@@ -317,6 +480,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         {
             fireProgressChanged(this, y, sizeY);
 
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
             // init local histogram with background values
             localHisto.reset(count, OUTSIDE);
 
@@ -341,6 +509,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
                 }
             }   
 
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
             // iterate along "middle" values
             for (int x = 0; x < sizeX; x++)
             {
@@ -369,6 +542,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
             }
         }
 
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
         // clear the progress bar
         fireProgressChanged(this, sizeY, sizeY);
         
@@ -388,9 +566,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         // create local histogram instance
         final double OUTSIDE = Double.POSITIVE_INFINITY; 
         LocalHistogramDoubleTreeMap localHisto = new LocalHistogramDoubleTreeMap(count, OUTSIDE);
+        HistogramCounters counters = HistogramCounters.ENABLED ? new HistogramCounters("Erosion DoubleTreeMap") : null;
+        localHisto.setCounters(counters);
 
         // Allocate result
-        FloatProcessor res = (FloatProcessor) array.duplicate();
+        FloatProcessor res = new FloatProcessor(sizeX, sizeY);
 
         // temp variables for updating local histogram
         double vOld, vNew;
@@ -400,6 +580,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
         {
             fireProgressChanged(this, y, sizeY);
 
+            if (counters != null)
+            {
+                counters.beginInitialization();
+            }
+            
             // init local histogram with background values
             localHisto.reset(count, OUTSIDE);
 
@@ -424,6 +609,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
                 }
             }   
 
+            if (counters != null)
+            {
+                counters.beginSliding(sizeX);
+            }
+            
             // iterate along "middle" values
             for (int x = 0; x < sizeX; x++)
             {
@@ -451,6 +641,11 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
             }
         }
 
+        if (counters != null)
+        {
+            fireCountersReported(counters);
+        }
+        
         // clear the progress bar
         fireProgressChanged(this, sizeY, sizeY);
         
@@ -460,13 +655,35 @@ public class SlidingDiskTMStrel extends AbstractStrel implements Strel
     @Override
     public ImageProcessor closing(ImageProcessor array)
     {
-        return erosion(dilation(array));
+        int bandSize = bandSize(Operation.CLOSING, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.CLOSING, this.intRadius);
+            return MemoryStreaming.processBands(array, halo, bandSize, this::closingInMemory);
+        }
+        return closingInMemory(array);
+    }
+    
+    private ImageProcessor closingInMemory(ImageProcessor array)
+    {
+        return erosion(dilationInMemory(array));
     }
 
     @Override
     public ImageProcessor opening(ImageProcessor array)
     {
-        return dilation(erosion(array));
+        int bandSize = bandSize(Operation.OPENING, array);
+        if (bandSize > 0)
+        {
+            int halo = MemoryStreaming.halo(Operation.OPENING, this.intRadius);
+            return MemoryStreaming.processBands(array, halo, bandSize, this::openingInMemory);
+        }
+        return openingInMemory(array);
+    }
+    
+    private ImageProcessor openingInMemory(ImageProcessor array)
+    {
+        return dilation(erosionInMemory(array));
     }
 	
     /* (non-Javadoc)
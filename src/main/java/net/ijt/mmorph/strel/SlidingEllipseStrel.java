@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.measure.Calibration;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * An axis-aligned ellipse structuring element, with a radius for each
+ * direction, that uses a sliding strategy for computing dilation and erosion.
+ *
+ * Such structuring elements are useful for images with anisotropic pixel
+ * size, as they can represent a disk with given radius in calibrated units:
+ *
+ * <pre>{@code
+    // Creates a structuring element corresponding to a disk with physical radius 10
+    Strel strel = SlidingEllipseStrel.fromCalibration(imagePlus.getCalibration(), 10.0);
+
+    // applies dilation on image
+    ImageProcessor dilated = strel.dilation(imagePlus.getProcessor());
+ * }</pre>
+ *
+ * Chords are computed in the same way as for the SlidingDiskStrel class. When
+ * both radii are equal, the resulting structuring element is the same as the
+ * one obtained with a SlidingDiskStrel.
+ *
+ * @see SlidingDiskStrel
+ * @see SlidingEllipsoidStrel3D
+ *
+ * @author dlegland
+ *
+ */
+public class SlidingEllipseStrel extends AbstractSlidingStrel
+{
+    // ==================================================
+    // Static factories
+
+    /**
+     * Creates a new ellipse structuring element that corresponds to a disk
+     * with the specified radius in calibrated units.
+     *
+     * @param calib
+     *            the spatial calibration of the image to process
+     * @param radius
+     *            the radius of the disk, in calibrated units
+     * @return a new ellipse structuring element with radii given in pixels
+     */
+    public static final SlidingEllipseStrel fromCalibration(Calibration calib, double radius)
+    {
+        return new SlidingEllipseStrel(radius / calib.pixelWidth, radius / calib.pixelHeight);
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The radius of the structuring element in the x direction, in pixels.
+     */
+    double radiusX;
+
+    /**
+     * The radius of the structuring element in the y direction, in pixels.
+     */
+    double radiusY;
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Create a new ellipse structuring element from its radius in each
+     * direction.
+     *
+     * @param radiusX
+     *            the radius of the ellipse in the x direction, in pixels.
+     * @param radiusY
+     *            the radius of the ellipse in the y direction, in pixels.
+     */
+    public SlidingEllipseStrel(double radiusX, double radiusY)
+    {
+        if (radiusX < 0 || radiusY < 0)
+        {
+            throw new IllegalArgumentException("Radius must be positive or zero");
+        }
+        this.radiusX = radiusX;
+        this.radiusY = radiusY;
+
+        initStrel();
+        createShiftArray();
+    }
+
+    private void initStrel()
+    {
+        int intRadiusY = (int) Math.floor(this.radiusY + 0.5);
+
+        // allocate arrays
+        int nOffsets = 2 * intRadiusY + 1;
+        this.xOffsets = new int[nOffsets];
+        this.yOffsets = new int[nOffsets];
+        this.xCenters = new int[nOffsets];
+
+        // squared semi-axes, taking into account the central pixel
+        double rx2 = (this.radiusX + 0.5) * (this.radiusX + 0.5);
+        double ry2 = (this.radiusY + 0.5) * (this.radiusY + 0.5);
+        double ratio = rx2 / ry2;
+
+        // initialize each row
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int dy = i - intRadiusY;
+            this.yOffsets[i] = dy;
+            this.xOffsets[i] = (int) Math.floor(Math.sqrt(Math.max(rx2 - dy * dy * ratio, 0)));
+        }
+    }
+
+
+    // ==================================================
+    // Implementation of the Strel interface
+
+	/**
+	 * @return this structuring element, as ellipse structuring elements are
+	 *         symmetric by definition.
+	 */
+	@Override
+	public Strel reverse()
+	{
+		return this;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.measure.Calibration;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * An axis-aligned ellipsoid structuring element, with a radius for each
+ * direction, that uses a sliding strategy for computing dilation and erosion.
+ *
+ * Such structuring elements are useful for images with anisotropic voxel
+ * size, as they can represent a ball with given radius in calibrated units,
+ * without resampling the image:
+ *
+ * <pre>{@code
+    // Creates a structuring element corresponding to a ball with physical radius 10
+    Strel3D strel = SlidingEllipsoidStrel3D.fromCalibration(imagePlus.getCalibration(), 10.0);
+
+    // applies dilation on image
+    ImageStack dilated = strel.dilation(imagePlus.getStack());
+ * }</pre>
+ *
+ * Chords are computed in the same way as for the SlidingBallStrel3D class.
+ * When the three radii are equal to the same integer value, the resulting
+ * structuring element is the same as the one obtained with a
+ * SlidingBallStrel3D.
+ *
+ * @see SlidingBallStrel3D
+ * @see SlidingEllipseStrel
+ *
+ * @author dlegland
+ *
+ */
+public class SlidingEllipsoidStrel3D extends AbstractSlidingStrel3D
+{
+    // ==================================================
+    // Static factories
+
+    /**
+     * Creates a new ellipsoid structuring element that corresponds to a ball
+     * with the specified radius in calibrated units.
+     *
+     * @param calib
+     *            the spatial calibration of the image to process
+     * @param radius
+     *            the radius of the ball, in calibrated units
+     * @return a new ellipsoid structuring element with radii given in voxels
+     */
+    public static final SlidingEllipsoidStrel3D fromCalibration(Calibration calib, double radius)
+    {
+        return new SlidingEllipsoidStrel3D(
+                radius / calib.pixelWidth,
+                radius / calib.pixelHeight,
+                radius / calib.pixelDepth);
+    }
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The radius of the structuring element in the x direction, in voxels.
+     */
+    double radiusX;
+
+    /**
+     * The radius of the structuring element in the y direction, in voxels.
+     */
+    double radiusY;
+
+    /**
+     * The radius of the structuring element in the z direction, in voxels.
+     */
+    double radiusZ;
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Create a new ellipsoid structuring element from its radius in each
+     * direction.
+     *
+     * @param radiusX
+     *            the radius of the ellipsoid in the x direction, in voxels.
+     * @param radiusY
+     *            the radius of the ellipsoid in the y direction, in voxels.
+     * @param radiusZ
+     *            the radius of the ellipsoid in the z direction, in voxels.
+     */
+    public SlidingEllipsoidStrel3D(double radiusX, double radiusY, double radiusZ)
+    {
+        if (radiusX < 0 || radiusY < 0 || radiusZ < 0)
+        {
+            throw new IllegalArgumentException("Radius must be positive or zero");
+        }
+        this.radiusX = radiusX;
+        this.radiusY = radiusY;
+        this.radiusZ = radiusZ;
+
+        initStrel();
+        createShiftArray();
+    }
+
+    private void initStrel()
+    {
+        int intRadiusZ = (int) Math.floor(this.radiusZ + 0.5);
+
+        // squared semi-axes, taking into account the central voxel
+        double rx2 = (this.radiusX + 0.5) * (this.radiusX + 0.5);
+        double ry2 = (this.radiusY + 0.5) * (this.radiusY + 0.5);
+        double rz2 = (this.radiusZ + 0.5) * (this.radiusZ + 0.5);
+
+        // compute the y-extent of the ellipsoid within each z-plane
+        int nz = 2 * intRadiusZ + 1;
+        int[] yOffsets2d = new int[nz];
+        int nOffsets = 0;
+        for (int iz = 0; iz < nz; iz++)
+        {
+            int dz = iz - intRadiusZ;
+            yOffsets2d[iz] = (int) Math.floor(Math.sqrt(Math.max(ry2 - dz * dz * (ry2 / rz2), 0)));
+            nOffsets += 2 * yOffsets2d[iz] + 1;
+        }
+
+        // allocate arrays
+        this.xOffsets = new int[nOffsets];
+        this.yOffsets = new int[nOffsets];
+        this.zOffsets = new int[nOffsets];
+        this.xCenters = new int[nOffsets];
+
+        // iterate over z and y offsets to compute the half-width of each chord
+        double ratioY = rx2 / ry2;
+        double ratioZ = rx2 / rz2;
+        int iOffset = 0;
+        for (int iz = 0; iz < nz; iz++)
+        {
+            int dz = iz - intRadiusZ;
+
+            int ny = 2 * yOffsets2d[iz] + 1;
+            for (int iy = 0; iy < ny; iy++)
+            {
+                int dy = iy - yOffsets2d[iz];
+                double dx2 = rx2 - dy * dy * ratioY - dz * dz * ratioZ;
+
+                this.xOffsets[iOffset] = (int) Math.floor(Math.sqrt(Math.max(dx2, 0)));
+                this.yOffsets[iOffset] = dy;
+                this.zOffsets[iOffset] = dz;
+                iOffset++;
+            }
+        }
+    }
+
+
+    // ==================================================
+    // Implementation of Strel3D
+
+    @Override
+    public Strel3D reverse()
+    {
+        return this;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.ArrayList;
+
+import inra.ijpb.morphology.Strel;
+
+/**
+ * A structuring element with arbitrary shape, defined by a binary mask, that
+ * uses a sliding strategy for computing dilation and erosion.
+ * 
+ * Each row of the mask is decomposed into runs of consecutive non-zero
+ * elements. Several runs can be found within the same row, making it possible
+ * to represent non convex shapes. Runs with even length are split into a run
+ * with odd length and a single pixel, so that each chord can be described by
+ * its center and its half-width.
+ * 
+ * <pre>{@code
+    // Converts a MorphoLibJ structuring element into a sliding one
+    Strel strel = new SlidingMaskStrel(Strel.Shape.OCTAGON.fromRadius(10));
+    
+    // applies dilation on image
+    ImageProcessor dilated = strel.dilation(imagePlus.getProcessor());
+ * }</pre>
+ * 
+ * @see SlidingMaskStrel3D
+ * 
+ * @author dlegland
+ *
+ */
+public class SlidingMaskStrel extends AbstractSlidingStrel
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The binary mask of the structuring element, indexed by y then x.
+     */
+    int[][] mask;
+    
+    /**
+     * The position of the reference pixel within the mask.
+     */
+    int[] offset;
+    
+    
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new sliding structuring element with the same shape as the
+     * specified structuring element.
+     * 
+     * @param strel
+     *            the structuring element to convert
+     */
+    public SlidingMaskStrel(Strel strel)
+    {
+        this(strel.getMask(), strel.getOffset());
+    }
+    
+    /**
+     * Creates a new sliding structuring element from a binary mask.
+     * 
+     * @param mask
+     *            the binary mask of the structuring element, indexed by y then
+     *            x. Non-zero values correspond to elements of the structuring
+     *            element.
+     * @param offset
+     *            the position of the reference pixel within the mask
+     */
+    public SlidingMaskStrel(int[][] mask, int[] offset)
+    {
+        this.mask = mask;
+        this.offset = new int[] {offset[0], offset[1]};
+        
+        initStrel();
+        createShiftArray();
+    }
+    
+    private void initStrel()
+    {
+        // extract runs of each mask row
+        ArrayList<int[]> chords = new ArrayList<int[]>();
+        for (int y = 0; y < this.mask.length; y++)
+        {
+            int[] row = this.mask[y];
+            int dy = y - this.offset[1];
+            
+            int x = 0;
+            while (x < row.length)
+            {
+                // find next run
+                if (row[x] == 0)
+                {
+                    x++;
+                    continue;
+                }
+                int x0 = x;
+                while (x < row.length && row[x] != 0)
+                {
+                    x++;
+                }
+                int x1 = x - 1;
+                
+                // runs with even length are completed by a single pixel chord
+                if ((x1 - x0) % 2 == 1)
+                {
+                    chords.add(new int[] {x1 - this.offset[0], dy, 0});
+                    x1--;
+                }
+                chords.add(new int[] {(x0 + x1) / 2 - this.offset[0], dy, (x1 - x0) / 2});
+            }
+        }
+        
+        // allocate arrays
+        int nOffsets = chords.size();
+        this.xOffsets = new int[nOffsets];
+        this.yOffsets = new int[nOffsets];
+        this.xCenters = new int[nOffsets];
+        
+        // copy chords
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int[] chord = chords.get(i);
+            this.xCenters[i] = chord[0];
+            this.yOffsets[i] = chord[1];
+            this.xOffsets[i] = chord[2];
+        }
+    }
+    
+    
+    // ==================================================
+    // Implementation of the Strel interface
+
+    @Override
+    public int[][] getMask()
+    {
+        int[][] res = new int[this.mask.length][];
+        for (int y = 0; y < this.mask.length; y++)
+        {
+            res[y] = this.mask[y].clone();
+        }
+        return res;
+    }
+    
+    @Override
+    public int[] getOffset()
+    {
+        return new int[] {this.offset[0], this.offset[1]};
+    }
+    
+    @Override
+    public int[] getSize() 
+    {
+        int sizeX = this.mask.length > 0 ? this.mask[0].length : 0;
+        return new int[] {sizeX, this.mask.length};
+    }
+
+    /**
+     * @return a new structuring element obtained by a central symmetry of the
+     *         mask.
+     */
+    @Override
+    public Strel reverse() 
+    {
+        int[] size = getSize();
+        int[][] reversed = new int[size[1]][size[0]];
+        for (int y = 0; y < size[1]; y++)
+        {
+            for (int x = 0; x < size[0]; x++)
+            {
+                reversed[size[1] - 1 - y][size[0] - 1 - x] = this.mask[y][x];
+            }
+        }
+        int[] offset = new int[] {size[0] - 1 - this.offset[0], size[1] - 1 - this.offset[1]};
+        return new SlidingMaskStrel(reversed, offset);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.ArrayList;
+
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * A 3D structuring element with arbitrary shape, defined by a binary mask,
+ * that uses a sliding strategy for computing dilation and erosion.
+ * 
+ * Each row of the mask is decomposed into runs of consecutive non-zero
+ * elements, making it possible to represent non convex shapes. Runs with even
+ * length are split into a run with odd length and a single voxel.
+ * 
+ * <pre>{@code
+    // Converts a MorphoLibJ structuring element into a sliding one
+    Strel3D strel = new SlidingMaskStrel3D(Strel3D.Shape.CUBE.fromRadius(4));
+    
+    // applies dilation on image
+    ImageStack dilated = strel.dilation(imagePlus.getStack());
+ * }</pre>
+ * 
+ * @see SlidingMaskStrel
+ * 
+ * @author dlegland
+ *
+ */
+public class SlidingMaskStrel3D extends AbstractSlidingStrel3D
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The binary mask of the structuring element, indexed by z, y, then x.
+     */
+    int[][][] mask;
+    
+    /**
+     * The position of the reference voxel within the mask.
+     */
+    int[] offset;
+    
+    
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new sliding structuring element with the same shape as the
+     * specified structuring element.
+     * 
+     * @param strel
+     *            the structuring element to convert
+     */
+    public SlidingMaskStrel3D(Strel3D strel)
+    {
+        this(strel.getMask3D(), strel.getOffset());
+    }
+    
+    /**
+     * Creates a new sliding structuring element from a binary mask.
+     * 
+     * @param mask
+     *            the binary mask of the structuring element, indexed by z, y,
+     *            then x. Non-zero values correspond to elements of the
+     *            structuring element.
+     * @param offset
+     *            the position of the reference voxel within the mask
+     */
+    public SlidingMaskStrel3D(int[][][] mask, int[] offset)
+    {
+        this.mask = mask;
+        this.offset = new int[] {offset[0], offset[1], offset[2]};
+        
+        initStrel();
+        createShiftArray();
+    }
+    
+    private void initStrel()
+    {
+        // extract runs of each mask row
+        ArrayList<int[]> chords = new ArrayList<int[]>();
+        for (int z = 0; z < this.mask.length; z++)
+        {
+            int dz = z - this.offset[2];
+            for (int y = 0; y < this.mask[z].length; y++)
+            {
+                int[] row = this.mask[z][y];
+                int dy = y - this.offset[1];
+                
+                int x = 0;
+                while (x < row.length)
+                {
+                    // find next run
+                    if (row[x] == 0)
+                    {
+                        x++;
+                        continue;
+                    }
+                    int x0 = x;
+                    while (x < row.length && row[x] != 0)
+                    {
+                        x++;
+                    }
+                    int x1 = x - 1;
+                    
+                    // runs with even length are completed by a single voxel chord
+                    if ((x1 - x0) % 2 == 1)
+                    {
+                        chords.add(new int[] {x1 - this.offset[0], dy, dz, 0});
+                        x1--;
+                    }
+                    chords.add(new int[] {(x0 + x1) / 2 - this.offset[0], dy, dz, (x1 - x0) / 2});
+                }
+            }
+        }
+        
+        // allocate arrays
+        int nOffsets = chords.size();
+        this.xOffsets = new int[nOffsets];
+        this.yOffsets = new int[nOffsets];
+        this.zOffsets = new int[nOffsets];
+        this.xCenters = new int[nOffsets];
+        
+        // copy chords
+        for (int i = 0; i < nOffsets; i++)
+        {
+            int[] chord = chords.get(i);
+            this.xCenters[i] = chord[0];
+            this.yOffsets[i] = chord[1];
+            this.zOffsets[i] = chord[2];
+            this.xOffsets[i] = chord[3];
+        }
+    }
+    
+    
+    // ==================================================
+    // Implementation of Strel3D
+
+    @Override
+    public int[] getSize()
+    {
+        int sizeZ = this.mask.length;
+        int sizeY = sizeZ > 0 ? this.mask[0].length : 0;
+        int sizeX = sizeY > 0 ? this.mask[0][0].length : 0;
+        return new int[] {sizeX, sizeY, sizeZ};
+    }
+
+    @Override
+    public int[][][] getMask3D()
+    {
+        int[][][] res = new int[this.mask.length][][];
+        for (int z = 0; z < this.mask.length; z++)
+        {
+            res[z] = new int[this.mask[z].length][];
+            for (int y = 0; y < this.mask[z].length; y++)
+            {
+                res[z][y] = this.mask[z][y].clone();
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public int[] getOffset()
+    {
+        return new int[] {this.offset[0], this.offset[1], this.offset[2]};
+    }
+
+    /**
+     * @return a new structuring element obtained by a central symmetry of the
+     *         mask.
+     */
+    @Override
+    public Strel3D reverse()
+    {
+        int[] size = getSize();
+        int[][][] reversed = new int[size[2]][size[1]][size[0]];
+        for (int z = 0; z < size[2]; z++)
+        {
+            for (int y = 0; y < size[1]; y++)
+            {
+                for (int x = 0; x < size[0]; x++)
+                {
+                    reversed[size[2] - 1 - z][size[1] - 1 - y][size[0] - 1 - x] = this.mask[z][y][x];
+                }
+            }
+        }
+        int[] offset = new int[] {
+                size[0] - 1 - this.offset[0], 
+                size[1] - 1 - this.offset[1], 
+                size[2] - 1 - this.offset[2]};
+        return new SlidingMaskStrel3D(reversed, offset);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * Applies morphological operations, using the fused implementations of
+ * sliding structuring elements when they exist. White and black top-hats
+ * of sliding structuring elements are computed without storing the opening
+ * or the closing, other operations are delegated to MorphoLibJ.
+ *
+ * @see AbstractSlidingStrel#whiteTopHat(ImageProcessor)
+ * @see AbstractSlidingStrel3D#whiteTopHat(ImageStack)
+ *
+ * @author dlegland
+ *
+ */
+public final class SlidingOperations
+{
+    /**
+     * Applies a morphological operation on a planar image.
+     *
+     * @param op
+     *            the operation to apply
+     * @param image
+     *            the image to process
+     * @param strel
+     *            the structuring element
+     * @return the result of the operation
+     */
+    public static final ImageProcessor apply(Operation op, ImageProcessor image, Strel strel)
+    {
+        if (strel instanceof AbstractSlidingStrel)
+        {
+            AbstractSlidingStrel slidingStrel = (AbstractSlidingStrel) strel;
+            switch (op)
+            {
+            case TOPHAT: return slidingStrel.whiteTopHat(image);
+            case BOTTOMHAT: return slidingStrel.blackTopHat(image);
+            default: break;
+            }
+        }
+        return op.apply(image, strel);
+    }
+
+    /**
+     * Applies a morphological operation on a 3D image.
+     *
+     * @param op
+     *            the operation to apply
+     * @param image
+     *            the image to process
+     * @param strel
+     *            the structuring element
+     * @return the result of the operation
+     */
+    public static final ImageStack apply(Operation op, ImageStack image, Strel3D strel)
+    {
+        if (strel instanceof AbstractSlidingStrel3D)
+        {
+            AbstractSlidingStrel3D slidingStrel = (AbstractSlidingStrel3D) strel;
+            switch (op)
+            {
+            case TOPHAT: return slidingStrel.whiteTopHat(image);
+            case BOTTOMHAT: return slidingStrel.blackTopHat(image);
+            default: break;
+            }
+        }
+        return op.apply(image, strel);
+    }
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private SlidingOperations()
+    {
+    }
+}
@@ -0,0 +1,523 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Locale;
+import java.util.Random;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * <p>
+ * Estimates the running time of morphological operations for the different
+ * implementations of disk and ball structuring elements, in order to choose
+ * the fastest one.
+ * </p>
+ *
+ * <p>
+ * The time per pixel of each implementation is modeled as an affine function
+ * of a feature computed from the radius: the number of elements of the
+ * structuring element for naive implementations and for combinations of
+ * shifted rows, the number of chords for local histograms, and the height of
+ * the kernel for the native ImageJ rank filters. The time of multi-threaded
+ * implementations (sliding structuring elements and native) is divided by the
+ * number of threads. Coefficients depend on the dimensionality and on the bit
+ * depth (8 bits, or other) of the image. Color images are modeled as three
+ * 8-bits images.
+ * </p>
+ *
+ * <p>
+ * Coefficients are calibrated by a short benchmark on small synthetic images,
+ * the first time the default model is required, and are then stored within
+ * ImageJ preferences.
+ * </p>
+ *
+ * @see AutoStrelFactory
+ *
+ * @author dlegland
+ *
+ */
+public class StrelCostModel
+{
+    // ==================================================
+    // Inner enumeration
+
+    /**
+     * The implementations of disk and ball structuring elements that can be
+     * selected.
+     */
+    public enum Engine
+    {
+        /** Sliding structuring elements (local histograms or shifted rows) */
+        SLIDING("Sliding"),
+        /** Naive implementation, considering all the neighbors */
+        NAIVE("Naive"),
+        /** Native implementation provided by ImageJ through MorphoLibJ */
+        NATIVE("ImageJ native");
+
+        private final String label;
+
+        private Engine(String label)
+        {
+            this.label = label;
+        }
+
+        public String toString()
+        {
+            return this.label;
+        }
+    }
+
+
+    // ==================================================
+    // Static variables
+
+    /**
+     * The key used for storing coefficients within ImageJ preferences.
+     */
+    public static final String PREFS_KEY = "net.ijt.mmorph.costModel";
+
+    /**
+     * The version of the model, stored with the coefficients for discarding
+     * values computed with an older model.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * The different regimes of the model. Sliding structuring elements use
+     * shifted rows for small radii, and local histograms otherwise.
+     */
+    static final int SHIFTED_ROWS = 0;
+    static final int HISTOGRAM = 1;
+    static final int NAIVE = 2;
+    static final int NATIVE = 3;
+    static final int REGIME_COUNT = 4;
+
+    /**
+     * The model used by default, created or calibrated at first call to
+     * getDefault().
+     */
+    private static StrelCostModel defaultModel = null;
+
+
+    // ==================================================
+    // Class variables
+
+    /**
+     * The coefficients of the model, indexed by regime, dimensionality, bit
+     * depth class and coefficient: intercept then slope, in nanoseconds per
+     * pixel.
+     */
+    double[] coefs;
+
+
+    // ==================================================
+    // Static methods
+
+    /**
+     * Returns the model used by default. At first call, coefficients are read
+     * from ImageJ preferences. If they are not found, the model is calibrated
+     * and saved to preferences.
+     *
+     * @return the default cost model
+     */
+    public static synchronized StrelCostModel getDefault()
+    {
+        if (defaultModel == null)
+        {
+            String text = Prefs.get(PREFS_KEY, null);
+            if (text != null)
+            {
+                try
+                {
+                    defaultModel = parse(text);
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    // obsolete or corrupted preferences
+                    defaultModel = null;
+                }
+            }
+
+            if (defaultModel == null)
+            {
+                recalibrate();
+            }
+        }
+        return defaultModel;
+    }
+
+    /**
+     * Calibrates a new model, saves it to ImageJ preferences, and uses it as
+     * default model.
+     *
+     * @return the calibrated model
+     */
+    public static synchronized StrelCostModel recalibrate()
+    {
+        IJ.showStatus("Calibrate cost model of structuring elements...");
+        defaultModel = calibrate();
+        IJ.showStatus("");
+        Prefs.set(PREFS_KEY, defaultModel.toString());
+        return defaultModel;
+    }
+
+    /**
+     * Calibrates a new cost model by measuring the running time of each
+     * implementation on small synthetic images, for two radii per regime.
+     *
+     * @return a new calibrated model
+     */
+    public static StrelCostModel calibrate()
+    {
+        StrelCostModel model = new StrelCostModel();
+        int nThreads = Math.max(Prefs.getThreads(), 1);
+
+        for (int nDims = 2; nDims <= 3; nDims++)
+        {
+            for (int depthClass = 0; depthClass < 2; depthClass++)
+            {
+                int bitDepth = depthClass == 0 ? 8 : 32;
+                for (int regime = 0; regime < REGIME_COUNT; regime++)
+                {
+                    int[] radii = calibrationRadii(regime, nDims);
+                    double f1 = feature(regime, nDims, radii[0]);
+                    double f2 = feature(regime, nDims, radii[1]);
+                    double t1 = measureTime(regime, nDims, bitDepth, radii[0]);
+                    double t2 = measureTime(regime, nDims, bitDepth, radii[1]);
+
+                    // multi-threaded implementations are normalized by thread count
+                    if (isMultiThreaded(regime))
+                    {
+                        t1 *= nThreads;
+                        t2 *= nThreads;
+                    }
+
+                    // fit the affine function, ensuring positive coefficients
+                    double slope = Math.max((t2 - t1) / (f2 - f1), 0);
+                    double intercept = Math.max(t1 - slope * f1, 0);
+                    model.setCoefficients(regime, nDims, bitDepth, intercept, slope);
+                }
+            }
+        }
+        return model;
+    }
+
+    private static final int[] calibrationRadii(int regime, int nDims)
+    {
+        switch (regime)
+        {
+        case SHIFTED_ROWS: return new int[] {1, ShiftedRowsEngine.MAX_RADIUS};
+        case HISTOGRAM: return nDims == 2 ? new int[] {6, 20} : new int[] {6, 8};
+        default: return nDims == 2 ? new int[] {2, 8} : new int[] {2, 4};
+        }
+    }
+
+    /**
+     * Measures the time per pixel of the dilation, in nanoseconds, as the
+     * smallest of three runs following two warm-up runs.
+     */
+    private static final double measureTime(int regime, int nDims, int bitDepth, int radius)
+    {
+        Random random = new Random(42);
+        double best = Double.POSITIVE_INFINITY;
+        if (nDims == 2)
+        {
+            int size = 256;
+            ImageProcessor image = bitDepth == 8 ? new ByteProcessor(size, size) : new FloatProcessor(size, size);
+            for (int i = 0; i < size * size; i++)
+            {
+                image.setf(i, random.nextInt(256));
+            }
+            Strel strel = createStrel(regime, radius);
+            for (int i = 0; i < 5; i++)
+            {
+                long t0 = System.nanoTime();
+                strel.dilation(image);
+                long t1 = System.nanoTime();
+                if (i >= 2)
+                {
+                    best = Math.min(best, t1 - t0);
+                }
+            }
+            return best / (size * size);
+        }
+        else
+        {
+            int size = 24;
+            ImageStack image = ImageStack.create(size, size, size, bitDepth);
+            for (int z = 0; z < size; z++)
+            {
+                ImageProcessor slice = image.getProcessor(z + 1);
+                for (int i = 0; i < size * size; i++)
+                {
+                    slice.setf(i, random.nextInt(256));
+                }
+            }
+            Strel3D strel = createStrel3D(regime, radius);
+            for (int i = 0; i < 5; i++)
+            {
+                long t0 = System.nanoTime();
+                strel.dilation(image);
+                long t1 = System.nanoTime();
+                if (i >= 2)
+                {
+                    best = Math.min(best, t1 - t0);
+                }
+            }
+            return best / (size * size * size);
+        }
+    }
+
+    private static final Strel createStrel(int regime, int radius)
+    {
+        switch (regime)
+        {
+        case SHIFTED_ROWS:
+        case HISTOGRAM: return new SlidingDiskStrel(radius);
+        case NAIVE: return new NaiveDiskStrel(radius);
+        default: return Strel.Shape.DISK.fromRadius(radius);
+        }
+    }
+
+    private static final Strel3D createStrel3D(int regime, int radius)
+    {
+        switch (regime)
+        {
+        case SHIFTED_ROWS:
+        case HISTOGRAM: return new SlidingBallStrel3D(radius);
+        case NAIVE: return new NaiveBallStrel3D(radius);
+        default: return Strel3D.Shape.BALL.fromRadius(radius);
+        }
+    }
+
+    private static final boolean isMultiThreaded(int regime)
+    {
+        return regime != NAIVE;
+    }
+
+    /**
+     * Computes the feature the time per pixel is proportional to.
+     */
+    static final double feature(int regime, int nDims, double radius)
+    {
+        double r = radius + 0.5;
+        switch (regime)
+        {
+        case HISTOGRAM:
+            // number of chords
+            return nDims == 2 ? 2 * r : Math.PI * r * r;
+        case NATIVE:
+            // rank filters of ImageJ process the kernel line by line in 2D
+            return nDims == 2 ? 2 * r : 4 * Math.PI * r * r * r / 3;
+        default:
+            // number of elements
+            return nDims == 2 ? Math.PI * r * r : 4 * Math.PI * r * r * r / 3;
+        }
+    }
+
+    /**
+     * Parses a model from the string representation returned by the
+     * toString() method.
+     *
+     * @param text
+     *            the string representation of a model
+     * @return the corresponding model
+     * @throws IllegalArgumentException
+     *             if the string can not be parsed
+     */
+    public static StrelCostModel parse(String text)
+    {
+        String[] tokens = text.split(",");
+        StrelCostModel model = new StrelCostModel();
+        if (tokens.length != model.coefs.length + 1)
+        {
+            throw new IllegalArgumentException("Wrong number of coefficients in cost model: " + text);
+        }
+        try
+        {
+            if (Integer.parseInt(tokens[0].trim()) != VERSION)
+            {
+                throw new IllegalArgumentException("Unsupported cost model version: " + tokens[0]);
+            }
+            for (int i = 0; i < model.coefs.length; i++)
+            {
+                model.coefs[i] = Double.parseDouble(tokens[i + 1].trim());
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("Could not parse cost model: " + text, ex);
+        }
+        return model;
+    }
+
+
+    // ==================================================
+    // Constructors
+
+    /**
+     * Creates a new cost model with all coefficients set to zero.
+     */
+    public StrelCostModel()
+    {
+        this.coefs = new double[REGIME_COUNT * 2 * 2 * 2];
+    }
+
+
+    // ==================================================
+    // Methods
+
+    /**
+     * Chooses the implementation with the smallest estimated running time.
+     *
+     * @param dims
+     *            the dimensions of the image (two or three values)
+     * @param bitDepth
+     *            the bit depth of the image
+     * @param radius
+     *            the radius of the structuring element
+     * @param nThreads
+     *            the number of threads available for multi-threaded
+     *            implementations
+     * @return the implementation with the smallest estimated running time
+     */
+    public Engine selectEngine(int[] dims, int bitDepth, double radius, int nThreads)
+    {
+        Engine best = Engine.NATIVE;
+        double bestTime = Double.POSITIVE_INFINITY;
+        for (Engine engine : Engine.values())
+        {
+            double time = estimateTime(engine, dims, bitDepth, radius, nThreads);
+            if (time < bestTime)
+            {
+                best = engine;
+                bestTime = time;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimates the running time of a dilation or an erosion.
+     *
+     * @param engine
+     *            the implementation of the structuring element
+     * @param dims
+     *            the dimensions of the image (two or three values)
+     * @param bitDepth
+     *            the bit depth of the image
+     * @param radius
+     *            the radius of the structuring element
+     * @param nThreads
+     *            the number of threads available for multi-threaded
+     *            implementations
+     * @return the estimated running time, in milliseconds, or positive
+     *         infinity if the implementation does not support the image
+     */
+    public double estimateTime(Engine engine, int[] dims, int bitDepth, double radius, int nThreads)
+    {
+        int nDims = dims.length;
+        if (!isApplicable(engine, nDims, bitDepth, radius))
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        int regime;
+        switch (engine)
+        {
+        case SLIDING: regime = radius <= ShiftedRowsEngine.MAX_RADIUS ? SHIFTED_ROWS : HISTOGRAM; break;
+        case NAIVE: regime = NAIVE; break;
+        default: regime = NATIVE;
+        }
+
+        // color images are processed as three 8-bits channels
+        int channelCount = bitDepth == 24 ? 3 : 1;
+        int index = index(regime, nDims, bitDepth == 24 ? 8 : bitDepth);
+        double timePerPixel = channelCount * (this.coefs[index] + this.coefs[index + 1] * feature(regime, nDims, radius));
+        if (isMultiThreaded(regime))
+        {
+            timePerPixel /= Math.max(nThreads, 1);
+        }
+
+        double pixelCount = 1;
+        for (int d : dims)
+        {
+            pixelCount *= d;
+        }
+        return timePerPixel * pixelCount * 1e-6;
+    }
+
+    /**
+     * Checks if an implementation can process images with the specified
+     * characteristics.
+     *
+     * @param engine
+     *            the implementation of the structuring element
+     * @param nDims
+     *            the number of dimensions of the image (2 or 3)
+     * @param bitDepth
+     *            the bit depth of the image
+     * @param radius
+     *            the radius of the structuring element
+     * @return true if the implementation can process the image
+     */
+    public static boolean isApplicable(Engine engine, int nDims, int bitDepth, double radius)
+    {
+        // color images are processed by channels by the native implementation
+        // and by the planar sliding elements
+        if (bitDepth == 24)
+        {
+            return engine == Engine.NATIVE || (engine == Engine.SLIDING && nDims == 2);
+        }
+
+        // planar local histograms are available only for 8 and 32 bits images
+        if (engine == Engine.SLIDING && nDims == 2 && bitDepth == 16)
+        {
+            return radius <= ShiftedRowsEngine.MAX_RADIUS;
+        }
+        return true;
+    }
+
+    /**
+     * Changes the coefficients of a regime of the model.
+     */
+    void setCoefficients(int regime, int nDims, int bitDepth, double intercept, double slope)
+    {
+        int index = index(regime, nDims, bitDepth);
+        this.coefs[index] = intercept;
+        this.coefs[index + 1] = slope;
+    }
+
+    private static final int index(int regime, int nDims, int bitDepth)
+    {
+        int depthClass = bitDepth == 8 ? 0 : 1;
+        return ((regime * 2 + (nDims - 2)) * 2 + depthClass) * 2;
+    }
+
+    /**
+     * Returns the string representation of the model, that can be parsed
+     * with the parse() method: the version followed by the coefficients,
+     * separated by commas.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(VERSION);
+        for (double coef : this.coefs)
+        {
+            sb.append(',');
+            sb.append(String.format(Locale.ENGLISH, "%.6g", coef));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,414 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * <p>
+ * Buffers reused by the successive operations of sliding structuring
+ * elements: the local histograms and the run ends of each band of rows, the
+ * packed rows and distance maps of the binary engines, the unpacked channels
+ * of color images, and the intermediate images of closing, opening and
+ * alternating sequential filters. Buffers are allocated by the first
+ * operation, and allocated again only when the size of the image changes.
+ * </p>
+ *
+ * <pre>{@code
+ * SlidingDiskStrel strel = new SlidingDiskStrel(5);
+ * strel.setWorkspace(new StrelWorkspace());
+ * ImageProcessor res = image.createProcessor(image.getWidth(), image.getHeight());
+ * for (ImageProcessor frame : frames)
+ * {
+ *     strel.closing(frame, res);
+ *     ...
+ * }
+ * }</pre>
+ *
+ * <p>
+ * A workspace is used by a single operation at a time. When an operation
+ * starts while the workspace is used by another one, for example by another
+ * thread, the operation allocates its own buffers. A workspace can be shared
+ * by structuring elements with different shapes.
+ * </p>
+ *
+ * @author dlegland
+ *
+ */
+public final class StrelWorkspace
+{
+    // ==================================================
+    // Class variables
+
+    /**
+     * The number of channels of color images.
+     */
+    private static final int CHANNEL_COUNT = 3;
+
+    /**
+     * Indicates whether an operation is using this workspace.
+     */
+    private boolean busy = false;
+
+    /**
+     * The histograms of 8-bit images, one for each band of rows.
+     */
+    private LocalHistogramUInt8[] histogramsUInt8 = new LocalHistogramUInt8[0];
+
+    /**
+     * The histograms of floating point images, one for each band of rows.
+     */
+    private LocalHistogramDoubleHashMap[] histogramsDouble = new LocalHistogramDoubleHashMap[0];
+
+    /**
+     * The run ends of the rows cached for detecting flat zones, one buffer
+     * for each band of rows.
+     */
+    private int[][][] runEnds = new int[0][][];
+
+    /**
+     * The buffers of packed rows, indexed by slot.
+     */
+    private long[][][] longRows = new long[0][][];
+
+    /**
+     * The integer buffers, indexed by slot.
+     */
+    private int[][][] intRows = new int[0][][];
+
+    /**
+     * The byte buffers, indexed by slot.
+     */
+    private byte[][][] byteRows = new byte[0][][];
+
+    /**
+     * The intermediate images, as ImageProcessor or ImageStack instances,
+     * indexed by slot.
+     */
+    private Object[] images = new Object[0];
+
+    /**
+     * The workspaces of the channels of color images, created when needed.
+     */
+    private StrelWorkspace[] channels = null;
+
+
+    // ==================================================
+    // Constructor
+
+    /**
+     * Creates a new empty workspace. Buffers are allocated by the first
+     * operation.
+     */
+    public StrelWorkspace()
+    {
+    }
+
+
+    // ==================================================
+    // General methods
+
+    /**
+     * Releases all the buffers of this workspace.
+     */
+    public synchronized void clear()
+    {
+        this.histogramsUInt8 = new LocalHistogramUInt8[0];
+        this.histogramsDouble = new LocalHistogramDoubleHashMap[0];
+        this.runEnds = new int[0][][];
+        this.longRows = new long[0][][];
+        this.intRows = new int[0][][];
+        this.byteRows = new byte[0][][];
+        this.images = new Object[0];
+        this.channels = null;
+    }
+
+    /**
+     * Marks this workspace as used by an operation.
+     *
+     * @return true if the workspace was not used by another operation
+     */
+    synchronized boolean acquire()
+    {
+        if (this.busy)
+        {
+            return false;
+        }
+        this.busy = true;
+        return true;
+    }
+
+    /**
+     * Marks this workspace as available for another operation.
+     */
+    synchronized void release()
+    {
+        this.busy = false;
+    }
+
+
+    // ==================================================
+    // Access to buffers
+
+    /**
+     * Ensures that a histogram can be obtained for each band of rows. Must be
+     * called before starting the threads that process the bands.
+     *
+     * @param nBands
+     *            the number of bands processed concurrently
+     */
+    void ensureBands(int nBands)
+    {
+        if (this.histogramsUInt8.length < nBands)
+        {
+            this.histogramsUInt8 = Arrays.copyOf(this.histogramsUInt8, nBands);
+            this.histogramsDouble = Arrays.copyOf(this.histogramsDouble, nBands);
+            this.runEnds = Arrays.copyOf(this.runEnds, nBands);
+        }
+    }
+
+    /**
+     * Returns the histogram of a band of rows of an 8-bit image, filled with
+     * the specified value.
+     *
+     * @param band
+     *            the index of the band
+     * @param count
+     *            the number of values within the histogram
+     * @param value
+     *            the value that fills the histogram
+     * @return the histogram of the band
+     */
+    LocalHistogramUInt8 histogramUInt8(int band, int count, int value)
+    {
+        LocalHistogramUInt8 histo = this.histogramsUInt8[band];
+        if (histo == null)
+        {
+            histo = new LocalHistogramUInt8(count, value);
+            this.histogramsUInt8[band] = histo;
+        }
+        else
+        {
+            histo.reset(count, value);
+        }
+        return histo;
+    }
+
+    /**
+     * Returns the histogram of a band of rows of a floating point image,
+     * filled with the specified value.
+     *
+     * @param band
+     *            the index of the band
+     * @param count
+     *            the number of values within the histogram
+     * @param value
+     *            the value that fills the histogram
+     * @return the histogram of the band
+     */
+    LocalHistogramDoubleHashMap histogramDouble(int band, int count, double value)
+    {
+        LocalHistogramDoubleHashMap histo = this.histogramsDouble[band];
+        if (histo == null)
+        {
+            histo = new LocalHistogramDoubleHashMap(count, value);
+            this.histogramsDouble[band] = histo;
+        }
+        else
+        {
+            histo.reset(count, value);
+        }
+        return histo;
+    }
+
+    /**
+     * Returns the buffer of run ends of a band of rows, with the specified
+     * dimensions. The content of the rows is undefined.
+     *
+     * @param band
+     *            the index of the band
+     * @param nRows
+     *            the number of rows
+     * @param length
+     *            the length of each row
+     * @return the buffer, containing nRows rows
+     */
+    int[][] runEnds(int band, int nRows, int length)
+    {
+        int[][] rows = this.runEnds[band];
+        if (rows == null || rows.length != nRows || rows[0].length != length)
+        {
+            rows = new int[nRows][length];
+            this.runEnds[band] = rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns an array of long rows with the specified dimensions.
+     * The content of the rows is undefined.
+     *
+     * @param slot
+     *            the index of the buffer
+     * @param nRows
+     *            the number of rows
+     * @param length
+     *            the length of each row
+     * @return the buffer, containing nRows rows
+     */
+    long[][] longRows(int slot, int nRows, int length)
+    {
+        if (this.longRows.length <= slot)
+        {
+            this.longRows = Arrays.copyOf(this.longRows, slot + 1);
+        }
+        long[][] rows = this.longRows[slot];
+        if (rows == null || rows.length != nRows || (nRows > 0 && rows[0].length != length))
+        {
+            rows = new long[nRows][length];
+            this.longRows[slot] = rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns an array of int rows with the specified dimensions.
+     * The content of the rows is undefined.
+     *
+     * @param slot
+     *            the index of the buffer
+     * @param nRows
+     *            the number of rows
+     * @param length
+     *            the length of each row
+     * @return the buffer, containing nRows rows
+     */
+    int[][] intRows(int slot, int nRows, int length)
+    {
+        if (this.intRows.length <= slot)
+        {
+            this.intRows = Arrays.copyOf(this.intRows, slot + 1);
+        }
+        int[][] rows = this.intRows[slot];
+        if (rows == null || rows.length != nRows || (nRows > 0 && rows[0].length != length))
+        {
+            rows = new int[nRows][length];
+            this.intRows[slot] = rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns an array of byte rows with the specified dimensions. The
+     * content of the rows is undefined.
+     *
+     * @param slot
+     *            the index of the buffer
+     * @param nRows
+     *            the number of rows
+     * @param length
+     *            the length of each row
+     * @return the buffer, containing nRows rows
+     */
+    byte[][] byteRows(int slot, int nRows, int length)
+    {
+        if (this.byteRows.length <= slot)
+        {
+            this.byteRows = Arrays.copyOf(this.byteRows, slot + 1);
+        }
+        byte[][] rows = this.byteRows[slot];
+        if (rows == null || rows.length != nRows || (nRows > 0 && rows[0].length != length))
+        {
+            rows = new byte[nRows][length];
+            this.byteRows[slot] = rows;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns an image with the same size and type as the specified one. The
+     * content of the image is undefined.
+     *
+     * @param slot
+     *            the index of the image
+     * @param image
+     *            the image used as model
+     * @return an image with the same size and type as the model
+     */
+    ImageProcessor image(int slot, ImageProcessor image)
+    {
+        if (this.images.length <= slot)
+        {
+            this.images = Arrays.copyOf(this.images, slot + 1);
+        }
+        Object buffer = this.images[slot];
+        if (buffer instanceof ImageProcessor)
+        {
+            ImageProcessor res = (ImageProcessor) buffer;
+            if (res.getWidth() == image.getWidth() && res.getHeight() == image.getHeight()
+                    && res.getBitDepth() == image.getBitDepth())
+            {
+                return res;
+            }
+        }
+        ImageProcessor res = image.createProcessor(image.getWidth(), image.getHeight());
+        this.images[slot] = res;
+        return res;
+    }
+
+    /**
+     * Returns a stack with the same size and type as the specified one. The
+     * content of the stack is undefined.
+     *
+     * @param slot
+     *            the index of the stack
+     * @param image
+     *            the stack used as model
+     * @return a stack with the same size and type as the model
+     */
+    ImageStack stack(int slot, ImageStack image)
+    {
+        if (this.images.length <= slot)
+        {
+            this.images = Arrays.copyOf(this.images, slot + 1);
+        }
+        Object buffer = this.images[slot];
+        if (buffer instanceof ImageStack)
+        {
+            ImageStack res = (ImageStack) buffer;
+            if (res.getWidth() == image.getWidth() && res.getHeight() == image.getHeight()
+                    && res.getSize() == image.getSize() && res.getBitDepth() == image.getBitDepth())
+            {
+                return res;
+            }
+        }
+        ImageStack res = ImageStack.create(image.getWidth(), image.getHeight(), image.getSize(), image.getBitDepth());
+        res.setColorModel(image.getColorModel());
+        this.images[slot] = res;
+        return res;
+    }
+
+    /**
+     * Returns the workspace used for processing a channel of color images.
+     *
+     * @param channel
+     *            the index of the channel
+     * @return the workspace of the channel
+     */
+    synchronized StrelWorkspace channel(int channel)
+    {
+        if (this.channels == null)
+        {
+            this.channels = new StrelWorkspace[CHANNEL_COUNT];
+        }
+        if (this.channels[channel] == null)
+        {
+            this.channels[channel] = new StrelWorkspace();
+        }
+        return this.channels[channel];
+    }
+}
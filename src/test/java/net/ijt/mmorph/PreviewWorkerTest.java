@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package net.ijt.mmorph;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import inra.ijpb.morphology.Morphology.Operation;
+
+/**
+ * @author dlegland
+ *
+ */
+public class PreviewWorkerTest
+{
+    /**
+     * Checks that a result is computed once, and displayed from the cache
+     * when it is requested again.
+     */
+    @Test
+    public final void testSubmit_Cache() throws InterruptedException
+    {
+        PreviewWorker<String> worker = new PreviewWorker<>(2);
+        Object image = new Object();
+        AtomicInteger computeCount = new AtomicInteger(0);
+        AtomicReference<String> displayed = new AtomicReference<>();
+
+        CountDownLatch done = new CountDownLatch(1);
+        PreviewWorker.Key key = new PreviewWorker.Key(image, Operation.DILATION, "Sliding Disk", 3, null);
+        worker.submit(key, token -> "res" + computeCount.incrementAndGet(), res -> {
+            displayed.set(res);
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("res1", displayed.get());
+
+        // same settings on the same image: displayed within the call
+        displayed.set(null);
+        PreviewWorker.Key key2 = new PreviewWorker.Key(image, Operation.DILATION, "Sliding Disk", 3, null);
+        worker.submit(key2, token -> "res" + computeCount.incrementAndGet(), displayed::set);
+        assertEquals("res1", displayed.get());
+        assertEquals(1, computeCount.get());
+
+        // an equal image with another identity is not within the cache
+        assertNull(worker.getCached(new PreviewWorker.Key(new Object(), Operation.DILATION, "Sliding Disk", 3, null)));
+        worker.shutdown();
+    }
+
+    /**
+     * Checks that a new request cancels the current computation, whose result
+     * is never displayed.
+     */
+    @Test
+    public final void testSubmit_CancelStale() throws InterruptedException
+    {
+        PreviewWorker<String> worker = new PreviewWorker<>(2);
+        Object image = new Object();
+        AtomicReference<String> displayed = new AtomicReference<>();
+
+        CountDownLatch started = new CountDownLatch(1);
+        PreviewWorker.Key key1 = new PreviewWorker.Key(image, Operation.DILATION, "Sliding Disk", 3, null);
+        worker.submit(key1, token -> {
+            started.countDown();
+            while (true)
+            {
+                token.checkCancelled();
+                Thread.yield();
+            }
+        }, displayed::set);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(1);
+        PreviewWorker.Key key2 = new PreviewWorker.Key(image, Operation.DILATION, "Sliding Disk", 4, null);
+        worker.submit(key2, token -> "res", res -> {
+            displayed.set(res);
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("res", displayed.get());
+        assertNull(worker.getCached(key1));
+        worker.shutdown();
+    }
+}
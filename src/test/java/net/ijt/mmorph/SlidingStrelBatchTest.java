@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package net.ijt.mmorph;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import inra.ijpb.morphology.Morphology.Operation;
+
+/**
+ * @author dlegland
+ *
+ */
+public class SlidingStrelBatchTest
+{
+    /**
+     * Checks the values and the defaults of parsed arguments.
+     */
+    @Test
+    public final void testParseArguments()
+    {
+        SlidingStrelBatch batch = new SlidingStrelBatch();
+        batch.parseArguments(new String[] {"--input", "data/*.tif", "--output", "results",
+                "--op", "closing", "--engine", "Auto", "--radius", "2.5", "--jobs", "3"});
+        assertEquals("data/*.tif", batch.input);
+        assertEquals(new File("results"), batch.outputDir);
+        assertEquals(Operation.CLOSING, batch.operation);
+        assertEquals("auto", batch.engine);
+        assertEquals(2.5, batch.radius, 0.0);
+        assertEquals(3, batch.jobs);
+        assertEquals(new File("results", "batch-log.csv"), batch.logFile);
+    }
+
+    /**
+     * Checks that invalid arguments are rejected.
+     */
+    @Test
+    public final void testParseArguments_Invalid()
+    {
+        String[][] argLists = new String[][] {
+            {"--input", "data"},
+            {"--input", "data", "--output"},
+            {"--input", "data", "--output", "results", "--size", "3"},
+            {"--input", "data", "--output", "results", "--engine", "fast"},
+            {"--input", "data", "--output", "results", "--op", "smoothing"},
+            {"--input", "data", "--output", "results", "--radius", "large"},
+            {"--input", "data", "--output", "results", "--jobs", "0"},
+        };
+        for (String[] args : argLists)
+        {
+            try
+            {
+                new SlidingStrelBatch().parseArguments(args);
+                fail("Arguments should be rejected: " + Arrays.toString(args));
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Checks the files listed from a directory and from a glob pattern, and
+     * that a missing directory is rejected.
+     */
+    @Test
+    public final void testListFiles() throws IOException
+    {
+        File dir = Files.createTempDirectory("batch").toFile();
+        File subDir = new File(dir, "sub");
+        try
+        {
+            for (String name : new String[] {"b.tif", "a.tif", "c.png"})
+            {
+                assertTrue(new File(dir, name).createNewFile());
+            }
+            assertTrue(subDir.mkdir());
+
+            List<File> files = SlidingStrelBatch.listFiles(dir.getPath());
+            assertEquals(Arrays.asList(new File(dir, "a.tif"), new File(dir, "b.tif"), new File(dir, "c.png")), files);
+
+            files = SlidingStrelBatch.listFiles(new File(dir, "*.tif").getPath());
+            assertEquals(Arrays.asList(new File(dir, "a.tif"), new File(dir, "b.tif")), files);
+
+            try
+            {
+                SlidingStrelBatch.listFiles(new File(new File(dir, "missing"), "*.tif").getPath());
+                fail("Missing directory should be rejected");
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            for (File file : dir.listFiles())
+            {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Checks that input files resulting in the same output file are rejected.
+     */
+    @Test
+    public final void testCheckOutputNames()
+    {
+        SlidingStrelBatch batch = new SlidingStrelBatch();
+        batch.operation = Operation.DILATION;
+        assertEquals("a.b-dilation.tif", batch.outputName(new File("data", "a.b.tif")));
+        batch.checkOutputNames(Arrays.asList(new File("a.tif"), new File("b.tif"), new File("a b.tif")));
+
+        try
+        {
+            batch.checkOutputNames(Arrays.asList(new File("a.tif"), new File("b.tif"), new File("A.png")));
+            fail("Files with the same name and different extensions should be rejected");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // expected
+        }
+    }
+}
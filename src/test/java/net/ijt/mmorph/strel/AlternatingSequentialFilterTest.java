@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class AlternatingSequentialFilterTest
+{
+    /**
+     * Checks that the filter gives the same result as successive openings and
+     * closings by disks, for grayscale, float and color images.
+     */
+    @Test
+    public final void testProcess()
+    {
+        Random random = new Random(41);
+        ImageProcessor gray = new ByteProcessor(50, 40);
+        ImageProcessor floats = new FloatProcessor(50, 40);
+        ImageProcessor color = new ColorProcessor(50, 40);
+        for (int i = 0; i < 50 * 40; i++)
+        {
+            gray.set(i, random.nextInt(256));
+            floats.setf(i, (float) random.nextGaussian());
+            color.set(i, random.nextInt(0x1000000));
+        }
+
+        AlternatingSequentialFilter filter = new AlternatingSequentialFilter(7);
+        filter.setThreadCount(3);
+        for (ImageProcessor image : new ImageProcessor[] {gray, floats, color})
+        {
+            ImageProcessor exp = image;
+            for (int r = 1; r <= 7; r++)
+            {
+                SlidingDiskStrel strel = new SlidingDiskStrel(r);
+                exp = strel.closing(strel.opening(exp));
+            }
+
+            ImageProcessor target = image.createProcessor(50, 40);
+            for (int iter = 0; iter < 2; iter++)
+            {
+                assertSame(target, filter.process(image, target));
+                for (int i = 0; i < 50 * 40; i++)
+                {
+                    assertEquals(exp.getf(i), target.getf(i), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the filter with the closing applied first.
+     */
+    @Test
+    public final void testProcess_ClosingFirst()
+    {
+        Random random = new Random(42);
+        ImageProcessor image = new ByteProcessor(40, 150);
+        for (int i = 0; i < 40 * 150; i++)
+        {
+            image.set(i, random.nextInt(256));
+        }
+
+        ImageProcessor exp = image;
+        for (int r = 1; r <= 3; r++)
+        {
+            SlidingDiskStrel strel = new SlidingDiskStrel(r);
+            exp = strel.opening(strel.closing(exp));
+        }
+
+        AlternatingSequentialFilter filter = new AlternatingSequentialFilter(3);
+        filter.setOpeningFirst(false);
+        ImageProcessor res = filter.process(image);
+        for (int i = 0; i < 40 * 150; i++)
+        {
+            assertEquals(exp.get(i), res.get(i));
+        }
+    }
+
+    /**
+     * Checks the filter of a 3D image.
+     */
+    @Test
+    public final void testProcess_Stack()
+    {
+        Random random = new Random(43);
+        ImageStack image = ImageStack.create(20, 18, 40, 32);
+        for (int z = 0; z < 40; z++)
+        {
+            for (int y = 0; y < 18; y++)
+            {
+                for (int x = 0; x < 20; x++)
+                {
+                    image.setVoxel(x, y, z, random.nextFloat());
+                }
+            }
+        }
+
+        ImageStack exp = image;
+        for (int r = 1; r <= 2; r++)
+        {
+            SlidingBallStrel3D strel = new SlidingBallStrel3D(r);
+            exp = strel.closing(strel.opening(exp));
+        }
+
+        AlternatingSequentialFilter3D filter = new AlternatingSequentialFilter3D(2);
+        ImageStack res = filter.process(image);
+        for (int z = 0; z < 40; z++)
+        {
+            for (int y = 0; y < 18; y++)
+            {
+                for (int x = 0; x < 20; x++)
+                {
+                    assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class BitPackedBinaryEngineTest
+{
+    /**
+     * Test method for {@link net.ijt.mmorph.strel.BitPackedBinaryEngine#isBinary(ij.process.ByteProcessor)}.
+     */
+    @Test
+    public final void testIsBinary()
+    {
+        ByteProcessor array = new ByteProcessor(10, 10);
+        assertTrue(BitPackedBinaryEngine.isBinary(array));
+
+        array.set(3, 4, 255);
+        assertTrue(BitPackedBinaryEngine.isBinary(array));
+
+        array.set(5, 6, 120);
+        assertFalse(BitPackedBinaryEngine.isBinary(array));
+    }
+
+    /**
+     * Compares dilation and erosion of a random binary image using sliding and
+     * naive disk structuring elements.
+     */
+    @Test
+    public final void testDilationErosion_Disk()
+    {
+        // use a width that is not a multiple of 64
+        ByteProcessor array = createRandomBinaryImage(150, 40, 0.02, 1);
+
+        for (int radius = 1; radius <= 12; radius++)
+        {
+            Strel strel = new SlidingDiskStrel(radius);
+            Strel naive = new NaiveDiskStrel(radius);
+
+            assertSameImage(naive.dilation(array), strel.dilation(array));
+            assertSameImage(naive.erosion(invert(array)), strel.erosion(invert(array)));
+        }
+    }
+
+    /**
+     * Compares dilation and erosion of a random binary 3D image using sliding
+     * and naive ball structuring elements.
+     */
+    @Test
+    public final void testDilationErosion_Ball()
+    {
+        ImageStack array = ImageStack.create(70, 15, 12, 8);
+        for (int z = 0; z < 12; z++)
+        {
+            array.setPixels(createRandomBinaryImage(70, 15, 0.01, z).getPixels(), z + 1);
+        }
+
+        for (int radius = 1; radius <= 4; radius++)
+        {
+            Strel3D strel = new SlidingBallStrel3D(radius);
+            Strel3D naive = new NaiveBallStrel3D(radius);
+
+            ImageStack exp = naive.dilation(array);
+            ImageStack res = strel.dilation(array);
+            for (int z = 0; z < 12; z++)
+            {
+                assertSameImage(exp.getProcessor(z + 1), res.getProcessor(z + 1));
+            }
+        }
+    }
+
+    private static final ByteProcessor createRandomBinaryImage(int sizeX, int sizeY, double density, long seed)
+    {
+        Random random = new Random(seed);
+        ByteProcessor array = new ByteProcessor(sizeX, sizeY);
+        for (int i = 0; i < sizeX * sizeY; i++)
+        {
+            array.set(i, random.nextDouble() < density ? 255 : 0);
+        }
+        return array;
+    }
+
+    private static final ByteProcessor invert(ByteProcessor array)
+    {
+        ByteProcessor res = new ByteProcessor(array.getWidth(), array.getHeight());
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            res.set(i, 255 - array.get(i));
+        }
+        return res;
+    }
+
+    private static final void assertSameImage(ImageProcessor exp, ImageProcessor res)
+    {
+        assertEquals(exp.getWidth(), res.getWidth());
+        assertEquals(exp.getHeight(), res.getHeight());
+        for (int i = 0; i < exp.getPixelCount(); i++)
+        {
+            assertEquals(exp.get(i), res.get(i));
+        }
+    }
+}
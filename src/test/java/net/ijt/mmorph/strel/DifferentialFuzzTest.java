@@ -0,0 +1,818 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * Randomized differential tests, that compare the results of sliding
+ * structuring elements with the results of naive structuring elements with the
+ * same shape.
+ *
+ * Test cases cover random image sizes (including images smaller than the
+ * structuring element), radii, bit depths (including RGB images processed by
+ * channels) and contents (noise, flat zones, binary images, and floating point
+ * values containing NaN and infinities), in order to exercise each engine and
+ * each type of local histogram. Besides dilations and erosions, cases cover
+ * the fused top-hats and the alternating sequential filters, processed within
+ * one thread or several. A failing case is shrunk to a minimal reproducer
+ * before being reported.
+ *
+ * The number of cases and the seed can be changed with the
+ * <code>net.ijt.mmorph.fuzz.iterations</code> and
+ * <code>net.ijt.mmorph.fuzz.seed</code> system properties.
+ *
+ * @author dlegland
+ *
+ */
+public class DifferentialFuzzTest
+{
+    // ==================================================
+    // Static variables
+
+    static final int ITERATIONS = Integer.getInteger("net.ijt.mmorph.fuzz.iterations", 200);
+
+    static final long SEED = Long.getLong("net.ijt.mmorph.fuzz.seed", 42);
+
+    /**
+     * The sliding implementations compared with the naive ones.
+     */
+    static final String[] ENGINES_2D = new String[] {"SlidingDisk", "SlidingDiskTM", "SlidingMask", "SlidingEllipse"};
+    static final String[] ENGINES_3D = new String[] {"SlidingBall", "SlidingMask3D", "SlidingEllipsoid"};
+
+    /**
+     * The operations computed by the sliding implementations. ASF stands for
+     * the alternating sequential filter, whose radius is the maximal one.
+     */
+    static final String[] OPERATIONS = new String[] {"Dilation", "Erosion", "WhiteTopHat", "BlackTopHat", "ASF"};
+
+    /**
+     * The number of threads of the multi-threaded cases.
+     */
+    static final int THREADS = 4;
+
+
+    // ==================================================
+    // Inner class
+
+    /**
+     * A test case: an image with two or three dimensions, a radius, an
+     * engine, an operation and a number of threads.
+     */
+    static class Case
+    {
+        int[] dims;
+        int bitDepth;
+        double radius;
+        String engine;
+        String operation;
+        int threads = 1;
+
+        /**
+         * The values of the pixels, x varying first.
+         */
+        double[] values;
+
+        Case copy()
+        {
+            Case res = new Case();
+            res.dims = this.dims.clone();
+            res.bitDepth = this.bitDepth;
+            res.radius = this.radius;
+            res.engine = this.engine;
+            res.operation = this.operation;
+            res.threads = this.threads;
+            res.values = this.values.clone();
+            return res;
+        }
+
+        /**
+         * Extracts a channel of a color case as an 8-bits case.
+         */
+        Case channel(int shift)
+        {
+            Case res = copy();
+            res.bitDepth = 8;
+            for (int i = 0; i < this.values.length; i++)
+            {
+                res.values[i] = ((int) this.values[i] >> shift) & 0x00FF;
+            }
+            return res;
+        }
+
+        boolean is3D()
+        {
+            return this.dims.length == 3;
+        }
+
+        int sizeZ()
+        {
+            return is3D() ? this.dims[2] : 1;
+        }
+
+        /**
+         * Removes the plane at the specified index along a dimension.
+         */
+        Case removePlane(int dim, int index)
+        {
+            Case res = copy();
+            res.dims[dim]--;
+            res.values = new double[this.values.length / this.dims[dim] * res.dims[dim]];
+            int[] pos = new int[3];
+            int i2 = 0;
+            for (pos[2] = 0; pos[2] < sizeZ(); pos[2]++)
+            {
+                for (pos[1] = 0; pos[1] < this.dims[1]; pos[1]++)
+                {
+                    for (pos[0] = 0; pos[0] < this.dims[0]; pos[0]++)
+                    {
+                        if (pos[dim] != index)
+                        {
+                            res.values[i2++] = this.values[(pos[2] * this.dims[1] + pos[1]) * this.dims[0] + pos[0]];
+                        }
+                    }
+                }
+            }
+            return res;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%s %s, radius %s, bit depth %d, %d thread(s), size %s%n", this.engine,
+                    this.operation, this.radius, this.bitDepth, this.threads,
+                    java.util.Arrays.toString(this.dims)));
+            int sizeX = this.dims[0];
+            int sizeY = this.dims[1];
+            for (int z = 0; z < sizeZ(); z++)
+            {
+                if (is3D())
+                {
+                    sb.append(String.format("z = %d%n", z));
+                }
+                for (int y = 0; y < sizeY; y++)
+                {
+                    for (int x = 0; x < sizeX; x++)
+                    {
+                        double v = this.values[(z * sizeY + y) * sizeX + x];
+                        switch (this.bitDepth)
+                        {
+                        case 24: sb.append(String.format(" %06x", (int) v)); break;
+                        case 32: sb.append(String.format(" %10.4g", v)); break;
+                        default: sb.append(String.format(" %5d", (int) v)); break;
+                        }
+                    }
+                    sb.append(String.format("%n"));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+
+    // ==================================================
+    // Test methods
+
+    /**
+     * Compares sliding and naive disk structuring elements on random planar
+     * images.
+     */
+    @Test
+    public final void testPlanarEngines()
+    {
+        Random random = new Random(SEED);
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            checkCase(randomCase(random, false));
+        }
+    }
+
+    /**
+     * Compares sliding and naive ball structuring elements on random 3D
+     * images.
+     */
+    @Test
+    public final void test3DEngines()
+    {
+        Random random = new Random(SEED + 1);
+        for (int i = 0; i < ITERATIONS / 4; i++)
+        {
+            checkCase(randomCase(random, true));
+        }
+    }
+
+    /**
+     * Checks that a failing case is shrunk to a smaller failing case.
+     */
+    @Test
+    public final void testShrink()
+    {
+        Case c = new Case();
+        c.dims = new int[] {6, 5};
+        c.bitDepth = 8;
+        c.radius = 1;
+        c.engine = "SlidingDisk";
+        c.operation = "Dilation";
+        c.values = new double[30];
+        c.values[13] = 200;
+        c.values[22] = 100;
+
+        // a property that fails as soon as the image contains the value 200
+        Case res = shrink(c, c2 -> {
+            for (double v : c2.values)
+            {
+                if (v == 200)
+                {
+                    return "contains 200";
+                }
+            }
+            return null;
+        });
+
+        assertEquals(1, res.values.length);
+        assertEquals(200, res.values[0], 0.0);
+    }
+
+
+    // ==================================================
+    // Generation of test cases
+
+    private static final Case randomCase(Random random, boolean is3D)
+    {
+        Case c = new Case();
+        c.engine = is3D ? ENGINES_3D[random.nextInt(ENGINES_3D.length)] : ENGINES_2D[random.nextInt(ENGINES_2D.length)];
+        c.threads = random.nextBoolean() ? 1 : THREADS;
+
+        // operation supported by the engine, the alternating sequential
+        // filters being made of sliding disks or balls
+        boolean topHats = !c.engine.equals("SlidingDiskTM");
+        boolean asf = c.engine.equals("SlidingDisk") || c.engine.equals("SlidingBall");
+        c.operation = OPERATIONS[random.nextInt(asf ? 5 : topHats ? 4 : 2)];
+
+        // choose the type of content, binary images being processed by specific engines
+        int content = random.nextInt(4);
+        boolean binary = content == 0;
+
+        // radius, including radii larger than the image, and occasionally
+        // the large radii that switch binary images to distance maps
+        if (c.operation.equals("ASF"))
+        {
+            c.radius = 1 + random.nextInt(is3D ? 2 : 3);
+        }
+        else if (binary && random.nextInt(8) == 0 && !c.engine.equals("SlidingDiskTM"))
+        {
+            c.radius = (is3D ? AbstractSlidingStrel3D.DISTANCE_TRANSFORM_MIN_RADIUS
+                    : AbstractSlidingStrel.DISTANCE_TRANSFORM_MIN_RADIUS) + random.nextInt(3);
+        }
+        else
+        {
+            c.radius = random.nextInt(is3D ? 15 : 25) * 0.5;
+        }
+
+        // image size, occasionally smaller than the structuring element
+        int maxSize = c.radius > 20 ? 10 : is3D ? 12 : 30;
+        c.dims = is3D ? new int[3] : new int[2];
+        for (int d = 0; d < c.dims.length; d++)
+        {
+            c.dims[d] = 1 + random.nextInt(maxSize);
+        }
+
+        // bit depth supported by the engine
+        if (binary)
+        {
+            c.bitDepth = 8;
+        }
+        else if (c.engine.equals("SlidingDiskTM"))
+        {
+            c.bitDepth = random.nextBoolean() ? 8 : 32;
+        }
+        else if (is3D)
+        {
+            c.bitDepth = new int[] {8, 16, 32}[random.nextInt(3)];
+        }
+        else if (c.radius > ShiftedRowsEngine.MAX_RADIUS)
+        {
+            // planar 16-bit images are processed only for small radii
+            c.bitDepth = new int[] {8, 24, 32}[random.nextInt(3)];
+        }
+        else
+        {
+            c.bitDepth = new int[] {8, 16, 24, 32}[random.nextInt(4)];
+        }
+
+        int n = c.dims[0] * c.dims[1] * c.sizeZ();
+        c.values = new double[n];
+        int maxValue = c.bitDepth == 24 ? 0x00FFFFFF : c.bitDepth == 16 ? 65535 : 255;
+        for (int i = 0; i < n; i++)
+        {
+            if (binary)
+            {
+                c.values[i] = random.nextInt(4) == 0 ? 255 : 0;
+            }
+            else if (content == 1)
+            {
+                // flat zones made of few values
+                c.values[i] = random.nextInt(3) * (maxValue / 2);
+            }
+            else if (c.bitDepth == 32)
+            {
+                c.values[i] = randomFloat(random, content == 3);
+            }
+            else
+            {
+                c.values[i] = random.nextInt(maxValue + 1);
+            }
+        }
+        return c;
+    }
+
+    private static final double randomFloat(Random random, boolean special)
+    {
+        if (special)
+        {
+            switch (random.nextInt(8))
+            {
+            case 0: return Float.NaN;
+            case 1: return Float.POSITIVE_INFINITY;
+            case 2: return Float.NEGATIVE_INFINITY;
+            case 3: return -0.0f;
+            default: break;
+            }
+        }
+        return (float) (random.nextGaussian() * 100);
+    }
+
+
+    // ==================================================
+    // Evaluation of test cases
+
+    /**
+     * Interface for the property checked on test cases.
+     */
+    interface Property
+    {
+        /**
+         * @return a description of the failure, or null if the case passes
+         */
+        public String check(Case c);
+    }
+
+    private static final void checkCase(Case c)
+    {
+        String failure = compare(c);
+        if (failure != null)
+        {
+            Case minimal = shrink(c, DifferentialFuzzTest::compare);
+            fail("Sliding and naive results differ (" + compare(minimal) + ") for the minimal case:\n" + minimal);
+        }
+    }
+
+    /**
+     * Computes the result of a case with the sliding and the naive
+     * implementations.
+     *
+     * @return a description of the first differing pixel, or null if results
+     *         are the same
+     */
+    private static final String compare(Case c)
+    {
+        double[] exp = expected(c);
+        double[] res = c.is3D() ? values(computed3D(c)) : values(computed2D(c));
+
+        for (int i = 0; i < exp.length; i++)
+        {
+            if (Double.compare(exp[i], res[i]) != 0 && !(exp[i] == 0 && res[i] == 0))
+            {
+                int x = i % c.dims[0];
+                int y = (i / c.dims[0]) % c.dims[1];
+                int z = i / (c.dims[0] * c.dims[1]);
+                return String.format("at (%d,%d,%d): expected %s, computed %s", x, y, z, exp[i], res[i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the result of a case with the sliding implementations.
+     */
+    private static final ImageProcessor computed2D(Case c)
+    {
+        ImageProcessor image = createProcessor(c);
+        if (c.operation.equals("ASF"))
+        {
+            AlternatingSequentialFilter filter = new AlternatingSequentialFilter(maxRadius(c));
+            filter.setThreadCount(c.threads);
+            return filter.process(image);
+        }
+
+        Strel strel = createStrel2D(c);
+        switch (c.operation)
+        {
+        case "Dilation": return strel.dilation(image);
+        case "Erosion": return strel.erosion(image);
+        case "WhiteTopHat": return ((AbstractSlidingStrel) strel).whiteTopHat(image);
+        case "BlackTopHat": return ((AbstractSlidingStrel) strel).blackTopHat(image);
+        default:
+            throw new RuntimeException("Unknown operation: " + c.operation);
+        }
+    }
+
+    /**
+     * Computes the result of a 3D case with the sliding implementations.
+     */
+    private static final ImageStack computed3D(Case c)
+    {
+        ImageStack image = createStack(c);
+        if (c.operation.equals("ASF"))
+        {
+            AlternatingSequentialFilter3D filter = new AlternatingSequentialFilter3D(maxRadius(c));
+            filter.setThreadCount(c.threads);
+            return filter.process(image);
+        }
+
+        AbstractSlidingStrel3D strel = createStrel3D(c);
+        switch (c.operation)
+        {
+        case "Dilation": return strel.dilation(image);
+        case "Erosion": return strel.erosion(image);
+        case "WhiteTopHat": return strel.whiteTopHat(image);
+        case "BlackTopHat": return strel.blackTopHat(image);
+        default:
+            throw new RuntimeException("Unknown operation: " + c.operation);
+        }
+    }
+
+    /**
+     * Computes the result of a case with the naive implementations. Color
+     * images are processed by channels.
+     */
+    private static final double[] expected(Case c)
+    {
+        if (c.bitDepth == 24)
+        {
+            double[] res = new double[c.values.length];
+            for (int shift = 0; shift < 24; shift += 8)
+            {
+                double[] channel = expected(c.channel(shift));
+                for (int i = 0; i < res.length; i++)
+                {
+                    res[i] += ((int) channel[i]) << shift;
+                }
+            }
+            return res;
+        }
+
+        if (c.is3D())
+        {
+            UnaryOperator<ImageStack> dilation;
+            UnaryOperator<ImageStack> erosion;
+            if (c.engine.equals("SlidingEllipsoid"))
+            {
+                int[][] shifts = createStrel3D(c).getShifts3D();
+                dilation = image -> naiveFilter(image, shifts, true);
+                erosion = image -> naiveFilter(image, shifts, false);
+            }
+            else
+            {
+                NaiveBallStrel3D naive = new NaiveBallStrel3D(c.radius);
+                dilation = naive::dilation;
+                erosion = naive::erosion;
+            }
+
+            ImageStack image = createStack(c);
+            switch (c.operation)
+            {
+            case "Dilation": return values(dilation.apply(image));
+            case "Erosion": return values(erosion.apply(image));
+            case "WhiteTopHat": return difference(c, values(image), values(dilation.apply(erosion.apply(image))));
+            case "BlackTopHat": return difference(c, values(erosion.apply(dilation.apply(image))), values(image));
+            default: break;
+            }
+
+            // opening and closing for each radius
+            for (int r = 1; r <= maxRadius(c); r++)
+            {
+                NaiveBallStrel3D naive = new NaiveBallStrel3D(r);
+                image = naive.dilation(naive.erosion(image));
+                image = naive.erosion(naive.dilation(image));
+            }
+            return values(image);
+        }
+
+        UnaryOperator<ImageProcessor> dilation;
+        UnaryOperator<ImageProcessor> erosion;
+        if (c.engine.equals("SlidingEllipse"))
+        {
+            int[][] shifts = createStrel2D(c).getShifts();
+            dilation = image -> naiveFilter(image, shifts, true);
+            erosion = image -> naiveFilter(image, shifts, false);
+        }
+        else
+        {
+            NaiveDiskStrel naive = new NaiveDiskStrel(c.radius);
+            dilation = naive::dilation;
+            erosion = naive::erosion;
+        }
+
+        ImageProcessor image = createProcessor(c);
+        switch (c.operation)
+        {
+        case "Dilation": return values(dilation.apply(image));
+        case "Erosion": return values(erosion.apply(image));
+        case "WhiteTopHat": return difference(c, values(image), values(dilation.apply(erosion.apply(image))));
+        case "BlackTopHat": return difference(c, values(erosion.apply(dilation.apply(image))), values(image));
+        default: break;
+        }
+
+        // opening and closing for each radius
+        for (int r = 1; r <= maxRadius(c); r++)
+        {
+            NaiveDiskStrel naive = new NaiveDiskStrel(r);
+            image = naive.dilation(naive.erosion(image));
+            image = naive.erosion(naive.dilation(image));
+        }
+        return values(image);
+    }
+
+    /**
+     * Computes the difference of two images, using float arithmetic for
+     * floating point images.
+     */
+    private static final double[] difference(Case c, double[] values1, double[] values2)
+    {
+        double[] res = new double[values1.length];
+        for (int i = 0; i < res.length; i++)
+        {
+            res[i] = c.bitDepth == 32 ? (float) values1[i] - (float) values2[i] : values1[i] - values2[i];
+        }
+        return res;
+    }
+
+    /**
+     * The maximal radius of alternating sequential filters, at least 1.
+     */
+    private static final int maxRadius(Case c)
+    {
+        return Math.max((int) c.radius, 1);
+    }
+
+    private static final Strel createStrel2D(Case c)
+    {
+        Strel strel;
+        switch (c.engine)
+        {
+        case "SlidingDisk": strel = new SlidingDiskStrel(c.radius); break;
+        case "SlidingDiskTM": return new SlidingDiskTMStrel(c.radius);
+        case "SlidingMask": strel = new SlidingMaskStrel(new NaiveDiskStrel(c.radius)); break;
+        case "SlidingEllipse": strel = new SlidingEllipseStrel(c.radius, c.radius / 2); break;
+        default:
+            throw new RuntimeException("Unknown engine: " + c.engine);
+        }
+        ((AbstractSlidingStrel) strel).setThreadCount(c.threads);
+        return strel;
+    }
+
+    private static final AbstractSlidingStrel3D createStrel3D(Case c)
+    {
+        AbstractSlidingStrel3D strel;
+        switch (c.engine)
+        {
+        case "SlidingBall": strel = new SlidingBallStrel3D(c.radius); break;
+        case "SlidingMask3D": strel = new SlidingMaskStrel3D(new NaiveBallStrel3D(c.radius)); break;
+        case "SlidingEllipsoid": strel = new SlidingEllipsoidStrel3D(c.radius, c.radius / 2, c.radius * 0.75); break;
+        default:
+            throw new RuntimeException("Unknown engine: " + c.engine);
+        }
+        strel.setThreadCount(c.threads);
+        return strel;
+    }
+
+    /**
+     * Naive dilation or erosion of a planar image by a set of shifts, used as
+     * reference for the shapes without naive implementation.
+     */
+    private static final ImageProcessor naiveFilter(ImageProcessor image, int[][] shifts, boolean dilation)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        boolean floating = image instanceof FloatProcessor;
+        float neutral = floating ? (dilation ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY)
+                : (dilation ? 0 : image instanceof ShortProcessor ? 65535 : 255);
+
+        ImageProcessor res = image.createProcessor(sizeX, sizeY);
+        for (int y = 0; y < sizeY; y++)
+        {
+            for (int x = 0; x < sizeX; x++)
+            {
+                float value = neutral;
+                for (int[] shift : shifts)
+                {
+                    int x2 = x + shift[0];
+                    int y2 = y + shift[1];
+                    if (x2 >= 0 && x2 < sizeX && y2 >= 0 && y2 < sizeY)
+                    {
+                        float v = image.getf(x2, y2);
+                        value = dilation ? Math.max(value, v) : Math.min(value, v);
+                    }
+                }
+                res.setf(x, y, value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Naive dilation or erosion of a 3D image by a set of shifts, used as
+     * reference for the shapes without naive implementation.
+     */
+    private static final ImageStack naiveFilter(ImageStack image, int[][] shifts, boolean dilation)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        int sizeZ = image.getSize();
+        boolean floating = image.getBitDepth() == 32;
+        double maxValue = image.getBitDepth() == 16 ? 65535 : 255;
+        double neutral = floating ? (dilation ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY)
+                : (dilation ? 0 : maxValue);
+
+        ImageStack res = ImageStack.create(sizeX, sizeY, sizeZ, image.getBitDepth());
+        for (int z = 0; z < sizeZ; z++)
+        {
+            for (int y = 0; y < sizeY; y++)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    double value = neutral;
+                    for (int[] shift : shifts)
+                    {
+                        int x2 = x + shift[0];
+                        int y2 = y + shift[1];
+                        int z2 = z + shift[2];
+                        if (x2 >= 0 && x2 < sizeX && y2 >= 0 && y2 < sizeY && z2 >= 0 && z2 < sizeZ)
+                        {
+                            double v = image.getVoxel(x2, y2, z2);
+                            value = dilation ? Math.max(value, v) : Math.min(value, v);
+                        }
+                    }
+                    res.setVoxel(x, y, z, value);
+                }
+            }
+        }
+        return res;
+    }
+
+    private static final ImageProcessor createProcessor(Case c)
+    {
+        int sizeX = c.dims[0];
+        int sizeY = c.dims[1];
+        ImageProcessor image;
+        switch (c.bitDepth)
+        {
+        case 8: image = new ByteProcessor(sizeX, sizeY); break;
+        case 16: image = new ShortProcessor(sizeX, sizeY); break;
+        case 24: image = new ColorProcessor(sizeX, sizeY); break;
+        default: image = new FloatProcessor(sizeX, sizeY); break;
+        }
+        for (int i = 0; i < c.values.length; i++)
+        {
+            if (c.bitDepth == 24)
+            {
+                image.set(i % sizeX, i / sizeX, (int) c.values[i]);
+            }
+            else
+            {
+                image.setf(i % sizeX, i / sizeX, (float) c.values[i]);
+            }
+        }
+        return image;
+    }
+
+    private static final ImageStack createStack(Case c)
+    {
+        int sizeX = c.dims[0];
+        int sizeY = c.dims[1];
+        ImageStack image = ImageStack.create(sizeX, sizeY, c.dims[2], c.bitDepth);
+        for (int i = 0; i < c.values.length; i++)
+        {
+            image.setVoxel(i % sizeX, (i / sizeX) % sizeY, i / (sizeX * sizeY), c.values[i]);
+        }
+        return image;
+    }
+
+    private static final double[] values(ImageProcessor image)
+    {
+        int sizeX = image.getWidth();
+        double[] values = new double[sizeX * image.getHeight()];
+        for (int i = 0; i < values.length; i++)
+        {
+            if (image instanceof ColorProcessor)
+            {
+                values[i] = image.get(i % sizeX, i / sizeX) & 0x00FFFFFF;
+            }
+            else
+            {
+                values[i] = image.getf(i % sizeX, i / sizeX);
+            }
+        }
+        return values;
+    }
+
+    private static final double[] values(ImageStack image)
+    {
+        int sizeX = image.getWidth();
+        int sizeY = image.getHeight();
+        double[] values = new double[sizeX * sizeY * image.getSize()];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = image.getVoxel(i % sizeX, (i / sizeX) % sizeY, i / (sizeX * sizeY));
+        }
+        return values;
+    }
+
+
+    // ==================================================
+    // Shrinking of failing cases
+
+    /**
+     * Greedily simplifies a failing case, by removing rows, columns and
+     * slices, decreasing the radius and setting pixel values to zero, as long
+     * as the property still fails.
+     *
+     * @param c
+     *            the failing case
+     * @param property
+     *            the property that fails for the case
+     * @return a case that fails and that can not be simplified further
+     */
+    static final Case shrink(Case c, Property property)
+    {
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+
+            // remove planes along each dimension
+            for (int d = 0; d < c.dims.length && !changed; d++)
+            {
+                for (int i = 0; i < c.dims[d] && c.dims[d] > 1 && !changed; i++)
+                {
+                    Case c2 = c.removePlane(d, i);
+                    if (property.check(c2) != null)
+                    {
+                        c = c2;
+                        changed = true;
+                    }
+                }
+            }
+            if (changed)
+            {
+                continue;
+            }
+
+            // decrease the radius
+            if (c.radius >= 0.5)
+            {
+                Case c2 = c.copy();
+                c2.radius = Math.max(c.radius > 20 ? Math.floor(c.radius / 2) : c.radius - 0.5, 0);
+                if (property.check(c2) != null)
+                {
+                    c = c2;
+                    changed = true;
+                    continue;
+                }
+            }
+
+            // simplify pixel values
+            for (int i = 0; i < c.values.length && !changed; i++)
+            {
+                if (c.values[i] != 0)
+                {
+                    Case c2 = c.copy();
+                    c2.values[i] = 0;
+                    if (property.check(c2) != null)
+                    {
+                        c = c2;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return c;
+    }
+}
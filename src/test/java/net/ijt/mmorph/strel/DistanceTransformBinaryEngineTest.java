@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class DistanceTransformBinaryEngineTest
+{
+    /**
+     * Test method for {@link net.ijt.mmorph.strel.DistanceTransformBinaryEngine#squaredRadius(int[], int[], int[])}.
+     */
+    @Test
+    public final void testSquaredRadius_Disk()
+    {
+        SlidingDiskStrel strel = new SlidingDiskStrel(5.0);
+        int[] zOffsets = new int[strel.xOffsets.length];
+
+        int squaredRadius = DistanceTransformBinaryEngine.squaredRadius(strel.xOffsets, strel.yOffsets, zOffsets);
+
+        // (5 + 0.5)^2 = 30.25, and no integer offset has squared norm 30
+        assertEquals(29, squaredRadius);
+    }
+
+    /**
+     * Test method for {@link net.ijt.mmorph.strel.DistanceTransformBinaryEngine#squaredRadius(int[], int[], int[])}.
+     */
+    @Test
+    public final void testSquaredRadius_NotABall()
+    {
+        // a cross with a longer horizontal branch
+        int[] xOffsets = new int[] {0, 2, 0};
+        int[] yOffsets = new int[] {-1, 0, 1};
+        int[] zOffsets = new int[3];
+
+        assertEquals(-1, DistanceTransformBinaryEngine.squaredRadius(xOffsets, yOffsets, zOffsets));
+    }
+
+    /**
+     * Compares dilation and erosion of a random binary image with the results
+     * obtained with bit-packed rows.
+     */
+    @Test
+    public final void testDilationErosion_Disk()
+    {
+        ByteProcessor array = new ByteProcessor(90, 70);
+        Random random = new Random(1);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            array.set(i, random.nextDouble() < 0.01 ? 255 : 0);
+        }
+
+        for (double radius = 0.0; radius < 25; radius += 0.7)
+        {
+            SlidingDiskStrel strel = new SlidingDiskStrel(radius);
+            int[] zOffsets = new int[strel.xOffsets.length];
+            int squaredRadius = DistanceTransformBinaryEngine.squaredRadius(strel.xOffsets, strel.yOffsets, zOffsets);
+            assertTrue(squaredRadius >= 0);
+
+            DistanceTransformBinaryEngine engine = new DistanceTransformBinaryEngine(squaredRadius);
+            BitPackedBinaryEngine ref = new BitPackedBinaryEngine(strel.xOffsets, strel.yOffsets);
+
+            ByteProcessor exp = ref.dilation(array);
+            ByteProcessor res = engine.dilation(array);
+            for (int i = 0; i < array.getPixelCount(); i++)
+            {
+                assertEquals(exp.get(i), res.get(i));
+            }
+
+            exp = ref.erosion(exp);
+            res = engine.erosion(res);
+            for (int i = 0; i < array.getPixelCount(); i++)
+            {
+                assertEquals(exp.get(i), res.get(i));
+            }
+        }
+    }
+
+    /**
+     * Compares dilation and erosion of a random binary 3D image with the
+     * results obtained with bit-packed rows.
+     */
+    @Test
+    public final void testDilationErosion_Ball()
+    {
+        ImageStack array = ImageStack.create(30, 25, 20, 8);
+        Random random = new Random(1);
+        for (int z = 0; z < 20; z++)
+        {
+            for (int i = 0; i < 30 * 25; i++)
+            {
+                array.getProcessor(z + 1).set(i, random.nextDouble() < 0.005 ? 255 : 0);
+            }
+        }
+
+        for (int radius = 1; radius < 8; radius++)
+        {
+            SlidingBallStrel3D strel = new SlidingBallStrel3D(radius);
+            int squaredRadius = DistanceTransformBinaryEngine.squaredRadius(strel.xOffsets, strel.yOffsets, strel.zOffsets);
+            assertTrue(squaredRadius >= 0);
+
+            DistanceTransformBinaryEngine engine = new DistanceTransformBinaryEngine(squaredRadius);
+            BitPackedBinaryEngine ref = new BitPackedBinaryEngine(strel.xOffsets, strel.yOffsets, strel.zOffsets);
+
+            ImageStack exp = ref.dilation(array);
+            ImageStack res = engine.dilation(array);
+            assertSameStack(exp, res);
+
+            assertSameStack(ref.erosion(exp), engine.erosion(res));
+        }
+    }
+
+    private static final void assertSameStack(ImageStack exp, ImageStack res)
+    {
+        for (int z = 1; z <= exp.getSize(); z++)
+        {
+            for (int i = 0; i < exp.getWidth() * exp.getHeight(); i++)
+            {
+                assertEquals(exp.getProcessor(z).get(i), res.getProcessor(z).get(i));
+            }
+        }
+    }
+
+    /**
+     * Checks that the progress of the operation is reported, until all the
+     * planes and rows are processed.
+     */
+    @Test
+    public final void testDilation_Progress()
+    {
+        ImageStack array = ImageStack.create(30, 25, 20, 8);
+        array.setVoxel(15, 12, 10, 255);
+
+        DistanceTransformBinaryEngine engine = new DistanceTransformBinaryEngine(9);
+        long[] reported = new long[] {-1, 0};
+        engine.setProgressListener((count, total) ->
+        {
+            assertTrue(count >= reported[0]);
+            reported[0] = count;
+            reported[1] = total;
+        });
+        engine.dilation(array);
+
+        // two scans of planes, one pass per slice, and one pass per row
+        assertEquals(2 * 20 + 20 + 20 * 25, reported[1]);
+        assertEquals(reported[1], reported[0]);
+    }
+}
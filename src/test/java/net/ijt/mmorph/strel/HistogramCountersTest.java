@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class HistogramCountersTest
+{
+    /**
+     * Checks the accumulation of pixel counts and peak key count.
+     */
+    @Test
+    public final void testUpdates()
+    {
+        HistogramCounters counters = new HistogramCounters("Dilation UInt8");
+        
+        for (int y = 0; y < 3; y++)
+        {
+            counters.beginInitialization();
+            counters.beginSliding(20);
+        }
+        counters.updateKeyCount(5);
+        counters.updateKeyCount(3);
+        counters.countRescan(10);
+        counters.countRescan(4);
+        counters.finish();
+        
+        assertEquals(60, counters.getPixelCount());
+        assertEquals(5, counters.getPeakKeyCount());
+        assertEquals(2, counters.getRescanCount());
+        assertEquals(14, counters.getRescanLength());
+        assertTrue(counters.getSlidingTime() >= 0);
+        assertTrue(counters.toString().startsWith("Dilation UInt8"));
+    }
+
+    /**
+     * Checks that listeners are notified at the end of the operation. Requires
+     * the "net.ijt.mmorph.counters" system property to be set.
+     */
+    @Test
+    public final void testListener_SlidingDiskStrel()
+    {
+        Assume.assumeTrue(HistogramCounters.ENABLED);
+        
+        ImageProcessor array = new ByteProcessor(30, 20);
+        array.set(15, 10, 200);
+        
+        SlidingDiskStrel strel = new SlidingDiskStrel(8.0);
+        final List<HistogramCounters> reports = new ArrayList<>();
+        strel.addCountersListener((source, counters) -> reports.add(counters));
+        strel.dilation(array);
+        
+        assertEquals(1, reports.size());
+        HistogramCounters counters = reports.get(0);
+        assertEquals(30 * 20, counters.getPixelCount());
+        assertTrue(counters.getReplaceCount() > 0);
+    }
+}
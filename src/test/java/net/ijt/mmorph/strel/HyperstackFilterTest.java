@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+
+/**
+ * @author dlegland
+ *
+ */
+public class HyperstackFilterTest
+{
+    /**
+     * Checks that each channel of each frame is processed as an independent
+     * volume.
+     */
+    @Test
+    public final void testProcess_Dilation()
+    {
+        int nChannels = 2;
+        int nSlices = 5;
+        int nFrames = 3;
+        Random random = new Random(5);
+        ImageStack stack = new ImageStack(20, 15);
+        for (int i = 0; i < nChannels * nSlices * nFrames; i++)
+        {
+            ImageProcessor slice = new ByteProcessor(20, 15);
+            for (int j = 0; j < 20 * 15; j++)
+            {
+                slice.set(j, random.nextInt(256));
+            }
+            stack.addSlice("slice" + i, slice);
+        }
+        ImagePlus image = new ImagePlus("hyperstack", stack);
+        image.setDimensions(nChannels, nSlices, nFrames);
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(2.5);
+        HyperstackFilter filter = new HyperstackFilter(strel);
+        filter.setThreadCount(4);
+        ImagePlus res = filter.process(image, Operation.DILATION);
+
+        assertEquals(nChannels, res.getNChannels());
+        assertEquals(nSlices, res.getNSlices());
+        assertEquals(nFrames, res.getNFrames());
+        for (int t = 1; t <= nFrames; t++)
+        {
+            for (int c = 1; c <= nChannels; c++)
+            {
+                ImageStack volume = new ImageStack(20, 15);
+                for (int z = 1; z <= nSlices; z++)
+                {
+                    volume.addSlice("", stack.getProcessor(image.getStackIndex(c, z, t)));
+                }
+                ImageStack exp = strel.dilation(volume);
+                for (int z = 1; z <= nSlices; z++)
+                {
+                    ImageProcessor expSlice = exp.getProcessor(z);
+                    ImageProcessor resSlice = res.getStack().getProcessor(image.getStackIndex(c, z, t));
+                    for (int j = 0; j < 20 * 15; j++)
+                    {
+                        assertEquals(expSlice.get(j), resSlice.get(j));
+                    }
+                }
+            }
+        }
+    }
+}
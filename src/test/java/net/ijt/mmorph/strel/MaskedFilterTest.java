@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+
+/**
+ * @author dlegland
+ *
+ */
+public class MaskedFilterTest
+{
+    /**
+     * Checks that the result within the mask is the same as the result of the
+     * operation on the whole image, and that the pixels outside of the mask
+     * are copied from the input image.
+     */
+    @Test
+    public final void testProcess_Mask()
+    {
+        Random random = new Random(31);
+        ImageProcessor image = new ByteProcessor(80, 60);
+        for (int i = 0; i < 80 * 60; i++)
+        {
+            image.set(i, random.nextInt(256));
+        }
+
+        // two distant components, and a single pixel
+        ImageProcessor mask = new ByteProcessor(80, 60);
+        for (int y = 5; y < 15; y++)
+        {
+            for (int x = 4; x < 20; x++)
+            {
+                mask.set(x, y, 255);
+            }
+        }
+        for (int y = 35; y < 55; y++)
+        {
+            for (int x = 50; x < 75; x++)
+            {
+                if ((x - 62) * (x - 62) + (y - 45) * (y - 45) < 80)
+                {
+                    mask.set(x, y, 255);
+                }
+            }
+        }
+        mask.set(70, 3, 255);
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(4.0);
+        MaskedFilter filter = new MaskedFilter(strel);
+        for (Operation op : new Operation[] {Operation.DILATION, Operation.EROSION, Operation.CLOSING, Operation.OPENING})
+        {
+            ImageProcessor exp = op.apply(image, strel);
+            ImageProcessor res = filter.process(image, mask, op);
+            for (int i = 0; i < 80 * 60; i++)
+            {
+                assertEquals(mask.get(i) != 0 ? exp.get(i) : image.get(i), res.get(i));
+            }
+        }
+    }
+
+    /**
+     * Checks that the masked operation within a 3D mask gives the same
+     * result as the operation on the whole image.
+     */
+    @Test
+    public final void testProcess_Mask3D()
+    {
+        Random random = new Random(32);
+        ImageStack image = ImageStack.create(30, 25, 20, 8);
+        ImageStack mask = ImageStack.create(30, 25, 20, 8);
+        for (int z = 0; z < 20; z++)
+        {
+            for (int y = 0; y < 25; y++)
+            {
+                for (int x = 0; x < 30; x++)
+                {
+                    image.setVoxel(x, y, z, random.nextInt(256));
+                    if (x > 20 && y < 8 && z > 12)
+                    {
+                        mask.setVoxel(x, y, z, 255);
+                    }
+                }
+            }
+        }
+        mask.setVoxel(3, 20, 2, 255);
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(2.0);
+        MaskedFilter3D filter = new MaskedFilter3D(strel);
+        ImageStack exp = strel.closing(image);
+        ImageStack res = filter.process(image, mask, Operation.CLOSING);
+        for (int z = 0; z < 20; z++)
+        {
+            for (int y = 0; y < 25; y++)
+            {
+                for (int x = 0; x < 30; x++)
+                {
+                    double expValue = mask.getVoxel(x, y, z) != 0 ? exp.getVoxel(x, y, z) : image.getVoxel(x, y, z);
+                    assertEquals(expValue, res.getVoxel(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author dlegland
+ *
+ */
+public class MemoryStreamingTest
+{
+    /**
+     * Checks that the rows copied for each band are counted within the
+     * memory used for processing the band.
+     */
+    @Test
+    public final void testSlabSize_PlaneCopy()
+    {
+        // 100 bytes per row, for an image of 100 rows
+        assertEquals(0, MemoryStreaming.slabSize(n -> n * 100L, 100, 0, 0, 100, 10_000));
+        assertEquals(50, MemoryStreaming.slabSize(n -> n * 100L, 100, 0, 0, 0, 5_000));
+        assertEquals(25, MemoryStreaming.slabSize(n -> n * 100L, 100, 0, 0, 100, 5_000));
+
+        // the halo rows are also copied
+        assertEquals(15, MemoryStreaming.slabSize(n -> n * 100L, 100, 5, 0, 100, 5_000));
+    }
+}
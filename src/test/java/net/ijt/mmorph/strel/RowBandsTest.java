@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author dlegland
+ *
+ */
+public class RowBandsTest
+{
+    /**
+     * Checks that each row is processed once, including when bands are
+     * processed within bands using more threads than the pool.
+     */
+    @Test
+    public final void testProcess_Nested()
+    {
+        int nThreads = 2 * Runtime.getRuntime().availableProcessors() + 1;
+        AtomicInteger[] counts = new AtomicInteger[50 * 40];
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = new AtomicInteger(0);
+        }
+
+        RowBands.process(50, nThreads, (y0, y1) ->
+        {
+            for (int y = y0; y < y1; y++)
+            {
+                final int row = y;
+                RowBands.process(40, nThreads, (x0, x1) ->
+                {
+                    for (int x = x0; x < x1; x++)
+                    {
+                        counts[row * 40 + x].incrementAndGet();
+                    }
+                });
+            }
+        });
+
+        for (AtomicInteger count : counts)
+        {
+            assertEquals(1, count.get());
+        }
+    }
+
+    /**
+     * Checks that repeated calls reuse the threads of the pool.
+     */
+    @Test
+    public final void testProcess_ReusesThreads()
+    {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        for (int iter = 0; iter < 20; iter++)
+        {
+            RowBands.process(100, 4, (y0, y1) -> threads.add(Thread.currentThread()));
+        }
+        assertTrue(threads.size() <= Runtime.getRuntime().availableProcessors() + 1);
+    }
+
+    /**
+     * Checks that an exception thrown by a band is propagated to the caller.
+     */
+    @Test
+    public final void testProcess_Exception()
+    {
+        try
+        {
+            RowBands.process(10, 3, (band, y0, y1) ->
+            {
+                if (band == 1)
+                {
+                    throw new IllegalStateException("band " + band);
+                }
+            });
+            fail("The exception of the band should be propagated");
+        }
+        catch (IllegalStateException ex)
+        {
+            assertEquals("band 1", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class ShiftedRowsEngineTest
+{
+    /**
+     * Compares dilation and erosion of 8-, 16- and 32-bits images with the
+     * results obtained with the naive disk.
+     */
+    @Test
+    public final void testDilationErosion_Disk()
+    {
+        Random random = new Random(1);
+        ImageProcessor[] images = new ImageProcessor[] {
+                new ByteProcessor(70, 50), new ShortProcessor(70, 50), new FloatProcessor(70, 50)};
+        for (int i = 0; i < 70 * 50; i++)
+        {
+            images[0].set(i, random.nextInt(256));
+            images[1].set(i, random.nextInt(65536));
+            images[2].setf(i, random.nextFloat() * 100);
+        }
+
+        for (int radius = 1; radius <= ShiftedRowsEngine.MAX_RADIUS; radius++)
+        {
+            SlidingDiskStrel strel = new SlidingDiskStrel(radius);
+            NaiveDiskStrel ref = new NaiveDiskStrel(radius);
+            ShiftedRowsEngine engine = new ShiftedRowsEngine(strel.xOffsets, strel.yOffsets, strel.xCenters);
+
+            for (ImageProcessor image : images)
+            {
+                assertSameImage(ref.dilation(image), engine.dilation(image));
+                assertSameImage(ref.erosion(image), engine.erosion(image));
+            }
+        }
+    }
+
+    /**
+     * Compares dilation and erosion of a 3D image with the results obtained
+     * with the naive ball.
+     */
+    @Test
+    public final void testDilationErosion_Ball()
+    {
+        ImageStack array = ImageStack.create(30, 25, 20, 8);
+        Random random = new Random(1);
+        for (int z = 1; z <= 20; z++)
+        {
+            for (int i = 0; i < 30 * 25; i++)
+            {
+                array.getProcessor(z).set(i, random.nextInt(256));
+            }
+        }
+
+        for (int radius = 1; radius <= 3; radius++)
+        {
+            SlidingBallStrel3D strel = new SlidingBallStrel3D(radius);
+            NaiveBallStrel3D ref = new NaiveBallStrel3D(radius);
+            ShiftedRowsEngine engine = new ShiftedRowsEngine(strel.xOffsets, strel.yOffsets, strel.zOffsets, strel.xCenters);
+
+            ImageStack exp = ref.dilation(array);
+            ImageStack res = engine.dilation(array);
+            for (int z = 1; z <= 20; z++)
+            {
+                assertSameImage(exp.getProcessor(z), res.getProcessor(z));
+            }
+
+            exp = ref.erosion(array);
+            res = engine.erosion(array);
+            for (int z = 1; z <= 20; z++)
+            {
+                assertSameImage(exp.getProcessor(z), res.getProcessor(z));
+            }
+        }
+    }
+
+    /**
+     * Checks that processing bands of rows with several threads, the bands
+     * not being aligned with slices, gives the same result as the naive ball.
+     */
+    @Test
+    public final void testDilationErosion_Threads()
+    {
+        ImageStack array = ImageStack.create(30, 25, 10, 32);
+        Random random = new Random(1);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 30 * 25; i++)
+            {
+                array.getProcessor(z).setf(i, random.nextFloat() * 100);
+            }
+        }
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(2);
+        NaiveBallStrel3D ref = new NaiveBallStrel3D(2);
+        ShiftedRowsEngine engine = new ShiftedRowsEngine(strel.xOffsets, strel.yOffsets, strel.zOffsets, strel.xCenters);
+        engine.setThreadCount(3);
+
+        ImageStack exp = ref.dilation(array);
+        ImageStack res = engine.dilation(array);
+        for (int z = 1; z <= 10; z++)
+        {
+            assertSameImage(exp.getProcessor(z), res.getProcessor(z));
+        }
+
+        exp = ref.erosion(array);
+        res = engine.erosion(array);
+        for (int z = 1; z <= 10; z++)
+        {
+            assertSameImage(exp.getProcessor(z), res.getProcessor(z));
+        }
+    }
+
+    private static final void assertSameImage(ImageProcessor exp, ImageProcessor res)
+    {
+        assertEquals(exp.getBitDepth(), res.getBitDepth());
+        for (int i = 0; i < exp.getPixelCount(); i++)
+        {
+            assertEquals(exp.getf(i), res.getf(i), 0.0);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * @author dlegland
+ *
+ */
+public class SliceWiseFilterTest
+{
+    /**
+     * Checks that each slice is identical to the result of the planar
+     * operation.
+     */
+    @Test
+    public final void testProcess_Closing()
+    {
+        Random random = new Random(12);
+        ImageStack stack = new ImageStack(40, 30);
+        for (int z = 0; z < 7; z++)
+        {
+            ImageProcessor slice = new ByteProcessor(40, 30);
+            for (int i = 0; i < 40 * 30; i++)
+            {
+                slice.set(i, random.nextInt(256));
+            }
+            stack.addSlice("slice" + z, slice);
+        }
+
+        SliceWiseFilter filter = new SliceWiseFilter(() -> new SlidingDiskStrel(7));
+        filter.setThreadCount(3);
+        ImageStack res = filter.process(stack, Operation.CLOSING);
+
+        assertEquals(7, res.getSize());
+        Strel strel = new SlidingDiskStrel(7);
+        for (int z = 0; z < 7; z++)
+        {
+            assertEquals("slice" + z, res.getSliceLabel(z + 1));
+            ImageProcessor exp = strel.closing(stack.getProcessor(z + 1));
+            ImageProcessor slice = res.getProcessor(z + 1);
+            for (int i = 0; i < 40 * 30; i++)
+            {
+                assertEquals(exp.get(i), slice.get(i));
+            }
+        }
+    }
+
+    /**
+     * Checks that a cancelled token stops the processing.
+     */
+    @Test(expected = CancellationException.class)
+    public final void testProcess_Cancelled()
+    {
+        ImageStack stack = ImageStack.create(20, 20, 5, 8);
+
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        SliceWiseFilter filter = new SliceWiseFilter(() -> new SlidingDiskStrel(3));
+        filter.setThreadCount(2);
+        filter.setCancellationToken(token);
+        filter.process(stack, Operation.DILATION);
+    }
+}
@@ -5,10 +5,14 @@ package net.ijt.mmorph.strel;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
 import org.junit.Test;
 
 import ij.ImageStack;
 import inra.ijpb.data.image.Images3D;
+import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel3D;
 
 /**
@@ -146,4 +150,375 @@ public class SlidingBallStrel3DTest
         assertEquals(255.0, result.getVoxel(10, 10, 11), .01);
     }
 
+    /**
+     * Checks that processing bands of rows in parallel gives the same result
+     * as processing within a single thread.
+     */
+    @Test
+    public final void testErosion_MultiThreaded()
+    {
+        ImageStack array = ImageStack.create(15, 12, 10, 8);
+        Random random = new Random(1);
+        for (int z = 0; z < 10; z++)
+        {
+            for (int y = 0; y < 12; y++)
+            {
+                for (int x = 0; x < 15; x++)
+                {
+                    array.setVoxel(x, y, z, random.nextInt(256));
+                }
+            }
+        }
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(6.0);
+        strel.setThreadCount(1);
+        ImageStack exp = strel.erosion(array);
+        strel.setThreadCount(3);
+        ImageStack res = strel.erosion(array);
+        
+        for (int z = 0; z < 10; z++)
+        {
+            for (int y = 0; y < 12; y++)
+            {
+                for (int x = 0; x < 15; x++)
+                {
+                    assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that processing by slabs of slices when memory is limited gives
+     * the same result as processing the whole image.
+     */
+    @Test
+    public final void testClosing_MemoryLimit()
+    {
+        ImageStack array = ImageStack.create(15, 12, 20, 8);
+        Random random = new Random(1);
+        for (int z = 0; z < 20; z++)
+        {
+            for (int y = 0; y < 12; y++)
+            {
+                for (int x = 0; x < 15; x++)
+                {
+                    array.setVoxel(x, y, z, random.nextInt(256));
+                }
+            }
+        }
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(6.0);
+        ImageStack exp = strel.closing(array);
+        
+        // enough memory for the result, but not for the intermediate image
+        strel.setMemoryLimit(15 * 12 * 20 * 3 / 2);
+        ImageStack res = strel.closing(array);
+        
+        assertEquals(20, res.getSize());
+        for (int z = 0; z < 20; z++)
+        {
+            for (int y = 0; y < 12; y++)
+            {
+                for (int x = 0; x < 15; x++)
+                {
+                    assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the result written into an existing image does not depend
+     * on its previous content.
+     */
+    @Test
+    public final void testErosion_Target()
+    {
+        ImageStack array = ImageStack.create(15, 12, 10, 32);
+        ImageStack target = ImageStack.create(15, 12, 10, 32);
+        Random random = new Random(1);
+        for (int z = 0; z < 10; z++)
+        {
+            for (int y = 0; y < 12; y++)
+            {
+                for (int x = 0; x < 15; x++)
+                {
+                    array.setVoxel(x, y, z, random.nextFloat());
+                    target.setVoxel(x, y, z, -1.0);
+                }
+            }
+        }
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(6.0);
+        ImageStack exp = strel.erosion(array);
+        ImageStack res = strel.erosion(array, target);
+
+        assertSame(target, res);
+        for (int z = 0; z < 10; z++)
+        {
+            for (int y = 0; y < 12; y++)
+            {
+                for (int x = 0; x < 15; x++)
+                {
+                    assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that images made of large flat zones give the same results as
+     * the naive implementation.
+     */
+    @Test
+    public final void testErosion_FlatZones()
+    {
+        for (int bitDepth : new int[] {8, 16})
+        {
+            ImageStack array = ImageStack.create(40, 20, 15, bitDepth);
+            for (int z = 0; z < 15; z++)
+            {
+                for (int y = 0; y < 20; y++)
+                {
+                    for (int x = 0; x < 40; x++)
+                    {
+                        double value = 200;
+                        if (x >= 12 && x < 30 && y >= 4 && z >= 3 && z < 11)
+                        {
+                            value = 50;
+                        }
+                        if (y == 17 && x % 3 == 0)
+                        {
+                            value = 10;
+                        }
+                        array.setVoxel(x, y, z, value);
+                    }
+                }
+            }
+
+            ImageStack exp = new NaiveBallStrel3D(6.0).erosion(array);
+            ImageStack res = new SlidingBallStrel3D(6.0).erosion(array);
+            for (int z = 0; z < 15; z++)
+            {
+                for (int y = 0; y < 20; y++)
+                {
+                    for (int x = 0; x < 40; x++)
+                    {
+                        assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the fused top-hats of 3D images against the difference of the
+     * image with its opening or closing.
+     */
+    @Test
+    public final void testTopHats()
+    {
+        Random random = new Random(49);
+        for (int bitDepth : new int[] {8, 16, 32})
+        {
+            ImageStack array = ImageStack.create(20, 15, 12, bitDepth);
+            for (int z = 0; z < 12; z++)
+            {
+                for (int y = 0; y < 15; y++)
+                {
+                    for (int x = 0; x < 20; x++)
+                    {
+                        array.setVoxel(x, y, z, bitDepth == 32 ? random.nextFloat() : random.nextInt(256));
+                    }
+                }
+            }
+
+            SlidingBallStrel3D strel = new SlidingBallStrel3D(6.0);
+            ImageStack opened = strel.opening(array);
+            ImageStack closed = strel.closing(array);
+            ImageStack white = strel.whiteTopHat(array);
+            ImageStack black = strel.blackTopHat(array);
+            for (int z = 0; z < 12; z++)
+            {
+                for (int y = 0; y < 15; y++)
+                {
+                    for (int x = 0; x < 20; x++)
+                    {
+                        double v = array.getVoxel(x, y, z);
+                        assertEquals((float) (v - opened.getVoxel(x, y, z)), white.getVoxel(x, y, z), 0.0);
+                        assertEquals((float) (closed.getVoxel(x, y, z) - v), black.getVoxel(x, y, z), 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the dilation of a single voxel by a ball with a half-integer
+     * radius contains only the voxels within the ball, for the sliding and the
+     * naive balls.
+     */
+    @Test
+    public final void testDilation_HalfIntegerRadius()
+    {
+        ImageStack array = ImageStack.create(9, 9, 9, 8);
+        array.setVoxel(4, 4, 4, 255.0);
+
+        // the ball contains the offsets with a squared norm up to (1.5+0.5)^2
+        for (Strel3D strel : new Strel3D[] {new SlidingBallStrel3D(1.5), new NaiveBallStrel3D(1.5)})
+        {
+            ImageStack result = strel.dilation(array);
+            int count = 0;
+            for (int z = 0; z < 9; z++)
+            {
+                for (int y = 0; y < 9; y++)
+                {
+                    for (int x = 0; x < 9; x++)
+                    {
+                        int dist2 = (x - 4) * (x - 4) + (y - 4) * (y - 4) + (z - 4) * (z - 4);
+                        assertEquals(dist2 <= 4 ? 255.0 : 0.0, result.getVoxel(x, y, z), 0.0);
+                        if (dist2 <= 4)
+                        {
+                            count++;
+                        }
+                    }
+                }
+            }
+            assertEquals(33, count);
+        }
+    }
+
+    /**
+     * Checks that the mask of a ball contains the voxels lying exactly on its
+     * boundary, for the sliding and the naive balls.
+     */
+    @Test
+    public final void testGetMask3D_Boundary()
+    {
+        // the ball contains the offsets with a squared norm up to (2.5+0.5)^2
+        for (Strel3D strel : new Strel3D[] {new SlidingBallStrel3D(2.5), new NaiveBallStrel3D(2.5)})
+        {
+            int[][][] mask = strel.getMask3D();
+            assertEquals(7, mask.length);
+            int count = 0;
+            for (int z = 0; z < 7; z++)
+            {
+                for (int y = 0; y < 7; y++)
+                {
+                    for (int x = 0; x < 7; x++)
+                    {
+                        int dist2 = (x - 3) * (x - 3) + (y - 3) * (y - 3) + (z - 3) * (z - 3);
+                        assertEquals(dist2 <= 9 ? 255 : 0, mask[z][y][x]);
+                        if (mask[z][y][x] > 0)
+                        {
+                            count++;
+                        }
+                    }
+                }
+            }
+            assertEquals(123, count);
+
+            // offset (1,2,2) has a norm of 3, but was missed by nested hypot calls
+            assertEquals(255, mask[5][5][4]);
+        }
+    }
+
+    /**
+     * Checks that the memory estimated for 8-bit images includes the local
+     * histograms, as 8-bit images are not necessarily binary.
+     */
+    @Test
+    public final void testEstimateMemory_Gray8()
+    {
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(8.0);
+        strel.setThreadCount(2);
+
+        // the result image, and one histogram and one cache of run ends per thread
+        long histogramBytes = 2 * (64L * strel.elementCount() + 4 * 17 * 17 * 50);
+        long bytes = strel.estimateMemory(Operation.DILATION, new int[] {50, 40, 30}, 8);
+        assertTrue(bytes >= 50 * 40 * 30 + histogramBytes);
+    }
+
+    /**
+     * Checks that binary images processed by a ball whose radius is the
+     * smallest one processed with a distance map give the same result as the
+     * bit-packed engine.
+     */
+    @Test
+    public final void testDilation_DistanceTransformThreshold()
+    {
+        Random random = new Random(27);
+        ImageStack image = ImageStack.create(40, 36, 32, 8);
+        for (int i = 0; i < 3; i++)
+        {
+            image.setVoxel(random.nextInt(40), random.nextInt(36), random.nextInt(32), 255);
+        }
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(AbstractSlidingStrel3D.DISTANCE_TRANSFORM_MIN_RADIUS);
+        assertEquals(AbstractSlidingStrel3D.DISTANCE_TRANSFORM_MIN_RADIUS, strel.chordRadius());
+        assertTrue(DistanceTransformBinaryEngine.squaredRadius(strel.xOffsets, strel.yOffsets, strel.zOffsets) >= 0);
+
+        BitPackedBinaryEngine engine = new BitPackedBinaryEngine(strel.xOffsets, strel.yOffsets, strel.zOffsets);
+        ImageStack exp = engine.dilation(image);
+        ImageStack res = strel.dilation(image);
+        ImageStack inverted = ImageStack.create(40, 36, 32, 8);
+        for (int z = 0; z < 32; z++)
+        {
+            for (int y = 0; y < 36; y++)
+            {
+                for (int x = 0; x < 40; x++)
+                {
+                    inverted.setVoxel(x, y, z, 255 - image.getVoxel(x, y, z));
+                }
+            }
+        }
+        ImageStack exp2 = engine.erosion(inverted);
+        ImageStack res2 = strel.erosion(inverted);
+        for (int z = 0; z < 32; z++)
+        {
+            for (int y = 0; y < 36; y++)
+            {
+                for (int x = 0; x < 40; x++)
+                {
+                    assertEquals(exp.getVoxel(x, y, z), res.getVoxel(x, y, z), 0.0);
+                    assertEquals(exp2.getVoxel(x, y, z), res2.getVoxel(x, y, z), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that operations are cancelled with the engines dedicated to
+     * small radii and to binary images.
+     */
+    @Test
+    public final void testDilation_CancelledEngines()
+    {
+        ImageStack gray = ImageStack.create(30, 25, 20, 8);
+        gray.setVoxel(15, 12, 10, 100);
+        ImageStack binary = ImageStack.create(30, 25, 20, 8);
+        binary.setVoxel(15, 12, 10, 255);
+        
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        
+        // shifted rows, bit-packed rows and distance map
+        ImageStack[] images = new ImageStack[] {gray, binary, binary};
+        double[] radii = new double[] {2, 4, AbstractSlidingStrel3D.DISTANCE_TRANSFORM_MIN_RADIUS};
+        for (int i = 0; i < images.length; i++)
+        {
+            SlidingBallStrel3D strel = new SlidingBallStrel3D(radii[i]);
+            strel.setCancellationToken(token);
+            try
+            {
+                strel.dilation(images[i]);
+                fail("Operation should be cancelled for radius " + radii[i]);
+            }
+            catch (CancellationException ex)
+            {
+                // expected
+            }
+        }
+    }
 }
@@ -5,10 +5,17 @@ package net.ijt.mmorph.strel;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
 import org.junit.Test;
 
 import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel;
 
 /**
@@ -130,4 +137,471 @@ public class SlidingDiskStrelTest
         assertEquals(255, result.get(15, 16));
     }
 
+
+    /**
+     * Checks that processing bands of rows in parallel gives the same result
+     * as processing within a single thread.
+     */
+    @Test
+    public final void testDilation_MultiThreaded()
+    {
+        ImageProcessor array = new FloatProcessor(50, 37);
+        Random random = new Random(1);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            array.setf(i, random.nextFloat());
+        }
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(7.0);
+        strel.setThreadCount(1);
+        ImageProcessor exp = strel.dilation(array);
+        strel.setThreadCount(4);
+        ImageProcessor res = strel.dilation(array);
+        
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            assertEquals(exp.getf(i), res.getf(i), 0.0);
+        }
+    }
+
+    /**
+     * Checks that a cancelled operation throws an exception.
+     */
+    @Test(expected = CancellationException.class)
+    public final void testDilation_Cancelled()
+    {
+        ImageProcessor array = new ByteProcessor(50, 40);
+        array.set(20, 20, 100);
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(8.0);
+        CancellationToken token = new CancellationToken();
+        strel.setCancellationToken(token);
+        token.cancel();
+        
+        strel.dilation(array);
+    }
+
+    /**
+     * Checks that processing by bands of rows when memory is limited gives
+     * the same result as processing the whole image.
+     */
+    @Test
+    public final void testClosing_MemoryLimit()
+    {
+        FloatProcessor array = new FloatProcessor(30, 25);
+        Random random = new Random(1);
+        for (int y = 0; y < 25; y++)
+        {
+            for (int x = 0; x < 30; x++)
+            {
+                array.setf(x, y, random.nextFloat());
+            }
+        }
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(7.0);
+        ImageProcessor exp = strel.closing(array);
+        
+        // enough memory for the result, but not for the intermediate image
+        long imageBytes = 30 * 25 * 4;
+        assertTrue(strel.estimateMemory(Operation.CLOSING, new int[] {30, 25}, 32) > 2 * imageBytes);
+        strel.setMemoryLimit(imageBytes + imageBytes / 2);
+        ImageProcessor res = strel.closing(array);
+        
+        for (int y = 0; y < 25; y++)
+        {
+            for (int x = 0; x < 30; x++)
+            {
+                assertEquals(exp.getf(x, y), res.getf(x, y), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Checks that an operation fails before processing when the result can
+     * not be allocated.
+     */
+    @Test(expected = RuntimeException.class)
+    public final void testDilation_NotEnoughMemory()
+    {
+        ImageProcessor array = new ByteProcessor(50, 40);
+        array.set(20, 20, 100);
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(8.0);
+        strel.setMemoryLimit(1000);
+        
+        strel.dilation(array);
+    }
+
+    /**
+     * Checks that each channel of a color image is processed as an 8-bit
+     * image.
+     */
+    @Test
+    public final void testDilation_Color()
+    {
+        Random random = new Random(3);
+        ColorProcessor array = new ColorProcessor(40, 30);
+        for (int i = 0; i < 40 * 30; i++)
+        {
+            array.set(i, random.nextInt(0x1000000));
+        }
+        
+        SlidingDiskStrel strel = new SlidingDiskStrel(7.0);
+        strel.setThreadCount(4);
+        ImageProcessor res = strel.dilation(array);
+        assertTrue(res instanceof ColorProcessor);
+        
+        byte[][] channels = new byte[3][40 * 30];
+        array.getRGB(channels[0], channels[1], channels[2]);
+        for (int c = 0; c < 3; c++)
+        {
+            ImageProcessor exp = strel.dilation(new ByteProcessor(40, 30, channels[c]));
+            int shift = 16 - 8 * c;
+            for (int i = 0; i < 40 * 30; i++)
+            {
+                assertEquals(exp.get(i), (res.get(i) >> shift) & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Checks the dilation of pixel arrays written into existing arrays, for
+     * the histogram and for the binary engines.
+     */
+    @Test
+    public final void testDilation_TargetArray()
+    {
+        Random random = new Random(4);
+        byte[] gray = new byte[40 * 30];
+        byte[] binary = new byte[40 * 30];
+        for (int i = 0; i < 40 * 30; i++)
+        {
+            gray[i] = (byte) random.nextInt(256);
+            binary[i] = random.nextInt(20) == 0 ? (byte) 255 : 0;
+        }
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(7.0);
+        for (byte[] pixels : new byte[][] {gray, binary})
+        {
+            ImageProcessor exp = strel.dilation(new ByteProcessor(40, 30, pixels));
+            byte[] target = new byte[40 * 30];
+            Arrays.fill(target, (byte) 17);
+            strel.dilation(pixels, 40, 30, target);
+            assertArrayEquals((byte[]) exp.getPixels(), target);
+        }
+    }
+
+    /**
+     * Checks that the result image can not share the pixels of the input.
+     */
+    @Test(expected = RuntimeException.class)
+    public final void testDilation_TargetSharingInput()
+    {
+        ImageProcessor array = new ByteProcessor(20, 20);
+        new SlidingDiskStrel(3.0).dilation(array, array);
+    }
+
+    /**
+     * Checks that images made of large flat zones, with zones touching the
+     * image borders, give the same results as the naive implementation.
+     */
+    @Test
+    public final void testDilation_FlatZones()
+    {
+        Random random = new Random(48);
+        ImageProcessor gray = new ByteProcessor(90, 60);
+        ImageProcessor floats = new FloatProcessor(90, 60);
+        for (int y = 0; y < 60; y++)
+        {
+            for (int x = 0; x < 90; x++)
+            {
+                // background, a saturated rectangle, and a noisy band
+                int value = 20;
+                if (x >= 30 && x < 70 && y >= 10 && y < 35)
+                {
+                    value = 255;
+                }
+                if (y >= 45 && y < 50)
+                {
+                    value = random.nextInt(256);
+                }
+                gray.set(x, y, value);
+                floats.setf(x, y, x < 45 ? -0.0f : value - 100.0f);
+            }
+        }
+
+        NaiveDiskStrel naive = new NaiveDiskStrel(7.0);
+        SlidingDiskStrel strel = new SlidingDiskStrel(7.0);
+        for (ImageProcessor image : new ImageProcessor[] {gray, floats})
+        {
+            ImageProcessor exp = naive.dilation(image);
+            ImageProcessor res = strel.dilation(image);
+            ImageProcessor exp2 = naive.erosion(image);
+            ImageProcessor res2 = strel.erosion(image);
+            for (int y = 0; y < 60; y++)
+            {
+                for (int x = 0; x < 90; x++)
+                {
+                    assertEquals(exp.getf(x, y), res.getf(x, y), 0.0);
+                    assertEquals(exp2.getf(x, y), res2.getf(x, y), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the fused top-hats against the difference of the image with
+     * its opening or closing, for grayscale, floating point, binary and
+     * color images.
+     */
+    @Test
+    public final void testTopHats()
+    {
+        Random random = new Random(49);
+        ImageProcessor gray = new ByteProcessor(50, 40);
+        ImageProcessor floats = new FloatProcessor(50, 40);
+        ImageProcessor binary = new ByteProcessor(50, 40);
+        ImageProcessor color = new ColorProcessor(50, 40);
+        for (int i = 0; i < 50 * 40; i++)
+        {
+            gray.set(i, random.nextInt(256));
+            floats.setf(i, (float) random.nextGaussian());
+            binary.set(i, random.nextInt(10) == 0 ? 255 : 0);
+            color.set(i, random.nextInt(0x1000000));
+        }
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(6.0);
+        for (ImageProcessor image : new ImageProcessor[] {gray, floats, binary, color})
+        {
+            ImageProcessor opened = strel.opening(image);
+            ImageProcessor closed = strel.closing(image);
+            ImageProcessor white = strel.whiteTopHat(image);
+            ImageProcessor black = strel.blackTopHat(image);
+            for (int i = 0; i < 50 * 40; i++)
+            {
+                if (image instanceof ColorProcessor)
+                {
+                    for (int shift = 0; shift < 24; shift += 8)
+                    {
+                        int v = (image.get(i) >> shift) & 0xFF;
+                        assertEquals(v - ((opened.get(i) >> shift) & 0xFF), (white.get(i) >> shift) & 0xFF);
+                        assertEquals(((closed.get(i) >> shift) & 0xFF) - v, (black.get(i) >> shift) & 0xFF);
+                    }
+                }
+                else
+                {
+                    assertEquals(image.getf(i) - opened.getf(i), white.getf(i), 0.0);
+                    assertEquals(closed.getf(i) - image.getf(i), black.getf(i), 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that a NaN value propagates to the dilation and the erosion of
+     * the pixels whose neighborhood contains it, for the hash map and the
+     * tree map histograms.
+     */
+    @Test
+    public final void testDilation_NaN()
+    {
+        Random random = new Random(38);
+        ImageProcessor image = new FloatProcessor(40, 40);
+        for (int i = 0; i < 40 * 40; i++)
+        {
+            image.setf(i, 1.0f + random.nextFloat() * 0.5f);
+        }
+        image.setf(10, 20, Float.NaN);
+        image.setf(30, 20, 3.0f);
+
+        for (Strel strel : new Strel[] {new SlidingDiskStrel(6.0), new SlidingDiskTMStrel(6.0)})
+        {
+            ImageProcessor dil = strel.dilation(image);
+            ImageProcessor ero = strel.erosion(image);
+            for (int y = 0; y < 40; y++)
+            {
+                for (int x = 0; x < 40; x++)
+                {
+                    int dist2 = (x - 10) * (x - 10) + (y - 20) * (y - 20);
+                    if (dist2 <= 25)
+                    {
+                        assertTrue(Float.isNaN(dil.getf(x, y)));
+                        assertTrue(Float.isNaN(ero.getf(x, y)));
+                    }
+                    else if (dist2 >= 64)
+                    {
+                        assertFalse(Float.isNaN(dil.getf(x, y)));
+                        assertTrue(ero.getf(x, y) >= 1.0f);
+                    }
+
+                    if ((x - 30) * (x - 30) + (y - 20) * (y - 20) <= 25)
+                    {
+                        assertEquals(3.0f, dil.getf(x, y), 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that windows mixing -0.0 and 0.0 values, that are different keys
+     * of the hash map histogram, do not leave values within the histogram
+     * once the window has moved away.
+     */
+    @Test
+    public final void testErosion_SignedZeros()
+    {
+        Random random = new Random(39);
+        ImageProcessor image = new FloatProcessor(60, 30);
+        for (int y = 0; y < 30; y++)
+        {
+            for (int x = 0; x < 60; x++)
+            {
+                if (x < 20)
+                {
+                    image.setf(x, y, (x + y) % 2 == 0 ? -0.0f : 0.0f);
+                }
+                else
+                {
+                    image.setf(x, y, 1.0f + random.nextFloat());
+                }
+            }
+        }
+
+        ImageProcessor ero = new SlidingDiskStrel(6.0).erosion(image);
+        for (int y = 0; y < 30; y++)
+        {
+            for (int x = 0; x < 60; x++)
+            {
+                if (x < 14)
+                {
+                    assertEquals(0.0f, ero.getf(x, y), 0.0);
+                }
+                else if (x >= 27)
+                {
+                    assertTrue(ero.getf(x, y) >= 1.0f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the dilation of a floating point image with only negative
+     * values, for the sliding and the naive disks.
+     */
+    @Test
+    public final void testDilation_NegativeFloat()
+    {
+        ImageProcessor image = new FloatProcessor(30, 30);
+        image.setValue(-5.0);
+        image.fill();
+        image.setf(15, 15, -1.0f);
+
+        for (Strel strel : new Strel[] {new SlidingDiskStrel(7.0), new NaiveDiskStrel(7.0)})
+        {
+            ImageProcessor result = strel.dilation(image);
+            for (int y = 0; y < 30; y++)
+            {
+                for (int x = 0; x < 30; x++)
+                {
+                    int dist2 = (x - 15) * (x - 15) + (y - 15) * (y - 15);
+                    if (dist2 <= 36)
+                    {
+                        assertEquals(-1.0f, result.getf(x, y), 0.0);
+                    }
+                    else if (dist2 >= 81)
+                    {
+                        assertEquals(-5.0f, result.getf(x, y), 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the memory estimated for 8-bit images includes the local
+     * histograms, as 8-bit images are not necessarily binary.
+     */
+    @Test
+    public final void testEstimateMemory_Gray8()
+    {
+        SlidingDiskStrel strel = new SlidingDiskStrel(10.0);
+        strel.setThreadCount(2);
+
+        // the result image, and one histogram and one cache of run ends per thread
+        long histogramBytes = 2 * (64L * strel.elementCount() + 4 * 21 * 200);
+        long bytes = strel.estimateMemory(Operation.DILATION, new int[] {200, 100}, 8);
+        assertTrue(bytes >= 200 * 100 + histogramBytes);
+    }
+
+    /**
+     * Checks that binary images processed by a disk whose radius is the
+     * smallest one processed with a distance map give the same result as the
+     * bit-packed engine.
+     */
+    @Test
+    public final void testDilation_DistanceTransformThreshold()
+    {
+        Random random = new Random(27);
+        ByteProcessor image = new ByteProcessor(700, 260);
+        for (int i = 0; i < 3; i++)
+        {
+            image.set(random.nextInt(700), random.nextInt(260), 255);
+        }
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(AbstractSlidingStrel.DISTANCE_TRANSFORM_MIN_RADIUS);
+        int[] zOffsets = new int[strel.xOffsets.length];
+        assertEquals(AbstractSlidingStrel.DISTANCE_TRANSFORM_MIN_RADIUS, strel.chordRadius());
+        assertTrue(DistanceTransformBinaryEngine.squaredRadius(strel.xOffsets, strel.yOffsets, zOffsets) >= 0);
+
+        BitPackedBinaryEngine engine = new BitPackedBinaryEngine(strel.xOffsets, strel.yOffsets);
+        ImageProcessor exp = engine.dilation(image);
+        ImageProcessor res = strel.dilation(image);
+        ByteProcessor inverted = new ByteProcessor(700, 260);
+        for (int i = 0; i < 700 * 260; i++)
+        {
+            inverted.set(i, 255 - image.get(i));
+        }
+        ImageProcessor exp2 = engine.erosion(inverted);
+        ImageProcessor res2 = strel.erosion(inverted);
+        for (int i = 0; i < 700 * 260; i++)
+        {
+            assertEquals(exp.get(i), res.get(i));
+            assertEquals(exp2.get(i), res2.get(i));
+        }
+    }
+
+    /**
+     * Checks that operations are cancelled with the engines dedicated to
+     * small radii and to binary images.
+     */
+    @Test
+    public final void testDilation_CancelledEngines()
+    {
+        ByteProcessor gray = new ByteProcessor(50, 40);
+        gray.set(20, 20, 100);
+        ByteProcessor binary = new ByteProcessor(50, 40);
+        binary.set(20, 20, 255);
+        
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        
+        // shifted rows, bit-packed rows and distance map
+        ImageProcessor[] images = new ImageProcessor[] {gray, binary, binary};
+        double[] radii = new double[] {2, 8, AbstractSlidingStrel.DISTANCE_TRANSFORM_MIN_RADIUS};
+        for (int i = 0; i < images.length; i++)
+        {
+            SlidingDiskStrel strel = new SlidingDiskStrel(radii[i]);
+            strel.setCancellationToken(token);
+            try
+            {
+                strel.dilation(images[i]);
+                fail("Operation should be cancelled for radius " + radii[i]);
+            }
+            catch (CancellationException ex)
+            {
+                // expected
+            }
+        }
+    }
 }
@@ -0,0 +1,64 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+
+/**
+ * @author dlegland
+ *
+ */
+public class SlidingEllipseStrelTest
+{
+    /**
+     * Checks that an ellipse with equal radii has the same chords as a disk.
+     */
+    @Test
+    public final void testChords_SameAsDisk()
+    {
+        for (double radius = 0; radius < 12; radius += 0.5)
+        {
+            SlidingDiskStrel disk = new SlidingDiskStrel(radius);
+            SlidingEllipseStrel strel = new SlidingEllipseStrel(radius, radius);
+
+            assertArrayEquals(disk.xOffsets, strel.xOffsets);
+            assertArrayEquals(disk.yOffsets, strel.yOffsets);
+        }
+    }
+
+    /**
+     * Test method for {@link net.ijt.mmorph.strel.SlidingEllipseStrel#dilation(ij.process.ImageProcessor)}.
+     */
+    @Test
+    public final void testDilation()
+    {
+        // create empty image with a single bright pixel
+        ImageProcessor array = new ByteProcessor(30, 20);
+        array.set(15, 10, 200);
+
+        // create the strel
+        Strel strel = new SlidingEllipseStrel(8.0, 3.0);
+
+        // compute dilation
+        ImageProcessor result = strel.dilation(array);
+
+        // check values
+        assertEquals(200, result.get(15, 10));
+        assertEquals(200, result.get( 7, 10));
+        assertEquals(200, result.get(23, 10));
+        assertEquals(200, result.get(15,  7));
+        assertEquals(200, result.get(15, 13));
+        assertEquals(  0, result.get( 6, 10));
+        assertEquals(  0, result.get(24, 10));
+        assertEquals(  0, result.get(15,  6));
+        assertEquals(  0, result.get(15, 14));
+        assertEquals(  0, result.get( 7,  7));
+    }
+}
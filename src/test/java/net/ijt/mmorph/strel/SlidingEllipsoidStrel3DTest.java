@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.measure.Calibration;
+import inra.ijpb.morphology.Strel3D;
+
+/**
+ * @author dlegland
+ *
+ */
+public class SlidingEllipsoidStrel3DTest
+{
+    /**
+     * Checks that an ellipsoid with equal radii has the same chords as a ball.
+     */
+    @Test
+    public final void testChords_SameAsBall()
+    {
+        for (int radius = 0; radius < 8; radius++)
+        {
+            SlidingBallStrel3D ball = new SlidingBallStrel3D(radius);
+            SlidingEllipsoidStrel3D strel = new SlidingEllipsoidStrel3D(radius, radius, radius);
+
+            assertArrayEquals(ball.xOffsets, strel.xOffsets);
+            assertArrayEquals(ball.yOffsets, strel.yOffsets);
+            assertArrayEquals(ball.zOffsets, strel.zOffsets);
+        }
+    }
+
+    /**
+     * Test method for {@link net.ijt.mmorph.strel.SlidingEllipsoidStrel3D#fromCalibration(ij.measure.Calibration, double)}.
+     */
+    @Test
+    public final void testDilation_FromCalibration()
+    {
+        // create empty image with a single bright pixel
+        ImageStack array = ImageStack.create(20, 20, 20, 8);
+        array.setVoxel(10, 10, 10, 200.0);
+
+        // voxels twice as thick in z direction
+        Calibration calib = new Calibration();
+        calib.pixelWidth = 0.5;
+        calib.pixelHeight = 0.5;
+        calib.pixelDepth = 1.0;
+
+        // create the strel
+        Strel3D strel = SlidingEllipsoidStrel3D.fromCalibration(calib, 3.0);
+        assertArrayEquals(new int[] {6, 6, 3}, strel.getOffset());
+
+        // compute dilation
+        ImageStack result = strel.dilation(array);
+
+        // check values
+        assertEquals(200.0, result.getVoxel(10, 10, 10), .01);
+        assertEquals(200.0, result.getVoxel( 4, 10, 10), .01);
+        assertEquals(200.0, result.getVoxel(16, 10, 10), .01);
+        assertEquals(200.0, result.getVoxel(10,  4, 10), .01);
+        assertEquals(200.0, result.getVoxel(10, 16, 10), .01);
+        assertEquals(200.0, result.getVoxel(10, 10,  7), .01);
+        assertEquals(200.0, result.getVoxel(10, 10, 13), .01);
+        assertEquals(  0.0, result.getVoxel( 3, 10, 10), .01);
+        assertEquals(  0.0, result.getVoxel(10, 10,  6), .01);
+        assertEquals(  0.0, result.getVoxel(10, 10, 14), .01);
+    }
+}
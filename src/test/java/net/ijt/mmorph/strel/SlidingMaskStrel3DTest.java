@@ -0,0 +1,152 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import inra.ijpb.morphology.Strel3D;
+import inra.ijpb.morphology.strel.LinearDepthStrel3D;
+import inra.ijpb.morphology.strel.LinearHorizontalStrel;
+
+/**
+ * @author dlegland
+ *
+ */
+public class SlidingMaskStrel3DTest
+{
+    /**
+     * Checks that the conversion of a ball gives the same results.
+     */
+    @Test
+    public final void testDilation_SameAsBall()
+    {
+        ImageStack array = ImageStack.create(20, 15, 10, 8);
+        Random random = new Random(1);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 20 * 15; i++)
+            {
+                array.getProcessor(z).set(i, random.nextInt(256));
+            }
+        }
+
+        Strel3D ball = new SlidingBallStrel3D(2.0);
+        Strel3D strel = new SlidingMaskStrel3D(ball);
+
+        ImageStack exp = ball.dilation(array);
+        ImageStack res = strel.dilation(array);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 20 * 15; i++)
+            {
+                assertEquals(exp.getProcessor(z).get(i), res.getProcessor(z).get(i));
+            }
+        }
+    }
+
+    /**
+     * Dilation by a non convex structuring element not centered on its
+     * reference voxel.
+     */
+    @Test
+    public final void testDilation_NonConvex()
+    {
+        // create empty image with a single bright voxel
+        ImageStack array = ImageStack.create(10, 10, 10, 8);
+        array.setVoxel(5, 5, 5, 200.0);
+
+        // two voxels with a gap in the first slice, one voxel in the second
+        int[][][] mask = new int[][][] {{{255, 0, 255}}, {{0, 255, 0}}};
+        Strel3D strel = new SlidingMaskStrel3D(mask, new int[] {0, 0, 0});
+
+        ImageStack result = strel.dilation(array);
+
+        assertEquals(200.0, result.getVoxel(5, 5, 5), .01);
+        assertEquals(200.0, result.getVoxel(3, 5, 5), .01);
+        assertEquals(  0.0, result.getVoxel(4, 5, 5), .01);
+        assertEquals(200.0, result.getVoxel(4, 5, 4), .01);
+        assertEquals(  0.0, result.getVoxel(5, 5, 4), .01);
+        assertEquals(  0.0, result.getVoxel(3, 5, 4), .01);
+    }
+
+    /**
+     * Checks that the conversion of a MorphoLibJ line along the z-axis whose
+     * reference voxel is not centered gives the same results as MorphoLibJ.
+     */
+    @Test
+    public final void testDilationErosion_ShiftedLine()
+    {
+        ImageStack array = ImageStack.create(20, 15, 10, 8);
+        Random random = new Random(29);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 20 * 15; i++)
+            {
+                array.getProcessor(z).set(i, random.nextInt(256));
+            }
+        }
+
+        Strel3D line = new LinearDepthStrel3D(4, 1);
+        Strel3D strel = new SlidingMaskStrel3D(line);
+
+        ImageStack exp = line.dilation(array);
+        ImageStack res = strel.dilation(array);
+        ImageStack exp2 = line.erosion(array);
+        ImageStack res2 = strel.erosion(array);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 20 * 15; i++)
+            {
+                assertEquals(exp.getProcessor(z).get(i), res.getProcessor(z).get(i));
+                assertEquals(exp2.getProcessor(z).get(i), res2.getProcessor(z).get(i));
+            }
+        }
+    }
+
+    /**
+     * Checks an "L"-shaped structuring element whose reference voxel is the
+     * corner, against the union of the two MorphoLibJ lines forming its arms.
+     */
+    @Test
+    public final void testDilationErosion_LShaped()
+    {
+        ImageStack array = ImageStack.create(20, 15, 10, 8);
+        Random random = new Random(30);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 20 * 15; i++)
+            {
+                array.getProcessor(z).set(i, random.nextInt(256));
+            }
+        }
+
+        // arm along z before the reference voxel, arm along x after it
+        int[][][] mask = new int[][][] {{{255, 0, 0}}, {{255, 0, 0}}, {{255, 255, 255}}};
+        Strel3D strel = new SlidingMaskStrel3D(mask, new int[] {0, 0, 2});
+        Strel3D horizontal = new LinearHorizontalStrel(3, 0);
+        Strel3D depth = new LinearDepthStrel3D(3, 2);
+
+        ImageStack dilH = horizontal.dilation(array);
+        ImageStack dilD = depth.dilation(array);
+        ImageStack eroH = horizontal.erosion(array);
+        ImageStack eroD = depth.erosion(array);
+        ImageStack res = strel.dilation(array);
+        ImageStack res2 = strel.erosion(array);
+        for (int z = 1; z <= 10; z++)
+        {
+            for (int i = 0; i < 20 * 15; i++)
+            {
+                int dil = Math.max(dilH.getProcessor(z).get(i), dilD.getProcessor(z).get(i));
+                int ero = Math.min(eroH.getProcessor(z).get(i), eroD.getProcessor(z).get(i));
+                assertEquals(dil, res.getProcessor(z).get(i));
+                assertEquals(ero, res2.getProcessor(z).get(i));
+            }
+        }
+    }
+}
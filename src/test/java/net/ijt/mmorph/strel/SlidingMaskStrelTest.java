@@ -0,0 +1,195 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.strel.LinearHorizontalStrel;
+import inra.ijpb.morphology.strel.LinearVerticalStrel;
+
+/**
+ * @author dlegland
+ *
+ */
+public class SlidingMaskStrelTest
+{
+    /**
+     * Checks that the conversion of a disk gives the same results.
+     */
+    @Test
+    public final void testDilationErosion_SameAsDisk()
+    {
+        ImageProcessor array = new ByteProcessor(40, 30);
+        Random random = new Random(1);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            array.set(i, random.nextInt(256));
+        }
+
+        Strel disk = new SlidingDiskStrel(4.0);
+        Strel strel = new SlidingMaskStrel(disk);
+
+        ImageProcessor exp = disk.dilation(array);
+        ImageProcessor res = strel.dilation(array);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            assertEquals(exp.get(i), res.get(i));
+        }
+
+        exp = disk.erosion(array);
+        res = strel.erosion(array);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            assertEquals(exp.get(i), res.get(i));
+        }
+    }
+
+    /**
+     * Dilation by a structuring element with two runs on the same row.
+     */
+    @Test
+    public final void testDilation_NonConvex()
+    {
+        // create empty image with a single bright pixel
+        ImageProcessor array = new ByteProcessor(20, 10);
+        array.set(10, 5, 200);
+
+        // two pixels on each side of the center
+        int[][] mask = new int[][] {{255, 255, 0, 0, 0, 255, 255}};
+        Strel strel = new SlidingMaskStrel(mask, new int[] {3, 0});
+
+        ImageProcessor result = strel.dilation(array);
+
+        assertEquals(  0, result.get( 6, 5));
+        assertEquals(200, result.get( 7, 5));
+        assertEquals(200, result.get( 8, 5));
+        assertEquals(  0, result.get( 9, 5));
+        assertEquals(  0, result.get(10, 5));
+        assertEquals(  0, result.get(11, 5));
+        assertEquals(200, result.get(12, 5));
+        assertEquals(200, result.get(13, 5));
+        assertEquals(  0, result.get(14, 5));
+    }
+
+    /**
+     * Dilation of a binary image by a structuring element whose reference
+     * pixel is not centered.
+     */
+    @Test
+    public final void testDilation_Binary_NotCentered()
+    {
+        // create binary image with a single pixel close to the border
+        ImageProcessor array = new ByteProcessor(10, 5);
+        array.set(0, 2, 255);
+
+        // horizontal segment with reference on the left
+        int[][] mask = new int[][] {{255, 255, 255, 255}};
+        Strel strel = new SlidingMaskStrel(mask, new int[] {0, 0});
+
+        ImageProcessor result = strel.dilation(array);
+        assertEquals(255, result.get(0, 2));
+        assertEquals(  0, result.get(1, 2));
+
+        // reversed segment
+        result = strel.reverse().dilation(array);
+        assertEquals(255, result.get(0, 2));
+        assertEquals(255, result.get(3, 2));
+        assertEquals(  0, result.get(4, 2));
+    }
+
+    /**
+     * Test method for {@link net.ijt.mmorph.strel.SlidingMaskStrel#closing(ij.process.ImageProcessor)}.
+     */
+    @Test
+    public final void testClosing_NotCentered()
+    {
+        ImageProcessor array = new ByteProcessor(30, 20);
+        Random random = new Random(1);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            array.set(i, random.nextInt(256));
+        }
+
+        // an "L"-shaped structuring element
+        int[][] mask = new int[][] {{255, 0, 0}, {255, 0, 0}, {255, 255, 255}};
+        Strel strel = new SlidingMaskStrel(mask, new int[] {0, 0});
+
+        // closing is extensive
+        ImageProcessor result = strel.closing(array);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            assertTrue(result.get(i) >= array.get(i));
+        }
+    }
+
+    /**
+     * Checks that the conversion of MorphoLibJ lines whose reference pixel is
+     * not centered gives the same results as MorphoLibJ.
+     */
+    @Test
+    public final void testDilationErosion_ShiftedLine()
+    {
+        ImageProcessor array = new ByteProcessor(40, 30);
+        Random random = new Random(29);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            array.set(i, random.nextInt(256));
+        }
+
+        for (Strel line : new Strel[] {new LinearHorizontalStrel(5, 1), new LinearVerticalStrel(4, 3)})
+        {
+            Strel strel = new SlidingMaskStrel(line);
+
+            ImageProcessor exp = line.dilation(array);
+            ImageProcessor res = strel.dilation(array);
+            ImageProcessor exp2 = line.erosion(array);
+            ImageProcessor res2 = strel.erosion(array);
+            for (int i = 0; i < array.getPixelCount(); i++)
+            {
+                assertEquals(exp.get(i), res.get(i));
+                assertEquals(exp2.get(i), res2.get(i));
+            }
+        }
+    }
+
+    /**
+     * Checks an "L"-shaped structuring element whose reference pixel is the
+     * corner, against the union of the two MorphoLibJ lines forming its arms.
+     */
+    @Test
+    public final void testDilationErosion_LShaped()
+    {
+        ImageProcessor array = new ByteProcessor(40, 30);
+        Random random = new Random(30);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            array.set(i, random.nextInt(256));
+        }
+
+        // vertical arm above the reference pixel, horizontal arm on its right
+        int[][] mask = new int[][] {{255, 0, 0, 0}, {255, 0, 0, 0}, {255, 255, 255, 255}};
+        Strel strel = new SlidingMaskStrel(mask, new int[] {0, 2});
+        Strel horizontal = new LinearHorizontalStrel(4, 0);
+        Strel vertical = new LinearVerticalStrel(3, 2);
+
+        ImageProcessor dilH = horizontal.dilation(array);
+        ImageProcessor dilV = vertical.dilation(array);
+        ImageProcessor eroH = horizontal.erosion(array);
+        ImageProcessor eroV = vertical.erosion(array);
+        ImageProcessor res = strel.dilation(array);
+        ImageProcessor res2 = strel.erosion(array);
+        for (int i = 0; i < array.getPixelCount(); i++)
+        {
+            assertEquals(Math.max(dilH.get(i), dilV.get(i)), res.get(i));
+            assertEquals(Math.min(eroH.get(i), eroV.get(i)), res2.get(i));
+        }
+    }
+}
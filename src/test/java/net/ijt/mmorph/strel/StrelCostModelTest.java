@@ -0,0 +1,118 @@
+/**
+ * 
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.ijt.mmorph.strel.StrelCostModel.Engine;
+
+/**
+ * @author dlegland
+ *
+ */
+public class StrelCostModelTest
+{
+    /**
+     * Creates a model with the same coefficients in 2D and 3D: sliding
+     * elements are cheap per chord, naive elements cheap per element, and
+     * the native implementation has a large intercept.
+     */
+    private static final StrelCostModel createModel()
+    {
+        StrelCostModel model = new StrelCostModel();
+        for (int nDims = 2; nDims <= 3; nDims++)
+        {
+            for (int bitDepth : new int[] {8, 32})
+            {
+                model.setCoefficients(StrelCostModel.SHIFTED_ROWS, nDims, bitDepth, 1.0, 0.1);
+                model.setCoefficients(StrelCostModel.HISTOGRAM, nDims, bitDepth, 5.0, 1.0);
+                model.setCoefficients(StrelCostModel.NAIVE, nDims, bitDepth, 0.0, 0.5);
+                model.setCoefficients(StrelCostModel.NATIVE, nDims, bitDepth, 40.0, 0.5);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Checks the choice of the engine depending on the radius.
+     */
+    @Test
+    public final void testSelectEngine()
+    {
+        StrelCostModel model = createModel();
+        int[] dims = new int[] {512, 512};
+        
+        assertEquals(Engine.SLIDING, model.selectEngine(dims, 8, 2, 1));
+        assertEquals(Engine.SLIDING, model.selectEngine(dims, 8, 20, 1));
+        
+        // shifted rows are processed by bands of rows, like local histograms
+        double time = model.estimateTime(Engine.SLIDING, dims, 8, 5, 1);
+        assertEquals(time / 4, model.estimateTime(Engine.SLIDING, dims, 8, 5, 4), 1e-10 * time);
+        assertEquals(Engine.SLIDING, model.selectEngine(dims, 8, 5, 64));
+    }
+
+    /**
+     * Checks that engines unable to process an image are never selected.
+     */
+    @Test
+    public final void testSelectEngine_Unsupported()
+    {
+        StrelCostModel model = createModel();
+        int[] dims = new int[] {512, 512};
+        
+        assertEquals(Engine.NATIVE, model.selectEngine(new int[] {64, 64, 64}, 24, 2, 1));
+        assertEquals(Double.POSITIVE_INFINITY, model.estimateTime(Engine.NAIVE, dims, 24, 2, 1), 0.0);
+        assertNotEquals(Engine.SLIDING, model.selectEngine(dims, 16, 10, 1));
+        assertEquals(Double.POSITIVE_INFINITY, model.estimateTime(Engine.SLIDING, dims, 16, 10, 1), 0.0);
+    }
+
+    /**
+     * Checks that planar color images are modeled as three 8-bits images.
+     */
+    @Test
+    public final void testEstimateTime_Color()
+    {
+        StrelCostModel model = createModel();
+        int[] dims = new int[] {512, 512};
+        
+        assertEquals(Engine.SLIDING, model.selectEngine(dims, 24, 2, 1));
+        assertEquals(Engine.SLIDING, model.selectEngine(dims, 24, 20, 1));
+        for (Engine engine : new Engine[] {Engine.SLIDING, Engine.NATIVE})
+        {
+            for (double radius : new double[] {2, 20})
+            {
+                double time = model.estimateTime(engine, dims, 8, radius, 1);
+                assertEquals(3 * time, model.estimateTime(engine, dims, 24, radius, 1), 1e-10 * time);
+            }
+        }
+        
+        // the channels are processed by bands of rows
+        double time = model.estimateTime(Engine.SLIDING, dims, 24, 2, 1);
+        assertEquals(time / 4, model.estimateTime(Engine.SLIDING, dims, 24, 2, 4), 1e-10 * time);
+    }
+
+    /**
+     * Checks that the string representation can be parsed.
+     */
+    @Test
+    public final void testParse()
+    {
+        StrelCostModel model = createModel();
+        StrelCostModel model2 = StrelCostModel.parse(model.toString());
+        
+        assertArrayEquals(model.coefs, model2.coefs, 1e-10);
+    }
+    
+    /**
+     * Checks that strings with a wrong version are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void testParse_WrongVersion()
+    {
+        String text = createModel().toString();
+        StrelCostModel.parse("0" + text.substring(text.indexOf(',')));
+    }
+}
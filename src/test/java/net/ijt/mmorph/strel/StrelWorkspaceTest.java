@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package net.ijt.mmorph.strel;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * @author dlegland
+ *
+ */
+public class StrelWorkspaceTest
+{
+    /**
+     * Checks that repeated closings using the same workspace and the same
+     * target give the same results as without workspace, for grayscale,
+     * binary and color images.
+     */
+    @Test
+    public final void testClosing_Repeated()
+    {
+        Random random = new Random(21);
+        ImageProcessor gray = new ByteProcessor(50, 40);
+        ImageProcessor binary = new ByteProcessor(50, 40);
+        ImageProcessor color = new ColorProcessor(50, 40);
+        for (int i = 0; i < 50 * 40; i++)
+        {
+            gray.set(i, random.nextInt(256));
+            binary.set(i, random.nextInt(15) == 0 ? 255 : 0);
+            color.set(i, random.nextInt(0x1000000));
+        }
+
+        SlidingDiskStrel strel = new SlidingDiskStrel(8.0);
+        SlidingDiskStrel strel2 = new SlidingDiskStrel(8.0);
+        strel2.setThreadCount(3);
+        strel2.setWorkspace(new StrelWorkspace());
+        for (ImageProcessor image : new ImageProcessor[] {gray, binary, color})
+        {
+            ImageProcessor exp = strel.closing(image);
+            ImageProcessor target = image.createProcessor(50, 40);
+            for (int iter = 0; iter < 3; iter++)
+            {
+                ImageProcessor res = strel2.closing(image, target);
+                assertSame(target, res);
+                for (int i = 0; i < 50 * 40; i++)
+                {
+                    assertEquals(exp.get(i), res.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the histograms and intermediate images are reused by
+     * successive operations on images with the same size.
+     */
+    @Test
+    public final void testOpening_ReusesBuffers()
+    {
+        ImageProcessor image = new ByteProcessor(30, 30);
+        for (int i = 0; i < 30 * 30; i++)
+        {
+            image.set(i, (i * 37) % 256);
+        }
+
+        StrelWorkspace workspace = new StrelWorkspace();
+        SlidingDiskStrel strel = new SlidingDiskStrel(7.0);
+        strel.setThreadCount(1);
+        strel.setWorkspace(workspace);
+        strel.opening(image);
+
+        LocalHistogramUInt8 histo = workspace.histogramUInt8(0, 1, 0);
+        ImageProcessor eroded = workspace.image(0, image);
+        strel.opening(image);
+        assertSame(histo, workspace.histogramUInt8(0, 1, 0));
+        assertSame(eroded, workspace.image(0, image));
+    }
+
+    /**
+     * Checks the closing of a 3D image computed with a workspace.
+     */
+    @Test
+    public final void testClosing_Stack()
+    {
+        Random random = new Random(22);
+        ImageStack image = ImageStack.create(20, 15, 12, 32);
+        for (int z = 0; z < 12; z++)
+        {
+            for (int y = 0; y < 15; y++)
+            {
+                for (int x = 0; x < 20; x++)
+                {
+                    image.setVoxel(x, y, z, random.nextFloat());
+                }
+            }
+        }
+
+        SlidingBallStrel3D strel = new SlidingBallStrel3D(6.0);
+        ImageStack exp = strel.closing(image);
+
+        SlidingBallStrel3D strel2 = new SlidingBallStrel3D(6.0);
+        strel2.setWorkspace(new StrelWorkspace());
+        ImageStack target = ImageStack.create(20, 15, 12, 32);
+        for (int iter = 0; iter < 2; iter++)
+        {
+            strel2.closing(image, target);
+            for (int z = 0; z < 12; z++)
+            {
+                for (int y = 0; y < 15; y++)
+                {
+                    for (int x = 0; x < 20; x++)
+                    {
+                        assertEquals(exp.getVoxel(x, y, z), target.getVoxel(x, y, z), 0.0);
+                    }
+                }
+            }
+        }
+    }
+}